@@ -21,6 +21,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 import java.math.BigInteger;
+import java.util.BitSet;
 import com.google.common.base.Preconditions;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -74,6 +75,46 @@ public class NativeSecp256k1 {
         }
     }
 
+    /**
+     * Verifies a batch of secp256k1 signatures in native code, the i-th signature against the i-th data and public key.
+     * The read lock and the thread local buffer are taken once for the whole batch rather than once per signature.
+     * Calling when enabled == false is undefined (probably library not loaded)
+     *
+     * @param data The data which was signed, each must be exactly 32 bytes
+     * @param signatures The signatures
+     * @param pubs The public keys which did the signing
+     * @return a bitmap with bit i set if the i-th signature is valid
+     */
+    public static BitSet verifyBatch(byte[][] data, byte[][] signatures, byte[][] pubs) throws AssertFailException {
+        Preconditions.checkArgument(data.length == signatures.length && data.length == pubs.length);
+        for (int i = 0; i < data.length; i++)
+            Preconditions.checkArgument(data[i].length == 32 && signatures[i].length <= 520 && pubs[i].length <= 520);
+
+        ByteBuffer byteBuff = nativeECDSABuffer.get();
+        if (byteBuff == null || byteBuff.capacity() < 520) {
+            byteBuff = ByteBuffer.allocateDirect(520);
+            byteBuff.order(ByteOrder.nativeOrder());
+            nativeECDSABuffer.set(byteBuff);
+        }
+
+        BitSet result = new BitSet(data.length);
+        r.lock();
+        try {
+            long context = Secp256k1Context.getContext();
+            for (int i = 0; i < data.length; i++) {
+                byteBuff.rewind();
+                byteBuff.put(data[i]);
+                byteBuff.put(signatures[i]);
+                byteBuff.put(pubs[i]);
+                if (secp256k1_ecdsa_verify(byteBuff, context, signatures[i].length, pubs[i].length) == 1)
+                    result.set(i);
+            }
+        } finally {
+            r.unlock();
+        }
+        return result;
+    }
+
     /**
      * libsecp256k1 Create an ECDSA signature.
      *
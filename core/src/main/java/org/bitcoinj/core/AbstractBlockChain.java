@@ -106,23 +106,12 @@ public abstract class AbstractBlockChain {
     private final CopyOnWriteArrayList<ListenerRegistration<ReorganizeListener>> reorganizeListeners;
     private final CopyOnWriteArrayList<ListenerRegistration<TransactionReceivedInBlockListener>> transactionReceivedListeners;
 
-    // Holds a block header and, optionally, a list of tx hashes or block's transactions
-    class OrphanBlock {
-        final Block block;
-        final List<Sha256Hash> filteredTxHashes;
-        final Map<Sha256Hash, Transaction> filteredTxn;
-        OrphanBlock(Block block, @Nullable List<Sha256Hash> filteredTxHashes, @Nullable Map<Sha256Hash, Transaction> filteredTxn) {
-            final boolean filtered = filteredTxHashes != null && filteredTxn != null;
-            Preconditions.checkArgument((block.transactions == null && filtered)
-                                        || (block.transactions != null && !filtered));
-            this.block = block;
-            this.filteredTxHashes = filteredTxHashes;
-            this.filteredTxn = filteredTxn;
-        }
-    }
+    /** The default limit on the estimated memory used by orphan blocks, see {@link #setMaxOrphanBytes(long)}. */
+    public static final long DEFAULT_MAX_ORPHAN_BYTES = 32 * 1024 * 1024;
+
     // Holds blocks that we have received but can't plug into the chain yet, eg because they were created whilst we
     // were downloading the block chain.
-    private final LinkedHashMap<Sha256Hash, OrphanBlock> orphanBlocks = new LinkedHashMap<>();
+    private final OrphanBlockPool orphanBlocks = new OrphanBlockPool(DEFAULT_MAX_ORPHAN_BYTES);
 
     /** False positive estimation uses a double exponential moving average. */
     public static final double FP_ESTIMATOR_ALPHA = 0.0001;
@@ -429,12 +418,11 @@ public abstract class AbstractBlockChain {
         // TODO: Use read/write locks to ensure that during chain download properties are still low latency.
         lock.lock();
         try {
-            // Quick check for duplicates to avoid an expensive check further down (in findSplit). This can happen a lot
-            // when connecting orphan transactions due to the dumb brute force algorithm we use.
+            // Quick check for duplicates to avoid an expensive check further down (in findSplit).
             if (block.equals(getChainHead().getHeader())) {
                 return true;
             }
-            if (tryConnecting && orphanBlocks.containsKey(block.getHash())) {
+            if (tryConnecting && orphanBlocks.contains(block.getHash())) {
                 return false;
             }
 
@@ -481,7 +469,7 @@ public abstract class AbstractBlockChain {
                 // have more blocks.
                 checkState(tryConnecting, "bug in tryConnectingOrphans");
                 log.warn("Block does not connect: {} prev {}", block.getHashAsString(), block.getPrevBlockHash());
-                orphanBlocks.put(block.getHash(), new OrphanBlock(block, filteredTxHashList, filteredTxn));
+                orphanBlocks.add(new OrphanBlockPool.OrphanBlock(block, filteredTxHashList, filteredTxn));
                 return false;
             } else {
                 checkState(lock.isHeldByCurrentThread());
@@ -491,7 +479,7 @@ public abstract class AbstractBlockChain {
             }
 
             if (tryConnecting)
-                tryConnectingOrphans();
+                tryConnectingOrphans(block.getHash());
 
             return true;
         } finally {
@@ -507,9 +495,7 @@ public abstract class AbstractBlockChain {
     public Set<Sha256Hash> drainOrphanBlocks() {
         lock.lock();
         try {
-            Set<Sha256Hash> hashes = new HashSet<>(orphanBlocks.keySet());
-            orphanBlocks.clear();
-            return hashes;
+            return orphanBlocks.drain();
         } finally {
             lock.unlock();
         }
@@ -844,14 +830,18 @@ public abstract class AbstractBlockChain {
         //         \--> E -> F -> G
         //
         // findSplit will return block B. oldChainHead = D and newChainHead = G.
+        //
+        // First bring the higher cursor down to the height of the lower one in one step, which is cheap with an
+        // IndexedBlockStore, then walk both back together.
+        if (currentChainCursor.getHeight() > newChainCursor.getHeight())
+            currentChainCursor = checkNotNull(currentChainCursor.getAncestor(store, newChainCursor.getHeight()),
+                    "Attempt to follow an orphan chain");
+        else if (newChainCursor.getHeight() > currentChainCursor.getHeight())
+            newChainCursor = checkNotNull(newChainCursor.getAncestor(store, currentChainCursor.getHeight()),
+                    "Attempt to follow an orphan chain");
         while (!currentChainCursor.equals(newChainCursor)) {
-            if (currentChainCursor.getHeight() > newChainCursor.getHeight()) {
-                currentChainCursor = currentChainCursor.getPrev(store);
-                checkNotNull(currentChainCursor, "Attempt to follow an orphan chain");
-            } else {
-                newChainCursor = newChainCursor.getPrev(store);
-                checkNotNull(newChainCursor, "Attempt to follow an orphan chain");
-            }
+            currentChainCursor = checkNotNull(currentChainCursor.getPrev(store), "Attempt to follow an orphan chain");
+            newChainCursor = checkNotNull(newChainCursor.getPrev(store), "Attempt to follow an orphan chain");
         }
         return currentChainCursor;
     }
@@ -874,9 +864,16 @@ public abstract class AbstractBlockChain {
                                                    List<Transaction> transactions,
                                                    boolean clone,
                                                    Set<Sha256Hash> falsePositives) throws VerificationException {
+        // Wallets can cheaply rule out most transactions of a big block up front, in parallel.
+        Predicate<Transaction> mayBeRelevant = listener instanceof Wallet ?
+                ((Wallet) listener).getBlockRelevanceFilter(transactions) : Predicates.<Transaction>alwaysTrue();
         for (Transaction tx : transactions) {
             try {
                 falsePositives.remove(tx.getHash());
+                if (!mayBeRelevant.apply(tx)) {
+                    relativityOffset++;
+                    continue;
+                }
                 if (clone)
                     tx = tx.params.getDefaultSerializer().makeTransaction(tx.bitcoinSerialize());
                 listener.receiveFromBlock(tx, block, blockType, relativityOffset++);
@@ -899,40 +896,41 @@ public abstract class AbstractBlockChain {
     }
 
     /**
-     * For each block in orphanBlocks, see if we can now fit it on top of the chain and if so, do so.
+     * Connects the orphan blocks that build on the given newly connected block, then the orphans that build on those,
+     * and so on. An orphan that fails verification is dropped, but its siblings are still connected before the first
+     * such failure is thrown. Orphans stay in the pool until they are connected, so if the store fails they aren't
+     * lost.
      */
-    private void tryConnectingOrphans() throws VerificationException, BlockStoreException, PrunedException {
+    private void tryConnectingOrphans(Sha256Hash connectedHash) throws VerificationException, BlockStoreException,
+            PrunedException {
         checkState(lock.isHeldByCurrentThread());
-        // For each block in our orphan list, try and fit it onto the head of the chain. If we succeed remove it
-        // from the list and keep going. If we changed the head of the list at the end of the round try again until
-        // we can't fit anything else on the top.
-        //
-        // This algorithm is kind of crappy, we should do a topo-sort then just connect them in order, but for small
-        // numbers of orphan blocks it does OK.
-        int blocksConnectedThisRound;
-        do {
-            blocksConnectedThisRound = 0;
-            Iterator<OrphanBlock> iter = orphanBlocks.values().iterator();
-            while (iter.hasNext()) {
-                OrphanBlock orphanBlock = iter.next();
-                // Look up the blocks previous.
-                StoredBlock prev = getStoredBlockInCurrentScope(orphanBlock.block.getPrevBlockHash());
-                if (prev == null) {
-                    // This is still an unconnected/orphan block.
-                    log.debug("Orphan block {} is not connectable right now", orphanBlock.block.getHash());
+        int blocksConnected = 0;
+        VerificationException failure = null;
+        ArrayDeque<Sha256Hash> parents = new ArrayDeque<>();
+        parents.add(connectedHash);
+        while (!parents.isEmpty()) {
+            for (OrphanBlockPool.OrphanBlock orphanBlock : orphanBlocks.getChildren(parents.poll())) {
+                try {
+                    // False here ensures we don't recurse infinitely downwards when connecting huge chains.
+                    add(orphanBlock.block, false, orphanBlock.filteredTxHashes, orphanBlock.filteredTxn);
+                } catch (VerificationException e) {
+                    log.warn("Orphan {} failed to connect: {}", orphanBlock.block.getHash(), e.toString());
+                    orphanBlocks.remove(orphanBlock, false);
+                    if (failure == null)
+                        failure = e;
                     continue;
                 }
-                // Otherwise we can connect it now.
-                // False here ensures we don't recurse infinitely downwards when connecting huge chains.
                 log.info("Connected orphan {}", orphanBlock.block.getHash());
-                add(orphanBlock.block, false, orphanBlock.filteredTxHashes, orphanBlock.filteredTxn);
-                iter.remove();
-                blocksConnectedThisRound++;
+                orphanBlocks.remove(orphanBlock, true);
+                parents.add(orphanBlock.block.getHash());
+                blocksConnected++;
             }
-            if (blocksConnectedThisRound > 0) {
-                log.info("Connected {} orphan blocks.", blocksConnectedThisRound);
-            }
-        } while (blocksConnectedThisRound > 0);
+        }
+        if (blocksConnected > 0) {
+            log.info("Connected {} orphan blocks.", blocksConnected);
+        }
+        if (failure != null)
+            throw failure;
     }
 
     /**
@@ -957,10 +955,10 @@ public abstract class AbstractBlockChain {
     public Block getOrphanRoot(Sha256Hash from) {
         lock.lock();
         try {
-            OrphanBlock cursor = orphanBlocks.get(from);
+            OrphanBlockPool.OrphanBlock cursor = orphanBlocks.get(from);
             if (cursor == null)
                 return null;
-            OrphanBlock tmp;
+            OrphanBlockPool.OrphanBlock tmp;
             while ((tmp = orphanBlocks.get(cursor.block.getPrevBlockHash())) != null) {
                 cursor = tmp;
             }
@@ -974,7 +972,60 @@ public abstract class AbstractBlockChain {
     public boolean isOrphan(Sha256Hash block) {
         lock.lock();
         try {
-            return orphanBlocks.containsKey(block);
+            return orphanBlocks.contains(block);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Limits the estimated memory used by orphan blocks. Once it is exceeded the oldest orphans are dropped, and have
+     * to be downloaded again if they turn out to be needed. Defaults to {@link #DEFAULT_MAX_ORPHAN_BYTES}.
+     */
+    public void setMaxOrphanBytes(long maxBytes) {
+        lock.lock();
+        try {
+            orphanBlocks.setMaxBytes(maxBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of orphan blocks currently held. */
+    public int getOrphanBlockCount() {
+        lock.lock();
+        try {
+            return orphanBlocks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the estimated memory used by the orphan blocks currently held, in bytes. */
+    public long getOrphanBlockBytes() {
+        lock.lock();
+        try {
+            return orphanBlocks.getBytes();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns how many orphan blocks were connected to the chain once their parent arrived, since construction. */
+    public long getOrphanBlocksConnected() {
+        lock.lock();
+        try {
+            return orphanBlocks.getConnected();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns how many orphan blocks were dropped to stay within the memory limit, since construction. */
+    public long getOrphanBlocksEvicted() {
+        lock.lock();
+        try {
+            return orphanBlocks.getEvicted();
         } finally {
             lock.unlock();
         }
@@ -16,8 +16,11 @@
 
 package org.bitcoinj.core;
 
+import org.bitcoinj.utils.Threading;
+
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Base58 is a way to encode Bitcoin addresses (or arbitrary data) as alphanumeric strings.
@@ -36,7 +39,9 @@ import java.util.Arrays;
  * <li>Doubleclicking selects the whole number as one word if it's all alphanumeric.</li>
  * </ul>
  * <p>
- * However, note that the encoding/decoding runs in O(n&sup2;) time, so it is not useful for large data.
+ * However, note that the encoding/decoding runs in O(n&sup2;) time, so it is not useful for large data. To keep the
+ * constant small, the conversion works on 32 bit words and on limbs of five base-58 digits rather than on single
+ * digits.
  * <p>
  * The basic idea of the encoding is to treat the data bytes as a large number represented using
  * base-256 digits, convert the number to be represented using base-58 digits, preserve the exact
@@ -54,6 +59,13 @@ public class Base58 {
         }
     }
 
+    // Base58 digits are processed five at a time, in limbs of 58^5 which fit in an int.
+    private static final int LIMB_DIGITS = 5;
+    private static final long LIMB_BASE = 58L * 58 * 58 * 58 * 58;
+
+    /** Lists of at least this many payloads per thread are encoded in parallel by {@link #encodeChecked(int, List)}. */
+    public static final int MIN_ENCODINGS_PER_TASK = 1000;
+
     /**
      * Encodes the given bytes as a base58 string (no checksum is appended).
      *
@@ -63,20 +75,39 @@ public class Base58 {
     public static String encode(byte[] input) {
         if (input.length == 0) {
             return "";
-        }       
+        }
         // Count leading zeros.
         int zeros = 0;
         while (zeros < input.length && input[zeros] == 0) {
             ++zeros;
         }
-        // Convert base-256 digits to base-58 digits (plus conversion to ASCII characters)
-        input = Arrays.copyOf(input, input.length); // since we modify it in-place
-        char[] encoded = new char[input.length * 2]; // upper bound
+        // Convert base-256 digits, four at a time, to limbs of five base-58 digits, least significant limb first.
+        int[] limbs = new int[(input.length - zeros) * 138 / 500 + 2];
+        int limbCount = 0;
+        int chunk = (input.length - zeros) % 4 == 0 ? 4 : (input.length - zeros) % 4;
+        for (int pos = zeros; pos < input.length; chunk = 4) {
+            long carry = 0;
+            for (int i = 0; i < chunk; i++)
+                carry = (carry << 8) | (input[pos++] & 0xFF);
+            int shift = chunk * 8;
+            for (int j = 0; j < limbCount; j++) {
+                carry += (long) limbs[j] << shift;
+                limbs[j] = (int) (carry % LIMB_BASE);
+                carry /= LIMB_BASE;
+            }
+            while (carry != 0) {
+                limbs[limbCount++] = (int) (carry % LIMB_BASE);
+                carry /= LIMB_BASE;
+            }
+        }
+        // Convert the limbs to ASCII characters.
+        char[] encoded = new char[zeros + limbCount * LIMB_DIGITS];
         int outputStart = encoded.length;
-        for (int inputStart = zeros; inputStart < input.length; ) {
-            encoded[--outputStart] = ALPHABET[divmod(input, inputStart, 256, 58)];
-            if (input[inputStart] == 0) {
-                ++inputStart; // optimization - skip leading zeros
+        for (int j = 0; j < limbCount; j++) {
+            int limb = limbs[j];
+            for (int i = 0; i < LIMB_DIGITS; i++) {
+                encoded[--outputStart] = ALPHABET[limb % 58];
+                limb /= 58;
             }
         }
         // Preserve exactly as many leading encoded zeros in output as there were leading zeros in input.
@@ -90,6 +121,35 @@ public class Base58 {
         return new String(encoded, outputStart, encoded.length - outputStart);
     }
 
+    /**
+     * Encodes the version byte and payload followed by a four byte checksum, the first bytes of the double SHA-256
+     * hash of the version and payload, as a base58 string. This is the format of {@link VersionedChecksummedBytes}.
+     */
+    public static String encodeChecked(int version, byte[] payload) {
+        byte[] addressBytes = new byte[1 + payload.length + 4];
+        addressBytes[0] = (byte) version;
+        System.arraycopy(payload, 0, addressBytes, 1, payload.length);
+        byte[] checksum = Sha256Hash.hashTwice(addressBytes, 0, payload.length + 1);
+        System.arraycopy(checksum, 0, addressBytes, payload.length + 1, 4);
+        return encode(addressBytes);
+    }
+
+    /**
+     * Encodes each of the payloads like {@link #encodeChecked(int, byte[])}, spreading large lists over
+     * {@link Threading#THREAD_POOL}. Meant for indexing many addresses or keys at once.
+     */
+    public static List<String> encodeChecked(final int version, final List<byte[]> payloads) {
+        final String[] encoded = new String[payloads.size()];
+        Threading.runInChunks(encoded.length, MIN_ENCODINGS_PER_TASK, new Threading.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++)
+                    encoded[i] = encodeChecked(version, payloads.get(i));
+            }
+        });
+        return Arrays.asList(encoded);
+    }
+
     /**
      * Decodes the given base58 string into the original data bytes.
      *
@@ -116,13 +176,32 @@ public class Base58 {
         while (zeros < input58.length && input58[zeros] == 0) {
             ++zeros;
         }
-        // Convert base-58 digits to base-256 digits.
-        byte[] decoded = new byte[input.length()];
+        // Convert base-58 digits, five at a time, to 32 bit limbs, least significant limb first.
+        int[] limbs = new int[(input58.length - zeros) * 733 / 3000 + 2];
+        int limbCount = 0;
+        int chunk = (input58.length - zeros) % LIMB_DIGITS == 0 ? LIMB_DIGITS : (input58.length - zeros) % LIMB_DIGITS;
+        for (int pos = zeros; pos < input58.length; chunk = LIMB_DIGITS) {
+            long carry = 0, multiplier = 1;
+            for (int i = 0; i < chunk; i++) {
+                carry = carry * 58 + input58[pos++];
+                multiplier *= 58;
+            }
+            for (int j = 0; j < limbCount; j++) {
+                carry += (limbs[j] & 0xFFFFFFFFL) * multiplier;
+                limbs[j] = (int) carry;
+                carry >>>= 32;
+            }
+            if (carry != 0)
+                limbs[limbCount++] = (int) carry;
+        }
+        // Convert the limbs to base-256 digits.
+        byte[] decoded = new byte[zeros + limbCount * 4];
         int outputStart = decoded.length;
-        for (int inputStart = zeros; inputStart < input58.length; ) {
-            decoded[--outputStart] = divmod(input58, inputStart, 58, 256);
-            if (input58[inputStart] == 0) {
-                ++inputStart; // optimization - skip leading zeros
+        for (int j = 0; j < limbCount; j++) {
+            int limb = limbs[j];
+            for (int i = 0; i < 4; i++) {
+                decoded[--outputStart] = (byte) limb;
+                limb >>>= 8;
             }
         }
         // Ignore extra leading zeroes that were added during the calculation.
@@ -149,36 +228,11 @@ public class Base58 {
         byte[] decoded  = decode(input);
         if (decoded.length < 4)
             throw new AddressFormatException("Input too short");
-        byte[] data = Arrays.copyOfRange(decoded, 0, decoded.length - 4);
-        byte[] checksum = Arrays.copyOfRange(decoded, decoded.length - 4, decoded.length);
-        byte[] actualChecksum = Arrays.copyOfRange(Sha256Hash.hashTwice(data), 0, 4);
-        if (!Arrays.equals(checksum, actualChecksum))
-            throw new AddressFormatException("Checksum does not validate");
-        return data;
+        int dataLength = decoded.length - 4;
+        byte[] actualChecksum = Sha256Hash.hashTwice(decoded, 0, dataLength);
+        for (int i = 0; i < 4; i++)
+            if (decoded[dataLength + i] != actualChecksum[i])
+                throw new AddressFormatException("Checksum does not validate");
+        return Arrays.copyOf(decoded, dataLength);
     }
-
-    /**
-     * Divides a number, represented as an array of bytes each containing a single digit
-     * in the specified base, by the given divisor. The given number is modified in-place
-     * to contain the quotient, and the return value is the remainder.
-     *
-     * @param number the number to divide
-     * @param firstDigit the index within the array of the first non-zero digit
-     *        (this is used for optimization by skipping the leading zeros)
-     * @param base the base in which the number's digits are represented (up to 256)
-     * @param divisor the number to divide by (up to 256)
-     * @return the remainder of the division operation
-     */
-    private static byte divmod(byte[] number, int firstDigit, int base, int divisor) {
-        // this is just long division which accounts for the base of the input digits
-        int remainder = 0;
-        for (int i = firstDigit; i < number.length; i++) {
-            int digit = (int) number[i] & 0xFF;
-            int temp = remainder * base + digit;
-            number[i] = (byte) (temp / divisor);
-            remainder = temp % divisor;
-        }
-        return (byte) remainder;
-    }
-
 }
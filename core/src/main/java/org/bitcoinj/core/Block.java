@@ -21,12 +21,14 @@ import com.google.common.annotations.*;
 import com.google.common.base.*;
 import com.google.common.collect.*;
 import org.bitcoinj.script.*;
+import org.bitcoinj.utils.*;
 import org.slf4j.*;
 
 import javax.annotation.*;
 import java.io.*;
 import java.math.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.bitcoinj.core.Coin.*;
 import static org.bitcoinj.core.Sha256Hash.*;
@@ -103,6 +105,8 @@ public class Block extends Message {
 
     /** Stores the hash of the block. If null, getHash() will recalculate it. */
     private Sha256Hash hash;
+    // The hash the header was last verified with by verifyHeaders, any change to the block gives it a new hash.
+    @Nullable private transient Sha256Hash verifiedHeaderHash;
 
     protected boolean headerBytesValid;
     protected boolean transactionBytesValid;
@@ -399,14 +403,14 @@ public class Block extends Message {
     }
 
     /**
-     * Calculates the block hash by serializing the block and hashing the
-     * resulting bytes.
+     * Calculates the block hash by serializing the header straight into the
+     * digest.
      */
     private Sha256Hash calculateHash() {
         try {
-            ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(HEADER_SIZE);
-            writeHeader(bos);
-            return Sha256Hash.wrapReversed(Sha256Hash.hashTwice(bos.toByteArray()));
+            Sha256Hash.TwiceHashingOutputStream stream = new Sha256Hash.TwiceHashingOutputStream();
+            writeHeader(stream);
+            return Sha256Hash.wrapReversed(stream.hashTwice());
         } catch (IOException e) {
             throw new RuntimeException(e); // Cannot happen.
         }
@@ -584,61 +588,61 @@ public class Block extends Message {
     }
 
     private Sha256Hash calculateMerkleRoot() {
-        List<byte[]> tree = buildMerkleTree();
-        return Sha256Hash.wrap(tree.get(tree.size() - 1));
+        // Verification only needs the root, so it uses a cached tree if there is one but doesn't add to the cache.
+        if (merkleRoot != null) {
+            MerkleTree tree = MerkleTree.getCached(merkleRoot, transactions);
+            if (tree != null)
+                return tree.getRoot();
+        }
+        return MerkleTree.buildFromTransactions(transactions).getRoot();
     }
 
-    private List<byte[]> buildMerkleTree() {
-        // The Merkle root is based on a tree of hashes calculated from the transactions:
-        //
-        //     root
-        //      / \
-        //   A      B
-        //  / \    / \
-        // t1 t2 t3 t4
-        //
-        // The tree is represented as a list: t1,t2,t3,t4,A,B,root where each
-        // entry is a hash.
-        //
-        // The hashing algorithm is double SHA-256. The leaves are a hash of the serialized contents of the transaction.
-        // The interior nodes are hashes of the concenation of the two child hashes.
-        //
-        // This structure allows the creation of proof that a transaction was included into a block without having to
-        // provide the full block contents. Instead, you can provide only a Merkle branch. For example to prove tx2 was
-        // in a block you can just provide tx2, the hash(tx1) and B. Now the other party has everything they need to
-        // derive the root, which can be checked against the block header. These proofs aren't used right now but
-        // will be helpful later when we want to download partial block contents.
-        //
-        // Note that if the number of transactions is not even the last tx is repeated to make it so (see
-        // tx3 above). A tree with 5 transactions would look like this:
-        //
-        //         root
-        //        /     \
-        //       1        5
-        //     /   \     / \
-        //    2     3    4  4
-        //  / \   / \   / \
-        // t1 t2 t3 t4 t5 t5
-        ArrayList<byte[]> tree = new ArrayList<>();
-        // Start by adding all the hashes of the transactions as leaves of the tree.
-        for (Transaction t : transactions) {
-            tree.add(t.getHash().getBytes());
-        }
-        int levelOffset = 0; // Offset in the list where the currently processed level starts.
-        // Step through each level, stopping when we reach the root (levelSize == 1).
-        for (int levelSize = transactions.size(); levelSize > 1; levelSize = (levelSize + 1) / 2) {
-            // For each pair of nodes on that level:
-            for (int left = 0; left < levelSize; left += 2) {
-                // The right hand node can be the same as the left hand, in the case where we don't have enough
-                // transactions.
-                int right = Math.min(left + 1, levelSize - 1);
-                byte[] leftBytes = Utils.reverseBytes(tree.get(levelOffset + left));
-                byte[] rightBytes = Utils.reverseBytes(tree.get(levelOffset + right));
-                tree.add(Utils.reverseBytes(hashTwice(leftBytes, 0, 32, rightBytes, 0, 32)));
-            }
-            // Move to the next level.
-            levelOffset += levelSize;
+    /**
+     * <p>Returns the merkle tree of the transactions of this block. The Merkle root is based on a tree of hashes
+     * calculated from the transactions:</p>
+     *
+     * <pre>
+     *     root
+     *      / \
+     *   A      B
+     *  / \    / \
+     * t1 t2 t3 t4
+     * </pre>
+     *
+     * <p>The hashing algorithm is double SHA-256. The leaves are a hash of the serialized contents of the transaction.
+     * The interior nodes are hashes of the concatenation of the two child hashes.</p>
+     *
+     * <p>This structure allows the creation of proof that a transaction was included into a block without having to
+     * provide the full block contents. Instead, you can provide only a Merkle branch. For example to prove tx2 was
+     * in a block you can just provide tx2, the hash(tx1) and B. Now the other party has everything they need to
+     * derive the root, which can be checked against the block header. See
+     * {@link PartialMerkleTree#buildFromTree(NetworkParameters, byte[], MerkleTree)}.</p>
+     *
+     * <p>Note that if the number of transactions is not even the last tx is repeated to make it so. A tree with 5
+     * transactions would look like this:</p>
+     *
+     * <pre>
+     *         root
+     *        /     \
+     *       1        5
+     *     /   \     / \
+     *    2     3    4  4
+     *  / \   / \   / \
+     * t1 t2 t3 t4 t5 t5
+     * </pre>
+     *
+     * <p>If enabled with {@link MerkleTree#setCacheMaxNodes(int)}, trees are kept in a bounded cache, so asking again
+     * for the tree of the same block, for example to serve proofs for several filters, doesn't hash the transactions
+     * again.</p>
+     */
+    public MerkleTree getMerkleTree() {
+        if (merkleRoot != null) {
+            MerkleTree tree = MerkleTree.getCached(merkleRoot, transactions);
+            if (tree != null)
+                return tree;
         }
+        MerkleTree tree = MerkleTree.buildFromTransactions(transactions);
+        MerkleTree.cache(tree);
         return tree;
     }
 
@@ -673,6 +677,8 @@ public class Block extends Message {
      * @throws VerificationException
      */
     public void verifyHeader() throws VerificationException {
+        if (hash != null && hash == verifiedHeaderHash)
+            return; // Already done by verifyHeaders.
         // Prove that this block is OK. It might seem that we can just ignore most of these checks given that the
         // network is also verifying the blocks, but we cannot as it'd open us to a variety of obscure attacks.
         //
@@ -682,6 +688,42 @@ public class Block extends Message {
         checkTimestamp();
     }
 
+    /** Headers are verified in parallel in chunks of at least this many, see {@link #verifyHeaders(List)}. */
+    public static final int MIN_HEADERS_PER_TASK = 200;
+
+    /**
+     * Runs {@link #verifyHeader()} on all the given blocks, in parallel for large lists such as a headers message, so
+     * that adding the blocks to a chain one by one afterwards only does the checks that depend on the chain. A block
+     * that fails isn't reported here, its own verifyHeader() call throws the exception again later.
+     *
+     * @return the number of blocks that were verified
+     */
+    public static int verifyHeaders(final List<Block> blocks) {
+        final AtomicInteger verified = new AtomicInteger();
+        Threading.runInChunks(blocks.size(), MIN_HEADERS_PER_TASK, new Threading.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                verified.addAndGet(verifyHeaders(blocks, from, to));
+            }
+        });
+        return verified.get();
+    }
+
+    private static int verifyHeaders(List<Block> blocks, int from, int to) {
+        int verified = 0;
+        for (int i = from; i < to; i++) {
+            Block block = blocks.get(i);
+            try {
+                block.verifyHeader();
+                block.verifiedHeaderHash = block.getHash();
+                verified++;
+            } catch (VerificationException e) {
+                // Thrown again when the block is added.
+            }
+        }
+        return verified;
+    }
+
     /**
      * Checks the block contents
      *
@@ -28,6 +28,7 @@ import com.google.common.primitives.UnsignedBytes;
 import org.bitcoin.NativeSecp256k1;
 import org.bitcoin.NativeSecp256k1Util;
 import org.bitcoin.Secp256k1Context;
+import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.Protos;
 import org.bitcoinj.wallet.Wallet;
 import org.slf4j.Logger;
@@ -36,15 +37,11 @@ import org.spongycastle.asn1.*;
 import org.spongycastle.asn1.x9.X9ECParameters;
 import org.spongycastle.asn1.x9.X9IntegerConverter;
 import org.spongycastle.crypto.AsymmetricCipherKeyPair;
-import org.spongycastle.crypto.digests.SHA256Digest;
 import org.spongycastle.crypto.ec.CustomNamedCurves;
 import org.spongycastle.crypto.generators.ECKeyPairGenerator;
 import org.spongycastle.crypto.params.*;
-import org.spongycastle.crypto.signers.ECDSASigner;
-import org.spongycastle.crypto.signers.HMacDSAKCalculator;
 import org.spongycastle.math.ec.ECAlgorithms;
 import org.spongycastle.math.ec.ECPoint;
-import org.spongycastle.math.ec.FixedPointCombMultiplier;
 import org.spongycastle.math.ec.FixedPointUtil;
 import org.spongycastle.math.ec.custom.sec.SecP256K1Curve;
 import org.spongycastle.util.encoders.Base64;
@@ -57,7 +54,9 @@ import java.nio.charset.Charset;
 import java.security.SecureRandom;
 import java.security.SignatureException;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
+import java.util.List;
 
 import static com.google.common.base.Preconditions.*;
 
@@ -459,14 +458,7 @@ public class ECKey implements EncryptableItem {
      * new BigInteger(1, bytes);</tt>
      */
     public static ECPoint publicPointFromPrivate(BigInteger privKey) {
-        /*
-         * TODO: FixedPointCombMultiplier currently doesn't support scalars longer than the group order,
-         * but that could change in future versions.
-         */
-        if (privKey.bitLength() > CURVE.getN().bitLength()) {
-            privKey = privKey.mod(CURVE.getN());
-        }
-        return new FixedPointCombMultiplier().multiply(CURVE.getG(), privKey);
+        return JavaSecp256k1.publicPointFromPrivate(privKey);
     }
 
     /** Gets the hash160 form of the public key (as seen in addresses). */
@@ -645,6 +637,16 @@ public class ECKey implements EncryptableItem {
     @VisibleForTesting
     public static boolean FAKE_SIGNATURES = false;
 
+    /**
+     * If this global variable is set to false, signing and verification use the pure Java implementation in
+     * {@link JavaSecp256k1} even if the native libsecp256k1 library is loaded.
+     */
+    public static boolean USE_NATIVE_SECP256K1 = true;
+
+    private static boolean useNativeSecp256k1() {
+        return USE_NATIVE_SECP256K1 && Secp256k1Context.isEnabled();
+    }
+
     /**
      * Signs the given hash and returns the R and S components as BigIntegers. In the Bitcoin protocol, they are
      * usually encoded using DER format, so you want {@link org.bitcoinj.core.ECKey.ECDSASignature#encodeToDER()}
@@ -670,7 +672,7 @@ public class ECKey implements EncryptableItem {
     }
 
     protected ECDSASignature doSign(Sha256Hash input, BigInteger privateKeyForSigning) {
-        if (Secp256k1Context.isEnabled()) {
+        if (useNativeSecp256k1()) {
             try {
                 byte[] signature = NativeSecp256k1.sign(
                         input.getBytes(),
@@ -685,11 +687,51 @@ public class ECKey implements EncryptableItem {
         if (FAKE_SIGNATURES)
             return TransactionSignature.dummy();
         checkNotNull(privateKeyForSigning);
-        ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
-        ECPrivateKeyParameters privKey = new ECPrivateKeyParameters(privateKeyForSigning, CURVE);
-        signer.init(true, privKey);
-        BigInteger[] components = signer.generateSignature(input.getBytes());
-        return new ECDSASignature(components[0], components[1]).toCanonicalised();
+        return JavaSecp256k1.sign(input.getBytes(), privateKeyForSigning).toCanonicalised();
+    }
+
+    /**
+     * Signs the given hash with a Schnorr signature, see {@link Schnorr}. The R and S components are returned in an
+     * {@link ECDSASignature}, use {@link Schnorr#encode(ECDSASignature)} to get the 64 byte encoding.
+     *
+     * @param aesKey The AES key to use for decryption of the private key. If null then no decryption is required.
+     * @throws KeyCrypterException if there's something wrong with aesKey.
+     * @throws ECKey.MissingPrivateKeyException if this key cannot sign because it's pubkey only.
+     */
+    public ECDSASignature signSchnorr(Sha256Hash input, @Nullable KeyParameter aesKey) throws KeyCrypterException {
+        KeyCrypter crypter = getKeyCrypter();
+        if (crypter != null) {
+            if (aesKey == null)
+                throw new KeyIsEncryptedException();
+            return decrypt(aesKey).signSchnorr(input, null);
+        } else {
+            // No decryption of private key required.
+            if (priv == null)
+                throw new MissingPrivateKeyException();
+        }
+        return doSignSchnorr(input, priv);
+    }
+
+    protected ECDSASignature doSignSchnorr(Sha256Hash input, BigInteger privateKeyForSigning) {
+        if (useNativeSecp256k1()) {
+            try {
+                byte[] signature = NativeSecp256k1.schnorrSign(
+                        input.getBytes(),
+                        Utils.bigIntegerToBytes(privateKeyForSigning, 32)
+                );
+                // An empty signature means the nonce was rejected, which the Java implementation handles by trying
+                // the next one.
+                if (signature.length == Schnorr.SIGNATURE_LENGTH)
+                    return Schnorr.decode(signature);
+            } catch (NativeSecp256k1Util.AssertFailException e) {
+                log.error("Caught AssertFailException inside secp256k1", e);
+                throw new RuntimeException(e);
+            }
+        }
+        if (FAKE_SIGNATURES)
+            return TransactionSignature.dummy();
+        checkNotNull(privateKeyForSigning);
+        return Schnorr.sign(input.getBytes(), privateKeyForSigning);
     }
 
     /**
@@ -706,7 +748,7 @@ public class ECKey implements EncryptableItem {
         if (FAKE_SIGNATURES)
             return true;
 
-        if (Secp256k1Context.isEnabled()) {
+        if (useNativeSecp256k1()) {
             try {
                 return NativeSecp256k1.verify(data, signature.encodeToDER(), pub);
             } catch (NativeSecp256k1Util.AssertFailException e) {
@@ -715,16 +757,82 @@ public class ECKey implements EncryptableItem {
             }
         }
 
-        ECDSASigner signer = new ECDSASigner();
-        ECPublicKeyParameters params = new ECPublicKeyParameters(CURVE.getCurve().decodePoint(pub), CURVE);
-        signer.init(false, params);
-        try {
-            return signer.verifySignature(data, signature.r, signature.s);
-        } catch (NullPointerException e) {
-            // Bouncy Castle contains a bug that can cause NPEs given specially crafted signatures. Those signatures
-            // are inherently invalid/attack sigs so we just fail them here rather than crash the thread.
-            log.error("Caught NPE inside bouncy castle", e);
-            return false;
+        return JavaSecp256k1.verify(data, signature, decodePublicKey(pub));
+    }
+
+    /**
+     * Decodes the public key bytes to a point on the curve.
+     * @throws IllegalArgumentException if the bytes aren't an encoding of a point, including when they are empty or
+     * shorter than the encoding their first byte announces.
+     */
+    public static ECPoint decodePublicKey(byte[] pub) {
+        if (pub.length == 0)
+            throw new IllegalArgumentException("Empty public key");
+        int expectedLength = (pub[0] == 0x02 || pub[0] == 0x03) ? 33 : 65;
+        if (pub.length != expectedLength)
+            throw new IllegalArgumentException("Public key has " + pub.length + " bytes instead of " + expectedLength);
+        return CURVE.getCurve().decodePoint(pub);
+    }
+
+    /**
+     * {@link #verifyBatch(byte[][], ECDSASignature[], byte[][])} splits batches into chunks of at least this many
+     * signatures when verifying in parallel without native code.
+     */
+    public static final int MIN_SIGNATURES_PER_VERIFICATION_TASK = 16;
+
+    /**
+     * <p>Verifies a batch of ECDSA signatures, the i-th signature against the i-th hash and public key. Returns a bitmap
+     * with bit i set if the i-th signature is valid. Public keys that can't be decoded count as invalid signatures.</p>
+     *
+     * <p>With native ECDSA verification the whole batch is verified under a single lock. Otherwise large batches are
+     * verified in chunks on {@link Threading#THREAD_POOL}.</p>
+     *
+     * @param data       Hashes of the data to verify.
+     * @param signatures The signatures.
+     * @param pubs       The public key bytes to use.
+     */
+    public static BitSet verifyBatch(final byte[][] data, final ECDSASignature[] signatures, final byte[][] pubs) {
+        checkArgument(data.length == signatures.length && data.length == pubs.length, "Batch arrays differ in length");
+        final int count = data.length;
+        BitSet result = new BitSet(count);
+        if (FAKE_SIGNATURES) {
+            result.set(0, count);
+            return result;
+        }
+
+        if (useNativeSecp256k1()) {
+            byte[][] encodedSignatures = new byte[count][];
+            for (int i = 0; i < count; i++)
+                encodedSignatures[i] = signatures[i].encodeToDER();
+            try {
+                return NativeSecp256k1.verifyBatch(data, encodedSignatures, pubs);
+            } catch (NativeSecp256k1Util.AssertFailException e) {
+                log.error("Caught AssertFailException inside secp256k1", e);
+                return result;
+            }
+        }
+
+        final boolean[] valid = new boolean[count];
+        Threading.runInChunks(count, MIN_SIGNATURES_PER_VERIFICATION_TASK, new Threading.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                verifyRange(data, signatures, pubs, valid, from, to);
+            }
+        });
+        for (int i = 0; i < count; i++)
+            if (valid[i])
+                result.set(i);
+        return result;
+    }
+
+    private static void verifyRange(byte[][] data, ECDSASignature[] signatures, byte[][] pubs, boolean[] valid,
+                                    int from, int to) {
+        for (int i = from; i < to; i++) {
+            try {
+                valid[i] = verify(data[i], signatures[i], pubs[i]);
+            } catch (IllegalArgumentException e) {
+                valid[i] = false; // Not a valid public key.
+            }
         }
     }
 
@@ -736,7 +844,7 @@ public class ECKey implements EncryptableItem {
      * @param pub       The public key bytes to use.
      */
     public static boolean verify(byte[] data, byte[] signature, byte[] pub) {
-        if (Secp256k1Context.isEnabled()) {
+        if (useNativeSecp256k1()) {
             try {
                 return NativeSecp256k1.verify(data, signature, pub);
             } catch (NativeSecp256k1Util.AssertFailException e) {
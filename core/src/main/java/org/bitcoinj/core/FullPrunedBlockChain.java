@@ -17,8 +17,10 @@
 
 package org.bitcoinj.core;
 
+import org.bitcoinj.crypto.SignatureScheme;
 import org.bitcoinj.script.Script;
 import org.bitcoinj.script.Script.VerifyFlag;
+import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.store.FullPrunedBlockStore;
 import org.bitcoinj.utils.*;
@@ -28,12 +30,15 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
 import java.util.concurrent.*;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
 /**
@@ -55,6 +60,15 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
     // Whether or not to execute scriptPubKeys before accepting a transaction (i.e. check signatures).
     private boolean runScripts = true;
 
+    /** How often, in blocks, progress towards the assumed valid block is logged. */
+    public static final int ASSUME_VALID_LOG_INTERVAL = 10000;
+
+    // The block whose ancestors' scripts are not executed, see setAssumeValid, and the header chain that tells them.
+    @Nullable private Sha256Hash assumeValidHash;
+    @Nullable private BlockStore assumeValidHeaders;
+    // Looked up once the header of the assumed valid block is found in assumeValidHeaders.
+    @Nullable private AssumeValidAncestors assumeValidAncestors;
+
     /**
      * Constructs a block chain connected to the given wallet and store. To obtain a {@link Wallet} you can construct
      * one from scratch, or you can deserialize a saved wallet from disk using
@@ -143,6 +157,113 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
         this.runScripts = value;
     }
 
+    /**
+     * <p>Sets a block that is assumed to be valid, as with the -assumevalid option of Bitcoin Core. Scripts of the
+     * transactions in that block and its ancestors are not executed, which saves most of the time spent syncing the
+     * old part of the chain. Everything else, such as UTXO accounting, sigop limits and merkle roots, is still
+     * verified, and scripts of all other blocks are executed.</p>
+     *
+     * <p>Full blocks arrive before we know which chain they are on, so ancestry is checked against the given header
+     * chain, which must be kept apart from the full block store: for example an SPV store loaded with
+     * {@link org.bitcoinj.store.HeaderSnapshot#loadInto(BlockStore)}, or synced headers first. Scripts are executed
+     * for all blocks as long as the header of the assumed valid block isn't in it, and for blocks that are not its
+     * ancestors, or are too far below it for the store to tell. Re-orgs always execute scripts. Pass null to verify
+     * all scripts again.</p>
+     */
+    public void setAssumeValid(@Nullable Sha256Hash hash, @Nullable BlockStore headers) {
+        checkArgument(hash == null || headers != null, "Assumed valid block needs a header chain");
+        lock.lock();
+        try {
+            this.assumeValidHash = hash;
+            this.assumeValidHeaders = hash != null ? headers : null;
+            this.assumeValidAncestors = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the block that is assumed to be valid, or null if all scripts are executed. */
+    @Nullable
+    public Sha256Hash getAssumeValid() {
+        lock.lock();
+        try {
+            return assumeValidHash;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns false if the scripts of the block don't need to be executed because it is an ancestor of the assumed
+    // valid block in the header chain, or that block itself.
+    private boolean shouldRunScripts(int height, Sha256Hash hash) throws BlockStoreException {
+        if (!runScripts)
+            return false;
+        if (assumeValidHash == null)
+            return true;
+        if (assumeValidAncestors == null) {
+            StoredBlock assumeValid = assumeValidHeaders.get(assumeValidHash);
+            if (assumeValid == null)
+                return true;
+            assumeValidAncestors = new AssumeValidAncestors(assumeValidHeaders, assumeValid);
+        }
+        if (!assumeValidAncestors.isAncestor(height, hash))
+            return true;
+        int assumeValidHeight = assumeValidAncestors.assumeValid.getHeight();
+        if (height == assumeValidHeight) {
+            log.info("Reached assumed valid block {} at height {}, executing scripts from the next block on", hash,
+                    height);
+        } else if (height % ASSUME_VALID_LOG_INTERVAL == 0) {
+            log.info("Not executing scripts below the assumed valid block, at height {} of {}", height,
+                    assumeValidHeight);
+        }
+        return false;
+    }
+
+    /**
+     * The ancestors of the assumed valid block in a header chain. Walking back from the assumed valid block for every
+     * connected block would take quadratic time, so the ancestors at every {@link #INTERVAL}th height are recorded in
+     * one walk, and the hashes of the interval a block is in are read from the nearest of them above it. Blocks are
+     * mostly connected in order, so every header is read about twice in total.
+     */
+    private static class AssumeValidAncestors {
+        static final int INTERVAL = 2016;
+
+        final BlockStore headers;
+        final StoredBlock assumeValid;
+        // anchors[i] is the ancestor at height i * INTERVAL, null where the store doesn't go back that far.
+        final StoredBlock[] anchors;
+        // The hashes of the ancestors from height intervalStart on.
+        final Sha256Hash[] interval = new Sha256Hash[INTERVAL];
+        int intervalStart = -1;
+
+        AssumeValidAncestors(BlockStore headers, StoredBlock assumeValid) throws BlockStoreException {
+            this.headers = headers;
+            this.assumeValid = assumeValid;
+            this.anchors = new StoredBlock[assumeValid.getHeight() / INTERVAL + 1];
+            log.info("Reading the ancestors of assumed valid block {} at height {}", assumeValid.getHeader().getHash(),
+                    assumeValid.getHeight());
+            for (StoredBlock cursor = assumeValid; cursor != null; cursor = cursor.getPrev(headers))
+                if (cursor.getHeight() % INTERVAL == 0)
+                    anchors[cursor.getHeight() / INTERVAL] = cursor;
+        }
+
+        boolean isAncestor(int height, Sha256Hash hash) throws BlockStoreException {
+            if (height > assumeValid.getHeight())
+                return false;
+            int start = height - height % INTERVAL;
+            if (start != intervalStart) {
+                int above = start / INTERVAL + 1;
+                StoredBlock cursor = above < anchors.length ? anchors[above] : assumeValid;
+                Arrays.fill(interval, null);
+                for (; cursor != null && cursor.getHeight() >= start; cursor = cursor.getPrev(headers))
+                    if (cursor.getHeight() < start + INTERVAL)
+                        interval[cursor.getHeight() - start] = cursor.getHeader().getHash();
+                intervalStart = start;
+            }
+            return hash.equals(interval[height - start]);
+        }
+    }
+
     // TODO: Remove lots of duplicated code in the two connectTransactions
 
     // TODO: execute in order of largest transaction (by input count) first
@@ -167,15 +288,60 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
         @Override
         public VerificationException call() throws Exception {
             try {
+                // Inputs with a single signature are verified in one batch. Everything else, and any input whose
+                // signature turned out to be invalid, goes through correctlySpends in input order, so that the
+                // exception is the same as when verifying one by one.
+                int numInputs = tx.getInputs().size();
+                Script.SignatureCheck[] checks = new Script.SignatureCheck[numInputs];
+                List<Integer> batchIndexes = new ArrayList<>(numInputs);
                 ListIterator<Script> prevOutIt = prevOutScripts.listIterator();
-                for (int index = 0; index < tx.getInputs().size(); index++) {
-                    tx.getInputs().get(index).getScriptSig().correctlySpends(tx, index, prevOutIt.next(), verifyFlags);
+                for (int index = 0; index < numInputs; index++) {
+                    checks[index] = tx.getInputs().get(index).getScriptSig().getStandardSignatureCheck(tx, index,
+                            prevOutIt.next(), verifyFlags);
+                    if (checks[index] != null)
+                        batchIndexes.add(index);
+                }
+                BitSet valid = verifyBatch(checks, batchIndexes);
+                prevOutIt = prevOutScripts.listIterator();
+                for (int index = 0, batchIndex = 0; index < numInputs; index++) {
+                    Script prevOutScript = prevOutIt.next();
+                    if (checks[index] != null && valid.get(batchIndex++))
+                        continue;
+                    tx.getInputs().get(index).getScriptSig().correctlySpends(tx, index, prevOutScript, verifyFlags);
                 }
             } catch (VerificationException e) {
                 return e;
             }
             return null;
         }
+
+        // Verifies the checks at the given indexes, one batch per signature scheme. Bit i of the result is for the
+        // i-th index.
+        private static BitSet verifyBatch(Script.SignatureCheck[] checks, List<Integer> batchIndexes) {
+            BitSet result = new BitSet(batchIndexes.size());
+            for (SignatureScheme scheme : SignatureScheme.values()) {
+                List<Integer> positions = new ArrayList<>(batchIndexes.size());
+                for (int i = 0; i < batchIndexes.size(); i++)
+                    if (checks[batchIndexes.get(i)].signature.scheme == scheme)
+                        positions.add(i);
+                if (positions.isEmpty())
+                    continue;
+                int size = positions.size();
+                byte[][] hashes = new byte[size][];
+                ECKey.ECDSASignature[] signatures = new ECKey.ECDSASignature[size];
+                byte[][] pubKeys = new byte[size][];
+                for (int i = 0; i < size; i++) {
+                    Script.SignatureCheck check = checks[batchIndexes.get(positions.get(i))];
+                    hashes[i] = check.hash;
+                    signatures[i] = check.signature;
+                    pubKeys[i] = check.pubKey;
+                }
+                BitSet valid = scheme.verifyBatch(hashes, signatures, pubKeys);
+                for (int i = valid.nextSetBit(0); i >= 0; i = valid.nextSetBit(i + 1))
+                    result.set(positions.get(i));
+            }
+            return result;
+        }
     }
 
     /**
@@ -214,6 +380,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
             throw new RuntimeException("connectTransactions called with Block that didn't have transactions!");
         if (!params.passesCheckpoint(height, block.getHash()))
             throw new VerificationException("Block failed checkpoint lockin at " + height);
+        final boolean verifyScripts = shouldRunScripts(height, block.getHash());
 
         blockStore.beginDatabaseBatchWrite();
 
@@ -306,7 +473,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                     totalFees = totalFees.add(valueIn.subtract(valueOut));
                 }
 
-                if (!isCoinBase && runScripts) {
+                if (!isCoinBase && verifyScripts) {
                     // Because correctlySpends modifies transactions, this must come after we are done with tx
                     FutureTask<VerificationException> future = new FutureTask<>(new Verifier(tx, prevOutScripts, verifyFlags));
                     scriptVerificationExecutor.execute(future);
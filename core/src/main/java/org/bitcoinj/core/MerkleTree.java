@@ -0,0 +1,252 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.utils.Threading;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>The merkle tree of a list of hashes, usually the transactions of a block, with every level kept. See
+ * {@link Block#getMerkleTree()} for how the tree is built and {@link PartialMerkleTree#buildFromTree} for building
+ * proofs from it.</p>
+ *
+ * <p>Levels are stored as flat byte arrays in the byte order the hashes are hashed in, so building a level doesn't
+ * reverse or copy any hashes. Large levels are hashed in parallel on {@link Threading#THREAD_POOL}.</p>
+ *
+ * <p>Instances are immutable and safe for use by multiple threads.</p>
+ */
+public class MerkleTree {
+    /** Levels are split into chunks of at least this many hashes when computed in parallel. */
+    public static final int MIN_HASHES_PER_TASK = 512;
+
+    // levels[0] holds the leaves and levels[height] the root.
+    private final byte[][] levels;
+    private final int leafCount;
+    private final int nodeCount;
+
+    private static final ReentrantLock cacheLock = Threading.lock("MerkleTree cache");
+    // Recently used trees by root, in access order.
+    private static final LinkedHashMap<Sha256Hash, MerkleTree> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private static int cachedNodes;
+    private static int cacheMaxNodes; // Zero disables the cache.
+
+    private MerkleTree(byte[][] levels, int leafCount) {
+        this.levels = levels;
+        this.leafCount = leafCount;
+        int nodes = 0;
+        for (byte[] level : levels)
+            nodes += level.length / 32;
+        this.nodeCount = nodes;
+    }
+
+    /** Builds the tree of the given leaf hashes. */
+    public static MerkleTree build(List<Sha256Hash> leaves) {
+        checkArgument(!leaves.isEmpty(), "Merkle tree needs at least one leaf");
+        byte[] leafBytes = new byte[leaves.size() * 32];
+        for (int i = 0; i < leaves.size(); i++)
+            copyReversed(leaves.get(i).getBytes(), leafBytes, i);
+        return buildFromLeafBytes(leafBytes, leaves.size());
+    }
+
+    /** Builds the tree of the hashes of the given transactions, which are calculated in parallel for large lists. */
+    public static MerkleTree buildFromTransactions(final List<Transaction> transactions) {
+        checkArgument(!transactions.isEmpty(), "Merkle tree needs at least one leaf");
+        final byte[] leafBytes = new byte[transactions.size() * 32];
+        Threading.runInChunks(transactions.size(), MIN_HASHES_PER_TASK, new Threading.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++)
+                    copyReversed(transactions.get(i).getHash().getBytes(), leafBytes, i);
+            }
+        });
+        return buildFromLeafBytes(leafBytes, transactions.size());
+    }
+
+    private static MerkleTree buildFromLeafBytes(byte[] leafBytes, int leafCount) {
+        int height = 0;
+        while (getWidth(leafCount, height) > 1)
+            height++;
+        byte[][] levels = new byte[height + 1][];
+        levels[0] = leafBytes;
+        for (int h = 1; h <= height; h++) {
+            final byte[] below = levels[h - 1];
+            final int belowWidth = getWidth(leafCount, h - 1);
+            final byte[] level = new byte[getWidth(leafCount, h) * 32];
+            Threading.runInChunks(level.length / 32, MIN_HASHES_PER_TASK, new Threading.RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    hashPairs(below, belowWidth, level, from, to);
+                }
+            });
+            levels[h] = level;
+        }
+        return new MerkleTree(levels, leafCount);
+    }
+
+    // Each node is the hash of its two children, or of its only child twice when the level below has odd width.
+    private static void hashPairs(byte[] below, int belowWidth, byte[] level, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte[] hash;
+            if (2 * i + 1 < belowWidth)
+                hash = Sha256Hash.hashTwice(below, 64 * i, 64);
+            else
+                hash = Sha256Hash.hashTwice(below, 64 * i, 32, below, 64 * i, 32);
+            System.arraycopy(hash, 0, level, 32 * i, 32);
+        }
+    }
+
+    private static void copyReversed(byte[] hash, byte[] dest, int index) {
+        int offset = index * 32;
+        for (int j = 0; j < 32; j++)
+            dest[offset + j] = hash[31 - j];
+    }
+
+    /** Returns the number of nodes at the given height, where height 0 holds the leaves. */
+    static int getWidth(int leafCount, int height) {
+        return (leafCount + (1 << height) - 1) >> height;
+    }
+
+    /** Returns the number of leaves. */
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    /** Returns the height of the root, a tree with a single leaf has height 0. */
+    public int getHeight() {
+        return levels.length - 1;
+    }
+
+    /** Returns the number of nodes at the given height, where height 0 holds the leaves. */
+    public int getWidth(int height) {
+        return getWidth(leafCount, height);
+    }
+
+    /** Returns the hash of the node at the given height and position. */
+    public Sha256Hash getHash(int height, int pos) {
+        checkArgument(height >= 0 && height < levels.length && pos >= 0 && pos < getWidth(height),
+                "No node at height %s position %s", height, pos);
+        byte[] hash = new byte[32];
+        copyReversed(levels[height], pos, hash);
+        return Sha256Hash.wrap(hash);
+    }
+
+    private static void copyReversed(byte[] level, int index, byte[] dest) {
+        int offset = index * 32;
+        for (int j = 0; j < 32; j++)
+            dest[j] = level[offset + 31 - j];
+    }
+
+    /** Returns the merkle root. */
+    public Sha256Hash getRoot() {
+        return getHash(getHeight(), 0);
+    }
+
+    /** Returns true if the leaves of this tree are the hashes of the given transactions, in order. */
+    public boolean hasLeaves(List<Transaction> transactions) {
+        if (transactions.size() != leafCount)
+            return false;
+        byte[] leaves = levels[0];
+        for (int i = 0; i < leafCount; i++) {
+            byte[] hash = transactions.get(i).getHash().getBytes();
+            for (int j = 0; j < 32; j++)
+                if (leaves[i * 32 + j] != hash[31 - j])
+                    return false;
+        }
+        return true;
+    }
+
+    /**
+     * <p>Sets the upper bound on the total number of nodes, 32 bytes each, of the trees kept in the cache that
+     * {@link Block#getMerkleTree()} looks trees up in. The cache is disabled by default, which is the same as setting
+     * zero. It only pays off for apps that serve proofs for the same blocks many times, such as filtered blocks to
+     * several peers, so verifying blocks never adds to it.</p>
+     *
+     * <p>Lowering the bound evicts the least recently used trees as needed.</p>
+     */
+    public static void setCacheMaxNodes(int maxNodes) {
+        checkArgument(maxNodes >= 0, "Negative cache size: %s", maxNodes);
+        cacheLock.lock();
+        try {
+            cacheMaxNodes = maxNodes;
+            evict();
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    /** Returns the bound set by {@link #setCacheMaxNodes(int)}, zero if the cache is disabled. */
+    public static int getCacheMaxNodes() {
+        cacheLock.lock();
+        try {
+            return cacheMaxNodes;
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the cached tree with the given root if its leaves are the given transactions, or null. Checking the
+     * leaves means that a block whose transaction list was tampered with without changing the root (see CVE-2012-2459)
+     * never gets the tree of the genuine block.
+     */
+    @Nullable
+    public static MerkleTree getCached(Sha256Hash root, List<Transaction> transactions) {
+        MerkleTree tree;
+        cacheLock.lock();
+        try {
+            tree = cache.get(root);
+        } finally {
+            cacheLock.unlock();
+        }
+        return tree != null && tree.hasLeaves(transactions) ? tree : null;
+    }
+
+    /**
+     * Adds the tree to the cache, evicting the least recently used trees once the cache holds more than
+     * {@link #getCacheMaxNodes()} nodes. Does nothing if the cache is disabled or the tree alone is too big for it.
+     */
+    public static void cache(MerkleTree tree) {
+        cacheLock.lock();
+        try {
+            if (tree.nodeCount > cacheMaxNodes)
+                return;
+            MerkleTree previous = cache.put(tree.getRoot(), tree);
+            if (previous != null)
+                cachedNodes -= previous.nodeCount;
+            cachedNodes += tree.nodeCount;
+            evict();
+        } finally {
+            cacheLock.unlock();
+        }
+    }
+
+    private static void evict() {
+        Iterator<Map.Entry<Sha256Hash, MerkleTree>> it = cache.entrySet().iterator();
+        while (cachedNodes > cacheMaxNodes && it.hasNext()) {
+            cachedNodes -= it.next().getValue().nodeCount;
+            it.remove();
+        }
+    }
+}
@@ -247,6 +247,25 @@ public abstract class Message {
         return buf;
     }
 
+    /**
+     * Calculates the hash of the hash of the serialized message. Cached bytes are hashed where they are, otherwise the
+     * message is serialized straight into the digest.
+     */
+    protected byte[] hashTwiceOfSerialization() {
+        // Serializing recaches the bytes in parse retain mode, later serializations benefit from that.
+        if (payload == null && serializer.isParseRetainMode())
+            unsafeBitcoinSerialize();
+        if (payload != null && length != UNKNOWN_LENGTH)
+            return Sha256Hash.hashTwice(payload, offset, length);
+        Sha256Hash.TwiceHashingOutputStream stream = new Sha256Hash.TwiceHashingOutputStream();
+        try {
+            bitcoinSerializeToStream(stream);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Cannot happen, the stream doesn't throw.
+        }
+        return stream.hashTwice();
+    }
+
     /**
      * Serialize this message to the provided OutputStream using the bitcoin wire format.
      *
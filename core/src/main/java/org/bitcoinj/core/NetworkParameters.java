@@ -21,6 +21,7 @@ import com.google.common.base.Objects;
 import org.bitcoinj.core.Block;
 import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.crypto.SignatureScheme;
 import org.bitcoinj.net.discovery.*;
 import org.bitcoinj.params.*;
 import org.bitcoinj.script.*;
@@ -106,6 +107,7 @@ public abstract class NetworkParameters {
     protected HttpDiscovery.Details[] httpSeeds = {};
     protected Map<Integer, Sha256Hash> checkpoints = new HashMap<>();
     protected transient MessageSerializer defaultSerializer = null;
+    protected SignatureScheme signatureScheme = SignatureScheme.ECDSA;
 
     protected NetworkParameters() {
         alertSigningKey = SATOSHI_KEY;
@@ -473,6 +475,15 @@ public abstract class NetworkParameters {
         return majorityWindow;
     }
 
+    /**
+     * The scheme wallets sign transactions with. For {@link SignatureScheme#SCHNORR} the
+     * {@link Script.VerifyFlag#SCHNORR} flag is applied to all transactions, so that scripts accept Schnorr signatures
+     * as well as ECDSA ones. Bitcoin networks use ECDSA, chains of their own can set this field to enable Schnorr.
+     */
+    public SignatureScheme getSignatureScheme() {
+        return signatureScheme;
+    }
+
     /**
      * The flags indicating which block validation tests should be applied to
      * the given block. Enables support for alternative blockchains which enable
@@ -518,6 +529,9 @@ public abstract class NetworkParameters {
             verifyFlags.add(Script.VerifyFlag.CHECKLOCKTIMEVERIFY);
         }
 
+        if (getSignatureScheme() == SignatureScheme.SCHNORR)
+            verifyFlags.add(Script.VerifyFlag.SCHNORR);
+
         return verifyFlags;
     }
 
@@ -0,0 +1,174 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Holds the blocks that {@link AbstractBlockChain} received but can't plug into the chain yet, indexed both by hash
+ * and by the hash of the previous block, so that the orphans a newly connected block makes connectable are found
+ * without looking at all of them. The pool is bounded by an estimate of the memory its blocks use, beyond which the
+ * oldest orphans are evicted. Not thread safe, the block chain only uses it while holding its lock.
+ */
+class OrphanBlockPool {
+    // Estimated memory used by an entry apart from the block data, for the maps and the objects themselves.
+    private static final int ENTRY_OVERHEAD = 256;
+
+    // Holds a block header and, optionally, a list of tx hashes or block's transactions
+    static class OrphanBlock {
+        final Block block;
+        final List<Sha256Hash> filteredTxHashes;
+        final Map<Sha256Hash, Transaction> filteredTxn;
+        final long size;
+        OrphanBlock(Block block, @Nullable List<Sha256Hash> filteredTxHashes, @Nullable Map<Sha256Hash, Transaction> filteredTxn) {
+            final boolean filtered = filteredTxHashes != null && filteredTxn != null;
+            Preconditions.checkArgument((block.transactions == null && filtered)
+                                        || (block.transactions != null && !filtered));
+            this.block = block;
+            this.filteredTxHashes = filteredTxHashes;
+            this.filteredTxn = filteredTxn;
+            long size = ENTRY_OVERHEAD + block.getOptimalEncodingMessageSize();
+            if (filtered) {
+                size += filteredTxHashes.size() * 32;
+                for (Transaction tx : filteredTxn.values())
+                    size += tx.getOptimalEncodingMessageSize();
+            }
+            this.size = size;
+        }
+    }
+
+    // In insertion order, so that the oldest orphans are evicted first.
+    private final LinkedHashMap<Sha256Hash, OrphanBlock> byHash = new LinkedHashMap<>();
+    private final HashMap<Sha256Hash, List<OrphanBlock>> byPrevHash = new HashMap<>();
+    private long maxBytes;
+    private long bytes;
+    private long connected;
+    private long evicted;
+
+    OrphanBlockPool(long maxBytes) {
+        setMaxBytes(maxBytes);
+    }
+
+    void setMaxBytes(long maxBytes) {
+        checkArgument(maxBytes > 0, "Max bytes must be positive");
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** Adds the orphan, then evicts the oldest orphans other than the new one while the pool is over its limit. */
+    void add(OrphanBlock orphan) {
+        Sha256Hash hash = orphan.block.getHash();
+        if (byHash.containsKey(hash))
+            return;
+        byHash.put(hash, orphan);
+        Sha256Hash prevHash = orphan.block.getPrevBlockHash();
+        List<OrphanBlock> siblings = byPrevHash.get(prevHash);
+        if (siblings == null) {
+            siblings = new ArrayList<>(1);
+            byPrevHash.put(prevHash, siblings);
+        }
+        siblings.add(orphan);
+        bytes += orphan.size;
+        evict();
+    }
+
+    private void evict() {
+        // The newest orphan is kept even if it is over the limit by itself, as callers look it up right after adding.
+        Iterator<OrphanBlock> it = byHash.values().iterator();
+        while (bytes > maxBytes && byHash.size() > 1) {
+            OrphanBlock orphan = it.next();
+            it.remove();
+            unindex(orphan);
+            evicted++;
+        }
+    }
+
+    private void unindex(OrphanBlock orphan) {
+        Sha256Hash prevHash = orphan.block.getPrevBlockHash();
+        List<OrphanBlock> siblings = byPrevHash.get(prevHash);
+        siblings.remove(orphan);
+        if (siblings.isEmpty())
+            byPrevHash.remove(prevHash);
+        bytes -= orphan.size;
+    }
+
+    @Nullable
+    OrphanBlock get(Sha256Hash hash) {
+        return byHash.get(hash);
+    }
+
+    boolean contains(Sha256Hash hash) {
+        return byHash.containsKey(hash);
+    }
+
+    /** Returns the orphans that build on the given block. They stay in the pool until removed. */
+    List<OrphanBlock> getChildren(Sha256Hash prevHash) {
+        List<OrphanBlock> children = byPrevHash.get(prevHash);
+        return children != null ? new ArrayList<>(children) : Collections.<OrphanBlock>emptyList();
+    }
+
+    /** Removes the orphan, counting it as connected if it was. */
+    void remove(OrphanBlock orphan, boolean wasConnected) {
+        if (byHash.remove(orphan.block.getHash()) == null)
+            return;
+        unindex(orphan);
+        if (wasConnected)
+            connected++;
+    }
+
+    /** Removes all orphans, returning their hashes. */
+    Set<Sha256Hash> drain() {
+        Set<Sha256Hash> hashes = new HashSet<>(byHash.keySet());
+        byHash.clear();
+        byPrevHash.clear();
+        bytes = 0;
+        return hashes;
+    }
+
+    int size() {
+        return byHash.size();
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    long getConnected() {
+        return connected;
+    }
+
+    long getEvicted() {
+        return evicted;
+    }
+}
@@ -687,6 +687,9 @@ public class Peer extends PeerSocketHandler {
 
         try {
             checkState(!downloadBlockBodies, toString());
+            // Check the proof of work of all headers in parallel, so that adding them to the chain one by one below
+            // only does the checks that need the chain.
+            Block.verifyHeaders(m.getBlockHeaders());
             for (int i = 0; i < m.getBlockHeaders().size(); i++) {
                 Block header = m.getBlockHeaders().get(i);
                 // Process headers until we pass the fast catchup time, or are about to catch up with the head
@@ -23,6 +23,7 @@ import com.google.common.primitives.*;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.security.MessageDigest;
@@ -39,6 +40,16 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
     public static final int LENGTH = 32; // bytes
     public static final Sha256Hash ZERO_HASH = wrap(new byte[LENGTH]);
 
+    // Looking up the provider is slow, so new digests are cloned from this one.
+    private static final MessageDigest PROTOTYPE_DIGEST = getDigestInstance();
+    // Reused by the static hash methods, which never let a digest escape.
+    private static final ThreadLocal<MessageDigest> THREAD_DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return newDigest();
+        }
+    };
+
     private final byte[] bytes;
 
     /**
@@ -154,6 +165,14 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
      * @return a new SHA-256 MessageDigest instance
      */
     public static MessageDigest newDigest() {
+        try {
+            return (MessageDigest) PROTOTYPE_DIGEST.clone();
+        } catch (CloneNotSupportedException e) {
+            return getDigestInstance();
+        }
+    }
+
+    private static MessageDigest getDigestInstance() {
         try {
             return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
@@ -161,6 +180,13 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
         }
     }
 
+    // The digest of the calling thread, reset in case a previous use was interrupted by an exception.
+    private static MessageDigest threadDigest() {
+        MessageDigest digest = THREAD_DIGEST.get();
+        digest.reset();
+        return digest;
+    }
+
     /**
      * Calculates the SHA-256 hash of the given bytes.
      *
@@ -180,7 +206,7 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
      * @return the hash (in big-endian order)
      */
     public static byte[] hash(byte[] input, int offset, int length) {
-        MessageDigest digest = newDigest();
+        MessageDigest digest = threadDigest();
         digest.update(input, offset, length);
         return digest.digest();
     }
@@ -206,7 +232,7 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
      * @return the double-hash (in big-endian order)
      */
     public static byte[] hashTwice(byte[] input, int offset, int length) {
-        MessageDigest digest = newDigest();
+        MessageDigest digest = threadDigest();
         digest.update(input, offset, length);
         return digest.digest(digest.digest());
     }
@@ -217,12 +243,37 @@ public class Sha256Hash implements Serializable, Comparable<Sha256Hash> {
      */
     public static byte[] hashTwice(byte[] input1, int offset1, int length1,
                                    byte[] input2, int offset2, int length2) {
-        MessageDigest digest = newDigest();
+        MessageDigest digest = threadDigest();
         digest.update(input1, offset1, length1);
         digest.update(input2, offset2, length2);
         return digest.digest(digest.digest());
     }
 
+    /**
+     * An output stream that calculates the hash of hash of everything written to it, so that messages can be serialized
+     * straight into the digest instead of into a byte array first. Not thread safe.
+     */
+    public static class TwiceHashingOutputStream extends OutputStream {
+        private final MessageDigest digest = newDigest();
+
+        @Override
+        public void write(int b) {
+            digest.update((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            digest.update(b, off, len);
+        }
+
+        /**
+         * Returns the hash of the hash of the bytes written so far (in big-endian order) and resets the stream.
+         */
+        public byte[] hashTwice() {
+            return digest.digest(digest.digest());
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
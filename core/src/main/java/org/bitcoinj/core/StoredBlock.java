@@ -20,6 +20,8 @@ import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 import com.google.common.base.Objects;
 
+import javax.annotation.Nullable;
+
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.Locale;
@@ -115,6 +117,18 @@ public class StoredBlock {
         return store.get(getHeader().getPrevBlockHash());
     }
 
+    /**
+     * Given a block store, looks up the ancestor of this block at the given height. Convenience method for doing
+     * <tt>store.getAncestor(this, height)</tt>, see {@link BlockStore#getAncestor(StoredBlock, int)}.
+     *
+     * @return the ancestor, this block if the height is its own, or null if the chain could not be followed back to
+     * that height.
+     */
+    @Nullable
+    public StoredBlock getAncestor(BlockStore store, int height) throws BlockStoreException {
+        return store.getAncestor(this, height);
+    }
+
     /** Serializes the stored block to a custom packed format. Used by {@link CheckpointManager}. */
     public void serializeCompact(ByteBuffer buffer) {
         byte[] chainWorkBytes = getChainWork().toByteArray();
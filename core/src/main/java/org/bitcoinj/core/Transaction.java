@@ -18,6 +18,7 @@
 package org.bitcoinj.core;
 
 import org.bitcoinj.core.TransactionConfidence.ConfidenceType;
+import org.bitcoinj.crypto.SignatureScheme;
 import org.bitcoinj.crypto.TransactionSignature;
 import org.bitcoinj.script.Script;
 import org.bitcoinj.script.ScriptBuilder;
@@ -45,6 +46,7 @@ import static org.bitcoinj.core.Utils.*;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import java.math.BigInteger;
+import java.security.MessageDigest;
 
 /**
  * <p>A transaction represents the movement of coins from some addresses to some other addresses. It can also represent
@@ -250,7 +252,7 @@ public class Transaction extends ChildMessage {
     @Override
     public Sha256Hash getHash() {
         if (hash == null) {
-            hash = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(unsafeBitcoinSerialize()));
+            hash = Sha256Hash.wrapReversed(hashTwiceOfSerialization());
         }
         return hash;
     }
@@ -921,6 +923,25 @@ public class Transaction extends ChildMessage {
         return new TransactionSignature(key.sign(hash), hashType, anyoneCanPay);
     }
 
+    /**
+     * Calculates a signature of the given scheme that is valid for being inserted into the input at the given position,
+     * like {@link #calculateSignature(int, ECKey, byte[], SigHash, boolean)} does for ECDSA. The key must be usable
+     * for signing as-is.
+     *
+     * @param inputIndex Which input to calculate the signature for, as an index.
+     * @param key The private key used to calculate the signature.
+     * @param redeemScript Byte-exact contents of the scriptPubKey that is being satisified, or the P2SH redeem script.
+     * @param hashType Signing mode, see the enum for documentation.
+     * @param anyoneCanPay Signing mode, see the SigHash enum for documentation.
+     * @param scheme The signature scheme, usually {@link NetworkParameters#getSignatureScheme()}.
+     * @return A newly calculated signature object that wraps the r, s and sighash components.
+     */
+    public TransactionSignature calculateSignature(int inputIndex, ECKey key, byte[] redeemScript,
+                                                   SigHash hashType, boolean anyoneCanPay, SignatureScheme scheme) {
+        Sha256Hash hash = hashForSignature(inputIndex, redeemScript, hashType, anyoneCanPay);
+        return new TransactionSignature(scheme.sign(key, hash, null), hashType, anyoneCanPay, scheme);
+    }
+
     /**
      * Calculates a signature that is valid for being inserted into the input at the given position. This is simply
      * a wrapper around calling {@link Transaction#hashForSignature(int, byte[], org.bitcoinj.core.Transaction.SigHash, boolean)}
@@ -1033,84 +1054,131 @@ public class Transaction extends ChildMessage {
         //
         //   https://en.bitcoin.it/wiki/Contracts
 
-        try {
-            // Create a copy of this transaction to operate upon because we need make changes to the inputs and outputs.
-            // It would not be thread-safe to change the attributes of the transaction object itself.
-            Transaction tx = this.params.getDefaultSerializer().makeTransaction(this.bitcoinSerialize());
-
-            // Clear input scripts in preparation for signing. If we're signing a fresh
-            // transaction that step isn't very helpful, but it doesn't add much cost relative to the actual
-            // EC math so we'll do it anyway.
-            for (int i = 0; i < tx.inputs.size(); i++) {
-                tx.inputs.get(i).clearScriptBytes();
-            }
+        // The signature hash covers a modified form of this transaction. Rather than making a copy of the transaction
+        // and modifying that, which is costly for transactions with many inputs as it's done for every input, the
+        // modified serialization is written straight into the digest.
+        TransactionInput input = inputs.get(inputIndex);
+
+        // This step has no purpose beyond being synchronized with Bitcoin Core's bugs. OP_CODESEPARATOR
+        // is a legacy holdover from a previous, broken design of executing scripts that shipped in Bitcoin 0.1.
+        // It was seriously flawed and would have let anyone take anyone elses money. Later versions switched to
+        // the design we use today where scripts are executed independently but share a stack. This left the
+        // OP_CODESEPARATOR instruction having no purpose as it was only meant to be used internally, not actually
+        // ever put into scripts. Deleting OP_CODESEPARATOR is a step that should never be required but if we don't
+        // do it, we could split off the main chain.
+        connectedScript = Script.removeAllInstancesOfOp(connectedScript, ScriptOpCodes.OP_CODESEPARATOR);
+
+        // SIGHASH_NONE means no outputs are signed at all - the signature is effectively for a "blank cheque".
+        // SIGHASH_SINGLE means only sign the output at the same index as the input (ie, my output).
+        boolean none = (sigHashType & 0x1f) == SigHash.NONE.value;
+        boolean single = (sigHashType & 0x1f) == SigHash.SINGLE.value;
+        // SIGHASH_ANYONECANPAY means the signature in the input is not broken by changes/additions/removals
+        // of other inputs. For example, this is useful for building assurance contracts.
+        boolean anyoneCanPay = (sigHashType & SigHash.ANYONECANPAY.value) == SigHash.ANYONECANPAY.value;
+
+        if (single && inputIndex >= outputs.size()) {
+            // The input index is beyond the number of outputs, it's a buggy signature made by a broken
+            // Bitcoin implementation. Bitcoin Core also contains a bug in handling this case:
+            // any transaction output that is signed in this case will result in both the signed output
+            // and any future outputs to this public key being steal-able by anyone who has
+            // the resulting signature and the public key (both of which are part of the signed tx input).
+
+            // Bitcoin Core's bug is that SignatureHash was supposed to return a hash and on this codepath it
+            // actually returns the constant "1" to indicate an error, which is never checked for. Oops.
+            return Sha256Hash.wrap("0100000000000000000000000000000000000000000000000000000000000000");
+        }
 
-            // This step has no purpose beyond being synchronized with Bitcoin Core's bugs. OP_CODESEPARATOR
-            // is a legacy holdover from a previous, broken design of executing scripts that shipped in Bitcoin 0.1.
-            // It was seriously flawed and would have let anyone take anyone elses money. Later versions switched to
-            // the design we use today where scripts are executed independently but share a stack. This left the
-            // OP_CODESEPARATOR instruction having no purpose as it was only meant to be used internally, not actually
-            // ever put into scripts. Deleting OP_CODESEPARATOR is a step that should never be required but if we don't
-            // do it, we could split off the main chain.
-            connectedScript = Script.removeAllInstancesOfOp(connectedScript, ScriptOpCodes.OP_CODESEPARATOR);
-
-            // Set the input to the script of its output. Bitcoin Core does this but the step has no obvious purpose as
-            // the signature covers the hash of the prevout transaction which obviously includes the output script
-            // already. Perhaps it felt safer to him in some way, or is another leftover from how the code was written.
-            TransactionInput input = tx.inputs.get(inputIndex);
-            input.setScriptBytes(connectedScript);
-
-            if ((sigHashType & 0x1f) == SigHash.NONE.value) {
-                // SIGHASH_NONE means no outputs are signed at all - the signature is effectively for a "blank cheque".
-                tx.outputs = new ArrayList<>(0);
-                // The signature isn't broken by new versions of the transaction issued by other parties.
-                for (int i = 0; i < tx.inputs.size(); i++)
-                    if (i != inputIndex)
-                        tx.inputs.get(i).setSequenceNumber(0);
-            } else if ((sigHashType & 0x1f) == SigHash.SINGLE.value) {
-                // SIGHASH_SINGLE means only sign the output at the same index as the input (ie, my output).
-                if (inputIndex >= tx.outputs.size()) {
-                    // The input index is beyond the number of outputs, it's a buggy signature made by a broken
-                    // Bitcoin implementation. Bitcoin Core also contains a bug in handling this case:
-                    // any transaction output that is signed in this case will result in both the signed output
-                    // and any future outputs to this public key being steal-able by anyone who has
-                    // the resulting signature and the public key (both of which are part of the signed tx input).
-
-                    // Bitcoin Core's bug is that SignatureHash was supposed to return a hash and on this codepath it
-                    // actually returns the constant "1" to indicate an error, which is never checked for. Oops.
-                    return Sha256Hash.wrap("0100000000000000000000000000000000000000000000000000000000000000");
-                }
-                // In SIGHASH_SINGLE the outputs after the matching input index are deleted, and the outputs before
-                // that position are "nulled out". Unintuitively, the value in a "null" transaction is set to -1.
-                tx.outputs = new ArrayList<>(tx.outputs.subList(0, inputIndex + 1));
-                for (int i = 0; i < inputIndex; i++)
-                    tx.outputs.set(i, new TransactionOutput(tx.params, tx, Coin.NEGATIVE_SATOSHI, new byte[] {}));
-                // The signature isn't broken by new versions of the transaction issued by other parties.
-                for (int i = 0; i < tx.inputs.size(); i++)
-                    if (i != inputIndex)
-                        tx.inputs.get(i).setSequenceNumber(0);
+        MessageDigest digest = Sha256Hash.newDigest();
+        // Big enough for an outpoint, the largest item written in one go below.
+        byte[] buf = new byte[36];
+        updateUint32(digest, buf, version);
+
+        updateVarInt(digest, buf, anyoneCanPay ? 1 : inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            TransactionInput in = inputs.get(i);
+            if (anyoneCanPay && in != input)
+                continue;
+            TransactionOutPoint outpoint = in.getOutpoint();
+            byte[] hash = outpoint.getHash().getBytes();
+            for (int j = 0; j < 32; j++)
+                buf[j] = hash[31 - j];
+            uint32ToByteArrayLE(outpoint.getIndex(), buf, 32);
+            digest.update(buf, 0, 36);
+            // Input scripts are cleared, except for the one being signed which is set to the script of its output.
+            // Bitcoin Core does this but the step has no obvious purpose as the signature covers the hash of the prevout
+            // transaction which obviously includes the output script already. Perhaps it felt safer to him in some
+            // way, or is another leftover from how the code was written.
+            if (in == input) {
+                updateVarInt(digest, buf, connectedScript.length);
+                digest.update(connectedScript);
+            } else {
+                updateVarInt(digest, buf, 0);
             }
+            // For NONE and SINGLE, the signature isn't broken by new versions of the transaction issued by other
+            // parties.
+            updateUint32(digest, buf, (none || single) && in != input ? 0 : in.getSequenceNumber());
+        }
 
-            if ((sigHashType & SigHash.ANYONECANPAY.value) == SigHash.ANYONECANPAY.value) {
-                // SIGHASH_ANYONECANPAY means the signature in the input is not broken by changes/additions/removals
-                // of other inputs. For example, this is useful for building assurance contracts.
-                tx.inputs = new ArrayList<TransactionInput>();
-                tx.inputs.add(input);
+        if (none) {
+            updateVarInt(digest, buf, 0);
+        } else if (single) {
+            // In SIGHASH_SINGLE the outputs after the matching input index are deleted, and the outputs before
+            // that position are "nulled out". Unintuitively, the value in a "null" transaction is set to -1.
+            updateVarInt(digest, buf, inputIndex + 1);
+            for (int i = 0; i < inputIndex; i++) {
+                uint64ToByteArrayLE(Coin.NEGATIVE_SATOSHI.value, buf, 0);
+                digest.update(buf, 0, 8);
+                updateVarInt(digest, buf, 0);
             }
+            updateOutput(digest, buf, outputs.get(inputIndex));
+        } else {
+            updateVarInt(digest, buf, outputs.size());
+            for (TransactionOutput output : outputs)
+                updateOutput(digest, buf, output);
+        }
+
+        updateUint32(digest, buf, lockTime);
+        // We also have to write a hash type (sigHashType is actually an unsigned char)
+        updateUint32(digest, buf, 0x000000ff & sigHashType);
+        // Note that this is NOT reversed to ensure it will be signed correctly. If it were to be printed out
+        // however then we would expect that it is IS reversed.
+        return Sha256Hash.wrap(digest.digest(digest.digest()));
+    }
+
+    private static void updateUint32(MessageDigest digest, byte[] buf, long val) {
+        uint32ToByteArrayLE(val, buf, 0);
+        digest.update(buf, 0, 4);
+    }
 
-            ByteArrayOutputStream bos = new UnsafeByteArrayOutputStream(tx.length == UNKNOWN_LENGTH ? 256 : tx.length + 4);
-            tx.bitcoinSerialize(bos);
-            // We also have to write a hash type (sigHashType is actually an unsigned char)
-            uint32ToByteStreamLE(0x000000ff & sigHashType, bos);
-            // Note that this is NOT reversed to ensure it will be signed correctly. If it were to be printed out
-            // however then we would expect that it is IS reversed.
-            Sha256Hash hash = Sha256Hash.twiceOf(bos.toByteArray());
-            bos.close();
-
-            return hash;
-        } catch (IOException e) {
-            throw new RuntimeException(e);  // Cannot happen.
+    private static void updateVarInt(MessageDigest digest, byte[] buf, long val) {
+        int size = VarInt.sizeOf(val);
+        switch (size) {
+            case 1:
+                buf[0] = (byte) val;
+                break;
+            case 3:
+                buf[0] = (byte) 253;
+                buf[1] = (byte) val;
+                buf[2] = (byte) (val >> 8);
+                break;
+            case 5:
+                buf[0] = (byte) 254;
+                uint32ToByteArrayLE(val, buf, 1);
+                break;
+            default:
+                buf[0] = (byte) 255;
+                uint64ToByteArrayLE(val, buf, 1);
+                break;
         }
+        digest.update(buf, 0, size);
+    }
+
+    private static void updateOutput(MessageDigest digest, byte[] buf, TransactionOutput output) {
+        uint64ToByteArrayLE(output.getValue().value, buf, 0);
+        digest.update(buf, 0, 8);
+        byte[] scriptBytes = output.getScriptBytes();
+        updateVarInt(digest, buf, scriptBytes.length);
+        digest.update(scriptBytes);
     }
 
     @Override
@@ -1198,6 +1266,7 @@ public class Transaction extends ChildMessage {
 
     /** Randomly re-orders the transaction outputs: good for privacy */
     public void shuffleOutputs() {
+        unCache();
         Collections.shuffle(outputs);
     }
 
@@ -74,4 +74,43 @@ public class TransactionOutputChanges {
             output.serializeToStream(bos);
         }
     }
+
+    /**
+     * Writes the changes in the compact encoding of {@link TxOutCompressor}, where every output is its outpoint
+     * followed by {@link UTXO#serializeCompact(OutputStream)}. Read it back with
+     * {@link #deserializeCompact(NetworkParameters, InputStream)}.
+     */
+    public void serializeCompact(OutputStream out) throws IOException {
+        serializeCompact(txOutsCreated, out);
+        serializeCompact(txOutsSpent, out);
+    }
+
+    private static void serializeCompact(List<UTXO> outputs, OutputStream out) throws IOException {
+        TxOutCompressor.writeVarInt(outputs.size(), out);
+        for (UTXO output : outputs) {
+            out.write(output.getHash().getBytes());
+            TxOutCompressor.writeVarInt(output.getIndex(), out);
+            output.serializeCompact(out);
+        }
+    }
+
+    /** Reads changes written by {@link #serializeCompact(OutputStream)}. */
+    public static TransactionOutputChanges deserializeCompact(NetworkParameters params, InputStream in)
+            throws IOException {
+        List<UTXO> txOutsCreated = deserializeCompactList(params, in);
+        List<UTXO> txOutsSpent = deserializeCompactList(params, in);
+        return new TransactionOutputChanges(txOutsCreated, txOutsSpent);
+    }
+
+    private static List<UTXO> deserializeCompactList(NetworkParameters params, InputStream in) throws IOException {
+        long size = TxOutCompressor.readVarInt(in);
+        List<UTXO> outputs = new LinkedList<>();
+        for (long i = 0; i < size; i++) {
+            byte[] hash = new byte[32];
+            TxOutCompressor.readFully(in, hash, 0, 32);
+            long index = TxOutCompressor.readVarInt(in);
+            outputs.add(UTXO.deserializeCompact(params, Sha256Hash.wrap(hash), index, in));
+        }
+        return outputs;
+    }
 }
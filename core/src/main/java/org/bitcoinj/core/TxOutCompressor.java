@@ -0,0 +1,236 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.spongycastle.math.ec.ECPoint;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.bitcoinj.script.ScriptOpCodes.*;
+
+/**
+ * <p>The compact encoding of transaction outputs that Bitcoin Core uses for its chain state, used by the full pruned
+ * block stores for unspent outputs and undo data.</p>
+ *
+ * <p>Numbers are written as variable length integers with 7 bits per byte, most significant first, where every byte
+ * but the last has the top bit set. Unlike {@link VarInt} small numbers take a single byte. Amounts are compressed
+ * first, so that round amounts such as 0.01 BTC take a byte or two. Scripts of the usual templates are reduced to the
+ * hash or key they contain: pay to pubkey hash and pay to script hash take 21 bytes and pay to pubkey 33 bytes. Other
+ * scripts are written as their length plus {@link #SPECIAL_SCRIPTS}, followed by the script itself.</p>
+ */
+public class TxOutCompressor {
+    /** The number of script templates, whose codes precede the lengths of other scripts. */
+    public static final int SPECIAL_SCRIPTS = 6;
+
+    // Scripts longer than this are not plausible, it is the maximum size of a block.
+    private static final int MAX_SCRIPT_SIZE = Block.MAX_BLOCK_SIZE;
+
+    private TxOutCompressor() {
+    }
+
+    /** Writes an unsigned variable length integer. */
+    public static void writeVarInt(long n, OutputStream out) throws IOException {
+        checkArgument(n >= 0, "Negative number: %s", n);
+        byte[] tmp = new byte[10];
+        int len = 0;
+        while (true) {
+            tmp[len] = (byte) ((n & 0x7F) | (len != 0 ? 0x80 : 0x00));
+            if (n <= 0x7F)
+                break;
+            n = (n >> 7) - 1;
+            len++;
+        }
+        do {
+            out.write(tmp[len]);
+        } while (len-- > 0);
+    }
+
+    /** Reads an unsigned variable length integer written by {@link #writeVarInt(long, OutputStream)}. */
+    public static long readVarInt(InputStream in) throws IOException {
+        long n = 0;
+        while (true) {
+            int ch = read(in);
+            if (n > (Long.MAX_VALUE >> 7))
+                throw new IOException("Variable length integer is too large");
+            n = (n << 7) | (ch & 0x7F);
+            if ((ch & 0x80) != 0)
+                n++;
+            else
+                return n;
+        }
+    }
+
+    /**
+     * Compresses an amount of satoshis by taking out the trailing zeros as an exponent. If the remaining digits end
+     * in 1 to 9, the last digit is stored in the 1..9 range, otherwise the exponent is 9 and the digits are stored
+     * as they are.
+     */
+    public static long compressAmount(long n) {
+        checkArgument(n >= 0, "Negative amount: %s", n);
+        if (n == 0)
+            return 0;
+        int e = 0;
+        while ((n % 10) == 0 && e < 9) {
+            n /= 10;
+            e++;
+        }
+        if (e < 9) {
+            int d = (int) (n % 10);
+            n /= 10;
+            return 1 + (n * 9 + d - 1) * 10 + e;
+        } else {
+            return 1 + (n - 1) * 10 + 9;
+        }
+    }
+
+    /** Reverses {@link #compressAmount(long)}. */
+    public static long decompressAmount(long x) {
+        if (x == 0)
+            return 0;
+        x--;
+        int e = (int) (x % 10);
+        x /= 10;
+        long n;
+        if (e < 9) {
+            int d = (int) (x % 9) + 1;
+            x /= 9;
+            n = x * 10 + d;
+        } else {
+            n = x + 1;
+        }
+        while (e > 0) {
+            n *= 10;
+            e--;
+        }
+        return n;
+    }
+
+    /** Writes a script program, reduced to its hash or key if it matches one of the usual templates. */
+    public static void writeScript(byte[] program, OutputStream out) throws IOException {
+        int len = program.length;
+        if (len == 25 && program[0] == OP_DUP && program[1] == (byte) OP_HASH160 && program[2] == 20
+                && program[23] == (byte) OP_EQUALVERIFY && program[24] == (byte) OP_CHECKSIG) {
+            out.write(0x00);
+            out.write(program, 3, 20);
+        } else if (len == 23 && program[0] == (byte) OP_HASH160 && program[1] == 20
+                && program[22] == (byte) OP_EQUAL) {
+            out.write(0x01);
+            out.write(program, 2, 20);
+        } else if (len == 35 && program[0] == 33 && program[34] == (byte) OP_CHECKSIG
+                && (program[1] == 0x02 || program[1] == 0x03)) {
+            out.write(program, 1, 33);
+        } else if (len == 67 && program[0] == 65 && program[66] == (byte) OP_CHECKSIG && program[1] == 0x04
+                && isValidPoint(Arrays.copyOfRange(program, 1, 66))) {
+            // Only the x coordinate is kept, the parity of y is in the code so that the key can be restored.
+            out.write(0x04 | (program[65] & 0x01));
+            out.write(program, 2, 32);
+        } else {
+            writeVarInt(len + SPECIAL_SCRIPTS, out);
+            out.write(program);
+        }
+    }
+
+    /** Reads a script program written by {@link #writeScript(byte[], OutputStream)}. */
+    public static byte[] readScript(InputStream in) throws IOException {
+        long code = readVarInt(in);
+        switch ((int) Math.min(code, SPECIAL_SCRIPTS)) {
+            case 0x00: {
+                byte[] program = new byte[25];
+                program[0] = OP_DUP;
+                program[1] = (byte) OP_HASH160;
+                program[2] = 20;
+                readFully(in, program, 3, 20);
+                program[23] = (byte) OP_EQUALVERIFY;
+                program[24] = (byte) OP_CHECKSIG;
+                return program;
+            }
+            case 0x01: {
+                byte[] program = new byte[23];
+                program[0] = (byte) OP_HASH160;
+                program[1] = 20;
+                readFully(in, program, 2, 20);
+                program[22] = (byte) OP_EQUAL;
+                return program;
+            }
+            case 0x02:
+            case 0x03: {
+                byte[] program = new byte[35];
+                program[0] = 33;
+                program[1] = (byte) code;
+                readFully(in, program, 2, 32);
+                program[34] = (byte) OP_CHECKSIG;
+                return program;
+            }
+            case 0x04:
+            case 0x05: {
+                byte[] compressed = new byte[33];
+                compressed[0] = (byte) (code - 2);
+                readFully(in, compressed, 1, 32);
+                byte[] pubKey;
+                try {
+                    pubKey = ECKey.CURVE.getCurve().decodePoint(compressed).getEncoded(false);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid compressed pubkey", e);
+                }
+                byte[] program = new byte[67];
+                program[0] = 65;
+                System.arraycopy(pubKey, 0, program, 1, 65);
+                program[66] = (byte) OP_CHECKSIG;
+                return program;
+            }
+            default: {
+                long len = code - SPECIAL_SCRIPTS;
+                if (len > MAX_SCRIPT_SIZE)
+                    throw new IOException("Script is too large: " + len);
+                byte[] program = new byte[(int) len];
+                readFully(in, program, 0, program.length);
+                return program;
+            }
+        }
+    }
+
+    private static boolean isValidPoint(byte[] encoded) {
+        try {
+            ECPoint point = ECKey.CURVE.getCurve().decodePoint(encoded);
+            return point.isValid();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static int read(InputStream in) throws IOException {
+        int ch = in.read();
+        if (ch < 0)
+            throw new EOFException();
+        return ch;
+    }
+
+    static void readFully(InputStream in, byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(bytes, offset, length);
+            if (read < 0)
+                throw new EOFException();
+            offset += read;
+            length -= read;
+        }
+    }
+}
@@ -41,6 +41,8 @@ public class UTXO implements Serializable {
     private int height;
     private boolean coinbase;
     private String address;
+    // Set by deserializeCompact, where the address is derived from the script on first use.
+    private transient NetworkParameters params;
 
     /**
      * Creates a stored transaction output.
@@ -121,8 +123,20 @@ public class UTXO implements Serializable {
         return coinbase;
     }
 
-    /** The address of this output, can be the empty string if none was provided at construction time or was deserialized */
+    /**
+     * The address of this output, can be the empty string if none was provided at construction time or was deserialized.
+     * Outputs read by {@link #deserializeCompact(NetworkParameters, Sha256Hash, long, InputStream)} derive it here.
+     */
     public String getAddress() {
+        if (address == null && params != null) {
+            String derived = "";
+            try {
+                derived = script.getToAddress(params, true).toString();
+            } catch (ScriptException | IllegalArgumentException e) {
+                // Not sent to an address, or to a malformed public key.
+            }
+            address = derived;
+        }
         return address;
     }
 
@@ -201,6 +215,33 @@ public class UTXO implements Serializable {
     }
     
     
+    /**
+     * Writes this output in the compact encoding of {@link TxOutCompressor}: the height and coinbase flag, the
+     * compressed value and the compressed script. The outpoint is left out, as stores keep it in the key, and so is
+     * the address, which can be derived from the script.
+     */
+    public void serializeCompact(OutputStream out) throws IOException {
+        TxOutCompressor.writeVarInt(((long) height << 1) | (coinbase ? 1 : 0), out);
+        TxOutCompressor.writeVarInt(TxOutCompressor.compressAmount(value.value), out);
+        TxOutCompressor.writeScript(script.getProgram(), out);
+    }
+
+    /**
+     * Reads an output written by {@link #serializeCompact(OutputStream)}, with the given outpoint. The address is
+     * derived from the script the same way {@link FullPrunedBlockChain} does when it first stores the output, so that
+     * outputs read back from a store or from undo data can still be found by address. That takes a double SHA-256, so
+     * it is put off until {@link #getAddress()} is first called.
+     */
+    public static UTXO deserializeCompact(NetworkParameters params, Sha256Hash hash, long index, InputStream in)
+            throws IOException {
+        long code = TxOutCompressor.readVarInt(in);
+        Coin value = Coin.valueOf(TxOutCompressor.decompressAmount(TxOutCompressor.readVarInt(in)));
+        Script script = new Script(TxOutCompressor.readScript(in));
+        UTXO utxo = new UTXO(hash, index, value, (int) (code >>> 1), (code & 1) == 1, script, null);
+        utxo.params = params;
+        return utxo;
+    }
+
     private void writeObject(ObjectOutputStream o) throws IOException {
         serializeToStream(o);
     }
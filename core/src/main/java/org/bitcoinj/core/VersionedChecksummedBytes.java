@@ -36,6 +36,8 @@ import com.google.common.primitives.UnsignedBytes;
 public class VersionedChecksummedBytes implements Serializable, Cloneable, Comparable<VersionedChecksummedBytes> {
     protected final int version;
     protected byte[] bytes;
+    // Memoised result of toBase58(), subclasses must not modify bytes once it may have been computed.
+    private transient String base58;
 
     protected VersionedChecksummedBytes(String encoded) throws AddressFormatException {
         byte[] versionAndDataBytes = Base58.decodeChecked(encoded);
@@ -58,12 +60,9 @@ public class VersionedChecksummedBytes implements Serializable, Cloneable, Compa
     public final String toBase58() {
         // A stringified buffer is:
         //   1 byte version + data bytes + 4 bytes check code (a truncated hash)
-        byte[] addressBytes = new byte[1 + bytes.length + 4];
-        addressBytes[0] = (byte) version;
-        System.arraycopy(bytes, 0, addressBytes, 1, bytes.length);
-        byte[] checksum = Sha256Hash.hashTwice(addressBytes, 0, bytes.length + 1);
-        System.arraycopy(checksum, 0, addressBytes, bytes.length + 1, 4);
-        return Base58.encode(addressBytes);
+        if (base58 == null)
+            base58 = Base58.encodeChecked(version, bytes);
+        return base58;
     }
 
     @Override
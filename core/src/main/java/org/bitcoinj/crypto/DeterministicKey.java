@@ -368,6 +368,18 @@ public class DeterministicKey extends ECKey {
         }
     }
 
+    @Override
+    public ECDSASignature signSchnorr(Sha256Hash input, @Nullable KeyParameter aesKey) throws KeyCrypterException {
+        if (isEncrypted()) {
+            return super.signSchnorr(input, aesKey);
+        } else {
+            final BigInteger privateKey = findOrDerivePrivateKey();
+            if (privateKey == null)
+                throw new MissingPrivateKeyException();
+            return super.doSignSchnorr(input, privateKey);
+        }
+    }
+
     @Override
     public DeterministicKey decrypt(KeyCrypter keyCrypter, KeyParameter aesKey) throws KeyCrypterException {
         checkNotNull(keyCrypter);
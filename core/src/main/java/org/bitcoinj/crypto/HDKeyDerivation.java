@@ -18,6 +18,8 @@ package org.bitcoinj.crypto;
 
 import com.google.common.collect.*;
 import org.bitcoinj.core.*;
+import org.bitcoinj.utils.Threading;
+import org.spongycastle.crypto.macs.HMac;
 import org.spongycastle.math.ec.*;
 
 import java.math.*;
@@ -51,6 +53,12 @@ public final class HDKeyDerivation {
      */
     public static final int MAX_CHILD_DERIVATION_ATTEMPTS = 100;
 
+    /**
+     * Batch derivation via {@link #deriveChildKeys(DeterministicKey, int, int)} splits its work into chunks of at
+     * least this many keys, so small batches aren't dominated by the cost of handing work to other threads.
+     */
+    public static final int MIN_KEYS_PER_DERIVATION_TASK = 32;
+
     /**
      * Generates a new deterministic key from the given seed, which can be any arbitrary byte array. However resist
      * the temptation to use a string as the seed - any key derived from a password is likely to be weak and easily
@@ -146,6 +154,84 @@ public final class HDKeyDerivation {
         }
     }
 
+    /**
+     * <p>Derives <code>count</code> consecutive non-hardened child keys of the given parent, starting with child number
+     * <code>firstChild</code>. The returned keys are public only (like the result of
+     * {@link DeterministicKey#dropPrivateBytes()}) and are in ascending child number order. As with
+     * {@link #deriveThisOrNextChildKey(DeterministicKey, int)}, child numbers that yield an invalid key are skipped, so
+     * the result always has exactly <code>count</code> elements.</p>
+     *
+     * <p>This is meant for filling large lookahead windows, such as when restoring a wallet from a seed. The parent
+     * point and HMAC key are prepared once, the work is spread over {@link Threading#THREAD_POOL} and the derived
+     * points are converted to affine coordinates together, which needs only one field inversion per chunk instead
+     * of one per key.</p>
+     */
+    public static List<DeterministicKey> deriveChildKeys(final DeterministicKey parent, final int firstChild, int count) {
+        checkArgument(count >= 0, "Negative count: %s", count);
+        checkArgument(!new ChildNumber(firstChild).isHardened(), "Can't batch derive hardened keys.");
+        final ECPoint parentPoint = parent.getPubKeyPoint().normalize();
+        final byte[] parentPublicKey = parentPoint.getEncoded(true);
+        final ECPoint[] points = new ECPoint[count];
+        final byte[][] chainCodes = new byte[count][];
+
+        Threading.runInChunks(count, MIN_KEYS_PER_DERIVATION_TASK, new Threading.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                deriveChildPoints(parent, parentPoint, parentPublicKey, firstChild, points, chainCodes, from, to);
+            }
+        });
+
+        List<DeterministicKey> keys = new ArrayList<>(count);
+        int nextChild = firstChild;
+        for (int i = 0; i < count; i++) {
+            if (points[i] == null)
+                continue;
+            ChildNumber childNumber = new ChildNumber(firstChild + i);
+            keys.add(new DeterministicKey(HDUtils.append(parent.getPath(), childNumber), chainCodes[i],
+                    new LazyECPoint(ECKey.CURVE.getCurve(), points[i].getEncoded(true)), null, parent));
+            nextChild = firstChild + i + 1;
+        }
+        // Invalid children are astronomically unlikely; top up one by one rather than complicate the batch.
+        while (keys.size() < count) {
+            DeterministicKey key = deriveThisOrNextChildKey(parent.dropPrivateBytes(), nextChild);
+            keys.add(new DeterministicKey(key.getPath(), key.getChainCode(), key.getPubKeyPoint(), null, parent));
+            nextChild = key.getChildNumber().num() + 1;
+        }
+        return keys;
+    }
+
+    /**
+     * Fills <code>points[from, to)</code> and the matching chain codes with normalized child public points. Entries
+     * for child numbers that yield an invalid key are left null.
+     */
+    private static void deriveChildPoints(DeterministicKey parent, ECPoint parentPoint, byte[] parentPublicKey,
+                                          int firstChild, ECPoint[] points, byte[][] chainCodes, int from, int to) {
+        HMac hmac = HDUtils.createHmacSha512Digest(parent.getChainCode());
+        ByteBuffer data = ByteBuffer.allocate(37);
+        data.put(parentPublicKey);
+        final BigInteger N = ECKey.CURVE.getN();
+        ECPoint[] batch = new ECPoint[to - from];
+        int[] slots = new int[to - from];
+        int valid = 0;
+        for (int i = from; i < to; i++) {
+            data.putInt(33, firstChild + i);
+            byte[] digest = HDUtils.hmacSha512(hmac, data.array());
+            BigInteger ilInt = new BigInteger(1, Arrays.copyOfRange(digest, 0, 32));
+            if (ilInt.compareTo(N) > 0)
+                continue;
+            ECPoint Ki = ECKey.publicPointFromPrivate(ilInt).add(parentPoint);
+            if (Ki.isInfinity())
+                continue;
+            chainCodes[i] = Arrays.copyOfRange(digest, 32, 64);
+            batch[valid] = Ki;
+            slots[valid++] = i;
+        }
+        // Montgomery's trick: a single field inversion converts the whole chunk to affine coordinates.
+        ECKey.CURVE.getCurve().normalizeAll(batch, 0, valid, null);
+        for (int j = 0; j < valid; j++)
+            points[slots[j]] = batch[j];
+    }
+
     public static RawKeyBytes deriveChildKeyBytesFromPrivate(DeterministicKey parent,
                                                               ChildNumber childNumber) throws HDDerivationException {
         checkArgument(parent.hasPrivKey(), "Parent key must have private key bytes for this method.");
@@ -0,0 +1,209 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.crypto;
+
+import org.bitcoinj.core.ECKey;
+import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.signers.HMacDSAKCalculator;
+import org.spongycastle.math.ec.ECCurve;
+import org.spongycastle.math.ec.ECPoint;
+import org.spongycastle.math.ec.ECPointMap;
+import org.spongycastle.math.ec.FixedPointCombMultiplier;
+import org.spongycastle.math.ec.WNafUtil;
+import org.spongycastle.math.ec.endo.GLVEndomorphism;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>The pure Java implementation of secp256k1 that {@link ECKey} uses when libsecp256k1 isn't loaded, see
+ * {@link ECKey#USE_NATIVE_SECP256K1}.</p>
+ *
+ * <ul>
+ * <li>Public key derivation and the nonce point of signatures are multiples of the generator, which use the fixed-base
+ * comb table that ECKey precomputes for G.</li>
+ * <li>Signing uses deterministic nonces (RFC 6979), like libsecp256k1, and blinds the inversion of the nonce with a
+ * random factor so that its timing doesn't depend on the nonce.</li>
+ * <li>Verification splits both scalars with the GLV endomorphism of the curve and adds up the four half length
+ * multiples in one pass. The window NAF tables for G and its endomorphism image are wide and computed once, so only
+ * the tables for the public key are built per signature.</li>
+ * </ul>
+ */
+public class JavaSecp256k1 {
+    // Window width of the tables for G, each has 2^(width - 2) odd multiples.
+    private static final int G_WINDOW_WIDTH = 8;
+    // Window width of the tables built for the public key of each verification.
+    private static final int PUBKEY_WINDOW_WIDTH = 5;
+
+    private static final ECCurve CURVE = ECKey.CURVE.getCurve();
+    private static final BigInteger N = ECKey.CURVE.getN();
+    private static final GLVEndomorphism ENDOMORPHISM = (GLVEndomorphism) CURVE.getEndomorphism();
+    private static final ECPoint[] G_TABLE, G_TABLE_NEG, LAMBDA_G_TABLE, LAMBDA_G_TABLE_NEG;
+    private static final SecureRandom secureRandom = new SecureRandom();
+
+    static {
+        checkState(ENDOMORPHISM != null && ENDOMORPHISM.hasEfficientPointMap(), "Curve has no GLV endomorphism");
+        G_TABLE = oddMultiples(ECKey.CURVE.getG(), G_WINDOW_WIDTH);
+        G_TABLE_NEG = negate(G_TABLE);
+        LAMBDA_G_TABLE = map(G_TABLE, ENDOMORPHISM.getPointMap());
+        LAMBDA_G_TABLE_NEG = negate(LAMBDA_G_TABLE);
+    }
+
+    private JavaSecp256k1() {
+    }
+
+    /** Returns the public key point of the given private key. */
+    public static ECPoint publicPointFromPrivate(BigInteger privKey) {
+        // FixedPointCombMultiplier doesn't support scalars longer than the group order.
+        if (privKey.bitLength() > N.bitLength())
+            privKey = privKey.mod(N);
+        return new FixedPointCombMultiplier().multiply(ECKey.CURVE.getG(), privKey);
+    }
+
+    /**
+     * Signs the given hash with the private key. The result is the same as that of Spongy Castle's ECDSASigner with an
+     * {@link HMacDSAKCalculator}, it is not canonicalised.
+     */
+    public static ECKey.ECDSASignature sign(byte[] hash, BigInteger privKey) {
+        BigInteger e = calculateE(hash);
+        HMacDSAKCalculator kCalculator = new HMacDSAKCalculator(new SHA256Digest());
+        kCalculator.init(N, privKey, hash);
+        FixedPointCombMultiplier multiplier = new FixedPointCombMultiplier();
+        BigInteger r, s;
+        do {
+            BigInteger k;
+            do {
+                k = kCalculator.nextK();
+                ECPoint p = multiplier.multiply(ECKey.CURVE.getG(), k).normalize();
+                r = p.getAffineXCoord().toBigInteger().mod(N);
+            } while (r.signum() == 0);
+            // s = k^-1 * (e + d * r), computed as (k * b)^-1 * b * (e + d * r) for a random b.
+            BigInteger blinding = randomScalar();
+            BigInteger blindedKInverse = k.multiply(blinding).mod(N).modInverse(N);
+            s = blindedKInverse.multiply(blinding).mod(N).multiply(e.add(privKey.multiply(r))).mod(N);
+        } while (s.signum() == 0);
+        return new ECKey.ECDSASignature(r, s);
+    }
+
+    /**
+     * Verifies the signature of the given hash against the public key point. Returns false for out of range
+     * signature components.
+     */
+    public static boolean verify(byte[] hash, ECKey.ECDSASignature signature, ECPoint pubKey) {
+        BigInteger r = signature.r, s = signature.s;
+        if (r.signum() <= 0 || r.compareTo(N) >= 0 || s.signum() <= 0 || s.compareTo(N) >= 0)
+            return false;
+        BigInteger c = s.modInverse(N);
+        BigInteger u1 = calculateE(hash).multiply(c).mod(N);
+        BigInteger u2 = r.multiply(c).mod(N);
+        ECPoint q = pubKey.normalize();
+        if (q.isInfinity())
+            return false;
+        ECPoint point = sumOfMultiplies(u1, q, u2);
+        if (point.isInfinity())
+            return false;
+        return point.normalize().getAffineXCoord().toBigInteger().mod(N).equals(r);
+    }
+
+    /**
+     * Returns a * G + b * Q, not normalized. Both scalars must be in the range [0, n) and Q must be normalized and
+     * not infinity.
+     */
+    static ECPoint sumOfMultiplies(BigInteger a, ECPoint q, BigInteger b) {
+        ECPoint[] qTable = oddMultiples(q, PUBKEY_WINDOW_WIDTH);
+        ECPoint[] lambdaQTable = map(qTable, ENDOMORPHISM.getPointMap());
+
+        // a * G + b * Q = a1 * G + a2 * lambda(G) + b1 * Q + b2 * lambda(Q)
+        BigInteger[] a12 = ENDOMORPHISM.decomposeScalar(a);
+        BigInteger[] b12 = ENDOMORPHISM.decomposeScalar(b);
+        BigInteger[] scalars = { a12[0], a12[1], b12[0], b12[1] };
+        ECPoint[][] tables = { G_TABLE, LAMBDA_G_TABLE, qTable, lambdaQTable };
+        ECPoint[][] negTables = { G_TABLE_NEG, LAMBDA_G_TABLE_NEG, negate(qTable), negate(lambdaQTable) };
+        int[] widths = { G_WINDOW_WIDTH, G_WINDOW_WIDTH, PUBKEY_WINDOW_WIDTH, PUBKEY_WINDOW_WIDTH };
+
+        byte[][] wnafs = new byte[4][];
+        int length = 0;
+        for (int i = 0; i < 4; i++) {
+            wnafs[i] = WNafUtil.generateWindowNaf(widths[i], scalars[i].abs());
+            length = Math.max(length, wnafs[i].length);
+            if (scalars[i].signum() < 0) {
+                ECPoint[] swap = tables[i];
+                tables[i] = negTables[i];
+                negTables[i] = swap;
+            }
+        }
+
+        ECPoint sum = CURVE.getInfinity();
+        for (int bit = length - 1; bit >= 0; bit--) {
+            sum = sum.twice();
+            for (int i = 0; i < 4; i++) {
+                if (bit >= wnafs[i].length)
+                    continue;
+                int digit = wnafs[i][bit];
+                if (digit > 0)
+                    sum = sum.add(tables[i][digit >>> 1]);
+                else if (digit < 0)
+                    sum = sum.add(negTables[i][-digit >>> 1]);
+            }
+        }
+        return sum;
+    }
+
+    // The hash as an integer, truncated to the bit length of the group order like ECDSASigner does.
+    private static BigInteger calculateE(byte[] hash) {
+        int hashBits = hash.length * 8;
+        BigInteger e = new BigInteger(1, hash);
+        if (N.bitLength() < hashBits)
+            e = e.shiftRight(hashBits - N.bitLength());
+        return e;
+    }
+
+    private static BigInteger randomScalar() {
+        BigInteger b;
+        do {
+            b = new BigInteger(N.bitLength(), secureRandom);
+        } while (b.signum() == 0 || b.compareTo(N) >= 0);
+        return b;
+    }
+
+    // P, 3P, 5P ... up to (2^(width - 1) - 1) P, in affine coordinates.
+    private static ECPoint[] oddMultiples(ECPoint p, int width) {
+        ECPoint[] table = new ECPoint[1 << (width - 2)];
+        table[0] = p;
+        ECPoint twice = p.twice();
+        for (int i = 1; i < table.length; i++)
+            table[i] = table[i - 1].add(twice);
+        CURVE.normalizeAll(table);
+        return table;
+    }
+
+    private static ECPoint[] negate(ECPoint[] points) {
+        ECPoint[] result = new ECPoint[points.length];
+        for (int i = 0; i < points.length; i++)
+            result[i] = points[i].negate();
+        return result;
+    }
+
+    private static ECPoint[] map(ECPoint[] points, ECPointMap pointMap) {
+        ECPoint[] result = new ECPoint[points.length];
+        for (int i = 0; i < points.length; i++)
+            result[i] = pointMap.map(points[i]);
+        return result;
+    }
+}
@@ -17,11 +17,14 @@
 
 package org.bitcoinj.crypto;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.base.Stopwatch;
 import com.google.protobuf.ByteString;
+import com.lambdaworks.crypto.PBKDF;
 import com.lambdaworks.crypto.SCrypt;
 import org.bitcoinj.core.Utils;
+import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.Protos;
 import org.bitcoinj.wallet.Protos.ScryptParameters;
 import org.bitcoinj.wallet.Protos.Wallet.EncryptionType;
@@ -34,9 +37,16 @@ import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.spongycastle.crypto.params.KeyParameter;
 import org.spongycastle.crypto.params.ParametersWithIV;
 
+import javax.annotation.Nullable;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.locks.ReentrantLock;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -52,6 +62,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *
  * <p>2) Using the AES Key generated above, you then can encrypt and decrypt any bytes using
  * the AES symmetric cipher. Eight bytes of salt is used to prevent dictionary attacks.</p>
+ *
+ * <p>With a parallelisation parameter p greater than one, the p independent scrypt mixes are run on separate threads.
+ * Derived keys can optionally be cached for a limited time, see {@link #setKeyCacheDuration(long)}.</p>
  */
 public class KeyCrypterScrypt implements KeyCrypter {
 
@@ -83,6 +96,9 @@ public class KeyCrypterScrypt implements KeyCrypter {
 
     private static final SecureRandom secureRandom;
 
+    // Wipes cached keys once they expire.
+    private static final Timer keyCacheTimer = new Timer("KeyCrypterScrypt key cache", true);
+
     /** Returns SALT_LENGTH (8) bytes of random data */
     public static byte[] randomSalt() {
         byte[] salt = new byte[SALT_LENGTH];
@@ -93,6 +109,16 @@ public class KeyCrypterScrypt implements KeyCrypter {
     // Scrypt parameters.
     private final ScryptParameters scryptParameters;
 
+    // A single cached key, the HMAC of the password it was derived from and when it expires by Utils.currentTimeMillis.
+    // Guarded by keyCacheLock.
+    private final ReentrantLock keyCacheLock = Threading.lock("KeyCrypterScrypt key cache");
+    private final byte[] keyCacheSecret = randomSalt();
+    private long keyCacheMillis;
+    @Nullable private byte[] cachedPasswordMac;
+    @Nullable private byte[] cachedKey;
+    private long cachedKeyExpiry;
+    @Nullable private TimerTask keyCacheWipe;
+
     /**
      * Encryption/Decryption using default parameters and a random salt.
      */
@@ -115,6 +141,23 @@ public class KeyCrypterScrypt implements KeyCrypter {
         this.scryptParameters = scryptParametersBuilder.build();
     }
 
+    /**
+     * Encryption/Decryption using custom number of iterations and parallelisation parameters and a random salt. Each
+     * of the parallelisation independent scrypt mixes runs on its own thread, so with as many cores the derivation
+     * takes about as long as one with a parallelisation of 1 while costing an attacker parallelisation times as much.
+     *
+     * @param iterations
+     *            number of scrypt iterations
+     * @param parallelisation
+     *            scrypt parallelisation parameter p
+     */
+    public KeyCrypterScrypt(int iterations, int parallelisation) {
+        checkArgument(parallelisation > 0, "Parallelisation must be positive");
+        Protos.ScryptParameters.Builder scryptParametersBuilder = Protos.ScryptParameters.newBuilder()
+                .setSalt(ByteString.copyFrom(randomSalt())).setN(iterations).setP(parallelisation);
+        this.scryptParameters = scryptParametersBuilder.build();
+    }
+
     /**
      * Encryption/ Decryption using specified Scrypt parameters.
      *
@@ -135,7 +178,8 @@ public class KeyCrypterScrypt implements KeyCrypter {
     /**
      * Generate AES key.
      *
-     * This is a very slow operation compared to encrypt/ decrypt so it is normally worth caching the result.
+     * This is a very slow operation compared to encrypt/ decrypt so it is normally worth caching the result, for
+     * example with {@link #setKeyCacheDuration(long)}.
      *
      * @param password    The password to use in key generation
      * @return            The KeyParameter containing the created AES key
@@ -146,6 +190,13 @@ public class KeyCrypterScrypt implements KeyCrypter {
         byte[] passwordBytes = null;
         try {
             passwordBytes = convertToByteArray(password);
+            byte[] passwordMac = null;
+            if (getKeyCacheDuration() > 0) {
+                passwordMac = HDUtils.hmacSha512(keyCacheSecret, passwordBytes);
+                KeyParameter cached = getCachedKey(passwordMac);
+                if (cached != null)
+                    return cached;
+            }
             byte[] salt = new byte[0];
             if ( scryptParameters.getSalt() != null) {
                 salt = scryptParameters.getSalt().toByteArray();
@@ -156,9 +207,11 @@ public class KeyCrypterScrypt implements KeyCrypter {
             }
 
             final Stopwatch watch = Stopwatch.createStarted();
-            byte[] keyBytes = SCrypt.scrypt(passwordBytes, salt, (int) scryptParameters.getN(), scryptParameters.getR(), scryptParameters.getP(), KEY_LENGTH);
+            byte[] keyBytes = scrypt(passwordBytes, salt);
             watch.stop();
             log.info("Deriving key took {} for {} scrypt iterations.", watch, scryptParameters.getN());
+            if (passwordMac != null)
+                cacheKey(passwordMac, keyBytes);
             return new KeyParameter(keyBytes);
         } catch (Exception e) {
             throw new KeyCrypterException("Could not generate key from password and salt.", e);
@@ -170,6 +223,142 @@ public class KeyCrypterScrypt implements KeyCrypter {
         }
     }
 
+    // Runs scrypt with the parameters of this crypter, which is what the key cache saves.
+    @VisibleForTesting
+    byte[] scrypt(byte[] passwordBytes, byte[] salt) throws GeneralSecurityException {
+        if (scryptParameters.getP() > 1 && Runtime.getRuntime().availableProcessors() > 1)
+            return scryptParallel(passwordBytes, salt, (int) scryptParameters.getN(), scryptParameters.getR(), scryptParameters.getP(), KEY_LENGTH);
+        else
+            return SCrypt.scrypt(passwordBytes, salt, (int) scryptParameters.getN(), scryptParameters.getR(), scryptParameters.getP(), KEY_LENGTH);
+    }
+
+    /**
+     * Scrypt as in {@link SCrypt#scryptJ(byte[], byte[], int, int, int, int)}, but with the p mixes spread over
+     * {@link Threading#THREAD_POOL}. Each thread needs its own 128 * r * N bytes of memory.
+     */
+    private static byte[] scryptParallel(final byte[] passwd, byte[] salt, final int N, final int r, int p, int dkLen)
+            throws GeneralSecurityException {
+        checkArgument(N > 1 && (N & (N - 1)) == 0, "N must be a power of 2 greater than 1");
+        checkArgument(N <= Integer.MAX_VALUE / 128 / r, "Parameter N is too large");
+        checkArgument(r <= Integer.MAX_VALUE / 128 / p, "Parameter r is too large");
+
+        final byte[] B = PBKDF.pbkdf2("HmacSHA256", passwd, salt, 1, p * 128 * r);
+        Threading.runInChunks(p, 1, new Threading.RangeTask() {
+            @Override
+            public void run(int from, int to) {
+                byte[] XY = new byte[256 * r];
+                byte[] V = new byte[128 * r * N];
+                for (int i = from; i < to; i++)
+                    SCrypt.smix(B, i * 128 * r, r, N, V, XY);
+            }
+        });
+        byte[] key = PBKDF.pbkdf2("HmacSHA256", passwd, B, 1, dkLen);
+        Arrays.fill(B, (byte) 0);
+        return key;
+    }
+
+    /**
+     * <p>Sets for how long {@link #deriveKey(CharSequence)} keeps the last derived key, so that deriving it again from
+     * the same password within that time returns it without running scrypt. The key is wiped from memory when it
+     * expires, when a key is derived from a different password, or on {@link #wipeCachedKey()}. A duration of zero,
+     * the default, disables the cache and wipes any cached key.</p>
+     *
+     * <p>The password itself is never stored, only an HMAC of it under a random key of this crypter. The JVM can't
+     * lock memory, so a cached key may still end up in swap; only enable the cache where that is acceptable.</p>
+     */
+    public void setKeyCacheDuration(long millis) {
+        checkArgument(millis >= 0, "Duration must not be negative");
+        keyCacheLock.lock();
+        try {
+            keyCacheMillis = millis;
+            if (millis == 0)
+                wipeCachedKey();
+        } finally {
+            keyCacheLock.unlock();
+        }
+    }
+
+    /** Returns for how long derived keys are cached, zero if they aren't. */
+    public long getKeyCacheDuration() {
+        keyCacheLock.lock();
+        try {
+            return keyCacheMillis;
+        } finally {
+            keyCacheLock.unlock();
+        }
+    }
+
+    /** Wipes the cached key, if any, from memory. */
+    public void wipeCachedKey() {
+        keyCacheLock.lock();
+        try {
+            if (cachedKey != null)
+                Arrays.fill(cachedKey, (byte) 0);
+            cachedKey = null;
+            cachedPasswordMac = null;
+            if (keyCacheWipe != null)
+                keyCacheWipe.cancel();
+            keyCacheWipe = null;
+        } finally {
+            keyCacheLock.unlock();
+        }
+    }
+
+    // Returns a copy of the cached key, so callers can't wipe or modify the cached one. The timer may not have wiped an
+    // expired key yet, so the expiry is checked here too.
+    @Nullable
+    private KeyParameter getCachedKey(byte[] passwordMac) {
+        keyCacheLock.lock();
+        try {
+            if (cachedKey != null && Utils.currentTimeMillis() >= cachedKeyExpiry)
+                wipeCachedKey();
+            if (cachedKey == null || !MessageDigest.isEqual(cachedPasswordMac, passwordMac))
+                return null;
+            return new KeyParameter(cachedKey.clone());
+        } finally {
+            keyCacheLock.unlock();
+        }
+    }
+
+    // Returns the cached key itself, not a copy, or null if there is none.
+    @VisibleForTesting
+    @Nullable
+    byte[] getCachedKeyBytes() {
+        keyCacheLock.lock();
+        try {
+            return cachedKey;
+        } finally {
+            keyCacheLock.unlock();
+        }
+    }
+
+    private void cacheKey(byte[] passwordMac, byte[] keyBytes) {
+        keyCacheLock.lock();
+        try {
+            wipeCachedKey();
+            if (keyCacheMillis == 0)
+                return;
+            cachedPasswordMac = passwordMac;
+            cachedKey = keyBytes.clone();
+            cachedKeyExpiry = Utils.currentTimeMillis() + keyCacheMillis;
+            keyCacheWipe = new TimerTask() {
+                @Override
+                public void run() {
+                    keyCacheLock.lock();
+                    try {
+                        if (keyCacheWipe == this)
+                            wipeCachedKey();
+                    } finally {
+                        keyCacheLock.unlock();
+                    }
+                }
+            };
+            keyCacheTimer.schedule(keyCacheWipe, keyCacheMillis);
+        } finally {
+            keyCacheLock.unlock();
+        }
+    }
+
     /**
      * Password based encryption using AES - CBC 256 bits.
      */
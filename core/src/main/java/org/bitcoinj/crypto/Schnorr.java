@@ -0,0 +1,208 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.crypto;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import com.google.common.base.Charsets;
+import com.google.common.primitives.Bytes;
+import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.signers.HMacDSAKCalculator;
+import org.spongycastle.math.ec.ECAlgorithms;
+import org.spongycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Schnorr signatures over secp256k1, in the scheme of the experimental schnorr module of libsecp256k1 that
+ * {@link org.bitcoin.NativeSecp256k1#schnorrSign(byte[], byte[])} exposes. A signature is the x coordinate r of the
+ * nonce point R, whose y coordinate must be even, and s = k - h * x where h = SHA256(r || hash). It is valid if
+ * s * G + h * Q is R.</p>
+ *
+ * <p>Unlike ECDSA, many signatures can be verified together with a single multi-scalar multiplication, see
+ * {@link #verifyBatch(byte[][], ECKey.ECDSASignature[], byte[][])}. Signatures are carried in
+ * {@link ECKey.ECDSASignature} objects as they have the same two components, and are encoded as 64 bytes.</p>
+ */
+public class Schnorr {
+    /** Length of an encoded signature. */
+    public static final int SIGNATURE_LENGTH = 64;
+
+    private static final BigInteger N = ECKey.CURVE.getN();
+    private static final BigInteger P = ECKey.CURVE.getCurve().getField().getCharacteristic();
+    // Mixed into the nonce derivation, so that the nonce differs from that of an ECDSA signature of the same hash.
+    private static final byte[] NONCE_TAG = "Schnorr+SHA256  ".getBytes(Charsets.US_ASCII);
+    private static final SecureRandom secureRandom = new SecureRandom();
+
+    private Schnorr() {
+    }
+
+    /** Signs the given 32 byte hash with the private key, using a deterministic nonce. */
+    public static ECKey.ECDSASignature sign(byte[] hash, BigInteger privKey) {
+        checkArgument(hash.length == 32, "Hash must be 32 bytes");
+        HMacDSAKCalculator kCalculator = new HMacDSAKCalculator(new SHA256Digest());
+        kCalculator.init(N, privKey, Sha256Hash.hash(Bytes.concat(NONCE_TAG, hash)));
+        while (true) {
+            BigInteger k = kCalculator.nextK();
+            ECPoint nonce = JavaSecp256k1.publicPointFromPrivate(k).normalize();
+            if (nonce.getAffineYCoord().testBitZero())
+                k = N.subtract(k);
+            BigInteger r = nonce.getAffineXCoord().toBigInteger();
+            BigInteger h = challenge(r, hash);
+            if (h.signum() == 0 || h.compareTo(N) >= 0)
+                continue;
+            return new ECKey.ECDSASignature(r, k.subtract(h.multiply(privKey)).mod(N));
+        }
+    }
+
+    /**
+     * Verifies the signature of the given hash against the public key bytes.
+     * @throws IllegalArgumentException if the public key can't be decoded.
+     */
+    public static boolean verify(byte[] hash, ECKey.ECDSASignature signature, byte[] pub) {
+        if (ECKey.FAKE_SIGNATURES)
+            return true;
+        return verify(hash, signature, ECKey.decodePublicKey(pub));
+    }
+
+    /** Verifies the signature of the given hash against the public key point. */
+    public static boolean verify(byte[] hash, ECKey.ECDSASignature signature, ECPoint pubKey) {
+        if (!inRange(signature))
+            return false;
+        BigInteger h = challenge(signature.r, hash);
+        if (h.signum() == 0 || h.compareTo(N) >= 0)
+            return false;
+        ECPoint q = pubKey.normalize();
+        if (q.isInfinity())
+            return false;
+        ECPoint nonce = JavaSecp256k1.sumOfMultiplies(signature.s, q, h);
+        if (nonce.isInfinity())
+            return false;
+        nonce = nonce.normalize();
+        return !nonce.getAffineYCoord().testBitZero() && nonce.getAffineXCoord().toBigInteger().equals(signature.r);
+    }
+
+    /**
+     * <p>Verifies a batch of signatures, the i-th signature against the i-th hash and public key. Returns a bitmap with
+     * bit i set if the i-th signature is valid. Public keys that can't be decoded count as invalid signatures.</p>
+     *
+     * <p>Each signature is multiplied by a random factor and the batch is valid if the sum of the verification
+     * equations is, which costs about one multi-scalar multiplication for the whole batch. Only if that check fails
+     * are the signatures verified one by one to find the invalid ones.</p>
+     */
+    public static BitSet verifyBatch(byte[][] data, ECKey.ECDSASignature[] signatures, byte[][] pubs) {
+        checkArgument(data.length == signatures.length && data.length == pubs.length, "Batch arrays differ in length");
+        int count = data.length;
+        BitSet result = new BitSet(count);
+        if (ECKey.FAKE_SIGNATURES) {
+            result.set(0, count);
+            return result;
+        }
+
+        // sum(a_i * s_i) * G + sum(a_i * h_i * Q_i) + sum(a_i * R'_i) is infinity for valid signatures, where R'_i is
+        // the nonce point with odd y coordinate.
+        List<Integer> candidates = new ArrayList<>(count);
+        List<ECPoint> points = new ArrayList<>(2 * count + 1);
+        List<BigInteger> scalars = new ArrayList<>(2 * count + 1);
+        ECPoint[] pubKeys = new ECPoint[count];
+        BigInteger sSum = BigInteger.ZERO;
+        for (int i = 0; i < count; i++) {
+            ECKey.ECDSASignature signature = signatures[i];
+            if (!inRange(signature))
+                continue;
+            BigInteger h = challenge(signature.r, data[i]);
+            if (h.signum() == 0 || h.compareTo(N) >= 0)
+                continue;
+            ECPoint nonce;
+            try {
+                pubKeys[i] = ECKey.decodePublicKey(pubs[i]).normalize();
+                byte[] encodedNonce = new byte[33];
+                encodedNonce[0] = 0x03;
+                System.arraycopy(Utils.bigIntegerToBytes(signature.r, 32), 0, encodedNonce, 1, 32);
+                nonce = ECKey.CURVE.getCurve().decodePoint(encodedNonce);
+            } catch (IllegalArgumentException e) {
+                continue; // Not a valid public key, or r is not the x coordinate of a point.
+            }
+            if (pubKeys[i].isInfinity())
+                continue;
+            BigInteger a = candidates.isEmpty() ? BigInteger.ONE : randomFactor();
+            sSum = sSum.add(a.multiply(signature.s));
+            points.add(pubKeys[i]);
+            scalars.add(a.multiply(h).mod(N));
+            points.add(nonce);
+            scalars.add(a);
+            candidates.add(i);
+        }
+        if (candidates.isEmpty())
+            return result;
+        points.add(ECKey.CURVE.getG());
+        scalars.add(sSum.mod(N));
+
+        ECPoint sum = ECAlgorithms.sumOfMultiplies(points.toArray(new ECPoint[points.size()]),
+                scalars.toArray(new BigInteger[scalars.size()]));
+        if (sum.isInfinity()) {
+            for (int i : candidates)
+                result.set(i);
+        } else {
+            for (int i : candidates)
+                if (verify(data[i], signatures[i], pubKeys[i]))
+                    result.set(i);
+        }
+        return result;
+    }
+
+    /** Encodes the signature as 32 bytes of r followed by 32 bytes of s. */
+    public static byte[] encode(ECKey.ECDSASignature signature) {
+        byte[] bytes = new byte[SIGNATURE_LENGTH];
+        System.arraycopy(Utils.bigIntegerToBytes(signature.r, 32), 0, bytes, 0, 32);
+        System.arraycopy(Utils.bigIntegerToBytes(signature.s, 32), 0, bytes, 32, 32);
+        return bytes;
+    }
+
+    /** Decodes a signature encoded by {@link #encode(ECKey.ECDSASignature)}. */
+    public static ECKey.ECDSASignature decode(byte[] bytes) {
+        checkArgument(bytes.length == SIGNATURE_LENGTH, "Schnorr signatures are 64 bytes");
+        return new ECKey.ECDSASignature(new BigInteger(1, Arrays.copyOfRange(bytes, 0, 32)),
+                new BigInteger(1, Arrays.copyOfRange(bytes, 32, 64)));
+    }
+
+    private static boolean inRange(ECKey.ECDSASignature signature) {
+        return signature.r.signum() >= 0 && signature.r.compareTo(P) < 0
+                && signature.s.signum() >= 0 && signature.s.compareTo(N) < 0;
+    }
+
+    // h = SHA256(r || hash)
+    private static BigInteger challenge(BigInteger r, byte[] hash) {
+        return new BigInteger(1, Sha256Hash.hash(Bytes.concat(Utils.bigIntegerToBytes(r, 32), hash)));
+    }
+
+    // A random non-zero 128 bit factor, enough to make forging a batch as hard as forging a signature.
+    private static BigInteger randomFactor() {
+        BigInteger a;
+        do {
+            a = new BigInteger(128, secureRandom);
+        } while (a.signum() == 0);
+        return a;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.crypto;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Sha256Hash;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import javax.annotation.Nullable;
+import java.util.BitSet;
+
+/**
+ * The signature schemes transaction signatures can use. Which one a wallet signs with is chosen by
+ * {@link org.bitcoinj.core.NetworkParameters#getSignatureScheme()}.
+ */
+public enum SignatureScheme {
+    /** DER encoded ECDSA signatures, as used by Bitcoin. */
+    ECDSA {
+        @Override
+        public ECKey.ECDSASignature sign(ECKey key, Sha256Hash hash, @Nullable KeyParameter aesKey) {
+            return key.sign(hash, aesKey);
+        }
+
+        @Override
+        public boolean verify(byte[] hash, ECKey.ECDSASignature signature, byte[] pubKey) {
+            return ECKey.verify(hash, signature, pubKey);
+        }
+
+        @Override
+        public BitSet verifyBatch(byte[][] hashes, ECKey.ECDSASignature[] signatures, byte[][] pubKeys) {
+            return ECKey.verifyBatch(hashes, signatures, pubKeys);
+        }
+    },
+
+    /** 64 byte Schnorr signatures, see {@link Schnorr}. */
+    SCHNORR {
+        @Override
+        public ECKey.ECDSASignature sign(ECKey key, Sha256Hash hash, @Nullable KeyParameter aesKey) {
+            return key.signSchnorr(hash, aesKey);
+        }
+
+        @Override
+        public boolean verify(byte[] hash, ECKey.ECDSASignature signature, byte[] pubKey) {
+            return Schnorr.verify(hash, signature, pubKey);
+        }
+
+        @Override
+        public BitSet verifyBatch(byte[][] hashes, ECKey.ECDSASignature[] signatures, byte[][] pubKeys) {
+            return Schnorr.verifyBatch(hashes, signatures, pubKeys);
+        }
+    };
+
+    /**
+     * Signs the hash with the key.
+     * @param aesKey The AES key to use for decryption of the private key. If null then no decryption is required.
+     */
+    public abstract ECKey.ECDSASignature sign(ECKey key, Sha256Hash hash, @Nullable KeyParameter aesKey);
+
+    /**
+     * Verifies the signature of the hash against the public key bytes.
+     * @throws IllegalArgumentException if the public key can't be decoded.
+     */
+    public abstract boolean verify(byte[] hash, ECKey.ECDSASignature signature, byte[] pubKey);
+
+    /**
+     * Verifies a batch of signatures, the i-th signature against the i-th hash and public key. Returns a bitmap with
+     * bit i set if the i-th signature is valid.
+     */
+    public abstract BitSet verifyBatch(byte[][] hashes, ECKey.ECDSASignature[] signatures, byte[][] pubKeys);
+}
@@ -24,10 +24,12 @@ import com.google.common.base.Preconditions;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.Arrays;
 
 /**
  * A TransactionSignature wraps an {@link org.bitcoinj.core.ECKey.ECDSASignature} and adds methods for handling
- * the additional SIGHASH mode byte that is used.
+ * the additional SIGHASH mode byte that is used. On chains that enable {@link SignatureScheme#SCHNORR}, it can also
+ * hold a Schnorr signature, which is encoded as 64 bytes plus the SIGHASH byte instead of DER.
  */
 public class TransactionSignature extends ECKey.ECDSASignature {
     /**
@@ -38,6 +40,9 @@ public class TransactionSignature extends ECKey.ECDSASignature {
      */
     public final int sighashFlags;
 
+    /** The scheme this signature was made with. */
+    public final SignatureScheme scheme;
+
     /** Constructs a signature with the given components and SIGHASH_ALL. */
     public TransactionSignature(BigInteger r, BigInteger s) {
         this(r, s, Transaction.SigHash.ALL.value);
@@ -45,14 +50,27 @@ public class TransactionSignature extends ECKey.ECDSASignature {
 
     /** Constructs a signature with the given components and raw sighash flag bytes (needed for rule compatibility). */
     public TransactionSignature(BigInteger r, BigInteger s, int sighashFlags) {
+        this(r, s, sighashFlags, SignatureScheme.ECDSA);
+    }
+
+    /** Constructs a signature of the given scheme with the given components and raw sighash flag bytes. */
+    public TransactionSignature(BigInteger r, BigInteger s, int sighashFlags, SignatureScheme scheme) {
         super(r, s);
         this.sighashFlags = sighashFlags;
+        this.scheme = scheme;
     }
 
     /** Constructs a transaction signature based on the ECDSA signature. */
     public TransactionSignature(ECKey.ECDSASignature signature, Transaction.SigHash mode, boolean anyoneCanPay) {
+        this(signature, mode, anyoneCanPay, SignatureScheme.ECDSA);
+    }
+
+    /** Constructs a transaction signature based on a signature of the given scheme. */
+    public TransactionSignature(ECKey.ECDSASignature signature, Transaction.SigHash mode, boolean anyoneCanPay,
+                                SignatureScheme scheme) {
         super(signature.r, signature.s);
         sighashFlags = calcSigHashValue(mode, anyoneCanPay);
+        this.scheme = scheme;
     }
 
     /**
@@ -142,6 +160,11 @@ public class TransactionSignature extends ECKey.ECDSASignature {
      * components into a structure, and then we append a byte to the end for the sighash flags.
      */
     public byte[] encodeToBitcoin() {
+        if (scheme == SignatureScheme.SCHNORR) {
+            byte[] bytes = Arrays.copyOf(Schnorr.encode(this), Schnorr.SIGNATURE_LENGTH + 1);
+            bytes[Schnorr.SIGNATURE_LENGTH] = (byte) sighashFlags;
+            return bytes;
+        }
         try {
             ByteArrayOutputStream bos = derByteStream();
             bos.write(sighashFlags);
@@ -153,6 +176,8 @@ public class TransactionSignature extends ECKey.ECDSASignature {
 
     @Override
     public ECKey.ECDSASignature toCanonicalised() {
+        if (scheme == SignatureScheme.SCHNORR)
+            return this; // Negating s doesn't give a valid Schnorr signature.
         return new TransactionSignature(super.toCanonicalised(), sigHashMode(), anyoneCanPay());
     }
 
@@ -182,6 +207,28 @@ public class TransactionSignature extends ECKey.ECDSASignature {
     public static TransactionSignature decodeFromBitcoin(byte[] bytes,
                                                          boolean requireCanonicalEncoding,
                                                          boolean requireCanonicalSValue) throws VerificationException {
+        return decodeFromBitcoin(bytes, requireCanonicalEncoding, requireCanonicalSValue, false);
+    }
+
+    /**
+     * Returns a decoded signature.
+     *
+     * @param requireCanonicalEncoding if the encoding of the signature must
+     * be canonical.
+     * @param requireCanonicalSValue if the S-value must be canonical (below half
+     * the order of the curve).
+     * @param allowSchnorr if a 65 byte signature is decoded as a Schnorr signature plus the sighash byte. The
+     * canonical checks only apply to ECDSA signatures.
+     * @throws RuntimeException if the signature is invalid or unparseable in some way.
+     */
+    public static TransactionSignature decodeFromBitcoin(byte[] bytes,
+                                                         boolean requireCanonicalEncoding,
+                                                         boolean requireCanonicalSValue,
+                                                         boolean allowSchnorr) throws VerificationException {
+        if (allowSchnorr && bytes.length == Schnorr.SIGNATURE_LENGTH + 1) {
+            ECKey.ECDSASignature sig = Schnorr.decode(Arrays.copyOf(bytes, Schnorr.SIGNATURE_LENGTH));
+            return new TransactionSignature(sig.r, sig.s, bytes[Schnorr.SIGNATURE_LENGTH], SignatureScheme.SCHNORR);
+        }
         // Bitcoin encoding is DER signature + sighash byte.
         if (requireCanonicalEncoding && !isEncodingCanonical(bytes))
             throw new VerificationException("Signature encoding is not canonical.");
@@ -21,6 +21,7 @@ package org.bitcoinj.script;
 
 import org.bitcoinj.core.*;
 import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.crypto.SignatureScheme;
 import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -77,15 +78,37 @@ public class Script {
         DISCOURAGE_UPGRADABLE_NOPS, // Discourage use of NOPs reserved for upgrades (NOP1-10)
         CLEANSTACK, // Require that only a single stack element remains after evaluation.
         CHECKLOCKTIMEVERIFY, // Enable CHECKLOCKTIMEVERIFY operation
-        CHECKSEQUENCEVERIFY // Enable CHECKSEQUENCEVERIFY operation
+        CHECKSEQUENCEVERIFY, // Enable CHECKSEQUENCEVERIFY operation
+        SCHNORR // Checksig operations take 65 byte signatures as Schnorr signatures plus the hashtype, see SignatureScheme.SCHNORR
     }
     public static final EnumSet<VerifyFlag> ALL_VERIFY_FLAGS = EnumSet.allOf(VerifyFlag.class);
 
+    /**
+     * A signature check of OP_CHECKSIG, with the signature decoded and the hash it has to sign already computed. See
+     * {@link #getStandardSignatureCheck(Transaction, long, Script, Set)}.
+     */
+    public static class SignatureCheck {
+        public final byte[] hash;
+        public final TransactionSignature signature;
+        public final byte[] pubKey;
+
+        public SignatureCheck(byte[] hash, TransactionSignature signature, byte[] pubKey) {
+            this.hash = hash;
+            this.signature = signature;
+            this.pubKey = pubKey;
+        }
+
+        /** Returns true if the signature is valid, see {@link SignatureScheme#verify(byte[], ECKey.ECDSASignature, byte[])}. */
+        public boolean verify() {
+            return signature.scheme.verify(hash, signature, pubKey);
+        }
+    }
+
     private static final Logger log = LoggerFactory.getLogger(Script.class);
     public static final long MAX_SCRIPT_ELEMENT_SIZE = 520;  // bytes
-    private static final int MAX_OPS_PER_SCRIPT = 201;
-    private static final int MAX_STACK_SIZE = 1000;
-    private static final int MAX_PUBKEYS_PER_MULTISIG = 20;
+    static final int MAX_OPS_PER_SCRIPT = 201;
+    static final int MAX_STACK_SIZE = 1000;
+    static final int MAX_PUBKEYS_PER_MULTISIG = 20;
     private static final int MAX_SCRIPT_SIZE = 10000;
     public static final int SIG_SIZE = 75;
     /** Max number of sigops allowed in a standard p2sh redeem script */
@@ -484,8 +507,21 @@ public class Script {
     /**
      * Returns the index where a signature by the key should be inserted.  Only applicable to
      * a P2SH scriptSig.
+     * @deprecated Use {@link #getSigInsertionIndex(Sha256Hash, ECKey, SignatureScheme)}, this only recognizes ECDSA
+     * signatures.
      */
+    @Deprecated
     public int getSigInsertionIndex(Sha256Hash hash, ECKey signingKey) {
+        return getSigInsertionIndex(hash, signingKey, SignatureScheme.ECDSA);
+    }
+
+    /**
+     * Returns the index where a signature by the key should be inserted.  Only applicable to
+     * a P2SH scriptSig.
+     * @param scheme the signature scheme of the network, see {@link NetworkParameters#getSignatureScheme()}. Existing
+     *               signatures are only decoded as Schnorr signatures if it is {@link SignatureScheme#SCHNORR}.
+     */
+    public int getSigInsertionIndex(Sha256Hash hash, ECKey signingKey, SignatureScheme scheme) {
         // Iterate over existing signatures, skipping the initial OP_0, the final redeem script
         // and any placeholder OP_0 sigs.
         List<ScriptChunk> existingChunks = chunks.subList(1, chunks.size() - 1);
@@ -500,7 +536,7 @@ public class Script {
                 // OP_0, skip
             } else {
                 checkNotNull(chunk.data);
-                if (myIndex < redeemScript.findSigInRedeem(chunk.data, hash))
+                if (myIndex < redeemScript.findSigInRedeem(chunk.data, hash, scheme))
                     return sigCount;
                 sigCount++;
             }
@@ -536,12 +572,13 @@ public class Script {
         return result;
     }
 
-    private int findSigInRedeem(byte[] signatureBytes, Sha256Hash hash) {
+    private int findSigInRedeem(byte[] signatureBytes, Sha256Hash hash, SignatureScheme scheme) {
         checkArgument(chunks.get(0).isOpCode()); // P2SH scriptSig
         int numKeys = Script.decodeFromOpN(chunks.get(chunks.size() - 2).opcode);
-        TransactionSignature signature = TransactionSignature.decodeFromBitcoin(signatureBytes, true);
+        TransactionSignature signature = TransactionSignature.decodeFromBitcoin(signatureBytes, true, false,
+                scheme == SignatureScheme.SCHNORR);
         for (int i = 0 ; i < numKeys ; i++) {
-            if (ECKey.fromPublicOnly(chunks.get(i + 1).data).verify(hash, signature)) {
+            if (signature.scheme.verify(hash.getBytes(), signature, chunks.get(i + 1).data)) {
                 return i;
             }
         }
@@ -796,7 +833,7 @@ public class Script {
     
     ////////////////////// Script verification and helpers ////////////////////////////////
     
-    private static boolean castToBool(byte[] data) {
+    static boolean castToBool(byte[] data) {
         for (int i = 0; i < data.length; i++)
         {
             // "Can be negative zero" - Bitcoin Core (see OpenSSL's BN_bn2mpi)
@@ -1353,7 +1390,9 @@ public class Script {
                         }
                         break;
                     }
-                    executeCheckLockTimeVerify(txContainingThis, (int) index, stack, verifyFlags);
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKLOCKTIMEVERIFY on a stack with size < 1");
+                    executeCheckLockTimeVerify(txContainingThis, (int) index, stack.getLast(), verifyFlags);
                     break;
                 case OP_CHECKSEQUENCEVERIFY:
                     if (!verifyFlags.contains(VerifyFlag.CHECKSEQUENCEVERIFY)) {
@@ -1363,7 +1402,9 @@ public class Script {
                         }
                         break;
                     }
-                    executeCheckSequenceVerify(txContainingThis, (int) index, stack, verifyFlags);
+                    if (stack.size() < 1)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKSEQUENCEVERIFY on a stack with size < 1");
+                    executeCheckSequenceVerify(txContainingThis, (int) index, stack.getLast(), verifyFlags);
                     break;
                 case OP_NOP1:
                 case OP_NOP4:
@@ -1392,13 +1433,10 @@ public class Script {
     }
 
     // This is more or less a direct translation of the code in Bitcoin Core
-    private static void executeCheckLockTimeVerify(Transaction txContainingThis, int index, LinkedList<byte[]> stack, Set<VerifyFlag> verifyFlags) throws ScriptException {
-        if (stack.size() < 1)
-            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKLOCKTIMEVERIFY on a stack with size < 1");
-
+    static void executeCheckLockTimeVerify(Transaction txContainingThis, int index, byte[] topOfStack, Set<VerifyFlag> verifyFlags) throws ScriptException {
         // Thus as a special case we tell CScriptNum to accept up
         // to 5-byte bignums to avoid year 2038 issue.
-        final BigInteger nLockTime = castToBigInteger(stack.getLast(), 5, verifyFlags.contains(VerifyFlag.MINIMALDATA));
+        final BigInteger nLockTime = castToBigInteger(topOfStack, 5, verifyFlags.contains(VerifyFlag.MINIMALDATA));
 
         if (nLockTime.compareTo(BigInteger.ZERO) < 0)
             throw new ScriptException(ScriptError.SCRIPT_ERR_NEGATIVE_LOCKTIME, "Negative locktime");
@@ -1429,10 +1467,7 @@ public class Script {
             throw new ScriptException(ScriptError.SCRIPT_ERR_UNSATISFIED_LOCKTIME, "Transaction contains a final transaction input for a CHECKLOCKTIMEVERIFY script.");
     }
 
-    private static void executeCheckSequenceVerify(Transaction txContainingThis, int index, LinkedList<byte[]> stack, Set<VerifyFlag> verifyFlags) throws ScriptException {
-        if (stack.size() < 1)
-            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKSEQUENCEVERIFY on a stack with size < 1");
-
+    static void executeCheckSequenceVerify(Transaction txContainingThis, int index, byte[] topOfStack, Set<VerifyFlag> verifyFlags) throws ScriptException {
         // Note that elsewhere numeric opcodes are limited to
         // operands in the range -2**31+1 to 2**31-1, however it is
         // legal for opcodes to produce results exceeding that
@@ -1442,7 +1477,7 @@ public class Script {
         // Thus as a special case we tell CScriptNum to accept up
         // to 5-byte bignums, which are good until 2**39-1, well
         // beyond the 2**32-1 limit of the nSequence field itself.
-        final long nSequence = castToBigInteger(stack.getLast(), 5, verifyFlags.contains(VerifyFlag.MINIMALDATA)).longValue();
+        final long nSequence = castToBigInteger(topOfStack, 5, verifyFlags.contains(VerifyFlag.MINIMALDATA)).longValue();
 
         // In the rare event that the argument may be < 0 due to
         // some arithmetic being done first, you can always use
@@ -1507,34 +1542,28 @@ public class Script {
     private static void executeCheckSig(Transaction txContainingThis, int index, Script script, LinkedList<byte[]> stack,
                                         int lastCodeSepLocation, int opcode, 
                                         Set<VerifyFlag> verifyFlags) throws ScriptException {
-        final boolean requireCanonical = verifyFlags.contains(VerifyFlag.STRICTENC)
-            || verifyFlags.contains(VerifyFlag.DERSIG)
-            || verifyFlags.contains(VerifyFlag.LOW_S);
         if (stack.size() < 2)
             throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKSIG(VERIFY) on a stack with size < 2");
         byte[] pubKey = stack.pollLast();
         byte[] sigBytes = stack.pollLast();
 
-        byte[] prog = script.getProgram();
-        byte[] connectedScript = Arrays.copyOfRange(prog, lastCodeSepLocation, prog.length);
+        boolean sigValid = checkSignature(txContainingThis, index, script.getProgram(), lastCodeSepLocation, pubKey,
+                sigBytes, verifyFlags);
 
-        UnsafeByteArrayOutputStream outStream = new UnsafeByteArrayOutputStream(sigBytes.length + 1);
-        try {
-            writeBytes(outStream, sigBytes);
-        } catch (IOException e) {
-            throw new RuntimeException(e); // Cannot happen
-        }
-        connectedScript = removeAllInstancesOf(connectedScript, outStream.toByteArray());
+        if (opcode == OP_CHECKSIG)
+            stack.add(sigValid ? new byte[] {1} : new byte[] {});
+        else if (opcode == OP_CHECKSIGVERIFY)
+            if (!sigValid)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_CHECKSIGVERIFY, "Script failed OP_CHECKSIGVERIFY");
+    }
 
-        // TODO: Use int for indexes everywhere, we can't have that many inputs/outputs
+    /** The signature check of OP_CHECKSIG(VERIFY), given the program of the script being run. */
+    static boolean checkSignature(Transaction txContainingThis, int index, byte[] prog, int lastCodeSepLocation,
+                                  byte[] pubKey, byte[] sigBytes, Set<VerifyFlag> verifyFlags) {
         boolean sigValid = false;
         try {
-            TransactionSignature sig  = TransactionSignature.decodeFromBitcoin(sigBytes, requireCanonical,
-                verifyFlags.contains(VerifyFlag.LOW_S));
-
-            // TODO: Should check hash type is known
-            Sha256Hash hash = txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
-            sigValid = ECKey.verify(hash.getBytes(), sig, pubKey);
+            sigValid = prepareSignatureCheck(txContainingThis, index, prog, lastCodeSepLocation, pubKey, sigBytes,
+                    verifyFlags).verify();
         } catch (Exception e1) {
             // There is (at least) one exception that could be hit here (EOFException, if the sig is too short)
             // Because I can't verify there aren't more, we use a very generic Exception catch
@@ -1547,20 +1576,41 @@ public class Script {
                 // http://jawspeak.com/2010/05/26/hotspot-caused-exceptions-to-lose-their-stack-traces-in-production-and-the-fix/
                 log.warn("Signature checking failed!", e1);
         }
+        return sigValid;
+    }
 
-        if (opcode == OP_CHECKSIG)
-            stack.add(sigValid ? new byte[] {1} : new byte[] {});
-        else if (opcode == OP_CHECKSIGVERIFY)
-            if (!sigValid)
-                throw new ScriptException(ScriptError.SCRIPT_ERR_CHECKSIGVERIFY, "Script failed OP_CHECKSIGVERIFY");
+    /**
+     * Everything OP_CHECKSIG does apart from the verification itself: decodes the signature and computes the hash it
+     * has to sign. Throws if the signature can't be decoded.
+     */
+    private static SignatureCheck prepareSignatureCheck(Transaction txContainingThis, int index, byte[] prog,
+                                                        int lastCodeSepLocation, byte[] pubKey, byte[] sigBytes,
+                                                        Set<VerifyFlag> verifyFlags) {
+        final boolean requireCanonical = verifyFlags.contains(VerifyFlag.STRICTENC)
+            || verifyFlags.contains(VerifyFlag.DERSIG)
+            || verifyFlags.contains(VerifyFlag.LOW_S);
+        byte[] connectedScript = Arrays.copyOfRange(prog, lastCodeSepLocation, prog.length);
+
+        UnsafeByteArrayOutputStream outStream = new UnsafeByteArrayOutputStream(sigBytes.length + 1);
+        try {
+            writeBytes(outStream, sigBytes);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Cannot happen
+        }
+        connectedScript = removeAllInstancesOf(connectedScript, outStream.toByteArray());
+
+        // TODO: Use int for indexes everywhere, we can't have that many inputs/outputs
+        TransactionSignature sig  = TransactionSignature.decodeFromBitcoin(sigBytes, requireCanonical,
+            verifyFlags.contains(VerifyFlag.LOW_S), verifyFlags.contains(VerifyFlag.SCHNORR));
+
+        // TODO: Should check hash type is known
+        Sha256Hash hash = txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
+        return new SignatureCheck(hash.getBytes(), sig, pubKey);
     }
 
     private static int executeMultiSig(Transaction txContainingThis, int index, Script script, LinkedList<byte[]> stack,
                                        int opCount, int lastCodeSepLocation, int opcode, 
                                        Set<VerifyFlag> verifyFlags) throws ScriptException {
-        final boolean requireCanonical = verifyFlags.contains(VerifyFlag.STRICTENC)
-            || verifyFlags.contains(VerifyFlag.DERSIG)
-            || verifyFlags.contains(VerifyFlag.LOW_S);
         if (stack.size() < 1)
             throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < 2");
         int pubKeyCount = castToBigInteger(stack.pollLast(), verifyFlags.contains(VerifyFlag.MINIMALDATA)).intValue();
@@ -1590,7 +1640,33 @@ public class Script {
             sigs.add(sig);
         }
 
-        byte[] prog = script.getProgram();
+        boolean valid = checkMultiSignature(txContainingThis, index, script.getProgram(), lastCodeSepLocation, pubkeys,
+                sigs, verifyFlags);
+
+        // We uselessly remove a stack object to emulate a Bitcoin Core bug.
+        byte[] nullDummy = stack.pollLast();
+        if (verifyFlags.contains(VerifyFlag.NULLDUMMY) && nullDummy.length > 0)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_NULLFAIL, "OP_CHECKMULTISIG(VERIFY) with non-null nulldummy: " + Arrays.toString(nullDummy));
+
+        if (opcode == OP_CHECKMULTISIG) {
+            stack.add(valid ? new byte[] {1} : new byte[] {});
+        } else if (opcode == OP_CHECKMULTISIGVERIFY) {
+            if (!valid)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_NULLFAIL, "Script failed OP_CHECKMULTISIGVERIFY");
+        }
+        return opCount;
+    }
+
+    /**
+     * The signature checks of OP_CHECKMULTISIG(VERIFY), given the program of the script being run and the pubkeys and
+     * signatures in the order they were popped off the stack. Consumes both lists.
+     */
+    static boolean checkMultiSignature(Transaction txContainingThis, int index, byte[] prog, int lastCodeSepLocation,
+                                       LinkedList<byte[]> pubkeys, LinkedList<byte[]> sigs,
+                                       Set<VerifyFlag> verifyFlags) {
+        final boolean requireCanonical = verifyFlags.contains(VerifyFlag.STRICTENC)
+            || verifyFlags.contains(VerifyFlag.DERSIG)
+            || verifyFlags.contains(VerifyFlag.LOW_S);
         byte[] connectedScript = Arrays.copyOfRange(prog, lastCodeSepLocation, prog.length);
 
         for (byte[] sig : sigs) {
@@ -1609,9 +1685,10 @@ public class Script {
             // We could reasonably move this out of the loop, but because signature verification is significantly
             // more expensive than hashing, its not a big deal.
             try {
-                TransactionSignature sig = TransactionSignature.decodeFromBitcoin(sigs.getFirst(), requireCanonical);
+                TransactionSignature sig = TransactionSignature.decodeFromBitcoin(sigs.getFirst(), requireCanonical,
+                        false, verifyFlags.contains(VerifyFlag.SCHNORR));
                 Sha256Hash hash = txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
-                if (ECKey.verify(hash.getBytes(), sig, pubKey))
+                if (sig.scheme.verify(hash.getBytes(), sig, pubKey))
                     sigs.pollFirst();
             } catch (Exception e) {
                 // There is (at least) one exception that could be hit here (EOFException, if the sig is too short)
@@ -1623,19 +1700,7 @@ public class Script {
                 break;
             }
         }
-
-        // We uselessly remove a stack object to emulate a Bitcoin Core bug.
-        byte[] nullDummy = stack.pollLast();
-        if (verifyFlags.contains(VerifyFlag.NULLDUMMY) && nullDummy.length > 0)
-            throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_NULLFAIL, "OP_CHECKMULTISIG(VERIFY) with non-null nulldummy: " + Arrays.toString(nullDummy));
-
-        if (opcode == OP_CHECKMULTISIG) {
-            stack.add(valid ? new byte[] {1} : new byte[] {});
-        } else if (opcode == OP_CHECKMULTISIGVERIFY) {
-            if (!valid)
-                throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_NULLFAIL, "Script failed OP_CHECKMULTISIGVERIFY");
-        }
-        return opCount;
+        return valid;
     }
 
     /**
@@ -1656,9 +1721,13 @@ public class Script {
     }
 
     /**
-     * Verifies that this script (interpreted as a scriptSig) correctly spends the given scriptPubKey.
+     * <p>Verifies that this script (interpreted as a scriptSig) correctly spends the given scriptPubKey.</p>
+     *
+     * <p>The transaction is only read, never modified, and it isn't copied first: the caller must not modify
+     * txContainingThis, from this or any other thread, until this method returns. Pass a copy if that can't be
+     * guaranteed.</p>
+     *
      * @param txContainingThis The transaction in which this input scriptSig resides.
-     *                         Accessing txContainingThis from another thread while this method runs results in undefined behavior.
      * @param scriptSigIndex The index in txContainingThis of the scriptSig (note: NOT the index of the scriptPubKey).
      * @param scriptPubKey The connected scriptPubKey containing the conditions needed to claim the value.
      * @param verifyFlags Each flag enables one validation rule. If in doubt, use {@link #correctlySpends(Transaction, long, Script)}
@@ -1666,28 +1735,27 @@ public class Script {
      */
     public void correctlySpends(Transaction txContainingThis, long scriptSigIndex, Script scriptPubKey,
                                 Set<VerifyFlag> verifyFlags) throws ScriptException {
-        // Clone the transaction because executing the script involves editing it, and if we die, we'll leave
-        // the tx half broken (also it's not so thread safe to work on it directly.
-        try {
-            txContainingThis = txContainingThis.getParams().getDefaultSerializer().makeTransaction(txContainingThis.bitcoinSerialize());
-        } catch (ProtocolException e) {
-            throw new RuntimeException(e);   // Should not happen unless we were given a totally broken transaction.
-        }
+        // No copy of the transaction is made. Script execution only reads it, and signature hashes are computed from
+        // its fields without touching them (Transaction.hashForSignature used to make its own copy to edit). Copying
+        // wouldn't protect against concurrent modification either, as making the copy reads the transaction too.
         if (getProgram().length > MAX_SCRIPT_SIZE || scriptPubKey.getProgram().length > MAX_SCRIPT_SIZE)
             throw new ScriptException(ScriptError.SCRIPT_ERR_SCRIPT_SIZE, "Script larger than 10,000 bytes");
+
+        if (correctlySpendsStandard(txContainingThis, (int) scriptSigIndex, scriptPubKey, verifyFlags))
+            return;
         
-        LinkedList<byte[]> stack = new LinkedList<>();
-        LinkedList<byte[]> p2shStack = null;
+        ScriptInterpreter.Stack stack = new ScriptInterpreter.Stack();
+        ScriptInterpreter.Stack p2shStack = null;
         
-        executeScript(txContainingThis, scriptSigIndex, this, stack, verifyFlags);
+        ScriptInterpreter.execute(txContainingThis, scriptSigIndex, this, stack, verifyFlags);
         if (verifyFlags.contains(VerifyFlag.P2SH))
-            p2shStack = new LinkedList<>(stack);
-        executeScript(txContainingThis, scriptSigIndex, scriptPubKey, stack, verifyFlags);
+            p2shStack = stack.copy();
+        ScriptInterpreter.execute(txContainingThis, scriptSigIndex, scriptPubKey, stack, verifyFlags);
         
         if (stack.size() == 0)
             throw new ScriptException(ScriptError.SCRIPT_ERR_EVAL_FALSE, "Stack empty at end of script execution.");
         
-        if (!castToBool(stack.pollLast()))
+        if (!castToBool(stack.pop()))
             throw new ScriptException(ScriptError.SCRIPT_ERR_EVAL_FALSE, "Script resulted in a non-true stack: " + stack);
 
         // P2SH is pay to script hash. It means that the scriptPubKey has a special form which is a valid
@@ -1708,21 +1776,171 @@ public class Script {
                 if (chunk.isOpCode() && chunk.opcode > OP_16)
                     throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_PUSHONLY, "Attempted to spend a P2SH scriptPubKey with a script that contained script ops");
             
-            byte[] scriptPubKeyBytes = p2shStack.pollLast();
+            byte[] scriptPubKeyBytes = p2shStack.pop();
             Script scriptPubKeyP2SH = new Script(scriptPubKeyBytes);
             
-            executeScript(txContainingThis, scriptSigIndex, scriptPubKeyP2SH, p2shStack, verifyFlags);
+            ScriptInterpreter.execute(txContainingThis, scriptSigIndex, scriptPubKeyP2SH, p2shStack, verifyFlags);
             
             if (p2shStack.size() == 0)
                 throw new ScriptException(ScriptError.SCRIPT_ERR_EVAL_FALSE, "P2SH stack empty at end of script execution.");
             
-            if (!castToBool(p2shStack.pollLast()))
+            if (!castToBool(p2shStack.pop()))
                 throw new ScriptException(ScriptError.SCRIPT_ERR_EVAL_FALSE, "P2SH script execution resulted in a non-true stack");
         }
     }
 
+    /**
+     * Fast path of {@link #correctlySpends(Transaction, long, Script, Set)} for the standard templates: pay to address,
+     * pay to raw pubkey, bare multisig and multisig behind P2SH. The checks go straight to hash160 and signature
+     * verification, without running the interpreter. Returns true only if the interpreter would accept the spend as
+     * well. Anything else, including every failing spend, returns false so that the interpreter can run and report
+     * the error.
+     */
+    private boolean correctlySpendsStandard(Transaction txContainingThis, int index, Script scriptPubKey,
+                                            Set<VerifyFlag> verifyFlags) {
+        // All templates need a scriptSig made of minimal pushes only, so that neither MINIMALDATA nor the P2SH push
+        // only rule can fail.
+        if (!isMinimalPushesOnly(chunks))
+            return false;
+        byte[] pubKeyProgram = scriptPubKey.getQuickProgram();
+        int length = pubKeyProgram.length;
+        if (isSingleSigProgram(pubKeyProgram)) {
+            byte[][] sigAndPubKey = getSingleSigSpend(pubKeyProgram);
+            return sigAndPubKey != null && checkSignature(txContainingThis, index, pubKeyProgram, 0, sigAndPubKey[1],
+                    sigAndPubKey[0], verifyFlags);
+        } else if (length == 23 && (pubKeyProgram[0] & 0xff) == OP_HASH160 && pubKeyProgram[1] == 0x14
+                && (pubKeyProgram[22] & 0xff) == OP_EQUAL) {
+            // HASH160 <script hash> EQUAL, only the multisig redeem script is handled
+            if (!verifyFlags.contains(VerifyFlag.P2SH) || chunks.size() < 3)
+                return false;
+            byte[] redeemScriptBytes = pushedData(chunks.get(chunks.size() - 1));
+            if (!equalsRange(Utils.sha256hash160(redeemScriptBytes), pubKeyProgram, 2))
+                return false;
+            Script redeemScript;
+            try {
+                redeemScript = new Script(redeemScriptBytes);
+            } catch (ScriptException e) {
+                return false;
+            }
+            return correctlySpendsMultiSig(txContainingThis, index, redeemScript, chunks.subList(0, chunks.size() - 1),
+                    verifyFlags);
+        } else if (scriptPubKey.isSentToMultiSig()) {
+            return correctlySpendsMultiSig(txContainingThis, index, scriptPubKey, chunks, verifyFlags);
+        }
+        return false;
+    }
+
+    /** Whether the program is DUP HASH160 &lt;pubkey hash&gt; EQUALVERIFY CHECKSIG or &lt;pubkey&gt; CHECKSIG. */
+    private static boolean isSingleSigProgram(byte[] pubKeyProgram) {
+        int length = pubKeyProgram.length;
+        if (length == 25 && (pubKeyProgram[0] & 0xff) == OP_DUP && (pubKeyProgram[1] & 0xff) == OP_HASH160
+                && pubKeyProgram[2] == Address.LENGTH && (pubKeyProgram[23] & 0xff) == OP_EQUALVERIFY
+                && (pubKeyProgram[24] & 0xff) == OP_CHECKSIG)
+            return true;
+        return length > 3 && (pubKeyProgram[0] & 0xff) > 1 && (pubKeyProgram[0] & 0xff) < OP_PUSHDATA1
+                && length == (pubKeyProgram[0] & 0xff) + 2 && (pubKeyProgram[length - 1] & 0xff) == OP_CHECKSIG;
+    }
+
+    /**
+     * For a program accepted by {@link #isSingleSigProgram(byte[])}, returns the signature and public key this scriptSig
+     * provides, or null if the spend doesn't have the standard form or the public key doesn't match the hash.
+     */
+    @Nullable
+    private byte[][] getSingleSigSpend(byte[] pubKeyProgram) {
+        if (!isMinimalPushesOnly(chunks))
+            return null;
+        if (pubKeyProgram.length == 25 && (pubKeyProgram[0] & 0xff) == OP_DUP) {
+            // DUP HASH160 <pubkey hash> EQUALVERIFY CHECKSIG
+            if (chunks.size() != 2)
+                return null;
+            byte[] pubKey = pushedData(chunks.get(1));
+            if (!equalsRange(Utils.sha256hash160(pubKey), pubKeyProgram, 3))
+                return null;
+            return new byte[][] { pushedData(chunks.get(0)), pubKey };
+        } else {
+            // <pubkey> CHECKSIG
+            if (chunks.size() != 1)
+                return null;
+            byte[] pubKey = Arrays.copyOfRange(pubKeyProgram, 1, pubKeyProgram.length - 1);
+            return new byte[][] { pushedData(chunks.get(0)), pubKey };
+        }
+    }
+
+    /**
+     * <p>If this scriptSig spends the given scriptPubKey through one of the single signature templates, pay to address
+     * or pay to raw pubkey, returns the signature check that decides the spend. The spend is valid exactly when
+     * {@link SignatureCheck#verify()} returns true, so callers can verify many of these together with
+     * {@link SignatureScheme#verifyBatch(byte[][], ECKey.ECDSASignature[], byte[][])}.</p>
+     *
+     * <p>Returns null for any other script, and for spends that fail before the signature is checked. Use
+     * {@link #correctlySpends(Transaction, long, Script, Set)} for those, it also reports why a spend is invalid.</p>
+     */
+    @Nullable
+    public SignatureCheck getStandardSignatureCheck(Transaction txContainingThis, long scriptSigIndex,
+                                                    Script scriptPubKey, Set<VerifyFlag> verifyFlags) {
+        byte[] pubKeyProgram = scriptPubKey.getQuickProgram();
+        if (getQuickProgram().length > MAX_SCRIPT_SIZE || !isSingleSigProgram(pubKeyProgram))
+            return null;
+        byte[][] sigAndPubKey = getSingleSigSpend(pubKeyProgram);
+        if (sigAndPubKey == null)
+            return null;
+        try {
+            return prepareSignatureCheck(txContainingThis, (int) scriptSigIndex, pubKeyProgram, 0, sigAndPubKey[1],
+                    sigAndPubKey[0], verifyFlags);
+        } catch (Exception e) {
+            return null; // correctlySpends will find the signature invalid too
+        }
+    }
+
+    /** Fast path for OP_0 &lt;sig&gt;... spending m [keys...] n CHECKMULTISIG, see {@link #correctlySpendsStandard}. */
+    private static boolean correctlySpendsMultiSig(Transaction txContainingThis, int index, Script multiSigScript,
+                                                   List<ScriptChunk> sigChunks, Set<VerifyFlag> verifyFlags) {
+        List<ScriptChunk> scriptChunks = multiSigScript.chunks;
+        if (!multiSigScript.isSentToMultiSig() || !scriptChunks.get(scriptChunks.size() - 1).equalsOpCode(OP_CHECKMULTISIG))
+            return false;
+        List<ScriptChunk> keyChunks = scriptChunks.subList(1, scriptChunks.size() - 2);
+        int sigsRequired = decodeFromOpN(scriptChunks.get(0).opcode);
+        if (sigsRequired > keyChunks.size() || !isMinimalPushesOnly(keyChunks))
+            return false;
+        // The dummy element popped by CHECKMULTISIG comes first.
+        if (sigChunks.size() != sigsRequired + 1 || pushedData(sigChunks.get(0)).length != 0)
+            return false;
+        // The interpreter passes the keys and signatures in the order they are popped off the stack.
+        LinkedList<byte[]> pubKeys = new LinkedList<>();
+        for (ScriptChunk chunk : keyChunks)
+            pubKeys.addFirst(pushedData(chunk));
+        LinkedList<byte[]> sigs = new LinkedList<>();
+        for (ScriptChunk chunk : sigChunks.subList(1, sigChunks.size()))
+            sigs.addFirst(pushedData(chunk));
+        return checkMultiSignature(txContainingThis, index, multiSigScript.getQuickProgram(), 0, pubKeys, sigs,
+                verifyFlags);
+    }
+
+    private static boolean isMinimalPushesOnly(List<ScriptChunk> chunks) {
+        for (ScriptChunk chunk : chunks) {
+            if (chunk.isOpCode() || (chunk.data == null && chunk.opcode != OP_0))
+                return false;
+            if (!chunk.isShortestPossiblePushData() || (chunk.data != null && chunk.data.length > MAX_SCRIPT_ELEMENT_SIZE))
+                return false;
+        }
+        return true;
+    }
+
+    private static byte[] pushedData(ScriptChunk chunk) {
+        return chunk.data == null ? new byte[0] : chunk.data;
+    }
+
+    private static boolean equalsRange(byte[] a, byte[] b, int offsetInB) {
+        if (offsetInB + a.length > b.length)
+            return false;
+        for (int i = 0; i < a.length; i++)
+            if (a[i] != b[offsetInB + i])
+                return false;
+        return true;
+    }
+
     // Utility that doesn't copy for internal use
-    private byte[] getQuickProgram() {
+    byte[] getQuickProgram() {
         if (program != null)
             return program;
         return getProgram();
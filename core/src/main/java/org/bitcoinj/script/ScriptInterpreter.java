@@ -0,0 +1,698 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.script;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.script.Script.VerifyFlag;
+import org.spongycastle.crypto.digests.RIPEMD160Digest;
+
+import javax.annotation.Nullable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import static org.bitcoinj.script.ScriptOpCodes.*;
+
+/**
+ * <p>A script interpreter that runs directly over the program bytes of a script rather than over its parsed chunks.
+ * Stacks are plain arrays, small numbers come from a table and script numbers are decoded into longs, so the common
+ * scripts run without creating any {@link java.math.BigInteger}s or linked list nodes.</p>
+ *
+ * <p>The results, including the {@link ScriptError} of every failure, are the same as those of
+ * {@link Script#executeScript(Transaction, long, Script, LinkedList, Set)}, which stays the reference
+ * implementation.</p>
+ */
+class ScriptInterpreter {
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] TRUE = new byte[] {1};
+    // Encodings of -1 to 16, stack elements are never modified so they can be shared.
+    private static final byte[][] SMALL_NUMBERS = new byte[18][];
+
+    static {
+        SMALL_NUMBERS[0] = new byte[] {(byte) 0x81};
+        SMALL_NUMBERS[1] = EMPTY;
+        for (int i = 1; i <= 16; i++)
+            SMALL_NUMBERS[i + 1] = new byte[] {(byte) i};
+    }
+
+    /** A stack of script elements backed by an array, with the top of the stack at the end. */
+    static final class Stack {
+        private byte[][] elements;
+        private int size;
+
+        Stack() {
+            elements = new byte[16][];
+        }
+
+        private Stack(byte[][] elements, int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void push(byte[] element) {
+            if (size == elements.length)
+                elements = Arrays.copyOf(elements, size * 2);
+            elements[size++] = element;
+        }
+
+        byte[] pop() {
+            byte[] element = elements[--size];
+            elements[size] = null;
+            return element;
+        }
+
+        /** Returns the element at the given depth, where 0 is the top of the stack. */
+        byte[] peek(int depth) {
+            return elements[size - 1 - depth];
+        }
+
+        /** Removes and returns the element at the given depth, where 0 is the top of the stack. */
+        byte[] remove(int depth) {
+            int index = size - 1 - depth;
+            byte[] element = elements[index];
+            System.arraycopy(elements, index + 1, elements, index, depth);
+            elements[--size] = null;
+            return element;
+        }
+
+        Stack copy() {
+            return new Stack(Arrays.copyOf(elements, elements.length), size);
+        }
+
+        /** Returns the elements from the bottom to the top of the stack. */
+        List<byte[]> toList() {
+            return new LinkedList<>(Arrays.asList(elements).subList(0, size));
+        }
+
+        @Override
+        public String toString() {
+            return toList().toString();
+        }
+    }
+
+    private ScriptInterpreter() {
+    }
+
+    /**
+     * Executes the given script on top of the given stack. See
+     * {@link Script#executeScript(Transaction, long, Script, LinkedList, Set)}.
+     */
+    static void execute(@Nullable Transaction txContainingThis, long index, Script script, Stack stack,
+                        Set<VerifyFlag> verifyFlags) throws ScriptException {
+        final boolean requireMinimal = verifyFlags.contains(VerifyFlag.MINIMALDATA);
+        final byte[] program = script.getQuickProgram();
+        int opCount = 0;
+        int lastCodeSepLocation = 0;
+
+        Stack altstack = new Stack();
+        boolean[] ifStack = new boolean[8];
+        int ifStackSize = 0;
+        int falseCount = 0;
+
+        int chunkIndex = -1;
+        int pc = 0;
+        while (pc < program.length) {
+            chunkIndex++;
+            boolean shouldExecute = falseCount == 0;
+            int opcode = program[pc++] & 0xFF;
+
+            if (opcode <= OP_PUSHDATA4) {
+                int length;
+                if (opcode < OP_PUSHDATA1) {
+                    length = opcode;
+                } else if (opcode == OP_PUSHDATA1) {
+                    length = program[pc] & 0xFF;
+                    pc += 1;
+                } else if (opcode == OP_PUSHDATA2) {
+                    length = (program[pc] & 0xFF) | (program[pc + 1] & 0xFF) << 8;
+                    pc += 2;
+                } else {
+                    // The parser already made sure the data fits into the program.
+                    length = (int) Utils.readUint32(program, pc);
+                    pc += 4;
+                }
+                int dataStart = pc;
+                pc += length;
+
+                // Check stack element size
+                if (length > Script.MAX_SCRIPT_ELEMENT_SIZE)
+                    throw new ScriptException(ScriptError.SCRIPT_ERR_PUSH_SIZE, "Attempted to push a data string larger than 520 bytes");
+
+                if (shouldExecute) {
+                    // Check minimal push
+                    if (requireMinimal && !isShortestPossiblePushData(opcode, program, dataStart, length))
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_MINIMALDATA, "Script included a not minimal push operation.");
+                    stack.push(length == 0 ? EMPTY : Arrays.copyOfRange(program, dataStart, pc));
+                }
+            } else {
+                // Note how OP_RESERVED does not count towards the opcode limit.
+                if (opcode > OP_16) {
+                    opCount++;
+                    if (opCount > Script.MAX_OPS_PER_SCRIPT)
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_OP_COUNT, "More script operations than is allowed");
+                }
+
+                // Disabled opcodes.
+                if (opcode == OP_CAT || opcode == OP_SUBSTR || opcode == OP_LEFT || opcode == OP_RIGHT ||
+                        opcode == OP_INVERT || opcode == OP_AND || opcode == OP_OR || opcode == OP_XOR ||
+                        opcode == OP_2MUL || opcode == OP_2DIV || opcode == OP_MUL || opcode == OP_DIV ||
+                        opcode == OP_MOD || opcode == OP_LSHIFT || opcode == OP_RSHIFT)
+                    throw new ScriptException(ScriptError.SCRIPT_ERR_DISABLED_OPCODE, "Script included a disabled Script Op.");
+
+                if (OP_IF <= opcode && opcode <= OP_ENDIF) {
+                    switch (opcode) {
+                    case OP_IF:
+                    case OP_NOTIF:
+                        boolean value = false;
+                        if (shouldExecute) {
+                            if (stack.size() < 1)
+                                throw new ScriptException(ScriptError.SCRIPT_ERR_UNBALANCED_CONDITIONAL,
+                                        "Attempted " + (opcode == OP_IF ? "OP_IF" : "OP_NOTIF") + " on an empty stack");
+                            value = Script.castToBool(stack.pop()) == (opcode == OP_IF);
+                        }
+                        if (ifStackSize == ifStack.length)
+                            ifStack = Arrays.copyOf(ifStack, ifStackSize * 2);
+                        ifStack[ifStackSize++] = value;
+                        if (!value)
+                            falseCount++;
+                        continue;
+                    case OP_ELSE:
+                        if (ifStackSize == 0)
+                            throw new ScriptException(ScriptError.SCRIPT_ERR_UNBALANCED_CONDITIONAL, "Attempted OP_ELSE without OP_IF/NOTIF");
+                        ifStack[ifStackSize - 1] = !ifStack[ifStackSize - 1];
+                        falseCount += ifStack[ifStackSize - 1] ? -1 : 1;
+                        continue;
+                    case OP_ENDIF:
+                        if (ifStackSize == 0)
+                            throw new ScriptException(ScriptError.SCRIPT_ERR_UNBALANCED_CONDITIONAL, "Attempted OP_ENDIF without OP_IF/NOTIF");
+                        if (!ifStack[--ifStackSize])
+                            falseCount--;
+                        continue;
+                    default:
+                        // OP_VERIF and OP_VERNOTIF fail even in a branch that isn't executed.
+                        throw new ScriptException(ScriptError.SCRIPT_ERR_BAD_OPCODE, "Script used a reserved or disabled opcode: " + opcode);
+                    }
+                }
+
+                if (shouldExecute) {
+                    if (opcode == OP_CODESEPARATOR) {
+                        // Use the chunk for the location, so that scripts built from chunks behave as before.
+                        lastCodeSepLocation = script.chunks.get(chunkIndex).getStartLocationInProgram() + 1;
+                    } else {
+                        opCount = executeOpcode(txContainingThis, index, program, stack, altstack, opcode, opCount,
+                                lastCodeSepLocation, requireMinimal, verifyFlags);
+                    }
+                }
+            }
+
+            if (stack.size() + altstack.size() > Script.MAX_STACK_SIZE)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_STACK_SIZE, "Stack size exceeded range");
+        }
+
+        if (ifStackSize != 0)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_UNBALANCED_CONDITIONAL, "OP_IF/OP_NOTIF without OP_ENDIF");
+    }
+
+    /** Executes a single opcode that isn't a push or flow control. Returns the new op count. */
+    private static int executeOpcode(@Nullable Transaction txContainingThis, long index, byte[] program, Stack stack,
+                                     Stack altstack, int opcode, int opCount, int lastCodeSepLocation,
+                                     boolean requireMinimal, Set<VerifyFlag> verifyFlags) throws ScriptException {
+        switch (opcode) {
+        case OP_1NEGATE:
+        case OP_1:
+        case OP_2:
+        case OP_3:
+        case OP_4:
+        case OP_5:
+        case OP_6:
+        case OP_7:
+        case OP_8:
+        case OP_9:
+        case OP_10:
+        case OP_11:
+        case OP_12:
+        case OP_13:
+        case OP_14:
+        case OP_15:
+        case OP_16:
+            stack.push(SMALL_NUMBERS[opcode - OP_1 + 2]);
+            break;
+        case OP_NOP:
+            break;
+        case OP_VERIFY:
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_VERIFY on an empty stack");
+            if (!Script.castToBool(stack.pop()))
+                throw new ScriptException(ScriptError.SCRIPT_ERR_VERIFY, "OP_VERIFY failed");
+            break;
+        case OP_RETURN:
+            throw new ScriptException(ScriptError.SCRIPT_ERR_OP_RETURN, "Script called OP_RETURN");
+        case OP_TOALTSTACK:
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_TOALTSTACK on an empty stack");
+            altstack.push(stack.pop());
+            break;
+        case OP_FROMALTSTACK:
+            if (altstack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_ALTSTACK_OPERATION, "Attempted OP_FROMALTSTACK on an empty altstack");
+            stack.push(altstack.pop());
+            break;
+        case OP_2DROP:
+            if (stack.size() < 2)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_2DROP on a stack with size < 2");
+            stack.pop();
+            stack.pop();
+            break;
+        case OP_2DUP:
+            if (stack.size() < 2)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_2DUP on a stack with size < 2");
+            stack.push(stack.peek(1));
+            stack.push(stack.peek(1));
+            break;
+        case OP_3DUP:
+            if (stack.size() < 3)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_3DUP on a stack with size < 3");
+            stack.push(stack.peek(2));
+            stack.push(stack.peek(2));
+            stack.push(stack.peek(2));
+            break;
+        case OP_2OVER:
+            if (stack.size() < 4)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_2OVER on a stack with size < 4");
+            stack.push(stack.peek(3));
+            stack.push(stack.peek(3));
+            break;
+        case OP_2ROT:
+            if (stack.size() < 6)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_2ROT on a stack with size < 6");
+            stack.push(stack.remove(5));
+            stack.push(stack.remove(5));
+            break;
+        case OP_2SWAP:
+            if (stack.size() < 4)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_2SWAP on a stack with size < 4");
+            stack.push(stack.remove(3));
+            stack.push(stack.remove(3));
+            break;
+        case OP_IFDUP:
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_IFDUP on an empty stack");
+            if (Script.castToBool(stack.peek(0)))
+                stack.push(stack.peek(0));
+            break;
+        case OP_DEPTH:
+            stack.push(encode(stack.size()));
+            break;
+        case OP_DROP:
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_DROP on an empty stack");
+            stack.pop();
+            break;
+        case OP_DUP:
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_DUP on an empty stack");
+            stack.push(stack.peek(0));
+            break;
+        case OP_NIP:
+            if (stack.size() < 2)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_NIP on a stack with size < 2");
+            stack.remove(1);
+            break;
+        case OP_OVER:
+            if (stack.size() < 2)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_OVER on a stack with size < 2");
+            stack.push(stack.peek(1));
+            break;
+        case OP_PICK:
+        case OP_ROLL:
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_PICK/OP_ROLL on an empty stack");
+            long val = castToLong(stack.pop(), 4, requireMinimal);
+            if (val < 0 || val >= stack.size())
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "OP_PICK/OP_ROLL attempted to get data deeper than stack size");
+            stack.push(opcode == OP_ROLL ? stack.remove((int) val) : stack.peek((int) val));
+            break;
+        case OP_ROT:
+            if (stack.size() < 3)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_ROT on a stack with size < 3");
+            stack.push(stack.remove(2));
+            break;
+        case OP_SWAP:
+        case OP_TUCK:
+            if (stack.size() < 2)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_SWAP on a stack with size < 2");
+            byte[] top = stack.pop();
+            byte[] second = stack.pop();
+            stack.push(top);
+            stack.push(second);
+            if (opcode == OP_TUCK)
+                stack.push(top);
+            break;
+        case OP_SIZE:
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_SIZE on an empty stack");
+            stack.push(encode(stack.peek(0).length));
+            break;
+        case OP_EQUAL:
+            if (stack.size() < 2)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_EQUAL on a stack with size < 2");
+            stack.push(Arrays.equals(stack.pop(), stack.pop()) ? TRUE : EMPTY);
+            break;
+        case OP_EQUALVERIFY:
+            if (stack.size() < 2)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_EQUALVERIFY on a stack with size < 2");
+            if (!Arrays.equals(stack.pop(), stack.pop()))
+                throw new ScriptException(ScriptError.SCRIPT_ERR_EQUALVERIFY, "OP_EQUALVERIFY: non-equal data");
+            break;
+        case OP_1ADD:
+        case OP_1SUB:
+        case OP_NEGATE:
+        case OP_ABS:
+        case OP_NOT:
+        case OP_0NOTEQUAL: {
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted a numeric op on an empty stack");
+            long num = castToLong(stack.pop(), 4, requireMinimal);
+            long result;
+            switch (opcode) {
+            case OP_1ADD:
+                result = num + 1;
+                break;
+            case OP_1SUB:
+                result = num - 1;
+                break;
+            case OP_NEGATE:
+                result = -num;
+                break;
+            case OP_ABS:
+                result = Math.abs(num);
+                break;
+            case OP_NOT:
+                result = num == 0 ? 1 : 0;
+                break;
+            case OP_0NOTEQUAL:
+                result = num == 0 ? 0 : 1;
+                break;
+            default:
+                throw new AssertionError("Unreachable");
+            }
+            stack.push(encode(result));
+            break;
+        }
+        case OP_ADD:
+        case OP_SUB:
+        case OP_BOOLAND:
+        case OP_BOOLOR:
+        case OP_NUMEQUAL:
+        case OP_NUMNOTEQUAL:
+        case OP_LESSTHAN:
+        case OP_GREATERTHAN:
+        case OP_LESSTHANOREQUAL:
+        case OP_GREATERTHANOREQUAL:
+        case OP_MIN:
+        case OP_MAX: {
+            if (stack.size() < 2)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted a numeric op on a stack with size < 2");
+            long num2 = castToLong(stack.pop(), 4, requireMinimal);
+            long num1 = castToLong(stack.pop(), 4, requireMinimal);
+            long result;
+            switch (opcode) {
+            case OP_ADD:
+                result = num1 + num2;
+                break;
+            case OP_SUB:
+                result = num1 - num2;
+                break;
+            case OP_BOOLAND:
+                result = num1 != 0 && num2 != 0 ? 1 : 0;
+                break;
+            case OP_BOOLOR:
+                result = num1 != 0 || num2 != 0 ? 1 : 0;
+                break;
+            case OP_NUMEQUAL:
+                result = num1 == num2 ? 1 : 0;
+                break;
+            case OP_NUMNOTEQUAL:
+                result = num1 != num2 ? 1 : 0;
+                break;
+            case OP_LESSTHAN:
+                result = num1 < num2 ? 1 : 0;
+                break;
+            case OP_GREATERTHAN:
+                result = num1 > num2 ? 1 : 0;
+                break;
+            case OP_LESSTHANOREQUAL:
+                result = num1 <= num2 ? 1 : 0;
+                break;
+            case OP_GREATERTHANOREQUAL:
+                result = num1 >= num2 ? 1 : 0;
+                break;
+            case OP_MIN:
+                result = Math.min(num1, num2);
+                break;
+            case OP_MAX:
+                result = Math.max(num1, num2);
+                break;
+            default:
+                throw new AssertionError("Unreachable");
+            }
+            stack.push(encode(result));
+            break;
+        }
+        case OP_NUMEQUALVERIFY:
+            if (stack.size() < 2)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_NUMEQUALVERIFY on a stack with size < 2");
+            if (castToLong(stack.pop(), 4, requireMinimal) != castToLong(stack.pop(), 4, requireMinimal))
+                throw new ScriptException(ScriptError.SCRIPT_ERR_NUMEQUALVERIFY, "OP_NUMEQUALVERIFY failed");
+            break;
+        case OP_WITHIN: {
+            if (stack.size() < 3)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_WITHIN on a stack with size < 3");
+            long max = castToLong(stack.pop(), 4, requireMinimal);
+            long min = castToLong(stack.pop(), 4, requireMinimal);
+            long num = castToLong(stack.pop(), 4, requireMinimal);
+            stack.push(min <= num && num < max ? TRUE : EMPTY);
+            break;
+        }
+        case OP_RIPEMD160: {
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_RIPEMD160 on an empty stack");
+            RIPEMD160Digest digest = new RIPEMD160Digest();
+            byte[] dataToHash = stack.pop();
+            digest.update(dataToHash, 0, dataToHash.length);
+            byte[] ripmemdHash = new byte[20];
+            digest.doFinal(ripmemdHash, 0);
+            stack.push(ripmemdHash);
+            break;
+        }
+        case OP_SHA1:
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_SHA1 on an empty stack");
+            try {
+                stack.push(MessageDigest.getInstance("SHA-1").digest(stack.pop()));
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);  // Cannot happen.
+            }
+            break;
+        case OP_SHA256:
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_SHA256 on an empty stack");
+            stack.push(Sha256Hash.hash(stack.pop()));
+            break;
+        case OP_HASH160:
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_HASH160 on an empty stack");
+            stack.push(Utils.sha256hash160(stack.pop()));
+            break;
+        case OP_HASH256:
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_SHA256 on an empty stack");
+            stack.push(Sha256Hash.hashTwice(stack.pop()));
+            break;
+        case OP_CHECKSIG:
+        case OP_CHECKSIGVERIFY: {
+            if (txContainingThis == null)
+                throw new IllegalStateException("Script attempted signature check but no tx was provided");
+            if (stack.size() < 2)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKSIG(VERIFY) on a stack with size < 2");
+            byte[] pubKey = stack.pop();
+            byte[] sigBytes = stack.pop();
+            boolean sigValid = Script.checkSignature(txContainingThis, (int) index, program, lastCodeSepLocation,
+                    pubKey, sigBytes, verifyFlags);
+            if (opcode == OP_CHECKSIG)
+                stack.push(sigValid ? TRUE : EMPTY);
+            else if (!sigValid)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_CHECKSIGVERIFY, "Script failed OP_CHECKSIGVERIFY");
+            break;
+        }
+        case OP_CHECKMULTISIG:
+        case OP_CHECKMULTISIGVERIFY:
+            if (txContainingThis == null)
+                throw new IllegalStateException("Script attempted signature check but no tx was provided");
+            opCount = executeMultiSig(txContainingThis, (int) index, program, stack, opCount, lastCodeSepLocation,
+                    opcode, requireMinimal, verifyFlags);
+            break;
+        case OP_CHECKLOCKTIMEVERIFY:
+            if (!verifyFlags.contains(VerifyFlag.CHECKLOCKTIMEVERIFY)) {
+                // not enabled; treat as a NOP2
+                if (verifyFlags.contains(VerifyFlag.DISCOURAGE_UPGRADABLE_NOPS))
+                    throw new ScriptException(ScriptError.SCRIPT_ERR_DISCOURAGE_UPGRADABLE_NOPS, "Script used a reserved opcode " + opcode);
+                break;
+            }
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKLOCKTIMEVERIFY on a stack with size < 1");
+            Script.executeCheckLockTimeVerify(txContainingThis, (int) index, stack.peek(0), verifyFlags);
+            break;
+        case OP_CHECKSEQUENCEVERIFY:
+            if (!verifyFlags.contains(VerifyFlag.CHECKSEQUENCEVERIFY)) {
+                // not enabled; treat as a NOP3
+                if (verifyFlags.contains(VerifyFlag.DISCOURAGE_UPGRADABLE_NOPS))
+                    throw new ScriptException(ScriptError.SCRIPT_ERR_DISCOURAGE_UPGRADABLE_NOPS, "Script used a reserved opcode " + opcode);
+                break;
+            }
+            if (stack.size() < 1)
+                throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKSEQUENCEVERIFY on a stack with size < 1");
+            Script.executeCheckSequenceVerify(txContainingThis, (int) index, stack.peek(0), verifyFlags);
+            break;
+        case OP_NOP1:
+        case OP_NOP4:
+        case OP_NOP5:
+        case OP_NOP6:
+        case OP_NOP7:
+        case OP_NOP8:
+        case OP_NOP9:
+        case OP_NOP10:
+            if (verifyFlags.contains(VerifyFlag.DISCOURAGE_UPGRADABLE_NOPS))
+                throw new ScriptException(ScriptError.SCRIPT_ERR_DISCOURAGE_UPGRADABLE_NOPS, "Script used a reserved opcode " + opcode);
+            break;
+        default:
+            throw new ScriptException(ScriptError.SCRIPT_ERR_BAD_OPCODE, "Script used a reserved or disabled opcode: " + opcode);
+        }
+        return opCount;
+    }
+
+    private static int executeMultiSig(Transaction txContainingThis, int index, byte[] program, Stack stack,
+                                       int opCount, int lastCodeSepLocation, int opcode, boolean requireMinimal,
+                                       Set<VerifyFlag> verifyFlags) throws ScriptException {
+        if (stack.size() < 1)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < 2");
+        int pubKeyCount = (int) castToLong(stack.pop(), 4, requireMinimal);
+        if (pubKeyCount < 0 || pubKeyCount > Script.MAX_PUBKEYS_PER_MULTISIG)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_PUBKEY_COUNT, "OP_CHECKMULTISIG(VERIFY) with pubkey count out of range");
+        opCount += pubKeyCount;
+        if (opCount > Script.MAX_OPS_PER_SCRIPT)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_OP_COUNT, "Total op count > 201 during OP_CHECKMULTISIG(VERIFY)");
+        if (stack.size() < pubKeyCount + 1)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < num_of_pubkeys + 2");
+
+        LinkedList<byte[]> pubkeys = new LinkedList<>();
+        for (int i = 0; i < pubKeyCount; i++)
+            pubkeys.add(stack.pop());
+
+        int sigCount = (int) castToLong(stack.pop(), 4, requireMinimal);
+        if (sigCount < 0 || sigCount > pubKeyCount)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_COUNT, "OP_CHECKMULTISIG(VERIFY) with sig count out of range");
+        if (stack.size() < sigCount + 1)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_INVALID_STACK_OPERATION, "Attempted OP_CHECKMULTISIG(VERIFY) on a stack with size < num_of_pubkeys + num_of_signatures + 3");
+
+        LinkedList<byte[]> sigs = new LinkedList<>();
+        for (int i = 0; i < sigCount; i++)
+            sigs.add(stack.pop());
+
+        boolean valid = Script.checkMultiSignature(txContainingThis, index, program, lastCodeSepLocation, pubkeys,
+                sigs, verifyFlags);
+
+        // We uselessly remove a stack object to emulate a Bitcoin Core bug.
+        byte[] nullDummy = stack.pop();
+        if (verifyFlags.contains(VerifyFlag.NULLDUMMY) && nullDummy.length > 0)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_NULLFAIL, "OP_CHECKMULTISIG(VERIFY) with non-null nulldummy: " + Arrays.toString(nullDummy));
+
+        if (opcode == OP_CHECKMULTISIG) {
+            stack.push(valid ? TRUE : EMPTY);
+        } else if (!valid) {
+            throw new ScriptException(ScriptError.SCRIPT_ERR_SIG_NULLFAIL, "Script failed OP_CHECKMULTISIGVERIFY");
+        }
+        return opCount;
+    }
+
+    /** Same as {@link ScriptChunk#isShortestPossiblePushData()}, for a push that was read from the program bytes. */
+    private static boolean isShortestPossiblePushData(int opcode, byte[] program, int dataStart, int length) {
+        if (length == 0)
+            return opcode == OP_0;
+        if (length == 1) {
+            int b = program[dataStart] & 0xFF;
+            // Should have been OP_1 to OP_16 or OP_1NEGATE.
+            if ((b >= 0x01 && b <= 0x10) || b == 0x81)
+                return false;
+        }
+        if (length < OP_PUSHDATA1)
+            return opcode == length;
+        if (length < 256)
+            return opcode == OP_PUSHDATA1;
+        if (length < 65536)
+            return opcode == OP_PUSHDATA2;
+        return opcode == OP_PUSHDATA4;
+    }
+
+    /**
+     * Decodes a script number of at most maxLength bytes. The checks and errors are the same as those of
+     * Script.castToBigInteger, but as maxLength is at most 7 the value always fits into a long.
+     */
+    static long castToLong(byte[] chunk, int maxLength, boolean requireMinimal) throws ScriptException {
+        if (chunk.length > maxLength)
+            throw new ScriptException(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, "Script attempted to use an integer larger than " + maxLength + " bytes");
+        if (chunk.length == 0)
+            return 0;
+        int last = chunk.length - 1;
+        // See Script.castToBigInteger for why this is the minimal encoding check.
+        if (requireMinimal && (chunk[last] & 0x7f) == 0 && (last == 0 || (chunk[last - 1] & 0x80) == 0))
+            throw new ScriptException(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, "non-minimally encoded script number");
+        long result = chunk[last] & 0x7fL;
+        for (int i = last - 1; i >= 0; i--)
+            result = (result << 8) | (chunk[i] & 0xFFL);
+        return (chunk[last] & 0x80) != 0 ? -result : result;
+    }
+
+    /** Encodes a number the way the reference interpreter does: little endian magnitude with a sign bit. */
+    static byte[] encode(long value) {
+        if (value >= -1 && value <= 16)
+            return SMALL_NUMBERS[(int) value + 1];
+        boolean negative = value < 0;
+        long magnitude = Math.abs(value);
+        int length = 0;
+        for (long m = magnitude; m != 0; m >>>= 8)
+            length++;
+        // One more byte if the top bit is needed for the sign.
+        if ((magnitude >>> (8 * length - 1)) != 0)
+            length++;
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++)
+            result[i] = (byte) (magnitude >>> (8 * i));
+        if (negative)
+            result[length - 1] |= 0x80;
+        return result;
+    }
+}
@@ -85,7 +85,7 @@ public abstract class CustomTransactionSigner extends StatelessTransactionSigner
             Sha256Hash sighash = tx.hashForSignature(i, redeemData.redeemScript, Transaction.SigHash.ALL, false);
             SignatureAndKey sigKey = getSignature(sighash, propTx.keyPaths.get(scriptPubKey));
             TransactionSignature txSig = new TransactionSignature(sigKey.sig, Transaction.SigHash.ALL, false);
-            int sigIndex = inputScript.getSigInsertionIndex(sighash, sigKey.pubKey);
+            int sigIndex = inputScript.getSigInsertionIndex(sighash, sigKey.pubKey, tx.getParams().getSignatureScheme());
             inputScript = scriptPubKey.getScriptSigWithSignature(inputScript, txSig.encodeToBitcoin(), sigIndex);
             txIn.setScriptSig(inputScript);
         }
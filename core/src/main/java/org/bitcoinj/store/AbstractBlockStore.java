@@ -0,0 +1,50 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.StoredBlock;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A base class for {@link BlockStore}s that provides the default implementations of its optional operations, so that
+ * stores only override those they can do better.
+ */
+public abstract class AbstractBlockStore implements BlockStore {
+    /**
+     * Walks back from the block one {@link StoredBlock#getPrev(BlockStore)} at a time, which takes as many reads as
+     * the difference in height.
+     */
+    @Override
+    @Nullable
+    public StoredBlock getAncestor(StoredBlock block, int height) throws BlockStoreException {
+        checkArgument(height >= 0 && height <= block.getHeight(), "Height %s is not below the block", height);
+        StoredBlock cursor = block;
+        while (cursor != null && cursor.getHeight() > height)
+            cursor = cursor.getPrev(this);
+        return cursor;
+    }
+
+    /** Puts the blocks one at a time with {@link #put(StoredBlock)}. */
+    @Override
+    public void putAll(Iterable<StoredBlock> blocks) throws BlockStoreException {
+        for (StoredBlock block : blocks)
+            put(block);
+    }
+}
@@ -20,6 +20,8 @@ import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.StoredBlock;
 
+import javax.annotation.Nullable;
+
 /**
  * An implementor of BlockStore saves StoredBlock objects to disk. Different implementations store them in
  * different ways. An in-memory implementation (MemoryBlockStore) exists for unit testing but real apps will want to
@@ -56,6 +58,20 @@ public interface BlockStore {
      * Sets the {@link StoredBlock} that represents the top of the chain of greatest total work.
      */
     void setChainHead(StoredBlock chainHead) throws BlockStoreException;
+
+    /**
+     * Returns the ancestor of the given block at the given height, the block itself if the height is its own, or null
+     * if the chain can't be followed back that far. {@link AbstractBlockStore} implements this by walking back one
+     * block at a time; stores that index the chain, like {@link IndexedBlockStore}, can do better.
+     */
+    @Nullable
+    StoredBlock getAncestor(StoredBlock block, int height) throws BlockStoreException;
+
+    /**
+     * Puts the given blocks, oldest first. {@link AbstractBlockStore} implements this by putting them one by one;
+     * stores that can write many blocks in one go, like {@link LevelDBBlockStore}, do better.
+     */
+    void putAll(Iterable<StoredBlock> blocks) throws BlockStoreException;
     
     /** Closes the store. */
     void close() throws BlockStoreException;
@@ -86,12 +86,18 @@ import java.util.*;
  * </p>
  *
  */
-public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockStore {
+public abstract class DatabaseFullPrunedBlockStore extends AbstractBlockStore implements PrunableBlockStore {
     private static final Logger log = LoggerFactory.getLogger(DatabaseFullPrunedBlockStore.class);
 
     private static final String CHAIN_HEAD_SETTING                              = "chainhead";
     private static final String VERIFIED_CHAIN_HEAD_SETTING                     = "verifiedchainhead";
     private static final String VERSION_SETTING                                 = "version";
+    // Version 03 stores undo data in the original encoding, version 04 in the compact encoding of TxOutCompressor.
+    private static final String VERSION_LEGACY_ENCODING                         = "03";
+    private static final String VERSION                                         = "04";
+
+    // How many snapshots the store level queries open before they give up on the chain head moving under them.
+    private static final int MAX_SNAPSHOT_ATTEMPTS                              = 5;
 
     // Drop table SQL.
     private static final String DROP_SETTINGS_TABLE                             = "DROP TABLE settings";
@@ -112,6 +118,8 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
     private static final String INSERT_UNDOABLEBLOCKS_SQL                       = "INSERT INTO undoableblocks(hash, height, txoutchanges, transactions) VALUES(?, ?, ?, ?)";
     private static final String UPDATE_UNDOABLEBLOCKS_SQL                       = "UPDATE undoableblocks SET txoutchanges=?, transactions=? WHERE hash = ?";
     private static final String DELETE_UNDOABLEBLOCKS_SQL                       = "DELETE FROM undoableblocks WHERE height <= ?";
+    private static final String SELECT_UNDOABLEBLOCKS_MIN_HEIGHT_SQL            = "SELECT MIN(height) FROM undoableblocks";
+    private static final String SELECT_UNDOABLEBLOCKS_TXOUTCHANGES_SQL          = "SELECT hash, txoutchanges FROM undoableblocks WHERE txoutchanges IS NOT NULL";
 
     private static final String SELECT_OPENOUTPUTS_SQL                          = "SELECT height, value, scriptbytes, coinbase, toaddress, addresstargetable FROM openoutputs WHERE hash = ? AND index = ?";
     private static final String SELECT_OPENOUTPUTS_COUNT_SQL                    = "SELECT COUNT(*) FROM openoutputs WHERE hash = ?";
@@ -139,11 +147,16 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
     protected StoredBlock chainHeadBlock;
     protected Sha256Hash verifiedChainHeadHash;
     protected StoredBlock verifiedChainHeadBlock;
+    // The verified chain head as of the last commit, for readers on other threads.
+    protected volatile StoredBlock committedVerifiedChainHeadBlock;
     protected NetworkParameters params;
     protected ThreadLocal<Connection> conn;
     protected List<Connection> allConnections;
+    // Connections of closed snapshots, to be reused by the next ones.
+    protected LinkedList<Connection> snapshotConnections;
     protected String connectionURL;
     protected int fullStoreDepth;
+    protected volatile boolean inlinePruning = true;
     protected String username;
     protected String password;
     protected String schemaName;
@@ -170,6 +183,7 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         this.password = password;
         this.conn = new ThreadLocal<>();
         this.allConnections = new LinkedList<>();
+        this.snapshotConnections = new LinkedList<>();
 
         try {
             Class.forName(getDatabaseDriverClass());
@@ -352,6 +366,51 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         return DELETE_UNDOABLEBLOCKS_SQL;
     }
 
+    /**
+     * Get the SQL to select the hash and txoutchanges of all undoableblocks records that have them.
+     * @return The SQL select statement.
+     */
+    protected String getSelectUndoableBlocksTxOutChangesSQL() {
+        return SELECT_UNDOABLEBLOCKS_TXOUTCHANGES_SQL;
+    }
+
+    /**
+     * Get the SQL to select the lowest height that has an undoableblocks record.
+     * @return The SQL select statement.
+     */
+    protected String getSelectUndoableBlocksMinHeightSQL() {
+        return SELECT_UNDOABLEBLOCKS_MIN_HEIGHT_SQL;
+    }
+
+    /**
+     * Get the SQL that gives the space of deleted undoableblocks records back, or null if the database doesn't need
+     * or have such a statement.
+     * @return The SQL statement.
+     */
+    @Nullable
+    protected String getCompactUndoableBlocksSQL() {
+        return null;
+    }
+
+    /**
+     * Get the SQL to select the size of the database in bytes, or null if the database can't tell.
+     * @return The SQL select statement.
+     */
+    @Nullable
+    protected String getSelectStoreSizeSQL() {
+        return null;
+    }
+
+    /**
+     * Get the transaction isolation level of the connections that {@link #openSnapshot()} reads with, or -1 to keep
+     * the default of the database. Snapshots only see the database as of when they were opened if it is at least
+     * {@link Connection#TRANSACTION_REPEATABLE_READ}, otherwise they fail when a block is committed in the meantime.
+     * @return The isolation level.
+     */
+    protected int getSnapshotIsolationLevel() {
+        return Connection.TRANSACTION_REPEATABLE_READ;
+    }
+
     /**
      * Get the SQL to select a openoutputs record.
      * @return The SQL select statement.
@@ -426,29 +485,34 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             if (conn.get() != null && !conn.get().isClosed())
                 return;
 
-            if (username == null || password == null) {
-                conn.set(DriverManager.getConnection(connectionURL));
-            } else {
-                Properties props = new Properties();
-                props.setProperty("user", this.username);
-                props.setProperty("password", this.password);
-                conn.set(DriverManager.getConnection(connectionURL, props));
-            }
-            allConnections.add(conn.get());
-            Connection connection = conn.get();
-            // set the schema if one is needed
-            if (schemaName != null) {
-                Statement s = connection.createStatement();
-                for (String sql : getCreateSchemeSQL()) {
-                    s.execute(sql);
-                }
-            }
+            conn.set(connect());
             log.info("Made a new connection to database " + connectionURL);
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
         }
     }
 
+    private synchronized Connection connect() throws SQLException {
+        Connection connection;
+        if (username == null || password == null) {
+            connection = DriverManager.getConnection(connectionURL);
+        } else {
+            Properties props = new Properties();
+            props.setProperty("user", this.username);
+            props.setProperty("password", this.password);
+            connection = DriverManager.getConnection(connectionURL, props);
+        }
+        allConnections.add(connection);
+        // set the schema if one is needed
+        if (schemaName != null) {
+            Statement s = connection.createStatement();
+            for (String sql : getCreateSchemeSQL()) {
+                s.execute(sql);
+            }
+        }
+        return connection;
+    }
+
     @Override
     public synchronized void close() {
         for (Connection conn : allConnections) {
@@ -465,6 +529,7 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             }
         }
         allConnections.clear();
+        snapshotConnections.clear();
     }
 
     /**
@@ -547,7 +612,7 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         ps.setNull(2, Types.BINARY);
         ps.execute();
         ps.setString(1, VERSION_SETTING);
-        ps.setBytes(2, "03".getBytes());
+        ps.setBytes(2, VERSION.getBytes());
         ps.execute();
         ps.close();
         createNewStore(params);
@@ -608,6 +673,58 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         if (this.verifiedChainHeadBlock == null) {
             throw new BlockStoreException("corrupt database block store - verified head block not found");
         }
+        this.committedVerifiedChainHeadBlock = verifiedChainHeadBlock;
+        ps = conn.get().prepareStatement(getSelectSettingsSQL());
+        ps.setString(1, VERSION_SETTING);
+        rs = ps.executeQuery();
+        String version = rs.next() ? new String(rs.getBytes(1)) : null;
+        rs.close();
+        ps.close();
+        if (VERSION_LEGACY_ENCODING.equals(version))
+            migrateToCompactEncoding();
+    }
+
+    /**
+     * Rewrites the undo data of a store created before the compact encoding, in one transaction together with the
+     * version setting. There is only undo data for the last blocks, so this doesn't take long.
+     */
+    private void migrateToCompactEncoding() throws SQLException, BlockStoreException {
+        log.info("Migrating undo data to the compact encoding");
+        Connection connection = conn.get();
+        connection.setAutoCommit(false);
+        try {
+            PreparedStatement select = connection.prepareStatement(getSelectUndoableBlocksTxOutChangesSQL());
+            PreparedStatement update = connection.prepareStatement(getUpdateUndoableBlocksSQL());
+            ResultSet results = select.executeQuery();
+            int migrated = 0;
+            while (results.next()) {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                new TransactionOutputChanges(new ByteArrayInputStream(results.getBytes(2))).serializeCompact(bos);
+                update.setBytes(1, bos.toByteArray());
+                update.setNull(2, Types.BINARY);
+                update.setBytes(3, results.getBytes(1));
+                update.executeUpdate();
+                migrated++;
+            }
+            results.close();
+            select.close();
+            update.close();
+            PreparedStatement s = connection.prepareStatement(getUpdateSettingsSLQ());
+            s.setBytes(1, VERSION.getBytes());
+            s.setString(2, VERSION_SETTING);
+            s.executeUpdate();
+            s.close();
+            connection.commit();
+            log.info("Migrated {} undo blocks", migrated);
+        } catch (IOException e) {
+            connection.rollback();
+            throw new BlockStoreException("Could not migrate undo data", e);
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
     }
 
     protected void putUpdateStoredBlock(StoredBlock storedBlock, boolean wasUndoable) throws SQLException {
@@ -664,7 +781,7 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         try {
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
             if (undoableBlock.getTxOutChanges() != null) {
-                undoableBlock.getTxOutChanges().serializeToStream(bos);
+                undoableBlock.getTxOutChanges().serializeCompact(bos);
                 txOutChanges = bos.toByteArray();
             } else {
                 int numTxn = undoableBlock.getTransactions().size();
@@ -731,9 +848,14 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         if (verifiedChainHeadHash != null && verifiedChainHeadHash.equals(hash))
             return verifiedChainHeadBlock;
         maybeConnect();
+        return get(conn.get(), hash, wasUndoableOnly);
+    }
+
+    private StoredBlock get(Connection connection, Sha256Hash hash, boolean wasUndoableOnly)
+            throws BlockStoreException {
         PreparedStatement s = null;
         try {
-            s = conn.get()
+            s = connection
                     .prepareStatement(getSelectHeadersSQL());
             // We skip the first 4 bytes because (on mainnet) the minimum target has 4 0-bytes
             byte[] hashBytes = new byte[28];
@@ -819,7 +941,7 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
                 block = new StoredUndoableBlock(hash, transactionList);
             } else {
                 TransactionOutputChanges outChangesObject =
-                        new TransactionOutputChanges(new ByteArrayInputStream(txOutChanges));
+                        TransactionOutputChanges.deserializeCompact(params, new ByteArrayInputStream(txOutChanges));
                 block = new StoredUndoableBlock(hash, outChangesObject);
             }
             return block;
@@ -889,12 +1011,15 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             s.setBytes(1, hash.getBytes());
             s.executeUpdate();
             s.close();
+            if (conn.get().getAutoCommit())
+                this.committedVerifiedChainHeadBlock = chainHead;
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
         }
         if (this.chainHeadBlock.getHeight() < chainHead.getHeight())
             setChainHead(chainHead);
-        removeUndoableBlocksWhereHeightIsLessThan(chainHead.getHeight() - fullStoreDepth);
+        if (inlinePruning)
+            removeUndoableBlocksWhereHeightIsLessThan(chainHead.getHeight() - fullStoreDepth);
     }
 
     private void removeUndoableBlocksWhereHeightIsLessThan(int height) throws BlockStoreException {
@@ -911,12 +1036,88 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         }
     }
 
+    @Override
+    public void setInlinePruning(boolean inlinePruning) {
+        this.inlinePruning = inlinePruning;
+    }
+
+    @Override
+    public int getPrunableHeight() {
+        return committedVerifiedChainHeadBlock.getHeight() - fullStoreDepth;
+    }
+
+    @Override
+    public int pruneUndoableBlocks(int toHeight, int maxHeights) throws BlockStoreException {
+        // Called from the pruning thread, which gets a connection of its own that auto commits.
+        maybeConnect();
+        try {
+            PreparedStatement s = conn.get().prepareStatement(getSelectUndoableBlocksMinHeightSQL());
+            ResultSet results = s.executeQuery();
+            int fromHeight = results.next() ? results.getInt(1) : 0;
+            boolean empty = results.wasNull();
+            results.close();
+            s.close();
+            if (empty || fromHeight > toHeight)
+                return 0;
+            s = conn.get().prepareStatement(getDeleteUndoableBlocksSQL());
+            s.setInt(1, Math.min(toHeight, fromHeight + maxHeights - 1));
+            int deleted = s.executeUpdate();
+            s.close();
+            return deleted;
+        } catch (SQLException ex) {
+            throw new BlockStoreException(ex);
+        }
+    }
+
+    @Override
+    public void compact() throws BlockStoreException {
+        String sql = getCompactUndoableBlocksSQL();
+        if (sql == null)
+            return;
+        maybeConnect();
+        try {
+            Statement s = conn.get().createStatement();
+            s.execute(sql);
+            s.close();
+        } catch (SQLException ex) {
+            throw new BlockStoreException(ex);
+        }
+    }
+
+    @Override
+    public long getStoreSize() throws BlockStoreException {
+        String sql = getSelectStoreSizeSQL();
+        if (sql == null)
+            return -1;
+        maybeConnect();
+        try {
+            Statement s = conn.get().createStatement();
+            ResultSet results = s.executeQuery(sql);
+            long size = results.next() ? results.getLong(1) : -1;
+            results.close();
+            s.close();
+            return size;
+        } catch (SQLException ex) {
+            throw new BlockStoreException(ex);
+        }
+    }
+
+    @Override
+    public double getWriteAmplification() {
+        return 0;
+    }
+
     @Override
     public UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
         maybeConnect();
+        return getTransactionOutput(conn.get(), hash, index);
+    }
+
+    @Nullable
+    private UTXO getTransactionOutput(Connection connection, Sha256Hash hash, long index) throws BlockStoreException {
         PreparedStatement s = null;
         try {
-            s = conn.get()
+            s = connection
                     .prepareStatement(getSelectOpenoutputsSQL());
             s.setBytes(1, hash.getBytes());
             // index is actually an unsigned int
@@ -1022,6 +1223,7 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         try {
             conn.get().commit();
             conn.get().setAutoCommit(true);
+            committedVerifiedChainHeadBlock = verifiedChainHeadBlock;
         } catch (SQLException e) {
             throw new BlockStoreException(e);
         }
@@ -1077,11 +1279,7 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
 
     @Override
     public int getChainHeadHeight() throws UTXOProviderException {
-        try {
-            return getVerifiedChainHead().getHeight();
-        } catch (BlockStoreException e) {
-            throw new UTXOProviderException(e);
-        }
+        return committedVerifiedChainHeadBlock.getHeight();
     }
 
     /**
@@ -1125,76 +1323,277 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
      * <p>The balance {@link org.bitcoinj.store.DatabaseFullPrunedBlockStore#getBalanceSelectSQL()} returns
      * the all the openoutputs as stored in the DB (binary), then use calculateClientSide=true</p>
      *
+     * <p>Like {@link #openSnapshot()} this only sees committed blocks.</p>
+     *
      * @param address The address to calculate the balance of
      * @return The balance of the address supplied.  If the address has not been seen, or there are no outputs open for this
      *         address, the return value is 0.
      * @throws BlockStoreException If there is an error getting the balance.
      */
-    public BigInteger calculateBalanceForAddress(Address address) throws BlockStoreException {
-        maybeConnect();
-        PreparedStatement s = null;
-        try {
-            s = conn.get().prepareStatement(getBalanceSelectSQL());
-            s.setString(1, address.toString());
-            ResultSet rs = s.executeQuery();
-            BigInteger balance = BigInteger.ZERO;
-            if (rs.next()) {
-                return BigInteger.valueOf(rs.getLong(1));
+    public BigInteger calculateBalanceForAddress(final Address address) throws BlockStoreException {
+        return queryLatestSnapshot(new SnapshotQuery<BigInteger>() {
+            @Override
+            public BigInteger run(DatabaseSnapshot snapshot) throws BlockStoreException {
+                return snapshot.calculateBalanceForAddress(address);
             }
-            return balance;
-        } catch (SQLException ex) {
-            throw new BlockStoreException(ex);
-        } finally {
-            if (s != null) {
-                try {
-                    s.close();
-                } catch (SQLException e) {
-                    throw new BlockStoreException("Could not close statement");
+        });
+    }
+
+    @Override
+    public List<UTXO> getOpenTransactionOutputs(final List<Address> addresses) throws UTXOProviderException {
+        try {
+            return queryLatestSnapshot(new SnapshotQuery<List<UTXO>>() {
+                @Override
+                public List<UTXO> run(DatabaseSnapshot snapshot) throws BlockStoreException {
+                    return snapshot.queryOpenTransactionOutputs(addresses);
                 }
+            });
+        } catch (BlockStoreException e) {
+            throw new UTXOProviderException(e);
+        }
+    }
+
+    private interface SnapshotQuery<T> {
+        T run(DatabaseSnapshot snapshot) throws BlockStoreException;
+    }
+
+    /**
+     * Runs the query in a snapshot of its own. Unlike the users of {@link #openSnapshot()}, who decide themselves what
+     * to do when a block is committed under a snapshot that isn't isolated from it, the query is simply run again in a
+     * new snapshot.
+     */
+    private <T> T queryLatestSnapshot(SnapshotQuery<T> query) throws BlockStoreException {
+        for (int attempt = 1; ; attempt++) {
+            DatabaseSnapshot snapshot = openDatabaseSnapshot();
+            try {
+                return query.run(snapshot);
+            } catch (ChainHeadMovedException e) {
+                if (attempt == MAX_SNAPSHOT_ATTEMPTS)
+                    throw e;
+                log.info("Verified chain head moved during a query, retrying in a new snapshot");
+            } finally {
+                snapshot.close();
             }
         }
     }
 
+    private static class ChainHeadMovedException extends BlockStoreException {
+        private ChainHeadMovedException() {
+            super("The verified chain head moved since the snapshot was opened");
+        }
+    }
+
+    /**
+     * <p>Opens a snapshot that reads in a transaction of its own, at the isolation level of
+     * {@link #getSnapshotIsolationLevel()}. Its connection is kept for the next snapshot once it is closed.</p>
+     *
+     * <p>With a lower isolation level than {@link Connection#TRANSACTION_REPEATABLE_READ}, queries throw once a block
+     * was committed after the snapshot was opened, and a new snapshot has to be opened.</p>
+     */
     @Override
-    public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
-        PreparedStatement s = null;
-        List<UTXO> outputs = new ArrayList<>();
+    public UTXOSnapshot openSnapshot() throws BlockStoreException {
+        return openDatabaseSnapshot();
+    }
+
+    private DatabaseSnapshot openDatabaseSnapshot() throws BlockStoreException {
+        Connection connection;
+        synchronized (this) {
+            connection = snapshotConnections.poll();
+        }
         try {
-            maybeConnect();
-            s = conn.get().prepareStatement(getTransactionOutputSelectSQL());
-            for (Address address : addresses) {
+            if (connection == null) {
+                connection = connect();
+                int isolationLevel = getSnapshotIsolationLevel();
+                if (isolationLevel != -1)
+                    connection.setTransactionIsolation(isolationLevel);
+                connection.setAutoCommit(false);
+                log.info("Made a new snapshot connection to database " + connectionURL);
+            }
+        } catch (SQLException ex) {
+            throw new BlockStoreException(ex);
+        }
+        return new DatabaseSnapshot(connection);
+    }
+
+    private class DatabaseSnapshot implements UTXOSnapshot {
+        private final Connection connection;
+        // Whether the database keeps showing the snapshot what it saw on its first read.
+        private final boolean repeatableRead;
+        private final StoredBlock chainHead;
+        private boolean closed;
+
+        private DatabaseSnapshot(Connection connection) throws BlockStoreException {
+            this.connection = connection;
+            this.repeatableRead = getSnapshotIsolationLevel() >= Connection.TRANSACTION_REPEATABLE_READ;
+            try {
+                // This is the first read of the transaction, so the outputs will be as of this block.
+                chainHead = get(connection, readVerifiedChainHeadHash(), false);
+                if (chainHead == null)
+                    throw new BlockStoreException("corrupt database block store - verified head block not found");
+            } catch (BlockStoreException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private Sha256Hash readVerifiedChainHeadHash() throws BlockStoreException {
+            try {
+                PreparedStatement s = connection.prepareStatement(getSelectSettingsSQL());
+                s.setString(1, VERIFIED_CHAIN_HEAD_SETTING);
+                ResultSet rs = s.executeQuery();
+                if (!rs.next()) {
+                    throw new BlockStoreException("corrupt database block store - no verified chain head pointer");
+                }
+                Sha256Hash hash = Sha256Hash.wrap(rs.getBytes(1));
+                rs.close();
+                s.close();
+                return hash;
+            } catch (SQLException ex) {
+                throw new BlockStoreException(ex);
+            }
+        }
+
+        // Fails if the queries so far may have seen a block that was committed after the snapshot was opened.
+        private void checkChainHead() throws BlockStoreException {
+            if (repeatableRead)
+                return;
+            if (!readVerifiedChainHeadHash().equals(chainHead.getHeader().getHash()))
+                throw new ChainHeadMovedException();
+        }
+
+        @Override
+        public StoredBlock getChainHead() {
+            return chainHead;
+        }
+
+        @Override
+        public int getChainHeadHeight() {
+            return chainHead.getHeight();
+        }
+
+        @Override
+        public NetworkParameters getParams() {
+            return params;
+        }
+
+        @Override
+        @Nullable
+        public UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
+            UTXO output = DatabaseFullPrunedBlockStore.this.getTransactionOutput(connection, hash, index);
+            checkChainHead();
+            return output;
+        }
+
+        @Override
+        public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
+            try {
+                return queryOpenTransactionOutputs(addresses);
+            } catch (BlockStoreException e) {
+                throw new UTXOProviderException(e);
+            }
+        }
+
+        private List<UTXO> queryOpenTransactionOutputs(List<Address> addresses) throws BlockStoreException {
+            PreparedStatement s = null;
+            List<UTXO> outputs = new ArrayList<>();
+            try {
+                s = connection.prepareStatement(getTransactionOutputSelectSQL());
+                for (Address address : addresses) {
+                    s.setString(1, address.toString());
+                    ResultSet rs = s.executeQuery();
+                    while (rs.next()) {
+                        Sha256Hash hash = Sha256Hash.wrap(rs.getBytes(1));
+                        Coin amount = Coin.valueOf(rs.getLong(2));
+                        byte[] scriptBytes = rs.getBytes(3);
+                        int height = rs.getInt(4);
+                        int index = rs.getInt(5);
+                        boolean coinbase = rs.getBoolean(6);
+                        String toAddress = rs.getString(7);
+                        UTXO output = new UTXO(hash,
+                                index,
+                                amount,
+                                height,
+                                coinbase,
+                                new Script(scriptBytes),
+                                toAddress);
+                        outputs.add(output);
+                    }
+                }
+                checkChainHead();
+                return outputs;
+            } catch (SQLException ex) {
+                throw new BlockStoreException(ex);
+            } finally {
+                if (s != null)
+                    try {
+                        s.close();
+                    } catch (SQLException e) {
+                        throw new BlockStoreException("Could not close statement", e);
+                    }
+            }
+        }
+
+        @Override
+        public Coin getBalance(List<Address> addresses) throws UTXOProviderException {
+            try {
+                long balance = 0;
+                for (Address address : addresses)
+                    balance += calculateBalanceForAddress(address).longValue();
+                return Coin.valueOf(balance);
+            } catch (BlockStoreException e) {
+                throw new UTXOProviderException(e);
+            }
+        }
+
+        private BigInteger calculateBalanceForAddress(Address address) throws BlockStoreException {
+            PreparedStatement s = null;
+            try {
+                s = connection.prepareStatement(getBalanceSelectSQL());
                 s.setString(1, address.toString());
                 ResultSet rs = s.executeQuery();
-                while (rs.next()) {
-                    Sha256Hash hash = Sha256Hash.wrap(rs.getBytes(1));
-                    Coin amount = Coin.valueOf(rs.getLong(2));
-                    byte[] scriptBytes = rs.getBytes(3);
-                    int height = rs.getInt(4);
-                    int index = rs.getInt(5);
-                    boolean coinbase = rs.getBoolean(6);
-                    String toAddress = rs.getString(7);
-                    UTXO output = new UTXO(hash,
-                            index,
-                            amount,
-                            height,
-                            coinbase,
-                            new Script(scriptBytes),
-                            toAddress);
-                    outputs.add(output);
+                BigInteger balance = BigInteger.ZERO;
+                if (rs.next()) {
+                    balance = BigInteger.valueOf(rs.getLong(1));
+                }
+                checkChainHead();
+                return balance;
+            } catch (SQLException ex) {
+                throw new BlockStoreException(ex);
+            } finally {
+                if (s != null) {
+                    try {
+                        s.close();
+                    } catch (SQLException e) {
+                        throw new BlockStoreException("Could not close statement");
+                    }
                 }
             }
-            return outputs;
-        } catch (SQLException ex) {
-            throw new UTXOProviderException(ex);
-        } catch (BlockStoreException bse) {
-            throw new UTXOProviderException(bse);
-        } finally {
-            if (s != null)
+        }
+
+        @Override
+        public void close() {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                // Nothing was written, this just ends the transaction so that the next one sees newer blocks.
+                connection.rollback();
+                synchronized (DatabaseFullPrunedBlockStore.this) {
+                    // Unless the store was closed in the meantime.
+                    if (allConnections.contains(connection))
+                        snapshotConnections.add(connection);
+                }
+            } catch (SQLException ex) {
+                log.warn("Could not end snapshot transaction, dropping its connection", ex);
+                synchronized (DatabaseFullPrunedBlockStore.this) {
+                    allConnections.remove(connection);
+                }
                 try {
-                    s.close();
+                    connection.close();
                 } catch (SQLException e) {
-                    throw new UTXOProviderException("Could not close statement", e);
+                    // Already logged the reason.
                 }
+            }
         }
     }
 
@@ -112,6 +112,16 @@ public interface FullPrunedBlockStore extends BlockStore, UTXOProvider {
      * {@link BlockStore} functions implemented as a part of a FullPrunedBlockStore.
      */
     void setVerifiedChainHead(StoredBlock chainHead) throws BlockStoreException;
+
+    /**
+     * <p>Opens a consistent view of the unspent outputs as of the verified chain head that was last committed. Readers
+     * should query a snapshot rather than the store itself when they make more than one call, or while another thread
+     * may be connecting blocks. The snapshot must be closed once done with.</p>
+     *
+     * <p>Opening and reading a snapshot doesn't wait for a batch write in progress, except where noted by the
+     * implementation.</p>
+     */
+    UTXOSnapshot openSnapshot() throws BlockStoreException;
     
     /**
      * <p>Begins/Commits/Aborts a database transaction.</p>
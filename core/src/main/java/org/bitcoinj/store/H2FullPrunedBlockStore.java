@@ -131,6 +131,16 @@ public class H2FullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
         return H2_DUPLICATE_KEY_ERROR_CODE;
     }
 
+    /**
+     * H2 sets the lock mode of the whole database from the isolation level of a connection, and without MVCC it
+     * locks tables rather than keeping row versions. So snapshots stay at the default of read committed, and wait for
+     * a batch write in progress to be committed.
+     */
+    @Override
+    protected int getSnapshotIsolationLevel() {
+        return -1;
+    }
+
     @Override
     protected List<String> getCreateTablesSQL() {
         List<String> sqlStatements = new ArrayList<>();
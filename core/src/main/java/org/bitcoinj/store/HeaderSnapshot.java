@@ -0,0 +1,233 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.VerificationException;
+import com.google.common.base.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+/**
+ * <p>A snapshot of the best header chain, or of its most recent part, that a new SPV block store can be loaded from
+ * instead of downloading the headers again. Where {@link org.bitcoinj.core.CheckpointManager} starts a store from a
+ * single block, a snapshot gives it the full chain below the head.</p>
+ *
+ * <p>The format is the magic string "HEADERS 1", the number of blocks as a big endian int, the blocks from the oldest
+ * to the chain head in the compact form of {@link StoredBlock#serializeCompact(ByteBuffer)}, which includes the
+ * cumulative work and height, and finally the SHA-256 hash of everything before it. That hash is returned by
+ * {@link #write(BlockStore, int, OutputStream)}; distribute it along with the snapshot, or sign it, and pass it to
+ * {@link #read(NetworkParameters, File, Sha256Hash)} to check the snapshot wasn't tampered with.</p>
+ *
+ * <p>Reading memory maps the file and verifies the proof of work, heights and cumulative work of every block in one
+ * pass. The first block is trusted like a checkpoint, the hash commits to it.</p>
+ */
+public class HeaderSnapshot {
+    private static final Logger log = LoggerFactory.getLogger(HeaderSnapshot.class);
+
+    private static final String MAGIC = "HEADERS 1";
+    private static final int PROLOGUE_SIZE = MAGIC.length() + 4;
+    private static final int RECORD_SIZE = StoredBlock.COMPACT_SERIALIZED_SIZE;
+
+    private final NetworkParameters params;
+    private final ByteBuffer records;
+    private final int size;
+    private final Sha256Hash dataHash;
+
+    private HeaderSnapshot(NetworkParameters params, ByteBuffer records, int size, Sha256Hash dataHash) {
+        this.params = params;
+        this.records = records;
+        this.size = size;
+        this.dataHash = dataHash;
+    }
+
+    /**
+     * Writes the best chain of the store from the chain head down to the genesis block, but at most maxBlocks
+     * blocks, and returns the hash that commits to the snapshot.
+     */
+    public static Sha256Hash write(BlockStore store, int maxBlocks, OutputStream out) throws IOException,
+            BlockStoreException {
+        checkArgument(maxBlocks > 0, "Need at least one block");
+        List<StoredBlock> blocks = new ArrayList<>();
+        for (StoredBlock cursor = store.getChainHead(); cursor != null && blocks.size() < maxBlocks;
+             cursor = cursor.getPrev(store))
+            blocks.add(cursor);
+        Collections.reverse(blocks);
+
+        MessageDigest digest = Sha256Hash.newDigest();
+        DataOutputStream dos = new DataOutputStream(new DigestOutputStream(out, digest));
+        dos.write(MAGIC.getBytes(Charsets.US_ASCII));
+        dos.writeInt(blocks.size());
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        for (StoredBlock block : blocks) {
+            buffer.clear();
+            block.serializeCompact(buffer);
+            dos.write(buffer.array());
+        }
+        dos.flush();
+        byte[] hash = digest.digest();
+        out.write(hash);
+        out.flush();
+        log.info("Wrote snapshot of {} blocks up to height {}, hash is {}", blocks.size(),
+                blocks.get(blocks.size() - 1).getHeight(), Sha256Hash.wrap(hash));
+        return Sha256Hash.wrap(hash);
+    }
+
+    /**
+     * Maps and verifies the snapshot in the given file.
+     *
+     * @param expectedHash the hash returned when the snapshot was written, or null to only check that the snapshot is
+     *                     consistent with the hash it contains, which doesn't protect against tampering
+     * @throws IOException if the file can't be read, isn't a valid snapshot or doesn't match the expected hash
+     */
+    public static HeaderSnapshot read(NetworkParameters params, File file, @Nullable Sha256Hash expectedHash)
+            throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < PROLOGUE_SIZE + 32 || channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Not a header snapshot: " + file);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        byte[] magic = new byte[MAGIC.length()];
+        buffer.get(magic);
+        if (!MAGIC.equals(new String(magic, Charsets.US_ASCII)))
+            throw new IOException("Header bytes do not equal " + MAGIC);
+        int size = buffer.getInt();
+        if (size <= 0 || (long) size * RECORD_SIZE + PROLOGUE_SIZE + 32 != buffer.capacity())
+            throw new IOException("Snapshot of " + size + " blocks has the wrong length: " + buffer.capacity());
+
+        int hashOffset = buffer.capacity() - 32;
+        MessageDigest digest = Sha256Hash.newDigest();
+        ByteBuffer data = buffer.duplicate();
+        data.position(0);
+        data.limit(hashOffset);
+        digest.update(data);
+        Sha256Hash dataHash = Sha256Hash.wrap(digest.digest());
+        byte[] storedHash = new byte[32];
+        buffer.position(hashOffset);
+        buffer.get(storedHash);
+        if (!dataHash.equals(Sha256Hash.wrap(storedHash)))
+            throw new IOException("Snapshot is corrupt, its hash doesn't match");
+        if (expectedHash != null && !dataHash.equals(expectedHash))
+            throw new IOException("Snapshot hash " + dataHash + " is not the expected " + expectedHash);
+
+        buffer.position(PROLOGUE_SIZE);
+        buffer.limit(hashOffset);
+        HeaderSnapshot snapshot = new HeaderSnapshot(params, buffer.slice(), size, dataHash);
+        snapshot.verify();
+        log.info("Read snapshot of {} blocks up to height {}, hash is {}", size,
+                snapshot.getChainHead().getHeight(), dataHash);
+        return snapshot;
+    }
+
+    // Checks that the blocks form a chain with valid proof of work, heights and cumulative work.
+    private void verify() throws IOException {
+        StoredBlock first = getBlock(0);
+        if (first.getHeight() == 0 && !first.getHeader().equals(params.getGenesisBlock()))
+            throw new IOException("Snapshot doesn't start at the genesis block of " + params.getId());
+        StoredBlock prev = null;
+        for (StoredBlock block : getBlocks()) {
+            Block header = block.getHeader();
+            try {
+                header.verifyHeader();
+            } catch (VerificationException e) {
+                throw new IOException("Invalid block in snapshot at height " + block.getHeight(), e);
+            }
+            if (prev != null && (!header.getPrevBlockHash().equals(prev.getHeader().getHash())
+                    || block.getHeight() != prev.getHeight() + 1
+                    || !block.getChainWork().equals(prev.getChainWork().add(header.getWork()))))
+                throw new IOException("Snapshot is not a chain at height " + block.getHeight());
+            prev = block;
+        }
+    }
+
+    /** Returns the hash that commits to this snapshot. */
+    public Sha256Hash getDataHash() {
+        return dataHash;
+    }
+
+    /** Returns the number of blocks in this snapshot. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the block at the given index, where 0 is the oldest block and {@link #size()} - 1 the chain head. */
+    public StoredBlock getBlock(int index) {
+        checkElementIndex(index, size);
+        ByteBuffer buffer = records.duplicate();
+        buffer.position(index * RECORD_SIZE);
+        try {
+            return StoredBlock.deserializeCompact(params, buffer);
+        } catch (ProtocolException e) {
+            throw new RuntimeException(e); // Cannot happen, the snapshot was verified when read.
+        }
+    }
+
+    /** Returns the newest block of this snapshot. */
+    public StoredBlock getChainHead() {
+        return getBlock(size - 1);
+    }
+
+    /** Returns the blocks of this snapshot, oldest first. They are read from the file as the list is accessed. */
+    public List<StoredBlock> getBlocks() {
+        return new AbstractList<StoredBlock>() {
+            @Override
+            public StoredBlock get(int index) {
+                return getBlock(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Puts the blocks of this snapshot into the given store and makes the newest one the chain head. An
+     * {@link SPVBlockStore} only gets the blocks that fit within its capacity. Meant for new stores, as the chain
+     * head is replaced even if the store already has a better chain.
+     */
+    public void loadInto(BlockStore store) throws BlockStoreException {
+        checkArgument(!(store instanceof FullPrunedBlockStore), "You cannot load a snapshot into a full store.");
+        store.putAll(getBlocks());
+        store.setChainHead(getChainHead());
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.utils.Threading;
+import com.google.common.collect.Iterables;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>A {@link BlockStore} that keeps an in-memory index of the most recent headers in front of another store, so that
+ * walking back through the chain, as difficulty retargets, median time checks and re-orgs do, doesn't go to the
+ * underlying store for every block. Wrap any SPV block store with it:</p>
+ *
+ * <pre>
+ * BlockStore store = new IndexedBlockStore(new LevelDBBlockStore(context, file));
+ * </pre>
+ *
+ * <p>The index holds the headers within {@link #getWindow()} blocks of the chain head. The best chain is kept in an
+ * array by height, and every indexed header has a skip pointer to an earlier ancestor as in Bitcoin Core, so that
+ * {@link #getAncestor(StoredBlock, int)} takes constant time on the best chain and logarithmic time on side chains.
+ * Older headers are read from the underlying store.</p>
+ *
+ * <p>Reads don't take any locks. A reader racing with a re-org may see a mix of the old and new best chain; the block
+ * chain only reads while holding its own lock, which it also holds while changing the chain head.</p>
+ */
+public class IndexedBlockStore implements BlockStore {
+    /** The default number of blocks below the chain head that are indexed. */
+    public static final int DEFAULT_WINDOW = 5000;
+
+    private final BlockStore store;
+    private final int window;
+
+    private static class Node {
+        final StoredBlock block;
+        volatile Node prev;
+        volatile Node skip;
+
+        Node(StoredBlock block) {
+            this.block = block;
+        }
+    }
+
+    private final ConcurrentHashMap<Sha256Hash, Node> nodes = new ConcurrentHashMap<>();
+    // Best chain blocks by height modulo the window, valid for heights from bestChainLow to bestHeight.
+    private final AtomicReferenceArray<StoredBlock> bestChain;
+    private volatile int bestChainLow = 0;
+    private volatile int bestHeight = -1;
+    private volatile StoredBlock chainHead;
+
+    // Guards writers, readers don't lock.
+    private final ReentrantLock lock = Threading.lock("IndexedBlockStore");
+    private int putsSincePrune;
+
+    /** Indexes the last {@link #DEFAULT_WINDOW} blocks of the given store. */
+    public IndexedBlockStore(BlockStore store) throws BlockStoreException {
+        this(store, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Indexes the last blocks of the given store. The best chain below the chain head is read from the store once,
+     * which takes up to window reads.
+     */
+    public IndexedBlockStore(BlockStore store, int window) throws BlockStoreException {
+        checkArgument(window > 0, "Window must be positive");
+        this.store = checkNotNull(store);
+        this.window = window;
+        this.bestChain = new AtomicReferenceArray<>(window);
+        StoredBlock head = store.getChainHead();
+        List<StoredBlock> recent = new ArrayList<>();
+        for (StoredBlock cursor = head; cursor != null && recent.size() < window; cursor = cursor.getPrev(store))
+            recent.add(cursor);
+        lock.lock();
+        try {
+            for (int i = recent.size() - 1; i >= 0; i--)
+                index(recent.get(i));
+            updateBestChain(head);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the number of blocks below the chain head that are indexed. */
+    public int getWindow() {
+        return window;
+    }
+
+    @Override
+    public void put(StoredBlock block) throws BlockStoreException {
+        store.put(block);
+        lock.lock();
+        try {
+            index(block);
+            if (++putsSincePrune >= window)
+                prune();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Puts the blocks into the underlying store in one go, and indexes the newest of them that fit the window. */
+    @Override
+    public void putAll(Iterable<StoredBlock> blocks) throws BlockStoreException {
+        store.putAll(blocks);
+        lock.lock();
+        try {
+            for (StoredBlock block : Iterables.skip(blocks, Math.max(0, Iterables.size(blocks) - window))) {
+                index(block);
+                if (++putsSincePrune >= window)
+                    prune();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @Nullable
+    public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+        Node node = nodes.get(hash);
+        return node != null ? node.block : store.get(hash);
+    }
+
+    @Override
+    public StoredBlock getChainHead() throws BlockStoreException {
+        StoredBlock head = chainHead;
+        return head != null ? head : store.getChainHead();
+    }
+
+    @Override
+    public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+        store.setChainHead(chainHead);
+        lock.lock();
+        try {
+            index(chainHead);
+            updateBestChain(chainHead);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws BlockStoreException {
+        store.close();
+    }
+
+    @Override
+    public NetworkParameters getParams() {
+        return store.getParams();
+    }
+
+    /**
+     * Returns the block of the best chain at the given height, or null if the height is above the chain head or not
+     * within the indexed window.
+     */
+    @Nullable
+    public StoredBlock getBestChainBlock(int height) {
+        if (height < bestChainLow || height > bestHeight)
+            return null;
+        StoredBlock block = bestChain.get(height % window);
+        return block != null && block.getHeight() == height ? block : null;
+    }
+
+    /**
+     * Returns the ancestor of the given block at the given height, or null if the chain can't be followed back that
+     * far. Takes constant time on the best chain and logarithmic time on side chains, as far as they are indexed.
+     */
+    @Override
+    @Nullable
+    public StoredBlock getAncestor(StoredBlock block, int height) throws BlockStoreException {
+        checkArgument(height >= 0 && height <= block.getHeight(), "Height %s is not below the block", height);
+        if (block.equals(getBestChainBlock(block.getHeight()))) {
+            StoredBlock ancestor = getBestChainBlock(height);
+            if (ancestor != null)
+                return ancestor;
+        }
+        StoredBlock cursor = block;
+        Node walk = nodes.get(block.getHeader().getHash());
+        if (walk != null) {
+            while (walk.block.getHeight() > height) {
+                Node next = step(walk, height);
+                if (next == null)
+                    break;
+                walk = next;
+            }
+            cursor = walk.block;
+        }
+        // Follow the underlying store for whatever is beyond the index.
+        while (cursor != null && cursor.getHeight() > height)
+            cursor = cursor.getPrev(this);
+        return cursor;
+    }
+
+    // The height the skip pointer of a block at the given height points to, as in Bitcoin Core.
+    private static int getSkipHeight(int height) {
+        if (height < 2)
+            return 0;
+        // Pick a height with a lot of trailing zero bits, so that skips of skips reach far with few steps.
+        return (height & 1) != 0 ? invertLowestOne(invertLowestOne(height - 1)) + 1 : invertLowestOne(height);
+    }
+
+    private static int invertLowestOne(int n) {
+        return n & (n - 1);
+    }
+
+    // One step from the node towards its ancestor at the given height, or null if the index doesn't go further.
+    @Nullable
+    private static Node step(Node walk, int height) {
+        int walkHeight = walk.block.getHeight();
+        int skipHeight = getSkipHeight(walkHeight);
+        int skipHeightPrev = getSkipHeight(walkHeight - 1);
+        Node skip = walk.skip;
+        // Only follow the skip pointer if it doesn't overshoot, and the one of the previous block isn't better.
+        if (skip != null && (skipHeight == height
+                || (skipHeight > height && !(skipHeightPrev < skipHeight - 2 && skipHeightPrev >= height))))
+            return skip;
+        return walk.prev;
+    }
+
+    @Nullable
+    private static Node getAncestorNode(Node node, int height) {
+        Node walk = node;
+        while (walk != null && walk.block.getHeight() > height)
+            walk = step(walk, height);
+        return walk;
+    }
+
+    private void index(StoredBlock block) {
+        Sha256Hash hash = block.getHeader().getHash();
+        if (nodes.containsKey(hash))
+            return;
+        Node node = new Node(block);
+        Node prev = nodes.get(block.getHeader().getPrevBlockHash());
+        if (prev != null && prev.block.getHeight() == block.getHeight() - 1) {
+            node.prev = prev;
+            node.skip = getAncestorNode(prev, getSkipHeight(block.getHeight()));
+        }
+        nodes.put(hash, node);
+    }
+
+    private void updateBestChain(StoredBlock head) throws BlockStoreException {
+        int oldBestHeight = bestHeight;
+        int lowest = Math.max(0, head.getHeight() - window + 1);
+        int low = lowest;
+        StoredBlock cursor = head;
+        while (cursor.getHeight() >= lowest) {
+            int height = cursor.getHeight();
+            if (height <= oldBestHeight && cursor.equals(getBestChainBlock(height))) {
+                // The rest of the chain below is already in place.
+                low = Math.max(bestChainLow, lowest);
+                break;
+            }
+            bestChain.set(height % window, cursor);
+            StoredBlock prev = height > lowest ? cursor.getPrev(this) : null;
+            if (prev == null) {
+                low = height;
+                break;
+            }
+            cursor = prev;
+        }
+        bestChainLow = low;
+        bestHeight = head.getHeight();
+        chainHead = head;
+    }
+
+    // Drops the headers that are more than a window below the chain head.
+    private void prune() {
+        putsSincePrune = 0;
+        int cutoff = bestHeight - window;
+        for (Iterator<Node> it = nodes.values().iterator(); it.hasNext();) {
+            Node node = it.next();
+            if (node.block.getHeight() < cutoff) {
+                it.remove();
+                continue;
+            }
+            Node prev = node.prev;
+            if (prev != null && prev.block.getHeight() < cutoff)
+                node.prev = null;
+            Node skip = node.skip;
+            if (skip != null && skip.block.getHeight() < cutoff)
+                node.skip = null;
+        }
+    }
+}
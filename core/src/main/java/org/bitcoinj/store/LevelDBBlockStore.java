@@ -23,6 +23,7 @@ import org.iq80.leveldb.*;
 import javax.annotation.*;
 import java.io.*;
 import java.nio.*;
+import java.util.*;
 
 /**
  * An SPV block store that writes every header it sees to a <a href="https://github.com/fusesource/leveldbjni">LevelDB</a>.
@@ -30,8 +31,10 @@ import java.nio.*;
  * usage than the {@link SPVBlockStore}. If all you want is a regular wallet you don't need this class: it exists for
  * specialised applications where you need to quickly verify a standalone SPV proof.
  */
-public class LevelDBBlockStore implements BlockStore {
+public class LevelDBBlockStore extends AbstractBlockStore {
     private static final byte[] CHAIN_HEAD_KEY = "chainhead".getBytes();
+    // Number of blocks written per batch by putAll.
+    private static final int BATCH_SIZE = 10000;
 
     private final Context context;
     private DB db;
@@ -83,6 +86,30 @@ public class LevelDBBlockStore implements BlockStore {
         db.put(block.getHeader().getHash().getBytes(), buffer.array());
     }
 
+    /** Puts the given blocks in write batches, which is much faster than putting them one by one. */
+    @Override
+    public synchronized void putAll(Iterable<StoredBlock> blocks) throws BlockStoreException {
+        try {
+            Iterator<StoredBlock> it = blocks.iterator();
+            while (it.hasNext()) {
+                WriteBatch batch = db.createWriteBatch();
+                try {
+                    for (int i = 0; i < BATCH_SIZE && it.hasNext(); i++) {
+                        StoredBlock block = it.next();
+                        ByteBuffer bytes = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+                        block.serializeCompact(bytes);
+                        batch.put(block.getHeader().getHash().getBytes(), bytes.array());
+                    }
+                    db.write(batch);
+                } finally {
+                    batch.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new BlockStoreException(e);
+        }
+    }
+
     @Override @Nullable
     public synchronized StoredBlock get(Sha256Hash hash) throws BlockStoreException {
         byte[] bits = db.get(hash.getBytes());
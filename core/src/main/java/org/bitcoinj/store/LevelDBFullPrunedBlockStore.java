@@ -30,6 +30,7 @@ import java.nio.ByteBuffer;
 
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.AddressFormatException;
+import org.bitcoinj.core.Coin;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.StoredBlock;
@@ -47,6 +48,7 @@ import org.slf4j.LoggerFactory;
 
 import static org.fusesource.leveldbjni.JniDBFactory.*;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Lists;
 
@@ -60,7 +62,7 @@ import com.google.common.collect.Lists;
  * </p>
  */
 
-public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
+public class LevelDBFullPrunedBlockStore extends AbstractBlockStore implements PrunableBlockStore {
     private static final Logger log = LoggerFactory.getLogger(LevelDBFullPrunedBlockStore.class);
 
     NetworkParameters params;
@@ -73,7 +75,12 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
     protected StoredBlock chainHeadBlock;
     protected Sha256Hash verifiedChainHeadHash;
     protected StoredBlock verifiedChainHeadBlock;
+    // The verified chain head as of the last write to leveldb, for readers on other threads.
+    protected volatile StoredBlock committedVerifiedChainHeadBlock;
     protected int fullStoreDepth;
+    protected volatile boolean inlinePruning = true;
+    // Bytes handed to leveldb since it was opened, for the write amplification.
+    protected volatile long bytesWritten;
     // Indicates if we track and report runtime for each method
     // this is very useful to focus performance tuning on correct areas.
     protected boolean instrument = false;
@@ -121,6 +128,11 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
     static final int LEVELDB_WRITE_CACHE_DEFAULT = 10 * 1048576; // 10 meg
     static final int OPENOUT_CACHE_DEFAULT = 100000;
 
+    // Stores without a version setting use the original encoding of unspent outputs and undo data, version 2 stores
+    // use the compact encoding of TxOutCompressor.
+    static final int ENCODING_VERSION = 2;
+    static final int MIGRATION_BATCH_SIZE = 10000;
+
     // LRUCache
     public class LRUCache extends LinkedHashMap<ByteBuffer, UTXO> {
         private static final long serialVersionUID = 1L;
@@ -296,6 +308,9 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
                 createNewStore(params);
             } else {
                 initFromDb();
+                byte[] version = batchGet(getKey(KeyType.VERSION_SETTING));
+                if (version == null)
+                    migrateToCompactEncoding(MIGRATION_BATCH_SIZE, Integer.MAX_VALUE);
             }
         } catch (BlockStoreException e) {
             throw new RuntimeException("Can not init/load db", e);
@@ -316,6 +331,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         if (this.verifiedChainHeadBlock == null) {
             throw new BlockStoreException("corrupt databse block store - verified head block not found");
         }
+        this.committedVerifiedChainHeadBlock = verifiedChainHeadBlock;
     }
 
     private void createNewStore(NetworkParameters params) throws BlockStoreException {
@@ -335,6 +351,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             put(storedGenesisHeader, storedGenesis);
             setChainHead(storedGenesisHeader);
             setVerifiedChainHead(storedGenesisHeader);
+            batchPut(getKey(KeyType.VERSION_SETTING), new byte[] { ENCODING_VERSION });
             batchPut(getKey(KeyType.CREATED), bytes("done"));
             commitDatabaseBatchWrite();
         } catch (VerificationException e) {
@@ -342,6 +359,84 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         }
     }
 
+    /**
+     * Rewrites the unspent outputs and undo data of a store created before the compact encoding. Every batch of
+     * outputs is written together with the key of its last output, so that a migration that was interrupted carries
+     * on after it rather than decoding outputs it already rewrote. The undo data and the version setting go in the
+     * last batch. Stops after <code>maxBatches</code> batches, which is only useful to tests.
+     */
+    @VisibleForTesting
+    void migrateToCompactEncoding(int batchSize, int maxBatches) throws BlockStoreException {
+        byte[] resumeKey = batchGet(getKey(KeyType.MIGRATION_RESUME_SETTING));
+        if (resumeKey == null)
+            log.info("Migrating {} to the compact encoding of unspent outputs and undo data", filename);
+        else
+            log.info("Resuming the migration of {} to the compact encoding", filename);
+        Stopwatch watch = Stopwatch.createStarted();
+        long outputs = 0, undoBlocks = 0;
+        DBIterator iterator = db.iterator();
+        WriteBatch migration = db.createWriteBatch();
+        int batched = 0, batches = 0;
+        try {
+            byte openOut = (byte) KeyType.OPENOUT_ALL.ordinal();
+            if (resumeKey == null) {
+                iterator.seek(getKey(KeyType.OPENOUT_ALL));
+            } else {
+                iterator.seek(resumeKey);
+                if (iterator.hasNext() && Arrays.equals(iterator.peekNext().getKey(), resumeKey))
+                    iterator.next();
+            }
+            for (; iterator.hasNext(); iterator.next()) {
+                Map.Entry<byte[], byte[]> entry = iterator.peekNext();
+                if (entry.getKey()[0] != openOut)
+                    break;
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                new UTXO(new ByteArrayInputStream(entry.getValue())).serializeCompact(bos);
+                migration.put(entry.getKey(), bos.toByteArray());
+                outputs++;
+                if (++batched == batchSize) {
+                    migration.put(getKey(KeyType.MIGRATION_RESUME_SETTING), entry.getKey());
+                    db.write(migration);
+                    migration.close();
+                    migration = db.createWriteBatch();
+                    batched = 0;
+                    if (++batches == maxBatches)
+                        return;
+                }
+            }
+            byte undo = (byte) KeyType.UNDOABLEBLOCKS_ALL.ordinal();
+            for (iterator.seek(getKey(KeyType.UNDOABLEBLOCKS_ALL)); iterator.hasNext(); iterator.next()) {
+                Map.Entry<byte[], byte[]> entry = iterator.peekNext();
+                if (entry.getKey()[0] != undo)
+                    break;
+                ByteBuffer bb = ByteBuffer.wrap(entry.getValue());
+                int height = bb.getInt();
+                int txOutSize = bb.getInt();
+                if (txOutSize == 0)
+                    continue; // Holds transactions, which are encoded as before.
+                byte[] txOutChanges = new byte[txOutSize];
+                bb.get(txOutChanges);
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                new TransactionOutputChanges(new ByteArrayInputStream(txOutChanges)).serializeCompact(bos);
+                migration.put(entry.getKey(), undoValue(height, bos.toByteArray(), null));
+                undoBlocks++;
+            }
+            migration.put(getKey(KeyType.VERSION_SETTING), new byte[] { ENCODING_VERSION });
+            migration.delete(getKey(KeyType.MIGRATION_RESUME_SETTING));
+            db.write(migration);
+        } catch (IOException e) {
+            throw new BlockStoreException("Could not migrate " + filename, e);
+        } finally {
+            try {
+                iterator.close();
+                migration.close();
+            } catch (IOException e) {
+                log.error("Error closing iterator", e);
+            }
+        }
+        log.info("Migrated {} unspent outputs and {} undo blocks in {}", outputs, undoBlocks, watch);
+    }
+
     void beginMethod(String name) {
         methodStartTime.put(name, Stopwatch.createStarted());
     }
@@ -423,66 +518,138 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         // Run this on a snapshot of database so internally consistent result
         // This is critical or if one address paid another could get incorrect
         // results
+        try (UTXOSnapshot snapshot = openSnapshot()) {
+            return snapshot.getOpenTransactionOutputs(addresses);
+        } catch (BlockStoreException e) {
+            throw new UTXOProviderException(e);
+        }
+    }
 
-        List<UTXO> results = new LinkedList<>();
-        for (Address a : addresses) {
-            ByteBuffer bb = ByteBuffer.allocate(21);
-            bb.put((byte) KeyType.ADDRESS_HASHINDEX.ordinal());
-            bb.put(a.getHash160());
+    @Override
+    public int getChainHeadHeight() throws UTXOProviderException {
+        return committedVerifiedChainHeadBlock.getHeight();
+    }
 
-            ReadOptions ro = new ReadOptions();
-            Snapshot sn = db.getSnapshot();
-            ro.snapshot(sn);
+    /**
+     * Opens a snapshot backed by a leveldb snapshot. It reads the committed state directly from leveldb, bypassing
+     * the caches and the uncommitted writes of a batch.
+     */
+    @Override
+    public UTXOSnapshot openSnapshot() throws BlockStoreException {
+        return new LevelDBSnapshot();
+    }
 
-            // Scanning over iterator very fast
+    private class LevelDBSnapshot implements UTXOSnapshot {
+        private final Snapshot snapshot;
+        private final ReadOptions options;
+        private final StoredBlock chainHead;
 
-            DBIterator iterator = db.iterator(ro);
-            for (iterator.seek(bb.array()); iterator.hasNext(); iterator.next()) {
-                ByteBuffer bbKey = ByteBuffer.wrap(iterator.peekNext().getKey());
-                bbKey.get(); // remove the address_hashindex byte.
-                byte[] addressKey = new byte[20];
-                bbKey.get(addressKey);
-                if (!Arrays.equals(addressKey, a.getHash160())) {
-                    break;
-                }
-                byte[] hashBytes = new byte[32];
-                bbKey.get(hashBytes);
-                int index = bbKey.getInt();
-                Sha256Hash hash = Sha256Hash.wrap(hashBytes);
-                UTXO txout;
-                try {
-                    // TODO this should be on the SNAPSHOT too......
-                    // this is really a BUG.
-                    txout = getTransactionOutput(hash, index);
-                } catch (BlockStoreException e) {
-                    throw new UTXOProviderException("block store execption", e);
-                }
-                if (txout != null) {
-                    Script sc = txout.getScript();
-                    Address address = sc.getToAddress(params, true);
-                    UTXO output = new UTXO(txout.getHash(), txout.getIndex(), txout.getValue(), txout.getHeight(),
-                            txout.isCoinbase(), txout.getScript(), address.toString());
-                    results.add(output);
-                }
+        private LevelDBSnapshot() throws BlockStoreException {
+            snapshot = db.getSnapshot();
+            options = new ReadOptions().snapshot(snapshot);
+            // The chain head is read from the snapshot too, so that it is the block the outputs are as of.
+            try {
+                byte[] hash = db.get(getKey(KeyType.VERIFIED_CHAIN_HEAD_SETTING), options);
+                byte[] header = hash != null ? db.get(getKey(KeyType.HEADERS_ALL, hash), options) : null;
+                if (header == null)
+                    throw new BlockStoreException("corrupt database block store - verified head block not found");
+                chainHead = StoredBlock.deserializeCompact(params, ByteBuffer.wrap(header));
+            } catch (BlockStoreException | RuntimeException e) {
+                close();
+                throw e;
             }
+        }
+
+        @Override
+        public StoredBlock getChainHead() {
+            return chainHead;
+        }
+
+        @Override
+        public int getChainHeadHeight() {
+            return chainHead.getHeight();
+        }
+
+        @Override
+        public UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
+            byte[] inbytes = db.get(getTxKey(KeyType.OPENOUT_ALL, hash, (int) index), options);
+            if (inbytes == null)
+                return null;
             try {
-                iterator.close();
-                ro = null;
-                sn.close();
-                sn = null;
+                return UTXO.deserializeCompact(params, hash, index, new ByteArrayInputStream(inbytes));
             } catch (IOException e) {
-                log.error("Error closing snapshot/iterator?", e);
+                throw new BlockStoreException(e);
             }
         }
-        return results;
-    }
 
-    @Override
-    public int getChainHeadHeight() throws UTXOProviderException {
-        try {
-            return getVerifiedChainHead().getHeight();
-        } catch (BlockStoreException e) {
-            throw new UTXOProviderException(e);
+        @Override
+        public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
+            List<UTXO> results = new LinkedList<>();
+            for (Address a : addresses) {
+                ByteBuffer bb = ByteBuffer.allocate(21);
+                bb.put((byte) KeyType.ADDRESS_HASHINDEX.ordinal());
+                bb.put(a.getHash160());
+
+                // Scanning over iterator very fast
+                DBIterator iterator = db.iterator(options);
+                try {
+                    for (iterator.seek(bb.array()); iterator.hasNext(); iterator.next()) {
+                        ByteBuffer bbKey = ByteBuffer.wrap(iterator.peekNext().getKey());
+                        bbKey.get(); // remove the address_hashindex byte.
+                        byte[] addressKey = new byte[20];
+                        bbKey.get(addressKey);
+                        if (!Arrays.equals(addressKey, a.getHash160())) {
+                            break;
+                        }
+                        byte[] hashBytes = new byte[32];
+                        bbKey.get(hashBytes);
+                        int index = bbKey.getInt();
+                        Sha256Hash hash = Sha256Hash.wrap(hashBytes);
+                        UTXO txout;
+                        try {
+                            txout = getTransactionOutput(hash, index);
+                        } catch (BlockStoreException e) {
+                            throw new UTXOProviderException("block store execption", e);
+                        }
+                        if (txout != null) {
+                            Script sc = txout.getScript();
+                            Address address = sc.getToAddress(params, true);
+                            UTXO output = new UTXO(txout.getHash(), txout.getIndex(), txout.getValue(),
+                                    txout.getHeight(), txout.isCoinbase(), txout.getScript(), address.toString());
+                            results.add(output);
+                        }
+                    }
+                } finally {
+                    try {
+                        iterator.close();
+                    } catch (IOException e) {
+                        log.error("Error closing iterator?", e);
+                    }
+                }
+            }
+            return results;
+        }
+
+        @Override
+        public Coin getBalance(List<Address> addresses) throws UTXOProviderException {
+            Coin balance = Coin.ZERO;
+            for (UTXO output : getOpenTransactionOutputs(addresses))
+                balance = balance.add(output.getValue());
+            return balance;
+        }
+
+        @Override
+        public NetworkParameters getParams() {
+            return params;
+        }
+
+        @Override
+        public void close() {
+            try {
+                snapshot.close();
+            } catch (IOException e) {
+                log.error("Error closing snapshot?", e);
+            }
         }
     }
 
@@ -509,7 +676,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         try {
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
             if (undoableBlock.getTxOutChanges() != null) {
-                undoableBlock.getTxOutChanges().serializeToStream(bos);
+                undoableBlock.getTxOutChanges().serializeCompact(bos);
                 txOutChanges = bos.toByteArray();
             } else {
                 int numTxn = undoableBlock.getTransactions().size();
@@ -534,24 +701,29 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         keyBuf.put(hash.getBytes(), 4, 28);
         batchPut(keyBuf.array(), new byte[1]);
 
+        batchPut(getKey(KeyType.UNDOABLEBLOCKS_ALL, hash), undoValue(height, txOutChanges, transactions));
+        if (instrument)
+            endMethod("put");
+        putUpdateStoredBlock(storedBlock, true);
+    }
+
+    // Exactly one of txOutChanges and transactions is not null.
+    private static byte[] undoValue(int height, byte[] txOutChanges, byte[] transactions) {
         if (transactions == null) {
             ByteBuffer undoBuf = ByteBuffer.allocate(4 + 4 + txOutChanges.length + 4 + 0);
             undoBuf.putInt(height);
             undoBuf.putInt(txOutChanges.length);
             undoBuf.put(txOutChanges);
             undoBuf.putInt(0);
-            batchPut(getKey(KeyType.UNDOABLEBLOCKS_ALL, hash), undoBuf.array());
+            return undoBuf.array();
         } else {
             ByteBuffer undoBuf = ByteBuffer.allocate(4 + 4 + 0 + 4 + transactions.length);
             undoBuf.putInt(height);
             undoBuf.putInt(0);
             undoBuf.putInt(transactions.length);
             undoBuf.put(transactions);
-            batchPut(getKey(KeyType.UNDOABLEBLOCKS_ALL, hash), undoBuf.array());
+            return undoBuf.array();
         }
-        if (instrument)
-            endMethod("put");
-        putUpdateStoredBlock(storedBlock, true);
     }
 
     // Since LevelDB is a key value store we do not have "tables".
@@ -559,7 +731,8 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
     // in.
     // Do wonder if grouping each "table" like this is efficient or not...
     enum KeyType {
-        CREATED, CHAIN_HEAD_SETTING, VERIFIED_CHAIN_HEAD_SETTING, VERSION_SETTING, HEADERS_ALL, UNDOABLEBLOCKS_ALL, HEIGHT_UNDOABLEBLOCKS, OPENOUT_ALL, ADDRESS_HASHINDEX
+        CREATED, CHAIN_HEAD_SETTING, VERIFIED_CHAIN_HEAD_SETTING, VERSION_SETTING, HEADERS_ALL, UNDOABLEBLOCKS_ALL, HEIGHT_UNDOABLEBLOCKS, OPENOUT_ALL, ADDRESS_HASHINDEX,
+        MIGRATION_RESUME_SETTING
     }
 
     // These helpers just get the key for an input
@@ -684,8 +857,8 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             } else {
                 byte[] txOutChanges = new byte[txOutSize];
                 bb.get(txOutChanges);
-                TransactionOutputChanges outChangesObject = new TransactionOutputChanges(
-                        new ByteArrayInputStream(txOutChanges));
+                TransactionOutputChanges outChangesObject = TransactionOutputChanges.deserializeCompact(
+                        params, new ByteArrayInputStream(txOutChanges));
                 block = new StoredUndoableBlock(hash, outChangesObject);
             }
             if (instrument)
@@ -743,7 +916,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
                 return null;
             }
             ByteArrayInputStream bis = new ByteArrayInputStream(inbytes);
-            UTXO txout = new UTXO(bis);
+            UTXO txout = UTXO.deserializeCompact(params, hash, index, bis);
 
             if (instrument)
                 endMethod("getTransactionOutput");
@@ -770,7 +943,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         bloom.add(out.getHash());
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         try {
-            out.serializeToStream(bos);
+            out.serializeCompact(bos);
         } catch (IOException e) {
             throw new BlockStoreException("problem serialising utxo", e);
         }
@@ -815,6 +988,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
     }
 
     private void batchPut(byte[] key, byte[] value) {
+        bytesWritten += key.length + value.length;
         if (autoCommit) {
             db.put(key, value);
         } else {
@@ -883,19 +1057,13 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         // TODO storing as byte[] hash to save space. But think should just
         // store as String of address. Might be faster. Need to test.
         ByteBuffer bb = ByteBuffer.allocate(57);
-        Address a;
         byte[] hashBytes = null;
         try {
-            String address = out.getAddress();
-            if (address == null || address.equals("")) {
-                Script sc = out.getScript();
-                a = sc.getToAddress(params);
-                hashBytes = a.getHash160();
-            } else {
-                a = Address.fromBase58(params, out.getAddress());
-                hashBytes = a.getHash160();
-            }
-        } catch (AddressFormatException e) {
+            // Outputs to be spent mostly come from getTransactionOutput, which leaves the address to be derived when
+            // first asked for. The script gives the hash directly, without encoding it in Base58 and decoding it
+            // again, the same way FullPrunedBlockChain derived the address that was indexed.
+            hashBytes = out.getScript().getToAddress(params, true).getHash160();
+        } catch (IllegalArgumentException e) {
             if (instrument)
                 endMethod("removeUnspentTransactionOutput");
             return;
@@ -986,9 +1154,12 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
         this.verifiedChainHeadHash = hash;
         this.verifiedChainHeadBlock = chainHead;
         batchPut(getKey(KeyType.VERIFIED_CHAIN_HEAD_SETTING), hash.getBytes());
+        if (autoCommit)
+            this.committedVerifiedChainHeadBlock = chainHead;
         if (this.chainHeadBlock.getHeight() < chainHead.getHeight())
             setChainHead(chainHead);
-        removeUndoableBlocksWhereHeightIsLessThan(chainHead.getHeight() - fullStoreDepth);
+        if (inlinePruning)
+            removeUndoableBlocksWhereHeightIsLessThan(chainHead.getHeight() - fullStoreDepth);
         if (instrument)
             endMethod("setVerifiedChainHead");
     }
@@ -1025,6 +1196,106 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
 
     }
 
+    @Override
+    public void setInlinePruning(boolean inlinePruning) {
+        this.inlinePruning = inlinePruning;
+    }
+
+    @Override
+    public int getPrunableHeight() {
+        return committedVerifiedChainHeadBlock.getHeight() - fullStoreDepth;
+    }
+
+    @Override
+    public int pruneUndoableBlocks(int toHeight, int maxHeights) {
+        // This runs on the pruning thread, so it writes its own batch straight to the database instead of using
+        // batchDelete, whose uncommitted state belongs to the thread connecting blocks.
+        byte prefix = (byte) KeyType.HEIGHT_UNDOABLEBLOCKS.ordinal();
+        DBIterator iterator = db.iterator();
+        WriteBatch deletes = db.createWriteBatch();
+        int deleted = 0;
+        try {
+            int fromHeight = -1;
+            for (iterator.seek(getKey(KeyType.HEIGHT_UNDOABLEBLOCKS)); iterator.hasNext(); iterator.next()) {
+                byte[] bytekey = iterator.peekNext().getKey();
+                if (bytekey[0] != prefix)
+                    break;
+                ByteBuffer buff = ByteBuffer.wrap(bytekey);
+                buff.get(); // Just remove byte from buffer.
+                int keyHeight = buff.getInt();
+                if (fromHeight < 0)
+                    fromHeight = keyHeight;
+                if (keyHeight > toHeight || keyHeight >= fromHeight + maxHeights)
+                    break;
+
+                byte[] hashbytes = new byte[32];
+                buff.get(hashbytes, 4, 28);
+                deletes.delete(getKey(KeyType.UNDOABLEBLOCKS_ALL, hashbytes));
+                deletes.delete(bytekey);
+                deleted++;
+            }
+            if (deleted > 0)
+                db.write(deletes);
+        } finally {
+            try {
+                iterator.close();
+                deletes.close();
+            } catch (IOException e) {
+                log.error("Error closing iterator", e);
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public void compact() {
+        for (KeyType keyType : new KeyType[] { KeyType.UNDOABLEBLOCKS_ALL, KeyType.HEIGHT_UNDOABLEBLOCKS }) {
+            byte[] begin = getKey(keyType);
+            byte[] end = { (byte) (keyType.ordinal() + 1) };
+            db.compactRange(begin, end);
+        }
+    }
+
+    @Override
+    public long getStoreSize() {
+        File[] files = new File(filename).listFiles();
+        if (files == null)
+            return -1;
+        long size = 0;
+        for (File file : files)
+            size += file.length();
+        return size;
+    }
+
+    @Override
+    public double getWriteAmplification() {
+        long written = bytesWritten;
+        if (written == 0)
+            return 0;
+        // Every byte goes to the log first, then leveldb writes it again on each compaction it takes part in.
+        return (written + getCompactionBytesWritten()) / (double) written;
+    }
+
+    // Sums the Write(MB) column of the compaction table in the leveldb.stats property.
+    private long getCompactionBytesWritten() {
+        String stats = db.getProperty("leveldb.stats");
+        if (stats == null)
+            return 0;
+        double megabytes = 0;
+        for (String line : stats.split("\\n")) {
+            String[] columns = line.trim().split("\\s+");
+            if (columns.length != 6)
+                continue;
+            try {
+                Integer.parseInt(columns[0]);
+                megabytes += Double.parseDouble(columns[5]);
+            } catch (NumberFormatException x) {
+                // A heading.
+            }
+        }
+        return (long) (megabytes * 1048576);
+    }
+
     WriteBatch batch;
 
     @Override
@@ -1056,6 +1327,7 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
             beginMethod("commitDatabaseBatchWrite");
 
         db.write(batch);
+        committedVerifiedChainHeadBlock = verifiedChainHeadBlock;
         // order of these is not important as we only allow entry to be in one
         // or the other.
         // must update cache with uncommitted adds/deletes.
@@ -116,6 +116,10 @@ class TransactionalHashMap<KeyType, ValueType> {
         tempMap.remove();
     }
 
+    public boolean isInTransaction() {
+        return Boolean.TRUE.equals(inTransaction.get());
+    }
+
     @Nullable
     public ValueType get(KeyType key) {
         if (Boolean.TRUE.equals(inTransaction.get())) {
@@ -232,7 +236,7 @@ class TransactionalMultiKeyHashMap<UniqueKeyType, MultiKeyType, ValueType> {
  * Keeps {@link StoredBlock}s, {@link StoredUndoableBlock}s and {@link org.bitcoinj.core.UTXO}s in memory.
  * Used primarily for unit testing.
  */
-public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
+public class MemoryFullPrunedBlockStore extends AbstractBlockStore implements FullPrunedBlockStore {
     protected static class StoredBlockAndWasUndoableFlag {
         public StoredBlock block;
         public boolean wasUndoable;
@@ -244,6 +248,8 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
     private TransactionalHashMap<StoredTransactionOutPoint, UTXO> transactionOutputMap;
     private StoredBlock chainHead;
     private StoredBlock verifiedChainHead;
+    // The verified chain head as of the last commit, which snapshots are pinned to.
+    private StoredBlock committedVerifiedChainHead;
     private int fullStoreDepth;
     private NetworkParameters params;
     
@@ -334,6 +340,8 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
     public synchronized final void setVerifiedChainHead(StoredBlock chainHead) throws BlockStoreException {
         Preconditions.checkNotNull(blockMap, "MemoryFullPrunedBlockStore is closed");
         this.verifiedChainHead = chainHead;
+        if (!transactionOutputMap.isInTransaction())
+            this.committedVerifiedChainHead = chainHead;
         if (this.chainHead.getHeight() < chainHead.getHeight())
             setChainHead(chainHead);
         // Potential leak here if not all blocks get setChainHead'd
@@ -380,6 +388,7 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
         blockMap.commitDatabaseBatchWrite();
         fullBlockMap.CommitTransaction();
         transactionOutputMap.commitDatabaseBatchWrite();
+        committedVerifiedChainHead = verifiedChainHead;
     }
 
     @Override
@@ -403,27 +412,89 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
     }
 
     @Override
-    public int getChainHeadHeight() throws UTXOProviderException {
-        try {
-            return getVerifiedChainHead().getHeight();
+    public synchronized int getChainHeadHeight() throws UTXOProviderException {
+        Preconditions.checkNotNull(blockMap, "MemoryFullPrunedBlockStore is closed");
+        return committedVerifiedChainHead.getHeight();
+    }
+
+    @Override
+    public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
+        try (UTXOSnapshot snapshot = openSnapshot()) {
+            return snapshot.getOpenTransactionOutputs(addresses);
         } catch (BlockStoreException e) {
             throw new UTXOProviderException(e);
         }
     }
 
+    /**
+     * Opens a snapshot of the unspent outputs as of the last commit. This copies all of them, so it takes time and
+     * memory in proportion to the size of the store.
+     */
     @Override
-    public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
-        // This is *NOT* optimal: We go through all the outputs and select the ones we are looking for.
-        // If someone uses this store for production then they have a lot more to worry about than an inefficient impl :)
-        List<UTXO> foundOutputs = new ArrayList<>();
-        List<UTXO> outputsList = transactionOutputMap.values();
-        for (UTXO output : outputsList) {
-            for (Address address : addresses) {
-                if (output.getAddress().equals(address.toString())) {
-                    foundOutputs.add(output);
+    public synchronized UTXOSnapshot openSnapshot() throws BlockStoreException {
+        Preconditions.checkNotNull(transactionOutputMap, "MemoryFullPrunedBlockStore is closed");
+        // The committed entries are in the map itself, the uncommitted ones of a batch write are kept aside.
+        return new MemorySnapshot(params, committedVerifiedChainHead, new HashMap<>(transactionOutputMap.map));
+    }
+
+    private static class MemorySnapshot implements UTXOSnapshot {
+        private final NetworkParameters params;
+        private final StoredBlock chainHead;
+        private final Map<StoredTransactionOutPoint, UTXO> outputs;
+
+        private MemorySnapshot(NetworkParameters params, StoredBlock chainHead,
+                               Map<StoredTransactionOutPoint, UTXO> outputs) {
+            this.params = params;
+            this.chainHead = chainHead;
+            this.outputs = outputs;
+        }
+
+        @Override
+        public StoredBlock getChainHead() {
+            return chainHead;
+        }
+
+        @Override
+        public int getChainHeadHeight() {
+            return chainHead.getHeight();
+        }
+
+        @Override
+        @Nullable
+        public UTXO getTransactionOutput(Sha256Hash hash, long index) {
+            return outputs.get(new StoredTransactionOutPoint(hash, index));
+        }
+
+        @Override
+        public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) {
+            // This is *NOT* optimal: We go through all the outputs and select the ones we are looking for.
+            // If someone uses this store for production then they have a lot more to worry about than an inefficient impl :)
+            List<UTXO> foundOutputs = new ArrayList<>();
+            for (UTXO output : outputs.values()) {
+                for (Address address : addresses) {
+                    if (output.getAddress().equals(address.toString())) {
+                        foundOutputs.add(output);
+                    }
                 }
             }
+            return foundOutputs;
+        }
+
+        @Override
+        public Coin getBalance(List<Address> addresses) {
+            Coin balance = Coin.ZERO;
+            for (UTXO output : getOpenTransactionOutputs(addresses))
+                balance = balance.add(output.getValue());
+            return balance;
+        }
+
+        @Override
+        public NetworkParameters getParams() {
+            return params;
+        }
+
+        @Override
+        public void close() {
         }
-        return foundOutputs;
     }
 }
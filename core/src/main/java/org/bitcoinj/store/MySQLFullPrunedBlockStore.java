@@ -82,6 +82,9 @@ public class MySQLFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
 
     private static final String SELECT_TRANSACTION_OUTPUTS_SQL                  = "SELECT hash, value, scriptbytes, height, `index`, coinbase, toaddress, addresstargetable FROM openoutputs where toaddress = ?";
 
+    private static final String OPTIMIZE_UNDOABLEBLOCKS_SQL                     = "OPTIMIZE TABLE undoableblocks";
+    private static final String SELECT_DATABASE_SIZE_SQL                        = "SELECT SUM(data_length + index_length) FROM information_schema.tables WHERE table_schema = DATABASE()";
+
     /**
      * Creates a new MySQLFullPrunedBlockStore.
      *
@@ -154,4 +157,14 @@ public class MySQLFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
     protected String getDatabaseDriverClass() {
         return DATABASE_DRIVER_CLASS;
     }
+
+    @Override
+    protected String getCompactUndoableBlocksSQL() {
+        return OPTIMIZE_UNDOABLEBLOCKS_SQL;
+    }
+
+    @Override
+    protected String getSelectStoreSizeSQL() {
+        return SELECT_DATABASE_SIZE_SQL;
+    }
 }
@@ -89,6 +89,9 @@ public class PostgresFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
 
     private static final String SELECT_UNDOABLEBLOCKS_EXISTS_SQL        = "select 1 from undoableblocks where hash = ?";
 
+    private static final String VACUUM_UNDOABLEBLOCKS_SQL               = "VACUUM undoableblocks";
+    private static final String SELECT_DATABASE_SIZE_SQL                = "SELECT pg_database_size(current_database())";
+
     /**
      * Creates a new PostgresFullPrunedBlockStore.
      *
@@ -165,6 +168,16 @@ public class PostgresFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
         return DATABASE_DRIVER_CLASS;
     }
 
+    @Override
+    protected String getCompactUndoableBlocksSQL() {
+        return VACUUM_UNDOABLEBLOCKS_SQL;
+    }
+
+    @Override
+    protected String getSelectStoreSizeSQL() {
+        return SELECT_DATABASE_SIZE_SQL;
+    }
+
     @Override
     public void put(StoredBlock storedBlock, StoredUndoableBlock undoableBlock) throws BlockStoreException {
         maybeConnect();
@@ -177,7 +190,7 @@ public class PostgresFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
         try {
             ByteArrayOutputStream bos = new ByteArrayOutputStream();
             if (undoableBlock.getTxOutChanges() != null) {
-                undoableBlock.getTxOutChanges().serializeToStream(bos);
+                undoableBlock.getTxOutChanges().serializeCompact(bos);
                 txOutChanges = bos.toByteArray();
             } else {
                 int numTxn = undoableBlock.getTransactions().size();
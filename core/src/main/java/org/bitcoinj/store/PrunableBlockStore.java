@@ -0,0 +1,60 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+/**
+ * <p>A {@link FullPrunedBlockStore} whose undo data can be pruned and compacted in the background by a
+ * {@link PruningScheduler}, rather than being deleted while {@link #setVerifiedChainHead(org.bitcoinj.core.StoredBlock)}
+ * is connecting a block.</p>
+ *
+ * <p>{@link #pruneUndoableBlocks(int, int)}, {@link #compact()} and the metrics may be called from another thread than
+ * the one connecting blocks, but not after the store was closed.</p>
+ */
+public interface PrunableBlockStore extends FullPrunedBlockStore {
+    /**
+     * Sets whether setting the verified chain head deletes the undo data that is deeper than the full store depth, as
+     * it does by default. Turn it off when something else calls {@link #pruneUndoableBlocks(int, int)}.
+     */
+    void setInlinePruning(boolean inlinePruning);
+
+    /**
+     * Returns the height at and below which undo data is no longer needed, which is the height of the verified chain
+     * head that was last committed minus the full store depth. Negative if there is no such height yet. A verified
+     * chain head that is still being written doesn't count, as its batch may yet be aborted.
+     */
+    int getPrunableHeight() throws BlockStoreException;
+
+    /**
+     * Deletes the undo data of the lowest heights that still have any, up to maxHeights heights but none above
+     * toHeight.
+     *
+     * @return the number of undo blocks deleted, 0 once there is nothing left up to toHeight
+     */
+    int pruneUndoableBlocks(int toHeight, int maxHeights) throws BlockStoreException;
+
+    /** Gives the space of deleted undo data back, for example by compacting or vacuuming. Can take a long time. */
+    void compact() throws BlockStoreException;
+
+    /** Returns the approximate size of the store on disk in bytes, or -1 if the store can't tell. */
+    long getStoreSize() throws BlockStoreException;
+
+    /**
+     * Returns the number of bytes the underlying database wrote to disk per byte written to the store since it was
+     * opened, or 0 if the store can't tell.
+     */
+    double getWriteAmplification();
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.Utils;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Prunes the undo data of a {@link PrunableBlockStore} in the background, so that connecting a block doesn't have
+ * to wait for the deletes. While running, the store's inline pruning is off.</p>
+ *
+ * <p>Every second the scheduler deletes the undo data below the store's prunable height in batches of a few heights,
+ * limited to a number of undo blocks per second. Once enough undo blocks were deleted, it compacts the store when the
+ * verified chain head hasn't moved for a quiet period, so that compaction doesn't compete with block connection.</p>
+ *
+ * <p>Stop the scheduler before closing the store:</p>
+ *
+ * <pre>
+ * PruningScheduler scheduler = new PruningScheduler(store);
+ * scheduler.startAsync().awaitRunning();
+ * ...
+ * scheduler.stopAsync().awaitTerminated();
+ * store.close();
+ * </pre>
+ */
+public class PruningScheduler extends AbstractScheduledService {
+    private static final Logger log = LoggerFactory.getLogger(PruningScheduler.class);
+
+    /** The default number of heights deleted per batch. */
+    public static final int DEFAULT_BATCH_HEIGHTS = 100;
+    /** The default maximum number of undo blocks deleted per second. */
+    public static final double DEFAULT_MAX_BLOCKS_PER_SECOND = 500;
+    /** The default time the verified chain head must not have moved before compacting. */
+    public static final long DEFAULT_QUIET_PERIOD_MILLIS = 30 * 1000;
+    /** The default number of undo blocks deleted after which the store is compacted. */
+    public static final int DEFAULT_COMPACT_AFTER_BLOCKS = 1000;
+
+    private final PrunableBlockStore store;
+    private final int batchHeights;
+    private final RateLimiter rateLimiter;
+    private final long quietPeriodMillis;
+    private final int compactAfterBlocks;
+
+    // Only changed by the scheduler thread.
+    private int lastSeenHeight = -1;
+    private long lastActivityMillis;
+    private long blocksSinceCompaction;
+
+    // Metrics.
+    private volatile long blocksPruned;
+    private volatile long pruneBatches;
+    private volatile long compactions;
+    private volatile long lastCompactionMillis;
+    private volatile long lastStoreSize = -1;
+
+    /** Creates a scheduler with the default batch size, rate, quiet period and compaction threshold. */
+    public PruningScheduler(PrunableBlockStore store) {
+        this(store, DEFAULT_BATCH_HEIGHTS, DEFAULT_MAX_BLOCKS_PER_SECOND, DEFAULT_QUIET_PERIOD_MILLIS,
+                DEFAULT_COMPACT_AFTER_BLOCKS);
+    }
+
+    /**
+     * @param batchHeights number of heights whose undo data is deleted per batch
+     * @param maxBlocksPerSecond maximum number of undo blocks deleted per second
+     * @param quietPeriodMillis time the verified chain head must not have moved before compacting
+     * @param compactAfterBlocks number of undo blocks deleted after which the store is compacted, or 0 to never compact
+     */
+    public PruningScheduler(PrunableBlockStore store, int batchHeights, double maxBlocksPerSecond,
+                            long quietPeriodMillis, int compactAfterBlocks) {
+        checkArgument(batchHeights > 0, "Batch heights must be positive");
+        checkArgument(quietPeriodMillis >= 0, "Quiet period cannot be negative");
+        checkArgument(compactAfterBlocks >= 0, "Compact after blocks cannot be negative");
+        this.store = store;
+        this.batchHeights = batchHeights;
+        this.rateLimiter = RateLimiter.create(maxBlocksPerSecond);
+        this.quietPeriodMillis = quietPeriodMillis;
+        this.compactAfterBlocks = compactAfterBlocks;
+    }
+
+    @Override
+    protected void startUp() {
+        store.setInlinePruning(false);
+        lastActivityMillis = Utils.currentTimeMillis();
+    }
+
+    @Override
+    protected void shutDown() {
+        // Nothing is left behind once we stop.
+        store.setInlinePruning(true);
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            long now = Utils.currentTimeMillis();
+            // Moves with the verified chain head once blocks are committed.
+            int height = store.getPrunableHeight();
+            if (height != lastSeenHeight) {
+                lastSeenHeight = height;
+                lastActivityMillis = now;
+            }
+            prune();
+            if (compactAfterBlocks > 0 && blocksSinceCompaction >= compactAfterBlocks
+                    && now - lastActivityMillis >= quietPeriodMillis)
+                compact();
+        } catch (BlockStoreException | RuntimeException e) {
+            // Throwing would stop the service for good, so try again on the next run instead.
+            log.warn("Pruning failed, will retry", e);
+        }
+    }
+
+    @VisibleForTesting
+    void prune() throws BlockStoreException {
+        int toHeight = store.getPrunableHeight();
+        while (isRunningOrStarting()) {
+            int deleted = store.pruneUndoableBlocks(toHeight, batchHeights);
+            if (deleted == 0)
+                return;
+            pruneBatches++;
+            blocksPruned += deleted;
+            blocksSinceCompaction += deleted;
+            rateLimiter.acquire(deleted);
+        }
+    }
+
+    @VisibleForTesting
+    void compact() throws BlockStoreException {
+        long sizeBefore = store.getStoreSize();
+        Stopwatch watch = Stopwatch.createStarted();
+        store.compact();
+        watch.stop();
+        blocksSinceCompaction = 0;
+        compactions++;
+        lastCompactionMillis = watch.elapsed(TimeUnit.MILLISECONDS);
+        lastStoreSize = store.getStoreSize();
+        log.info("Compacted store after pruning in {}, size {} -> {} bytes, write amplification {}", watch,
+                sizeBefore, lastStoreSize, String.format("%.2f", store.getWriteAmplification()));
+    }
+
+    private boolean isRunningOrStarting() {
+        State state = state();
+        return state == State.RUNNING || state == State.STARTING || state == State.NEW;
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    protected String serviceName() {
+        return "Undo data pruning";
+    }
+
+    /** Returns the number of undo blocks deleted since the scheduler was created. */
+    public long getBlocksPruned() {
+        return blocksPruned;
+    }
+
+    /** Returns the number of delete batches since the scheduler was created. */
+    public long getPruneBatches() {
+        return pruneBatches;
+    }
+
+    /** Returns the number of times the store was compacted. */
+    public long getCompactions() {
+        return compactions;
+    }
+
+    /** Returns how long the last compaction took, or 0 if there was none yet. */
+    public long getLastCompactionMillis() {
+        return lastCompactionMillis;
+    }
+
+    /** Returns the size of the store after the last compaction in bytes, or -1 if unknown. */
+    public long getLastStoreSize() {
+        return lastStoreSize;
+    }
+
+    /** Returns the current size of the store in bytes, or -1 if unknown. */
+    public long getStoreSize() throws BlockStoreException {
+        return store.getStoreSize();
+    }
+
+    /** See {@link PrunableBlockStore#getWriteAmplification()}. */
+    public double getWriteAmplification() {
+        return store.getWriteAmplification();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d undo blocks pruned in %d batches, %d compactions, store size %d bytes",
+                serviceName(), blocksPruned, pruneBatches, compactions, lastStoreSize);
+    }
+}
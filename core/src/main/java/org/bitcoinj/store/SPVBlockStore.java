@@ -21,6 +21,7 @@ import org.bitcoinj.utils.*;
 import org.slf4j.*;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.Iterables;
 
 import javax.annotation.*;
 import java.io.*;
@@ -38,7 +39,7 @@ import static com.google.common.base.Preconditions.*;
  * may not be able to process very deep re-orgs and could be disconnected from the chain (requiring a replay),
  * but as they are virtually unheard of this is not a significant risk.
  */
-public class SPVBlockStore implements BlockStore {
+public class SPVBlockStore extends AbstractBlockStore {
     private static final Logger log = LoggerFactory.getLogger(SPVBlockStore.class);
 
     /** The default number of headers that will be stored in the ring buffer. */
@@ -77,6 +78,14 @@ public class SPVBlockStore implements BlockStore {
             return size() > 100;  // This was chosen arbitrarily.
         }
     };
+    // Index of the ring, so that get() doesn't have to scan it: an open addressing hash table with linear probing from
+    // the last eight bytes of a block hash to the slot of the record holding it. It is not stored in the file but
+    // rebuilt from the ring when the store is opened, which keeps the file format unchanged. Guarded by lock.
+    private long[] indexKeys;
+    private int[] indexSlots; // slot + 1, or 0 for an empty entry
+    private int indexMask;
+    private final byte[] indexScratch = new byte[32];
+
     // Used to stop other applications/processes from opening the store.
     protected FileLock fileLock = null;
     protected RandomAccessFile randomAccessFile = null;
@@ -130,11 +139,13 @@ public class SPVBlockStore implements BlockStore {
 
             // Check or initialize the header bytes to ensure we don't try to open some random file.
             byte[] header;
+            initIndex();
             if (exists) {
                 header = new byte[4];
                 buffer.get(header);
                 if (!new String(header, Charsets.US_ASCII).equals(HEADER_MAGIC))
                     throw new BlockStoreException("Header bytes do not equal " + HEADER_MAGIC);
+                rebuildIndex(buffer);
             } else {
                 initNewStore(params);
             }
@@ -177,21 +188,49 @@ public class SPVBlockStore implements BlockStore {
 
         lock.lock();
         try {
-            int cursor = getRingCursor(buffer);
-            if (cursor == getFileSize(capacity)) {
-                // Wrapped around.
-                cursor = FILE_PROLOGUE_BYTES;
-            }
-            buffer.position(cursor);
-            Sha256Hash hash = block.getHeader().getHash();
-            notFoundCache.remove(hash);
-            buffer.put(hash.getBytes());
-            block.serializeCompact(buffer);
-            setRingCursor(buffer, buffer.position());
-            blockCache.put(hash, block);
+            write(buffer, block);
+            blockCache.put(block.getHeader().getHash(), block);
         } finally { lock.unlock(); }
     }
 
+    /**
+     * Puts the given blocks, oldest first, in one go. Only the newest blocks that fit within the capacity of the store
+     * are written, and they don't go into the cache of recently used blocks.
+     */
+    @Override
+    public void putAll(Iterable<StoredBlock> blocks) throws BlockStoreException {
+        final MappedByteBuffer buffer = this.buffer;
+        if (buffer == null) throw new BlockStoreException("Store closed");
+
+        lock.lock();
+        try {
+            for (StoredBlock block : Iterables.skip(blocks, Math.max(0, Iterables.size(blocks) - capacity)))
+                write(buffer, block);
+        } finally { lock.unlock(); }
+    }
+
+    private void write(MappedByteBuffer buffer, StoredBlock block) {
+        int cursor = getRingCursor(buffer);
+        if (cursor == getFileSize(capacity)) {
+            // Wrapped around.
+            cursor = FILE_PROLOGUE_BYTES;
+        }
+        int slot = (cursor - FILE_PROLOGUE_BYTES) / RECORD_SIZE;
+        // Drop the record we are about to overwrite from the index.
+        buffer.position(cursor);
+        byte[] oldHash = new byte[32];
+        buffer.get(oldHash);
+        if (!isZero(oldHash))
+            indexRemove(buffer, oldHash, slot);
+        buffer.position(cursor);
+        Sha256Hash hash = block.getHeader().getHash();
+        notFoundCache.remove(hash);
+        buffer.put(hash.getBytes());
+        block.serializeCompact(buffer);
+        setRingCursor(buffer, buffer.position());
+        indexPut(buffer, hash.getBytes(), slot);
+    }
+
     @Override
     @Nullable
     public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
@@ -206,32 +245,15 @@ public class SPVBlockStore implements BlockStore {
             if (notFoundCache.get(hash) != null)
                 return null;
 
-            // Starting from the current tip of the ring work backwards until we have either found the block or
-            // wrapped around.
-            int cursor = getRingCursor(buffer);
-            final int startingPoint = cursor;
-            final int fileSize = getFileSize(capacity);
-            final byte[] targetHashBytes = hash.getBytes();
-            byte[] scratch = new byte[32];
-            do {
-                cursor -= RECORD_SIZE;
-                if (cursor < FILE_PROLOGUE_BYTES) {
-                    // We hit the start, so wrap around.
-                    cursor = fileSize - RECORD_SIZE;
-                }
-                // Cursor is now at the start of the next record to check, so read the hash and compare it.
-                buffer.position(cursor);
-                buffer.get(scratch);
-                if (Arrays.equals(scratch, targetHashBytes)) {
-                    // Found the target.
-                    StoredBlock storedBlock = StoredBlock.deserializeCompact(params, buffer);
-                    blockCache.put(hash, storedBlock);
-                    return storedBlock;
-                }
-            } while (cursor != startingPoint);
-            // Not found.
-            notFoundCache.put(hash, NOT_FOUND_MARKER);
-            return null;
+            int pos = indexFind(buffer, hash.getBytes());
+            if (pos < 0) {
+                notFoundCache.put(hash, NOT_FOUND_MARKER);
+                return null;
+            }
+            buffer.position(FILE_PROLOGUE_BYTES + (indexSlots[pos] - 1) * RECORD_SIZE + 32);
+            StoredBlock storedBlock = StoredBlock.deserializeCompact(params, buffer);
+            blockCache.put(hash, storedBlock);
+            return storedBlock;
         } catch (ProtocolException e) {
             throw new RuntimeException(e);  // Cannot happen.
         } finally { lock.unlock(); }
@@ -308,6 +330,92 @@ public class SPVBlockStore implements BlockStore {
     //   80 bytes of block header data
     protected static final int FILE_PROLOGUE_BYTES = 1024;
 
+    private void initIndex() {
+        int size = 2;
+        while (size < capacity * 2)
+            size <<= 1;
+        indexKeys = new long[size];
+        indexSlots = new int[size];
+        indexMask = size - 1;
+    }
+
+    private void rebuildIndex(ByteBuffer buffer) {
+        lock.lock();
+        try {
+            // Oldest records first, so that if a hash was stored twice the index ends up with the newest record.
+            int first = (getRingCursor(buffer) - FILE_PROLOGUE_BYTES) / RECORD_SIZE;
+            byte[] hash = new byte[32];
+            for (int i = 0; i < capacity; i++) {
+                int slot = (first + i) % capacity;
+                buffer.position(FILE_PROLOGUE_BYTES + slot * RECORD_SIZE);
+                buffer.get(hash);
+                if (!isZero(hash))
+                    indexPut(buffer, hash, slot);
+            }
+        } finally { lock.unlock(); }
+    }
+
+    private static long indexKey(byte[] hash) {
+        long key = 0;
+        for (int i = 24; i < 32; i++)
+            key = (key << 8) | (hash[i] & 0xFF);
+        return key;
+    }
+
+    private int indexHome(long key) {
+        return (int) (key ^ (key >>> 32)) & indexMask;
+    }
+
+    /** Returns the position of the index entry for the hash, or -1 if it isn't in the ring. */
+    private int indexFind(ByteBuffer buffer, byte[] hash) {
+        long key = indexKey(hash);
+        for (int i = indexHome(key); indexSlots[i] != 0; i = (i + 1) & indexMask) {
+            if (indexKeys[i] != key)
+                continue;
+            buffer.position(FILE_PROLOGUE_BYTES + (indexSlots[i] - 1) * RECORD_SIZE);
+            buffer.get(indexScratch);
+            if (Arrays.equals(indexScratch, hash))
+                return i;
+        }
+        return -1;
+    }
+
+    private void indexPut(ByteBuffer buffer, byte[] hash, int slot) {
+        int pos = indexFind(buffer, hash);
+        if (pos < 0) {
+            long key = indexKey(hash);
+            pos = indexHome(key);
+            while (indexSlots[pos] != 0)
+                pos = (pos + 1) & indexMask;
+            indexKeys[pos] = key;
+        }
+        indexSlots[pos] = slot + 1;
+    }
+
+    private void indexRemove(ByteBuffer buffer, byte[] hash, int slot) {
+        int hole = indexFind(buffer, hash);
+        if (hole < 0 || indexSlots[hole] != slot + 1)
+            return; // A newer record of the same hash is indexed instead.
+        // Shift later entries of the probe sequence back into the hole, unless that would move them before their home.
+        for (int i = (hole + 1) & indexMask; indexSlots[i] != 0; i = (i + 1) & indexMask) {
+            int home = indexHome(indexKeys[i]);
+            if (((i - home) & indexMask) >= ((i - hole) & indexMask)) {
+                indexKeys[hole] = indexKeys[i];
+                indexSlots[hole] = indexSlots[i];
+                hole = i;
+            }
+        }
+        indexKeys[hole] = 0;
+        indexSlots[hole] = 0;
+    }
+
+    private static boolean isZero(byte[] bytes) {
+        for (byte b : bytes)
+            if (b != 0)
+                return false;
+        return true;
+    }
+
     /** Returns the offset from the file start where the latest block should be written (end of prev block). */
     private int getRingCursor(ByteBuffer buffer) {
         int c = buffer.getInt(4);
@@ -0,0 +1,66 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.UTXO;
+import org.bitcoinj.core.UTXOProvider;
+import org.bitcoinj.core.UTXOProviderException;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * <p>A read only view of the unspent outputs of a {@link FullPrunedBlockStore}, pinned to the verified chain head that
+ * was last committed when it was opened with {@link FullPrunedBlockStore#openSnapshot()}. All queries answer as of
+ * that block, no matter which blocks are connected or disconnected in the meantime, and never see a block that is
+ * only partly written between {@link FullPrunedBlockStore#beginDatabaseBatchWrite()} and
+ * {@link FullPrunedBlockStore#commitDatabaseBatchWrite()}.</p>
+ *
+ * <p>A snapshot can be passed wherever a {@link UTXOProvider} is expected, so that for example the outputs a wallet
+ * spends and the chain height it checks their maturity against agree with each other. It may be used from any
+ * thread, but not concurrently, and must be closed as it holds on to resources of the store.</p>
+ */
+public interface UTXOSnapshot extends UTXOProvider, AutoCloseable {
+    /** Returns the verified chain head this snapshot is pinned to. */
+    StoredBlock getChainHead();
+
+    /**
+     * Returns the height of {@link #getChainHead()}.
+     */
+    @Override
+    int getChainHeadHeight();
+
+    /**
+     * Gets a {@link UTXO} with the given hash and index, or null if it wasn't unspent as of the chain head of this
+     * snapshot.
+     */
+    @Nullable
+    UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException;
+
+    /**
+     * Returns the sum of the values of the unspent outputs to the given addresses.
+     */
+    Coin getBalance(List<Address> addresses) throws UTXOProviderException;
+
+    /** Releases the resources this snapshot holds on to. */
+    @Override
+    void close();
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.MessageSerializer;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ProtocolException;
+import org.bitcoinj.core.PrunedException;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.VerificationException;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>Imports block files stored in the Bitcoin Core format into a block chain, much faster than feeding the blocks of
+ * a {@link BlockFileLoader} to the chain one by one. Use it to bootstrap a node from a local copy of Bitcoin Core's
+ * data directory:</p>
+ *
+ * <pre>
+ * new BlockFileImporter(params, BlockFileLoader.getReferenceClientBlockFileList()).importInto(chain);
+ * </pre>
+ *
+ * <p>The files are memory mapped and scanned for block records in bulk, reading only the headers. Bitcoin Core
+ * writes blocks in the order they were downloaded rather than chain order, so the records are then sorted such
+ * that every block comes after its parent. Finally the blocks are parsed in parallel on a pool of worker threads,
+ * at most a bounded number ahead of the chain, while the calling thread adds them to the chain in order.</p>
+ *
+ * <p>Blocks that are already in the chain's store are skipped, so an interrupted import can simply be run again.
+ * Blocks whose parent is neither in the files nor in the store can't be connected and are skipped too.</p>
+ */
+public class BlockFileImporter {
+    private static final Logger log = LoggerFactory.getLogger(BlockFileImporter.class);
+
+    /** The default number of blocks that are parsed ahead of the chain, per parsing thread. */
+    public static final int DEFAULT_BLOCKS_AHEAD_PER_THREAD = 16;
+
+    private final NetworkParameters params;
+    private final List<File> files;
+    private final int threads;
+    private final int maxBlocksAhead;
+
+    // The location of a block in the mapped files, and enough of its header to put it in order.
+    private static class Record {
+        final int file;
+        final int offset;
+        final int length;
+        final Sha256Hash hash;
+        final Sha256Hash prevHash;
+
+        Record(int file, int offset, int length, Sha256Hash hash, Sha256Hash prevHash) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+            this.prevHash = prevHash;
+        }
+    }
+
+    /** Imports the given files, parsing on as many threads as there are processors. */
+    public BlockFileImporter(NetworkParameters params, List<File> files) {
+        this(params, files, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Imports the given files, parsing on the given number of threads. */
+    public BlockFileImporter(NetworkParameters params, List<File> files, int threads) {
+        this(params, files, threads, threads * DEFAULT_BLOCKS_AHEAD_PER_THREAD);
+    }
+
+    /**
+     * Imports the given files, parsing on the given number of threads. At most maxBlocksAhead parsed blocks wait to
+     * be added to the chain, which bounds the memory used by the import.
+     */
+    public BlockFileImporter(NetworkParameters params, List<File> files, int threads, int maxBlocksAhead) {
+        checkArgument(threads > 0, "Need at least one thread");
+        checkArgument(maxBlocksAhead >= threads, "Must be able to parse at least one block per thread");
+        this.params = params;
+        this.files = new ArrayList<>(files);
+        this.threads = threads;
+        this.maxBlocksAhead = maxBlocksAhead;
+    }
+
+    /**
+     * Adds the blocks of the files to the given chain, in chain order. Returns the number of blocks that were added.
+     *
+     * @throws IOException if a file can't be read
+     */
+    public int importInto(AbstractBlockChain chain) throws IOException, BlockStoreException, VerificationException,
+            PrunedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ContextPropagatingThreadFactory("Block file import"));
+        try {
+            List<MappedByteBuffer> buffers = map(files);
+            List<Record> records = scan(executor, buffers);
+            List<Record> ordered = order(records, chain.getBlockStore());
+            log.info("Found {} blocks in {} files, importing {}", records.size(), files.size(), ordered.size());
+            return addInOrder(executor, buffers, ordered, chain);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<MappedByteBuffer> map(List<File> files) throws IOException {
+        List<MappedByteBuffer> buffers = new ArrayList<>(files.size());
+        for (File file : files) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                FileChannel channel = raf.getChannel();
+                // Bitcoin Core starts a new file every 128MB, so files fit a single mapping.
+                if (channel.size() > Integer.MAX_VALUE)
+                    throw new IOException("Block file too large to map: " + file);
+                buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        return buffers;
+    }
+
+    // Finds the block records of all files, one file per task.
+    private List<Record> scan(ExecutorService executor, List<MappedByteBuffer> buffers) {
+        List<Future<List<Record>>> futures = new ArrayList<>(buffers.size());
+        for (int i = 0; i < buffers.size(); i++) {
+            final int file = i;
+            final ByteBuffer buffer = buffers.get(i).duplicate();
+            futures.add(executor.submit(new Callable<List<Record>>() {
+                @Override
+                public List<Record> call() {
+                    return scan(file, buffer);
+                }
+            }));
+        }
+        List<Record> records = new ArrayList<>();
+        for (Future<List<Record>> future : futures)
+            records.addAll(Threading.getResult(future));
+        return records;
+    }
+
+    private List<Record> scan(int file, ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int magic = (int) params.getPacketMagic();
+        byte firstMagicByte = (byte) (magic >>> 24);
+        byte[] header = new byte[Block.HEADER_SIZE];
+        byte[] prevHash = new byte[32];
+        List<Record> records = new ArrayList<>();
+        int limit = buffer.limit();
+        int pos = 0;
+        // Like BlockFileLoader, resynchronize on the magic after anything that isn't a block record, such as the
+        // zero padding at the end of files that were preallocated.
+        while (pos + 8 <= limit) {
+            if (buffer.get(pos) != firstMagicByte || Integer.reverseBytes(buffer.getInt(pos)) != magic) {
+                pos++;
+                continue;
+            }
+            int length = buffer.getInt(pos + 4);
+            // We allow larger than MAX_BLOCK_SIZE because test code uses this as well.
+            if (length < Block.HEADER_SIZE || length > Block.MAX_BLOCK_SIZE * 2 || length > limit - pos - 8) {
+                pos++;
+                continue;
+            }
+            int offset = pos + 8;
+            buffer.position(offset);
+            buffer.get(header);
+            System.arraycopy(header, 4, prevHash, 0, 32);
+            records.add(new Record(file, offset, length, Sha256Hash.wrapReversed(Sha256Hash.hashTwice(header)),
+                    Sha256Hash.wrapReversed(prevHash)));
+            pos = offset + length;
+        }
+        return records;
+    }
+
+    /**
+     * Returns the records that connect to the blocks in the store, parents first. Records of blocks that are already
+     * in the store are left out, as are duplicates.
+     */
+    private static List<Record> order(List<Record> records, BlockStore store) throws BlockStoreException {
+        Map<Sha256Hash, List<Record>> children = new HashMap<>();
+        Set<Sha256Hash> hashes = new HashSet<>();
+        List<Record> unique = new ArrayList<>(records.size());
+        for (Record record : records) {
+            if (!hashes.add(record.hash))
+                continue;
+            unique.add(record);
+            List<Record> siblings = children.get(record.prevHash);
+            if (siblings == null) {
+                siblings = new ArrayList<>(1);
+                children.put(record.prevHash, siblings);
+            }
+            siblings.add(record);
+        }
+        // Start from the records that are in the store already, and those whose parent is in the store but not in
+        // the files.
+        ArrayDeque<Record> queue = new ArrayDeque<>();
+        Set<Sha256Hash> known = new HashSet<>();
+        for (Record record : unique) {
+            if (store.get(record.hash) != null) {
+                known.add(record.hash);
+                queue.add(record);
+            } else if (!hashes.contains(record.prevHash) && store.get(record.prevHash) != null) {
+                queue.add(record);
+            }
+        }
+        List<Record> ordered = new ArrayList<>(unique.size());
+        Set<Sha256Hash> visited = new HashSet<>();
+        while (!queue.isEmpty()) {
+            Record record = queue.poll();
+            if (!visited.add(record.hash))
+                continue;
+            if (!known.contains(record.hash))
+                ordered.add(record);
+            List<Record> next = children.get(record.hash);
+            if (next != null)
+                queue.addAll(next);
+        }
+        int unconnected = unique.size() - visited.size();
+        if (unconnected > 0)
+            log.warn("Skipping {} blocks that don't connect to the chain", unconnected);
+        return ordered;
+    }
+
+    // Adds the blocks on the calling thread while the executor parses those that come next.
+    private int addInOrder(ExecutorService executor, List<MappedByteBuffer> buffers, List<Record> records,
+                           AbstractBlockChain chain) throws VerificationException, PrunedException {
+        ArrayDeque<Future<Block>> pending = new ArrayDeque<>(maxBlocksAhead);
+        int submitted = 0;
+        int added = 0;
+        for (int i = 0; i < records.size(); i++) {
+            while (submitted < records.size() && pending.size() < maxBlocksAhead)
+                pending.add(executor.submit(parseTask(buffers, records.get(submitted++))));
+            Block block = Threading.getResult(pending.poll());
+            if (block != null && chain.add(block))
+                added++;
+        }
+        return added;
+    }
+
+    private Callable<Block> parseTask(List<MappedByteBuffer> buffers, final Record record) {
+        final ByteBuffer buffer = buffers.get(record.file).duplicate();
+        final MessageSerializer serializer = params.getDefaultSerializer();
+        return new Callable<Block>() {
+            @Nullable
+            @Override
+            public Block call() {
+                byte[] bytes = new byte[record.length];
+                buffer.position(record.offset);
+                buffer.get(bytes);
+                try {
+                    return serializer.makeBlock(bytes);
+                } catch (ProtocolException e) {
+                    log.warn("Skipping unparseable block " + record.hash, e);
+                    return null;
+                }
+            }
+        };
+    }
+}
@@ -16,7 +16,10 @@
 
 package org.bitcoinj.utils;
 
+import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.CycleDetectingLockFactory;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Uninterruptibles;
@@ -26,6 +29,8 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -196,4 +201,50 @@ public class Threading {
                 }
             })
     );
+
+    /** A piece of work over a range of indexes, see {@link #runInChunks(int, int, RangeTask)}. */
+    public interface RangeTask {
+        /** Does the work for the indexes from <code>from</code> (inclusive) to <code>to</code> (exclusive). */
+        void run(int from, int to);
+    }
+
+    /**
+     * Runs the task over the indexes from 0 to <code>count</code>, split into one chunk per processor on
+     * {@link #THREAD_POOL}, and waits for all chunks to finish. Chunks are at least <code>minPerTask</code> indexes
+     * long, so small counts run on the calling thread. An unchecked exception thrown by the task is rethrown as it is.
+     */
+    public static void runInChunks(int count, int minPerTask, final RangeTask task) {
+        int numTasks = Math.min(Runtime.getRuntime().availableProcessors(), count / minPerTask);
+        if (numTasks <= 1) {
+            task.run(0, count);
+            return;
+        }
+        int chunkSize = (count + numTasks - 1) / numTasks;
+        List<ListenableFuture<?>> futures = new ArrayList<>(numTasks);
+        for (int start = 0; start < count; start += chunkSize) {
+            final int from = start, to = Math.min(start + chunkSize, count);
+            futures.add(THREAD_POOL.submit(new Runnable() {
+                @Override
+                public void run() {
+                    task.run(from, to);
+                }
+            }));
+        }
+        getResult(Futures.allAsList(futures));
+    }
+
+    /**
+     * Waits for the future and returns its result. An unchecked exception it failed with is rethrown as it is, others
+     * are wrapped in a {@link RuntimeException}.
+     */
+    public static <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+import java.util.Date;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The compact summary of a transaction a {@link Wallet} has moved to its {@link TransactionArchive}, which keeps
+ * the summaries. The full transaction can be read back with {@link Wallet#getTransaction(Sha256Hash)}.
+ */
+public class ArchivedTransaction {
+    private final Sha256Hash hash;
+    private final int appearedAtChainHeight;
+    private final Coin value;
+    private final long updateTimeSecs;
+
+    public ArchivedTransaction(Sha256Hash hash, int appearedAtChainHeight, Coin value, Date updateTime) {
+        this.hash = checkNotNull(hash);
+        this.appearedAtChainHeight = appearedAtChainHeight;
+        this.value = checkNotNull(value);
+        this.updateTimeSecs = updateTime.getTime() / 1000;
+    }
+
+    /** Returns the hash of the archived transaction. */
+    public Sha256Hash getHash() {
+        return hash;
+    }
+
+    /** Returns the height of the block the transaction appeared in. */
+    public int getAppearedAtChainHeight() {
+        return appearedAtChainHeight;
+    }
+
+    /**
+     * Returns the net value the transaction had for the wallet, as in {@link org.bitcoinj.core.Transaction#getValue}.
+     */
+    public Coin getValue() {
+        return value;
+    }
+
+    /** Returns the update time of the transaction when it was archived, with a precision of seconds. */
+    public Date getUpdateTime() {
+        return new Date(updateTimeSecs * 1000);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ArchivedTransaction other = (ArchivedTransaction) o;
+        return hash.equals(other.hash) && appearedAtChainHeight == other.appearedAtChainHeight
+                && value.equals(other.value) && updateTimeSecs == other.updateTimeSecs;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(hash, appearedAtChainHeight, value, updateTimeSecs);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this).add("hash", hash).add("height", appearedAtChainHeight)
+                .add("value", value.toFriendlyString()).toString();
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.utils.Threading;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>A {@link TransactionArchive} that appends transactions to a single file. Only the summaries and the file offsets
+ * are kept in memory, transactions are read back from disk when asked for.</p>
+ *
+ * <p>The file starts with a four byte magic, followed by one record per transaction: the hash, height, value and update
+ * time of the {@link ArchivedTransaction}, the length of the serialized transaction and the transaction itself. A record
+ * that was only partially written when the process died is discarded when the file is opened.</p>
+ */
+public class FileTransactionArchive implements TransactionArchive, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(FileTransactionArchive.class);
+
+    private static final byte[] MAGIC = {'T', 'X', 'A', '1'};
+    // hash, height, value, update time, length of the transaction
+    private static final int RECORD_HEADER_SIZE = 32 + 4 + 8 + 8 + 4;
+
+    private final NetworkParameters params;
+    private final ReentrantLock lock = Threading.lock("FileTransactionArchive");
+    private final RandomAccessFile file;
+    // In the order they were added.
+    private final Map<Sha256Hash, Record> records = new LinkedHashMap<>();
+
+    private static class Record {
+        private final ArchivedTransaction summary;
+        // Offset of the serialized transaction in the file.
+        private final long offset;
+
+        private Record(ArchivedTransaction summary, long offset) {
+            this.summary = summary;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Opens the archive in the given file, creating it if it doesn't exist yet.
+     * @throws IOException if the file can't be read or isn't an archive.
+     */
+    public FileTransactionArchive(NetworkParameters params, File file) throws IOException {
+        this.params = params;
+        this.file = new RandomAccessFile(file, "rw");
+        try {
+            load();
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    private void load() throws IOException {
+        long length = file.length();
+        if (length == 0) {
+            file.write(MAGIC);
+            return;
+        }
+        byte[] magic = new byte[MAGIC.length];
+        if (length < MAGIC.length || file.read(magic) != MAGIC.length || !Arrays.equals(magic, MAGIC))
+            throw new IOException("Not a transaction archive");
+        long position = MAGIC.length;
+        byte[] header = new byte[RECORD_HEADER_SIZE];
+        while (position + RECORD_HEADER_SIZE <= length) {
+            file.seek(position);
+            file.readFully(header);
+            ByteBuffer buf = ByteBuffer.wrap(header);
+            byte[] hash = new byte[32];
+            buf.get(hash);
+            int height = buf.getInt();
+            long value = buf.getLong();
+            long updateTimeSecs = buf.getLong();
+            int txLength = buf.getInt();
+            long txOffset = position + RECORD_HEADER_SIZE;
+            if (txLength < 0 || txOffset + txLength > length)
+                break;
+            ArchivedTransaction summary = new ArchivedTransaction(Sha256Hash.wrap(hash), height, Coin.valueOf(value),
+                    new Date(updateTimeSecs * 1000));
+            records.put(summary.getHash(), new Record(summary, txOffset));
+            position = txOffset + txLength;
+        }
+        if (position != length) {
+            log.warn("Discarding {} bytes of incomplete record at the end of the transaction archive",
+                    length - position);
+            file.setLength(position);
+        }
+    }
+
+    @Override
+    public void add(ArchivedTransaction summary, Transaction tx) throws IOException {
+        lock.lock();
+        try {
+            if (records.containsKey(summary.getHash()))
+                return;
+            byte[] txBytes = tx.unsafeBitcoinSerialize();
+            ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER_SIZE + txBytes.length);
+            buf.put(summary.getHash().getBytes());
+            buf.putInt(summary.getAppearedAtChainHeight());
+            buf.putLong(summary.getValue().value);
+            buf.putLong(summary.getUpdateTime().getTime() / 1000);
+            buf.putInt(txBytes.length);
+            buf.put(txBytes);
+            long position = file.length();
+            file.seek(position);
+            file.write(buf.array());
+            records.put(summary.getHash(), new Record(summary, position + RECORD_HEADER_SIZE));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            file.getFD().sync();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @Nullable
+    public Transaction get(Sha256Hash hash) throws IOException {
+        lock.lock();
+        try {
+            Record record = records.get(hash);
+            if (record == null)
+                return null;
+            file.seek(record.offset - 4);
+            byte[] txBytes = new byte[file.readInt()];
+            file.readFully(txBytes);
+            return params.getDefaultSerializer().makeTransaction(txBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Sha256Hash hash) {
+        lock.lock();
+        try {
+            return records.containsKey(hash);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<ArchivedTransaction> getSummaries() {
+        lock.lock();
+        try {
+            List<ArchivedTransaction> summaries = new ArrayList<>(records.size());
+            for (Record record : records.values())
+                summaries.add(record.summary);
+            return summaries;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            file.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.ECKey;
+
+import javax.annotation.Nullable;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>An insertion ordered index of keys by pubkey hash (hash160) and by pubkey, used by {@link BasicKeyChain}.</p>
+ *
+ * <p>Both lookups are open addressing hash tables over primitive arrays that compare the stored bytes directly, so
+ * looking up a key given a slice of a script or transaction doesn't allocate anything. This matters because the
+ * wallet checks every output it sees during sync against its keys.</p>
+ *
+ * <p>Not thread safe, callers must provide their own locking.</p>
+ */
+class KeyIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Entries in insertion order. Removed entries are nulled out and reclaimed when the tables are rebuilt.
+    private ECKey[] keys;
+    private byte[][] hashes;
+    private byte[][] pubkeys;
+    private int used;
+    private int size;
+
+    // Open addressing tables with linear probing. Each slot holds an entry index plus one, or zero if free.
+    private int[] hashTable;
+    private int[] pubkeyTable;
+
+    KeyIndex() {
+        keys = new ECKey[INITIAL_CAPACITY];
+        hashes = new byte[INITIAL_CAPACITY][];
+        pubkeys = new byte[INITIAL_CAPACITY][];
+        hashTable = new int[INITIAL_CAPACITY * 2];
+        pubkeyTable = new int[INITIAL_CAPACITY * 2];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Returns the key whose pubkey hash equals the given range of bytes, or null if there is none. */
+    @Nullable
+    ECKey findByHash(byte[] bytes, int offset, int length) {
+        int entry = find(hashTable, hashes, bytes, offset, length);
+        return entry < 0 ? null : keys[entry];
+    }
+
+    /** Returns the key whose encoded pubkey equals the given range of bytes, or null if there is none. */
+    @Nullable
+    ECKey findByPubKey(byte[] bytes, int offset, int length) {
+        int entry = find(pubkeyTable, pubkeys, bytes, offset, length);
+        return entry < 0 ? null : keys[entry];
+    }
+
+    /**
+     * Adds the given key to the end of the index.
+     * @throws IllegalStateException if a key with the same pubkey is already present.
+     */
+    void add(ECKey key) {
+        byte[] pubkey = key.getPubKey();
+        checkState(find(pubkeyTable, pubkeys, pubkey, 0, pubkey.length) < 0, "Key is already in the index");
+        if (used == keys.length)
+            rebuild(size * 2 >= keys.length ? keys.length * 2 : keys.length);
+        int entry = used++;
+        keys[entry] = key;
+        hashes[entry] = key.getPubKeyHash();
+        pubkeys[entry] = pubkey;
+        insert(hashTable, hashes, entry);
+        insert(pubkeyTable, pubkeys, entry);
+        size++;
+    }
+
+    /** Removes the key with the same pubkey as the given key, returning the removed key or null if absent. */
+    @Nullable
+    ECKey remove(ECKey key) {
+        byte[] pubkey = key.getPubKey();
+        int pubkeySlot = findSlot(pubkeyTable, pubkeys, pubkey, 0, pubkey.length);
+        if (pubkeySlot < 0)
+            return null;
+        int entry = pubkeyTable[pubkeySlot] - 1;
+        byte[] hash = hashes[entry];
+        int hashSlot = findSlot(hashTable, hashes, hash, 0, hash.length);
+        checkState(hashSlot >= 0);   // Should be in both tables or neither.
+        delete(pubkeyTable, pubkeys, pubkeySlot);
+        delete(hashTable, hashes, hashSlot);
+        ECKey removed = keys[entry];
+        keys[entry] = null;
+        hashes[entry] = null;
+        pubkeys[entry] = null;
+        size--;
+        return removed;
+    }
+
+    /** Returns the key that was added first and is still present, or null if the index is empty. */
+    @Nullable
+    ECKey first() {
+        for (int i = 0; i < used; i++)
+            if (keys[i] != null)
+                return keys[i];
+        return null;
+    }
+
+    /** Returns a read only view of the keys in insertion order. The view must not be used across modifications. */
+    Collection<ECKey> keys() {
+        return new AbstractCollection<ECKey>() {
+            @Override
+            public Iterator<ECKey> iterator() {
+                return new Iterator<ECKey>() {
+                    private int next = advance(0);
+
+                    private int advance(int i) {
+                        while (i < used && keys[i] == null)
+                            i++;
+                        return i;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < used;
+                    }
+
+                    @Override
+                    public ECKey next() {
+                        if (next >= used)
+                            throw new NoSuchElementException();
+                        ECKey key = keys[next];
+                        next = advance(next + 1);
+                        return key;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int h = 1;
+        for (int i = offset; i < offset + length; i++)
+            h = 31 * h + bytes[i];
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean rangeEquals(byte[] stored, byte[] bytes, int offset, int length) {
+        if (stored.length != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (stored[i] != bytes[offset + i])
+                return false;
+        return true;
+    }
+
+    private static int findSlot(int[] table, byte[][] entryBytes, byte[] bytes, int offset, int length) {
+        int mask = table.length - 1;
+        for (int slot = hash(bytes, offset, length) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (entry < 0)
+                return -1;
+            if (rangeEquals(entryBytes[entry], bytes, offset, length))
+                return slot;
+        }
+    }
+
+    private static int find(int[] table, byte[][] entryBytes, byte[] bytes, int offset, int length) {
+        int slot = findSlot(table, entryBytes, bytes, offset, length);
+        return slot < 0 ? -1 : table[slot] - 1;
+    }
+
+    private static void insert(int[] table, byte[][] entryBytes, int entry) {
+        byte[] bytes = entryBytes[entry];
+        int mask = table.length - 1;
+        int slot = hash(bytes, 0, bytes.length) & mask;
+        while (table[slot] != 0)
+            slot = (slot + 1) & mask;
+        table[slot] = entry + 1;
+    }
+
+    // Backward shift deletion: moves later members of the probe sequence into the hole, so lookups never need
+    // tombstones.
+    private static void delete(int[] table, byte[][] entryBytes, int slot) {
+        int mask = table.length - 1;
+        int hole = slot;
+        for (int i = (hole + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+            byte[] bytes = entryBytes[table[i] - 1];
+            int home = hash(bytes, 0, bytes.length) & mask;
+            boolean homeInRange = hole <= i ? (hole < home && home <= i) : (hole < home || home <= i);
+            if (homeInRange)
+                continue;
+            table[hole] = table[i];
+            hole = i;
+        }
+        table[hole] = 0;
+    }
+
+    // Compacts the entries into arrays of the given capacity and re-populates both tables.
+    private void rebuild(int capacity) {
+        ECKey[] newKeys = new ECKey[capacity];
+        byte[][] newHashes = new byte[capacity][];
+        byte[][] newPubkeys = new byte[capacity][];
+        int n = 0;
+        for (int i = 0; i < used; i++) {
+            if (keys[i] == null)
+                continue;
+            newKeys[n] = keys[i];
+            newHashes[n] = hashes[i];
+            newPubkeys[n] = pubkeys[i];
+            n++;
+        }
+        keys = newKeys;
+        hashes = newHashes;
+        pubkeys = newPubkeys;
+        used = n;
+        if (hashTable.length < capacity * 2) {
+            hashTable = new int[capacity * 2];
+            pubkeyTable = new int[capacity * 2];
+        } else {
+            Arrays.fill(hashTable, 0);
+            Arrays.fill(pubkeyTable, 0);
+        }
+        for (int i = 0; i < used; i++) {
+            insert(hashTable, hashes, i);
+            insert(pubkeyTable, pubkeys, i);
+        }
+    }
+}
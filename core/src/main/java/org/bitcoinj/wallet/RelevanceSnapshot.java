@@ -0,0 +1,134 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.core.TransactionInput;
+import org.bitcoinj.core.TransactionOutPoint;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptException;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>A read only copy of everything that can make a transaction relevant to a {@link Wallet}: its keys (lookahead
+ * included), its watched scripts and the outpoints its transactions create or spend. Because nothing in here changes
+ * after construction, many threads can classify the transactions of a block against it at the same time without
+ * holding the wallet lock.</p>
+ *
+ * <p>The classification is conservative: {@link #isPossiblyRelevant(Transaction)} may say yes for a transaction that
+ * {@link Wallet#isTransactionRelevant(Transaction)} would reject, but not the other way around, as long as the wallet
+ * hasn't changed since the snapshot was taken. The wallet tracks that through the version numbers recorded here.</p>
+ */
+class RelevanceSnapshot {
+    /**
+     * The keys and watched scripts part of a snapshot. Copying the keys is the expensive part of taking a snapshot,
+     * so it is shared with the next snapshot if only the transactions of the wallet changed.
+     */
+    static class Keys {
+        final int version;
+        final int numKeys;
+
+        private final KeyIndex keys;
+        private final Set<Script> watchedScripts;
+        // We don't copy redeem scripts of married chains, so all P2SH outputs are candidates if there are any.
+        private final boolean anyMarried;
+
+        Keys(int version, KeyChainGroup keyChainGroup, Set<Script> watchedScripts) {
+            this.version = version;
+            this.numKeys = keyChainGroup.numKeys();
+            this.keys = new KeyIndex();
+            boolean anyMarried = false;
+            addKeys(keyChainGroup.getImportedKeys());
+            for (DeterministicKeyChain chain : keyChainGroup.getDeterministicKeyChains()) {
+                addKeys(chain.getKeys(true, true));
+                anyMarried |= chain.isMarried();
+            }
+            this.anyMarried = anyMarried;
+            this.watchedScripts = new HashSet<>(watchedScripts);
+        }
+
+        private void addKeys(List<ECKey> keyList) {
+            for (ECKey key : keyList) {
+                byte[] pubkey = key.getPubKey();
+                if (keys.findByPubKey(pubkey, 0, pubkey.length) == null)
+                    keys.add(key);
+            }
+        }
+
+        // Same classification as TransactionOutput.isMineOrWatched(TransactionBag), against the copied keys.
+        boolean isMineOrWatched(TransactionOutput output) {
+            try {
+                Script script = output.getScriptPubKey();
+                if (watchedScripts.contains(script))
+                    return true;
+                if (script.isSentToRawPubKey()) {
+                    byte[] pubkey = script.getPubKey();
+                    return keys.findByPubKey(pubkey, 0, pubkey.length) != null;
+                } else if (script.isPayToScriptHash()) {
+                    return anyMarried;
+                } else {
+                    byte[] pubkeyHash = script.getPubKeyHash();
+                    return keys.findByHash(pubkeyHash, 0, pubkeyHash.length) != null;
+                }
+            } catch (ScriptException e) {
+                return false;
+            }
+        }
+    }
+
+    final int version;
+    final Keys keys;
+
+    private final Set<TransactionOutPoint> outPoints;
+
+    RelevanceSnapshot(int version, Keys keys, Collection<Transaction> transactions) {
+        this.version = version;
+        this.keys = keys;
+        // Spending one of our outputs, or any outpoint that one of our transactions spends (a double spend), makes a
+        // transaction relevant. Outputs of dead transactions are included too because re-orgs can resurrect them.
+        this.outPoints = new HashSet<>();
+        for (Transaction tx : transactions) {
+            for (TransactionOutput output : tx.getOutputs())
+                if (keys.isMineOrWatched(output))
+                    outPoints.add(output.getOutPointFor());
+            if (!tx.isCoinBase())
+                for (TransactionInput input : tx.getInputs())
+                    outPoints.add(input.getOutpoint());
+        }
+    }
+
+    /**
+     * Returns false if the given transaction is certainly not relevant to the wallet this snapshot was taken of, true
+     * if it might be.
+     */
+    boolean isPossiblyRelevant(Transaction tx) {
+        for (TransactionOutput output : tx.getOutputs())
+            if (keys.isMineOrWatched(output))
+                return true;
+        if (!tx.isCoinBase())
+            for (TransactionInput input : tx.getInputs())
+                if (outPoints.contains(input.getOutpoint()))
+                    return true;
+        return false;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * <p>Storage for transactions that a {@link Wallet} no longer keeps in memory. See
+ * {@link Wallet#setTransactionArchive(TransactionArchive)} for which transactions end up here.</p>
+ *
+ * <p>An archive only ever grows. Implementations must be thread safe. {@link FileTransactionArchive} is the standard
+ * implementation.</p>
+ */
+public interface TransactionArchive {
+    /**
+     * Adds a transaction along with its summary. Adding a transaction that is already in the archive does nothing.
+     * The transaction doesn't have to be durable until {@link #flush()} returns.
+     */
+    void add(ArchivedTransaction summary, Transaction tx) throws IOException;
+
+    /** Makes all transactions added so far durable. The wallet calls this before dropping them from memory. */
+    void flush() throws IOException;
+
+    /**
+     * Reads back the transaction with the given hash, or returns null if it isn't in the archive. The returned object
+     * is a fresh copy without confidence data or connections to other transactions.
+     */
+    @Nullable
+    Transaction get(Sha256Hash hash) throws IOException;
+
+    /**
+     * Returns whether the transaction with the given hash is in the archive. The wallet asks this for every transaction
+     * it sees, so it should be answered from memory.
+     */
+    boolean contains(Sha256Hash hash);
+
+    /** Returns the summaries of all transactions in the archive, in the order they were added. */
+    List<ArchivedTransaction> getSummaries() throws IOException;
+}
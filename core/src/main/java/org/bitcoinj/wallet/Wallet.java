@@ -158,6 +158,10 @@ public class Wallet extends BaseTaggableObject
     // All transactions together.
     protected final Map<Sha256Hash, Transaction> transactions;
 
+    // The transactions above by the outpoints their inputs spend, so double spends can be found without scanning the
+    // pools. More than one transaction per outpoint means a conflict. Kept in sync with the transactions map.
+    private final SetMultimap<TransactionOutPoint, Transaction> spendingTransactions = HashMultimap.create();
+
     // All the TransactionOutput objects that we could spend (ignoring whether we have the private key or not).
     // Used to speed up various calculations.
     protected final HashSet<TransactionOutput> myUnspents = Sets.newHashSet();
@@ -183,6 +187,26 @@ public class Wallet extends BaseTaggableObject
     // A list of scripts watched by this wallet.
     @GuardedBy("keyChainGroupLock") private Set<Script> watchedScripts;
 
+    // Incremented whenever transactions, respectively keys or watched scripts, change, so a RelevanceSnapshot can tell
+    // it is out of date without taking any lock. Keys added by the key chains themselves (lookahead) are detected by
+    // their count when the next snapshot is taken.
+    private final AtomicInteger relevanceVersion = new AtomicInteger();
+    private final AtomicInteger relevanceKeysVersion = new AtomicInteger();
+    @GuardedBy("lock") @Nullable private RelevanceSnapshot relevanceSnapshot;
+
+    // Deeply buried, fully spent transactions can be moved out of memory into an archive, which keeps their summaries.
+    // Each block only looks at the transactions that just got buried deeper than the event horizon, unless the whole
+    // spent pool has to be looked at, because the archive was just set or a re-org changed depths.
+    @GuardedBy("lock") @Nullable private TransactionArchive transactionArchive;
+    @GuardedBy("lock") private final List<Transaction> archiveCandidates = new ArrayList<>();
+    @GuardedBy("lock") private boolean archiveAllSpent;
+
+    /**
+     * Blocks with fewer transactions than this aren't pre-filtered by {@link #getBlockRelevanceFilter(List)}, as
+     * checking them one by one is cheap enough.
+     */
+    public static final int MIN_TRANSACTIONS_FOR_RELEVANCE_FILTER = 64;
+
     protected final Context context;
     protected final NetworkParameters params;
 
@@ -548,6 +572,7 @@ public class Wallet extends BaseTaggableObject
         keyChainGroupLock.lock();
         try {
             keyChainGroup.upgradeToDeterministic(vKeyRotationTimestamp, aesKey);
+            relevanceKeysVersion.incrementAndGet();
         } finally {
             keyChainGroupLock.unlock();
         }
@@ -606,6 +631,7 @@ public class Wallet extends BaseTaggableObject
     public boolean removeKey(ECKey key) {
         keyChainGroupLock.lock();
         try {
+            relevanceKeysVersion.incrementAndGet();
             return keyChainGroup.removeImportedKey(key);
         } finally {
             keyChainGroupLock.unlock();
@@ -698,6 +724,7 @@ public class Wallet extends BaseTaggableObject
         keyChainGroupLock.lock();
         try {
             result = keyChainGroup.importKeys(keys);
+            relevanceKeysVersion.incrementAndGet();
         } finally {
             keyChainGroupLock.unlock();
         }
@@ -728,6 +755,7 @@ public class Wallet extends BaseTaggableObject
         keyChainGroupLock.lock();
         try {
             checkNoDeterministicKeys(keys);
+            relevanceKeysVersion.incrementAndGet();
             return keyChainGroup.importKeysAndEncrypt(keys, aesKey);
         } finally {
             keyChainGroupLock.unlock();
@@ -749,6 +777,7 @@ public class Wallet extends BaseTaggableObject
         keyChainGroupLock.lock();
         try {
             keyChainGroup.addAndActivateHDChain(chain);
+            relevanceKeysVersion.incrementAndGet();
         } finally {
             keyChainGroupLock.unlock();
         }
@@ -759,6 +788,7 @@ public class Wallet extends BaseTaggableObject
         keyChainGroupLock.lock();
         try {
             keyChainGroup.setLookaheadSize(lookaheadSize);
+            relevanceKeysVersion.incrementAndGet();
         } finally {
             keyChainGroupLock.unlock();
         }
@@ -780,6 +810,7 @@ public class Wallet extends BaseTaggableObject
         try {
             maybeUpgradeToHD();
             keyChainGroup.setLookaheadThreshold(num);
+            relevanceKeysVersion.incrementAndGet();
         } finally {
             keyChainGroupLock.unlock();
         }
@@ -896,6 +927,7 @@ public class Wallet extends BaseTaggableObject
                 watchedScripts.add(script);
                 added++;
             }
+            relevanceKeysVersion.incrementAndGet();
         } finally {
             keyChainGroupLock.unlock();
         }
@@ -945,6 +977,7 @@ public class Wallet extends BaseTaggableObject
 
                 watchedScripts.remove(script);
             }
+            relevanceKeysVersion.incrementAndGet();
 
             queueOnScriptsChanged(scripts, false);
             saveNow();
@@ -1795,6 +1828,9 @@ public class Wallet extends BaseTaggableObject
     public boolean isTransactionRelevant(Transaction tx) throws ScriptException {
         lock.lock();
         try {
+            // Archived transactions have been dealt with already, don't let them come back as new ones.
+            if (isArchived(tx.getHash()))
+                return false;
             return tx.getValueSentFromMe(this).signum() > 0 ||
                    tx.getValueSentToMe(this).signum() > 0 ||
                    !findDoubleSpendsAgainst(tx, transactions).isEmpty();
@@ -1803,6 +1839,72 @@ public class Wallet extends BaseTaggableObject
         }
     }
 
+    /**
+     * <p>Returns a filter that tells which of the given transactions, all taken from one block, may be relevant to this
+     * wallet. The block chain uses it to skip {@link #receiveFromBlock(Transaction, StoredBlock, BlockChain.NewBlockType, int)}
+     * for transactions that certainly aren't.</p>
+     *
+     * <p>The transactions are classified in parallel on {@link Threading#THREAD_POOL} against a read only snapshot of
+     * the wallet's keys, watched scripts and outpoints, so the wallet lock is only held to take the snapshot, which is
+     * reused across blocks until the wallet changes. If the wallet changes after the filter was created, for example
+     * because a transaction earlier in the same block turned out to be relevant, the filter accepts all remaining
+     * transactions so that they get checked the regular way.</p>
+     */
+    public Predicate<Transaction> getBlockRelevanceFilter(final List<Transaction> blockTransactions) {
+        if (blockTransactions.size() < MIN_TRANSACTIONS_FOR_RELEVANCE_FILTER)
+            return Predicates.alwaysTrue();
+        final RelevanceSnapshot snapshot;
+        lock.lock();
+        try {
+            snapshot = getRelevanceSnapshot();
+        } finally {
+            lock.unlock();
+        }
+
+        final boolean[] possiblyRelevant = new boolean[blockTransactions.size()];
+        Threading.runInChunks(blockTransactions.size(), MIN_TRANSACTIONS_FOR_RELEVANCE_FILTER / 2,
+                new Threading.RangeTask() {
+                    @Override
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++)
+                            possiblyRelevant[i] = snapshot.isPossiblyRelevant(blockTransactions.get(i));
+                    }
+                });
+
+        final Set<Sha256Hash> candidates = new HashSet<>();
+        for (int i = 0; i < blockTransactions.size(); i++)
+            if (possiblyRelevant[i])
+                candidates.add(blockTransactions.get(i).getHash());
+        return new Predicate<Transaction>() {
+            @Override
+            public boolean apply(Transaction tx) {
+                return candidates.contains(tx.getHash()) || !isRelevanceSnapshotCurrent(snapshot);
+            }
+        };
+    }
+
+    // Returns a snapshot for relevance checks, re-using the previous one, or at least its copy of the keys, as far as
+    // the wallet hasn't changed since.
+    private RelevanceSnapshot getRelevanceSnapshot() {
+        checkState(lock.isHeldByCurrentThread());
+        RelevanceSnapshot.Keys keys = relevanceSnapshot != null ? relevanceSnapshot.keys : null;
+        keyChainGroupLock.lock();
+        try {
+            if (keys == null || keys.version != relevanceKeysVersion.get() || keys.numKeys != keyChainGroup.numKeys())
+                keys = new RelevanceSnapshot.Keys(relevanceKeysVersion.get(), keyChainGroup, watchedScripts);
+        } finally {
+            keyChainGroupLock.unlock();
+        }
+        if (relevanceSnapshot == null || relevanceSnapshot.keys != keys || relevanceSnapshot.version != relevanceVersion.get())
+            relevanceSnapshot = new RelevanceSnapshot(relevanceVersion.get(), keys, transactions.values());
+        return relevanceSnapshot;
+    }
+
+    // Doesn't take any lock, so it is cheap enough to be called for every transaction of a block.
+    private boolean isRelevanceSnapshotCurrent(RelevanceSnapshot snapshot) {
+        return snapshot.version == relevanceVersion.get() && snapshot.keys.version == relevanceKeysVersion.get();
+    }
+
     /**
      * Finds transactions in the specified candidates that double spend "tx". Not a general check, but it can work even if
      * the double spent inputs are not ours.
@@ -1811,29 +1913,36 @@ public class Wallet extends BaseTaggableObject
     private Set<Transaction> findDoubleSpendsAgainst(Transaction tx, Map<Sha256Hash, Transaction> candidates) {
         checkState(lock.isHeldByCurrentThread());
         if (tx.isCoinBase()) return Sets.newHashSet();
-        // Compile a set of outpoints that are spent by tx.
-        HashSet<TransactionOutPoint> outpoints = new HashSet<>();
-        for (TransactionInput input : tx.getInputs()) {
-            outpoints.add(input.getOutpoint());
-        }
-        // Now for each pending transaction, see if it shares any outpoints with this tx.
+        // Look up the wallet transactions that spend the same outpoints as tx, then keep those in the candidates.
+        // This relies on the fact that TransactionOutPoint equality is defined at the protocol not object level -
+        // outpoints from two different inputs that point to the same output compare the same.
         Set<Transaction> doubleSpendTxns = Sets.newHashSet();
-        for (Transaction p : candidates.values()) {
-            if (p.equals(tx))
-                continue;
-            for (TransactionInput input : p.getInputs()) {
-                // This relies on the fact that TransactionOutPoint equality is defined at the protocol not object
-                // level - outpoints from two different inputs that point to the same output compare the same.
-                TransactionOutPoint outpoint = input.getOutpoint();
-                if (outpoints.contains(outpoint)) {
+        for (TransactionInput input : tx.getInputs()) {
+            for (Transaction p : spendingTransactions.get(input.getOutpoint())) {
+                if (p.equals(tx))
+                    continue;
+                Transaction candidate = candidates.get(p.getHash());
+                if (candidate != null) {
                     // It does, it's a double spend against the candidates, which makes it relevant.
-                    doubleSpendTxns.add(p);
+                    doubleSpendTxns.add(candidate);
                 }
             }
         }
         return doubleSpendTxns;
     }
 
+    private void indexSpentOutPoints(Transaction tx) {
+        if (!tx.isCoinBase())
+            for (TransactionInput input : tx.getInputs())
+                spendingTransactions.put(input.getOutpoint(), tx);
+    }
+
+    private void unindexSpentOutPoints(Transaction tx) {
+        if (!tx.isCoinBase())
+            for (TransactionInput input : tx.getInputs())
+                spendingTransactions.remove(input.getOutpoint(), tx);
+    }
+
     /**
      * Adds to txSet all the txns in txPool spending outputs of txns in txSet,
      * and all txns spending the outputs of those txns, recursively.
@@ -2137,10 +2246,22 @@ public class Wallet extends BaseTaggableObject
                         confidenceChanged.put(tx, TransactionConfidence.Listener.ChangeReason.DEPTH);
                     }
                 }
+                if (transactionArchive != null && tx.getConfidence().getConfidenceType() == ConfidenceType.BUILDING
+                        && tx.getConfidence().getDepthInBlocks() == context.getEventHorizon() + 1)
+                    archiveCandidates.add(tx);
             }
 
             informConfidenceListenersIfNotReorganizing();
             maybeQueueOnWalletChanged();
+            if (transactionArchive != null && !insideReorg) {
+                try {
+                    archive(archiveAllSpent ? spent.values() : archiveCandidates);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                archiveCandidates.clear();
+                archiveAllSpent = false;
+            }
 
             if (hardSaveOnNextBlock) {
                 saveNow();
@@ -2883,7 +3004,11 @@ public class Wallet extends BaseTaggableObject
      */
     private void addWalletTransaction(Pool pool, Transaction tx) {
         checkState(lock.isHeldByCurrentThread());
-        transactions.put(tx.getHash(), tx);
+        Transaction previous = transactions.put(tx.getHash(), tx);
+        if (previous != null)
+            unindexSpentOutPoints(previous);
+        indexSpentOutPoints(tx);
+        relevanceVersion.incrementAndGet();
         switch (pool) {
         case UNSPENT:
             checkState(unspent.put(tx.getHash(), tx) == null);
@@ -2950,18 +3075,216 @@ public class Wallet extends BaseTaggableObject
     }
 
     /**
-     * Returns a transaction object given its hash, if it exists in this wallet, or null otherwise.
+     * Returns a transaction object given its hash, if it exists in this wallet, or null otherwise. Transactions that
+     * were moved to the {@link TransactionArchive} are read back from it, see {@link #getArchivedTransactions()}.
      */
     @Nullable
     public Transaction getTransaction(Sha256Hash hash) {
         lock.lock();
         try {
-            return transactions.get(hash);
+            Transaction tx = transactions.get(hash);
+            if (tx == null && isArchived(hash)) {
+                try {
+                    tx = transactionArchive.get(hash);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return tx;
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * <p>Sets the archive that deeply buried, fully spent transactions are moved to, to bound the memory used by the
+     * wallet history. The archive keeps the summaries of the transactions in it. Wallets don't remember their archive,
+     * so this has to be called again every time the wallet is loaded. Pass null to stop archiving.</p>
+     *
+     * <p>A transaction is archived once it is in the spent pool, it and the transactions spending its outputs are
+     * buried deeper than the event horizon of the {@link Context}, and the transactions of this wallet it spends are
+     * archived too. From then on it is only represented by an {@link ArchivedTransaction}: it is no longer part of
+     * {@link #getTransactions(boolean)}, the pools or the saved wallet, re-orgs deeper than the event horizon won't
+     * revive it, and the values of transactions that spend it no longer include its outputs.</p>
+     */
+    public void setTransactionArchive(@Nullable TransactionArchive archive) {
+        lock.lock();
+        try {
+            transactionArchive = archive;
+            archiveCandidates.clear();
+            archiveAllSpent = archive != null;
+            relevanceVersion.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the archive set with {@link #setTransactionArchive(TransactionArchive)}, or null if there is none. */
+    @Nullable
+    public TransactionArchive getTransactionArchive() {
+        lock.lock();
+        try {
+            return transactionArchive;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns the summaries of the transactions that were moved to the archive, oldest first. */
+    public List<ArchivedTransaction> getArchivedTransactions() {
+        lock.lock();
+        try {
+            List<ArchivedTransaction> archived = new ArrayList<>();
+            if (transactionArchive == null)
+                return archived;
+            for (ArchivedTransaction summary : transactionArchive.getSummaries()) {
+                // If the wallet wasn't saved after archiving, the transaction is still here and will be archived again.
+                if (!transactions.containsKey(summary.getHash()))
+                    archived.add(summary);
+            }
+            return archived;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
+    private boolean isArchived(Sha256Hash hash) {
+        return transactionArchive != null && !transactions.containsKey(hash) && transactionArchive.contains(hash);
+    }
+
+    /**
+     * Moves all transactions that are eligible as described in {@link #setTransactionArchive(TransactionArchive)} to
+     * the archive. This happens automatically for every new best block, which looks at the transactions that got
+     * buried deep enough with it, so normally there's no need to call it.
+     * @return the number of transactions archived.
+     */
+    public int archiveSpentTransactions() {
+        lock.lock();
+        try {
+            checkState(transactionArchive != null, "No transaction archive set");
+            return archive(spent.values());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Archives those of the given transactions, and of the transactions they spend, that are eligible.
+    @GuardedBy("lock")
+    private int archive(Collection<Transaction> candidates) throws IOException {
+        if (candidates.isEmpty())
+            return 0;
+        int minDepth = context.getEventHorizon();
+        Deque<Transaction> work = new ArrayDeque<>();
+        for (Transaction tx : candidates) {
+            work.add(tx);
+            // Once the spending transaction is buried deep enough, the one it spends may be archivable.
+            for (TransactionInput input : tx.getInputs()) {
+                Transaction funding = transactions.get(input.getOutpoint().getHash());
+                if (funding != null)
+                    work.add(funding);
+            }
+        }
+        // A transaction can only go together with or after the ones it spends, as those point back to it. Those
+        // spending a transaction that turns out to be archivable are looked at again.
+        Set<Transaction> archivable = new HashSet<>();
+        while (!work.isEmpty()) {
+            Transaction tx = work.poll();
+            if (archivable.contains(tx) || spent.get(tx.getHash()) != tx || !isBuriedDeeperThan(tx, minDepth)
+                    || !areSpendersBuriedDeeperThan(tx, minDepth) || !areFundingTransactionsArchivable(tx, archivable))
+                continue;
+            archivable.add(tx);
+            for (TransactionOutput output : tx.getOutputs()) {
+                TransactionInput spentBy = output.getSpentBy();
+                if (spentBy != null)
+                    work.add(spentBy.getParentTransaction());
+            }
+        }
+        if (archivable.isEmpty())
+            return 0;
+        List<Transaction> txns = new ArrayList<>(archivable);
+        Collections.sort(txns, Transaction.SORT_TX_BY_HEIGHT);
+        Collections.reverse(txns);
+        // Compute all values first, while the transactions they spend are still in the pools.
+        List<ArchivedTransaction> summaries = new ArrayList<>(txns.size());
+        for (Transaction tx : txns) {
+            Coin value = tx.getValue(this).subtract(getValueSentFromArchive(tx));
+            summaries.add(new ArchivedTransaction(tx.getHash(), tx.getConfidence().getAppearedAtChainHeight(),
+                    value, tx.getUpdateTime()));
+        }
+        for (int i = 0; i < txns.size(); i++)
+            transactionArchive.add(summaries.get(i), txns.get(i));
+        transactionArchive.flush();
+        for (Transaction tx : txns)
+            removeArchivedTransaction(tx);
+        relevanceVersion.incrementAndGet();
+        log.info("Archived {} spent transactions", txns.size());
+        saveLater();
+        return txns.size();
+    }
+
+    private static boolean isBuriedDeeperThan(Transaction tx, int depth) {
+        TransactionConfidence confidence = tx.getConfidence();
+        return confidence.getConfidenceType() == ConfidenceType.BUILDING && confidence.getDepthInBlocks() > depth;
+    }
+
+    private static boolean areSpendersBuriedDeeperThan(Transaction tx, int depth) {
+        for (TransactionOutput output : tx.getOutputs()) {
+            TransactionInput spentBy = output.getSpentBy();
+            if (spentBy != null && !isBuriedDeeperThan(spentBy.getParentTransaction(), depth))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean areFundingTransactionsArchivable(Transaction tx, Set<Transaction> archivable) {
+        for (TransactionInput input : tx.getInputs()) {
+            Transaction funding = transactions.get(input.getOutpoint().getHash());
+            if (funding != null && !archivable.contains(funding))
+                return false;
+        }
+        return true;
+    }
+
+    // Transaction.getValueSentFromMe() only sees the pools, so add what the given transaction spends from the archive.
+    private Coin getValueSentFromArchive(Transaction tx) throws IOException {
+        Coin value = Coin.ZERO;
+        if (tx.isCoinBase())
+            return value;
+        for (TransactionInput input : tx.getInputs()) {
+            Sha256Hash hash = input.getOutpoint().getHash();
+            if (!isArchived(hash))
+                continue;
+            Transaction funding = transactionArchive.get(hash);
+            if (funding == null)
+                continue;
+            TransactionOutput output = funding.getOutput(input.getOutpoint().getIndex());
+            if (output.isMineOrWatched(this))
+                value = value.add(output.getValue());
+        }
+        return value;
+    }
+
+    private void removeArchivedTransaction(Transaction tx) {
+        // Cut the links from the transactions that stay in memory, so this one can be garbage collected.
+        for (TransactionOutput output : tx.getOutputs()) {
+            TransactionInput spentBy = output.getSpentBy();
+            if (spentBy != null)
+                spentBy.disconnect();
+        }
+        for (TransactionInput input : tx.getInputs())
+            input.disconnect();
+        spent.remove(tx.getHash());
+        transactions.remove(tx.getHash());
+        unindexSpentOutPoints(tx);
+        ignoreNextNewBlock.remove(tx.getHash());
+        tx.getConfidence().removeEventListener(txConfidenceListener);
+    }
+
     /** {@inheritDoc} */
     @Override
     public Map<Sha256Hash, Transaction> getTransactionPool(Pool pool) {
@@ -3028,7 +3351,9 @@ public class Wallet extends BaseTaggableObject
         pending.clear();
         dead.clear();
         transactions.clear();
+        spendingTransactions.clear();
         myUnspents.clear();
+        relevanceVersion.incrementAndGet();
     }
 
     /**
@@ -3087,6 +3412,8 @@ public class Wallet extends BaseTaggableObject
 
                         i.remove();
                         transactions.remove(tx.getHash());
+                        unindexSpentOutPoints(tx);
+                        relevanceVersion.incrementAndGet();
                         dirty = true;
                         log.info("Removed transaction {} from pending pool during cleanup.", tx.getHashAsString());
                     } else {
@@ -4555,6 +4882,8 @@ public class Wallet extends BaseTaggableObject
             // Inform event listeners that a re-org took place.
             queueOnReorganize();
             insideReorg = false;
+            // Depths changed without passing the event horizon one block at a time.
+            archiveAllSpent = transactionArchive != null;
             onWalletChangedSuppressions--;
             maybeQueueOnWalletChanged();
             checkBalanceFuturesLocked(balance);
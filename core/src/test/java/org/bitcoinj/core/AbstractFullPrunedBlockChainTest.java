@@ -21,8 +21,11 @@ import com.google.common.collect.Lists;
 import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.params.UnitTestParams;
 import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
 import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.store.FullPrunedBlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.bitcoinj.store.UTXOSnapshot;
 import org.bitcoinj.utils.BlockFileLoader;
 import org.bitcoinj.utils.BriefLogFormatter;
 import org.bitcoinj.wallet.SendRequest;
@@ -71,6 +74,11 @@ public abstract class AbstractFullPrunedBlockChainTest {
 
     public abstract void resetStore(FullPrunedBlockStore store) throws BlockStoreException;
 
+    /** Whether snapshots keep seeing the state they were opened at, and can be opened during a batch write. */
+    protected boolean hasIsolatedSnapshots() {
+        return true;
+    }
+
     @Test
     public void testGeneratedChain() throws Exception {
         // Tests various test cases from FullBlockTestGenerator
@@ -159,6 +167,88 @@ public abstract class AbstractFullPrunedBlockChainTest {
         } catch (Exception e) {}
     }
 
+    @Test
+    public void assumeValid() throws Exception {
+        store = createStore(PARAMS, 10);
+        chain = new FullPrunedBlockChain(PARAMS, store);
+        // The header chain that tells which blocks are ancestors of the assumed valid block.
+        MemoryBlockStore headers = new MemoryBlockStore(PARAMS);
+
+        ECKey outKey = new ECKey();
+        int height = 1;
+
+        // Build some blocks on genesis block to create three spendable outputs
+        TransactionOutput[] spendableOutputs = new TransactionOutput[3];
+        Block rollingBlock = PARAMS.getGenesisBlock();
+        for (int i = 0; i < spendableOutputs.length; i++) {
+            rollingBlock = rollingBlock.createNextBlockWithCoinbase(Block.BLOCK_VERSION_GENESIS, outKey.getPubKey(), height++);
+            chain.add(rollingBlock);
+            headers.put(chain.getChainHead());
+            spendableOutputs[i] = rollingBlock.getTransactions().get(0).getOutput(0);
+        }
+        for (int i = spendableOutputs.length; i < PARAMS.getSpendableCoinbaseDepth(); i++) {
+            rollingBlock = rollingBlock.createNextBlockWithCoinbase(Block.BLOCK_VERSION_GENESIS, outKey.getPubKey(), height++);
+            chain.add(rollingBlock);
+            headers.put(chain.getChainHead());
+        }
+
+        Block invalidBelow = createBlockWithInvalidScript(rollingBlock, spendableOutputs[0]);
+        Block assumed = invalidBelow.createNextBlockWithCoinbase(Block.BLOCK_VERSION_GENESIS, outKey.getPubKey(), height + 1);
+        StoredBlock storedInvalidBelow = chain.getChainHead().build(invalidBelow.cloneAsHeader());
+        StoredBlock storedAssumed = storedInvalidBelow.build(assumed.cloneAsHeader());
+
+        // Scripts are executed as long as the header of the assumed valid block isn't known.
+        chain.setAssumeValid(assumed.getHash(), headers);
+        assertEquals(assumed.getHash(), chain.getAssumeValid());
+        try {
+            chain.add(invalidBelow);
+            fail();
+        } catch (VerificationException e) {
+            // Expected.
+        }
+        headers.put(storedInvalidBelow);
+        headers.put(storedAssumed);
+        headers.setChainHead(storedAssumed);
+
+        // A block with an invalid script below the assumed valid block, but not one of its ancestors, is rejected.
+        Block invalidFork = createBlockWithInvalidScript(rollingBlock, spendableOutputs[1]);
+        try {
+            chain.add(invalidFork);
+            fail();
+        } catch (VerificationException e) {
+            // Expected.
+        }
+
+        // An ancestor with an invalid script is accepted.
+        assertTrue(chain.add(invalidBelow));
+        assertTrue(chain.add(assumed));
+
+        // After the assumed valid block scripts are executed again.
+        Block invalidAbove = createBlockWithInvalidScript(assumed, spendableOutputs[2]);
+        try {
+            chain.add(invalidAbove);
+            fail();
+        } catch (VerificationException e) {
+            // Expected.
+        }
+        assertEquals(assumed.getHash(), chain.getChainHead().getHeader().getHash());
+        try {
+            store.close();
+        } catch (Exception e) {}
+    }
+
+    private Block createBlockWithInvalidScript(Block prev, TransactionOutput spendableOutput) {
+        Block block = prev.createNextBlock(null);
+        Transaction t = new Transaction(PARAMS);
+        t.addOutput(new TransactionOutput(PARAMS, t, FIFTY_COINS, new byte[] {}));
+        TransactionInput input = t.addInput(spendableOutput);
+        // Invalid script.
+        input.clearScriptBytes();
+        block.addTransaction(t);
+        block.solve();
+        return block;
+    }
+
     @Test
     public void testFinalizedBlocks() throws Exception {
         final int UNDOABLE_BLOCKS_STORED = 10;
@@ -349,6 +439,182 @@ public abstract class AbstractFullPrunedBlockChainTest {
         } catch (Exception e) {}
     }
 
+    @Test
+    public void testSnapshot() throws Exception {
+        final int UNDOABLE_BLOCKS_STORED = 10;
+        store = createStore(PARAMS, UNDOABLE_BLOCKS_STORED);
+        chain = new FullPrunedBlockChain(PARAMS, store);
+
+        ECKey outKey = new ECKey();
+        int height = 1;
+
+        // Build some blocks on genesis block to create a spendable output.
+        Block rollingBlock = PARAMS.getGenesisBlock().createNextBlockWithCoinbase(Block.BLOCK_VERSION_GENESIS, outKey.getPubKey(), height++);
+        chain.add(rollingBlock);
+        Transaction transaction = rollingBlock.getTransactions().get(0);
+        TransactionOutPoint spendableOutput = new TransactionOutPoint(PARAMS, 0, transaction.getHash());
+        byte[] spendableOutputScriptPubKey = transaction.getOutputs().get(0).getScriptBytes();
+        for (int i = 1; i < PARAMS.getSpendableCoinbaseDepth(); i++) {
+            rollingBlock = rollingBlock.createNextBlockWithCoinbase(Block.BLOCK_VERSION_GENESIS, outKey.getPubKey(), height++);
+            chain.add(rollingBlock);
+        }
+
+        // Pay 1 BTC to the first key.
+        ECKey toKey = new ECKey();
+        Address address = new Address(PARAMS, toKey.getPubKeyHash());
+        Coin amount = Coin.COIN;
+        Transaction t = new Transaction(PARAMS);
+        t.addOutput(new TransactionOutput(PARAMS, t, amount, toKey));
+        t.addSignedInput(spendableOutput, new Script(spendableOutputScriptPubKey), outKey);
+        rollingBlock = rollingBlock.createNextBlock(null);
+        rollingBlock.addTransaction(t);
+        rollingBlock.solve();
+        chain.add(rollingBlock);
+        int snapshotHeight = chain.getBestChainHeight();
+
+        UTXOSnapshot snapshot = store.openSnapshot();
+        assertEquals(snapshotHeight, snapshot.getChainHeadHeight());
+        assertEquals(rollingBlock.getHash(), snapshot.getChainHead().getHeader().getHash());
+        assertEquals(amount, snapshot.getBalance(Lists.newArrayList(address)));
+
+        // Move it on to the second key in the next block, the snapshot stays where it was.
+        ECKey toKey2 = new ECKey();
+        Address address2 = new Address(PARAMS, toKey2.getPubKeyHash());
+        Transaction t2 = new Transaction(PARAMS);
+        t2.addOutput(new TransactionOutput(PARAMS, t2, amount, toKey2));
+        t2.addSignedInput(new TransactionOutPoint(PARAMS, 0, t.getHash()), t.getOutput(0).getScriptPubKey(), toKey);
+        rollingBlock = rollingBlock.createNextBlock(null);
+        rollingBlock.addTransaction(t2);
+        rollingBlock.solve();
+        chain.add(rollingBlock);
+
+        assertEquals(snapshotHeight + 1, store.getChainHeadHeight());
+        assertEquals(0, store.getOpenTransactionOutputs(Lists.newArrayList(address)).size());
+        assertEquals(1, store.getOpenTransactionOutputs(Lists.newArrayList(address2)).size());
+        if (hasIsolatedSnapshots()) {
+            assertEquals(snapshotHeight, snapshot.getChainHeadHeight());
+            List<UTXO> outputs = snapshot.getOpenTransactionOutputs(Lists.newArrayList(address, address2));
+            assertEquals(1, outputs.size());
+            assertEquals(address.toString(), outputs.get(0).getAddress());
+            assertNotNull(snapshot.getTransactionOutput(t.getHash(), 0));
+            assertNull(snapshot.getTransactionOutput(t2.getHash(), 0));
+        } else {
+            try {
+                snapshot.getOpenTransactionOutputs(Lists.newArrayList(address));
+                fail();
+            } catch (UTXOProviderException e) {
+                // Expected.
+            }
+        }
+        snapshot.close();
+
+        // Snapshots and the store don't see a block before it is committed.
+        ECKey toKey3 = new ECKey();
+        Address address3 = new Address(PARAMS, toKey3.getPubKeyHash());
+        Block next = rollingBlock.createNextBlock(null);
+        StoredBlock storedNext = store.getVerifiedChainHead().build(next);
+        store.beginDatabaseBatchWrite();
+        store.put(storedNext);
+        store.addUnspentTransactionOutput(new UTXO(next.getTransactions().get(0).getHash(), 0, amount,
+                storedNext.getHeight(), true, ScriptBuilder.createOutputScript(address3), address3.toString()));
+        store.setVerifiedChainHead(storedNext);
+        assertEquals(snapshotHeight + 1, store.getChainHeadHeight());
+        if (hasIsolatedSnapshots()) {
+            snapshot = store.openSnapshot();
+            assertEquals(snapshotHeight + 1, snapshot.getChainHeadHeight());
+            assertEquals(Coin.ZERO, snapshot.getBalance(Lists.newArrayList(address3)));
+            snapshot.close();
+        }
+        store.commitDatabaseBatchWrite();
+
+        assertEquals(snapshotHeight + 2, store.getChainHeadHeight());
+        snapshot = store.openSnapshot();
+        assertEquals(storedNext, snapshot.getChainHead());
+        assertEquals(amount.multiply(2), snapshot.getBalance(Lists.newArrayList(address2, address3)));
+        snapshot.close();
+        try {
+            store.close();
+        } catch (Exception e) {}
+    }
+
+    @Test
+    public void addressesSurviveReorg() throws Exception {
+        final int UNDOABLE_BLOCKS_STORED = 10;
+        store = createStore(PARAMS, UNDOABLE_BLOCKS_STORED);
+        chain = new FullPrunedBlockChain(PARAMS, store);
+
+        ECKey outKey = new ECKey();
+        int height = 1;
+
+        // Build some blocks on genesis block to create a spendable output.
+        Block rollingBlock = PARAMS.getGenesisBlock().createNextBlockWithCoinbase(Block.BLOCK_VERSION_GENESIS, outKey.getPubKey(), height++);
+        chain.add(rollingBlock);
+        Transaction transaction = rollingBlock.getTransactions().get(0);
+        TransactionOutPoint spendableOutput = new TransactionOutPoint(PARAMS, 0, transaction.getHash());
+        byte[] spendableOutputScriptPubKey = transaction.getOutputs().get(0).getScriptBytes();
+        for (int i = 1; i < PARAMS.getSpendableCoinbaseDepth(); i++) {
+            rollingBlock = rollingBlock.createNextBlockWithCoinbase(Block.BLOCK_VERSION_GENESIS, outKey.getPubKey(), height++);
+            chain.add(rollingBlock);
+        }
+
+        // Pay 1 BTC to the first key.
+        ECKey toKey = new ECKey();
+        Address address = new Address(PARAMS, toKey.getPubKeyHash());
+        Coin amount = Coin.COIN;
+        Transaction t = new Transaction(PARAMS);
+        t.addOutput(new TransactionOutput(PARAMS, t, amount, toKey));
+        t.addSignedInput(spendableOutput, new Script(spendableOutputScriptPubKey), outKey);
+        Block forkPoint = rollingBlock.createNextBlock(null);
+        forkPoint.addTransaction(t);
+        forkPoint.solve();
+        chain.add(forkPoint);
+
+        // Move it on to the second key in the next block.
+        ECKey toKey2 = new ECKey();
+        Address address2 = new Address(PARAMS, toKey2.getPubKeyHash());
+        Transaction t2 = new Transaction(PARAMS);
+        t2.addOutput(new TransactionOutput(PARAMS, t2, amount, toKey2));
+        t2.addSignedInput(new TransactionOutPoint(PARAMS, 0, t.getHash()), t.getOutput(0).getScriptPubKey(), toKey);
+        Block spend = forkPoint.createNextBlock(null);
+        spend.addTransaction(t2);
+        spend.solve();
+        chain.add(spend);
+        assertEquals(0, store.getOpenTransactionOutputs(Lists.newArrayList(address)).size());
+        assertEquals(1, store.getOpenTransactionOutputs(Lists.newArrayList(address2)).size());
+
+        // Reorg onto a longer fork without the spend. The output to the first key is put back from undo data.
+        Block fork1 = forkPoint.createNextBlock(null);
+        chain.add(fork1);
+        Block fork2 = fork1.createNextBlock(null);
+        chain.add(fork2);
+        assertEquals(fork2.getHash(), store.getVerifiedChainHead().getHeader().getHash());
+        List<UTXO> outputs = store.getOpenTransactionOutputs(Lists.newArrayList(address));
+        assertEquals(1, outputs.size());
+        assertEquals(address.toString(), outputs.get(0).getAddress());
+        assertEquals(address.toString(), store.getTransactionOutput(t.getHash(), 0).getAddress());
+        assertEquals(0, store.getOpenTransactionOutputs(Lists.newArrayList(address2)).size());
+        UTXOSnapshot snapshot = store.openSnapshot();
+        assertEquals(amount, snapshot.getBalance(Lists.newArrayList(address)));
+        snapshot.close();
+
+        // And back onto the spend, which is reconnected from undo data too.
+        Block spend1 = spend.createNextBlock(null);
+        chain.add(spend1);
+        Block spend2 = spend1.createNextBlock(null);
+        chain.add(spend2);
+        assertEquals(spend2.getHash(), store.getVerifiedChainHead().getHeader().getHash());
+        assertEquals(0, store.getOpenTransactionOutputs(Lists.newArrayList(address)).size());
+        outputs = store.getOpenTransactionOutputs(Lists.newArrayList(address2));
+        assertEquals(1, outputs.size());
+        assertEquals(address2.toString(), outputs.get(0).getAddress());
+        snapshot = store.openSnapshot();
+        assertEquals(amount, snapshot.getBalance(Lists.newArrayList(address2)));
+        snapshot.close();
+        try {
+            store.close();
+        } catch (Exception e) {}
+    }
+
     /**
      * Test that if the block height is missing from coinbase of a version 2
      * block, it's rejected.
@@ -20,7 +20,10 @@ import junit.framework.TestCase;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 public class Base58Test extends TestCase {
     @Test
@@ -88,4 +91,52 @@ public class Base58Test extends TestCase {
         byte[] input = Base58.decode("129");
         assertEquals(new BigInteger(1, input), Base58.decodeToBigInteger("129"));
     }
+
+    @Test
+    public void testRoundTripAgainstBigInteger() throws Exception {
+        Random random = new Random(1);
+        for (int length = 0; length < 100; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            if (length > 2)
+                bytes[0] = bytes[1] = 0;
+            String encoded = Base58.encode(bytes);
+            assertEquals(referenceEncode(bytes), encoded);
+            assertTrue(Arrays.equals(bytes, Base58.decode(encoded)));
+        }
+    }
+
+    @Test
+    public void testEncodeChecked() throws Exception {
+        List<byte[]> payloads = new ArrayList<>();
+        Random random = new Random(2);
+        for (int i = 0; i < 5000; i++) {
+            byte[] payload = new byte[20];
+            random.nextBytes(payload);
+            payloads.add(payload);
+        }
+        List<String> encoded = Base58.encodeChecked(111, payloads);
+        assertEquals(payloads.size(), encoded.size());
+        for (int i = 0; i < payloads.size(); i += 97) {
+            assertEquals(Base58.encodeChecked(111, payloads.get(i)), encoded.get(i));
+            byte[] decoded = Base58.decodeChecked(encoded.get(i));
+            assertEquals(111, decoded[0]);
+            assertTrue(Arrays.equals(payloads.get(i), Arrays.copyOfRange(decoded, 1, decoded.length)));
+        }
+    }
+
+    // The straightforward encoding, a conversion of the whole number to base 58.
+    private static String referenceEncode(byte[] bytes) {
+        StringBuilder encoded = new StringBuilder();
+        BigInteger value = new BigInteger(1, bytes);
+        BigInteger base = BigInteger.valueOf(58);
+        while (value.signum() > 0) {
+            BigInteger[] divmod = value.divideAndRemainder(base);
+            encoded.append(Base58.ALPHABET[divmod[1].intValue()]);
+            value = divmod[0];
+        }
+        for (int i = 0; i < bytes.length && bytes[i] == 0; i++)
+            encoded.append(Base58.ALPHABET[0]);
+        return encoded.reverse().toString();
+    }
 }
@@ -149,6 +149,78 @@ public class BlockChainTest {
         assertEquals(chain.getChainHead().getHeader(), b3.cloneAsHeader());
     }
 
+    @Test
+    public void unconnectedChainsAndForks() throws Exception {
+        Block b1 = PARAMS.getGenesisBlock().createNextBlock(coinbaseTo);
+        Block b2 = b1.createNextBlock(coinbaseTo);
+        Block b3 = b2.createNextBlock(coinbaseTo);
+        Block b4 = b3.createNextBlock(coinbaseTo);
+        Block fork3 = b2.createNextBlock(coinbaseTo);
+        assertFalse(chain.add(b4));
+        assertFalse(chain.add(b3));
+        assertFalse(chain.add(fork3));
+        assertFalse(chain.add(b2));
+        assertEquals(4, chain.getOrphanBlockCount());
+        assertTrue(chain.getOrphanBlockBytes() > 0);
+        assertEquals(b2, chain.getOrphanRoot(b4.getHash()));
+        // Connecting the first block connects all of them.
+        assertTrue(chain.add(b1));
+        assertEquals(chain.getChainHead().getHeader(), b4.cloneAsHeader());
+        assertEquals(0, chain.getOrphanBlockCount());
+        assertEquals(0, chain.getOrphanBlockBytes());
+        assertEquals(4, chain.getOrphanBlocksConnected());
+        assertNotNull(blockStore.get(fork3.getHash()));
+    }
+
+    @Test
+    public void invalidOrphanDoesNotLoseSiblings() throws Exception {
+        Block b1 = PARAMS.getGenesisBlock().createNextBlock(coinbaseTo);
+        Block bad = b1.createNextBlock(coinbaseTo);
+        bad.setDifficultyTarget(b1.getDifficultyTarget() - 1);
+        bad.solve();
+        Block b2 = b1.createNextBlock(coinbaseTo);
+        Block b3 = b2.createNextBlock(coinbaseTo);
+        assertFalse(chain.add(bad));
+        assertFalse(chain.add(b2));
+        assertFalse(chain.add(b3));
+        // The invalid orphan is dropped, but its sibling and the block on top of it still connect.
+        try {
+            chain.add(b1);
+            fail();
+        } catch (VerificationException e) {
+            // Expected.
+        }
+        assertEquals(chain.getChainHead().getHeader(), b3.cloneAsHeader());
+        assertEquals(0, chain.getOrphanBlockCount());
+        assertEquals(2, chain.getOrphanBlocksConnected());
+    }
+
+    @Test
+    public void unconnectedBlocksEvicted() throws Exception {
+        Block b1 = PARAMS.getGenesisBlock().createNextBlock(coinbaseTo);
+        Block b2 = b1.createNextBlock(coinbaseTo);
+        Block b3 = b2.createNextBlock(coinbaseTo);
+        Block b4 = b3.createNextBlock(coinbaseTo);
+        Block b5 = b4.createNextBlock(coinbaseTo);
+        assertFalse(chain.add(b3));
+        assertFalse(chain.add(b4));
+        chain.setMaxOrphanBytes(chain.getOrphanBlockBytes());
+        // Only room for two orphans, so the oldest one goes.
+        assertFalse(chain.add(b5));
+        assertEquals(2, chain.getOrphanBlockCount());
+        assertEquals(1, chain.getOrphanBlocksEvicted());
+        assertFalse(chain.isOrphan(b3.getHash()));
+        assertTrue(chain.isOrphan(b5.getHash()));
+
+        assertTrue(chain.add(b1));
+        assertTrue(chain.add(b2));
+        assertEquals(chain.getChainHead().getHeader(), b2.cloneAsHeader());
+        // Once the evicted block arrives again the rest connects.
+        assertTrue(chain.add(b3));
+        assertEquals(chain.getChainHead().getHeader(), b5.cloneAsHeader());
+        assertEquals(0, chain.getOrphanBlockCount());
+    }
+
     @Test
     public void difficultyTransitions() throws Exception {
         // Add a bunch of blocks in a loop until we reach a difficulty transition point. The unit test params have an
@@ -31,7 +31,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -108,6 +110,37 @@ public class BlockTest {
         assertEquals(block.getNonce(), 2);
     }
 
+    @Test
+    public void verifyHeaders() throws Exception {
+        // Enough headers to be verified in parallel, with one that has a bad nonce.
+        NetworkParameters params = MainNetParams.get();
+        Block genesis = params.getGenesisBlock();
+        List<Block> headers = new ArrayList<>();
+        for (int i = 0; i < Block.MIN_HEADERS_PER_TASK * 4; i++)
+            headers.add(genesis.cloneAsHeader());
+        Block bad = headers.get(Block.MIN_HEADERS_PER_TASK * 3);
+        bad.setNonce(bad.getNonce() + 1);
+        assertEquals(headers.size() - 1, Block.verifyHeaders(headers));
+        try {
+            bad.verifyHeader();
+            fail();
+        } catch (VerificationException e) {
+            // Expected.
+        }
+
+        // A verified header is checked again once it changes.
+        Block good = headers.get(0);
+        good.verifyHeader();
+        good.setNonce(good.getNonce() + 1);
+        try {
+            good.verifyHeader();
+            fail();
+        } catch (VerificationException e) {
+            // Expected.
+        }
+        assertEquals(0, Block.verifyHeaders(Collections.singletonList(good)));
+    }
+
     @Test
     public void testBadTransactions() throws Exception {
         Block block = PARAMS.getDefaultSerializer().makeBlock(blockBytes);
@@ -44,6 +44,7 @@ import java.io.InputStream;
 import java.math.BigInteger;
 import java.security.SignatureException;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
@@ -116,6 +117,33 @@ public class ECKeyTest {
         assertTrue(key.verify(Sha256Hash.ZERO_HASH.getBytes(), sig));
     }
 
+    @Test
+    public void verifyBatch() throws Exception {
+        // Large enough to be split into several chunks.
+        int count = ECKey.MIN_SIGNATURES_PER_VERIFICATION_TASK * 3 + 1;
+        ECKey key = new ECKey();
+        byte[][] hashes = new byte[count][];
+        ECDSASignature[] signatures = new ECDSASignature[count];
+        byte[][] pubKeys = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            Sha256Hash hash = Sha256Hash.of(new byte[] { (byte) i });
+            hashes[i] = hash.getBytes();
+            signatures[i] = key.sign(hash);
+            pubKeys[i] = key.getPubKey();
+        }
+        hashes[3] = Sha256Hash.ZERO_HASH.getBytes();
+        signatures[7] = signatures[8];
+        pubKeys[11] = new ECKey().getPubKey();
+        pubKeys[12] = new byte[0];
+        pubKeys[13] = Arrays.copyOf(key.getPubKey(), 20); // truncated
+        pubKeys[count - 1] = new byte[] { 0x05, 0x01 }; // not a point at all
+        BitSet valid = ECKey.verifyBatch(hashes, signatures, pubKeys);
+        assertEquals(count - 6, valid.cardinality());
+        for (int i : new int[] { 3, 7, 11, 12, 13, count - 1 })
+            assertFalse(valid.get(i));
+        assertEquals(0, ECKey.verifyBatch(new byte[0][], new ECDSASignature[0], new byte[0][]).cardinality());
+    }
+
     @Test
     public void testASN1Roundtrip() throws Exception {
         byte[] privkeyASN1 = HEX.decode(
@@ -19,9 +19,16 @@ package org.bitcoinj.core;
 import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.store.FullPrunedBlockStore;
 import org.bitcoinj.store.H2FullPrunedBlockStore;
+import org.bitcoinj.store.UTXOSnapshot;
 import org.junit.After;
+import org.junit.Test;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.bitcoinj.core.Coin.FIFTY_COINS;
+import static org.junit.Assert.*;
 
 /**
  * An H2 implementation of the FullPrunedBlockStoreTest
@@ -52,4 +59,71 @@ public class H2FullPrunedBlockChainTest extends AbstractFullPrunedBlockChainTest
     public void resetStore(FullPrunedBlockStore store) throws BlockStoreException {
         ((H2FullPrunedBlockStore)store).resetStore();
     }
+
+    @Override
+    protected boolean hasIsolatedSnapshots() {
+        return false;
+    }
+
+    @Test
+    public void storeQueriesRetryWhenChainHeadMoves() throws Exception {
+        deleteFiles();
+        // Moves the verified chain head once a query has opened its snapshot.
+        final AtomicReference<StoredBlock> moveTo = new AtomicReference<>();
+        store = new H2FullPrunedBlockStore(PARAMS, "test", "sa", "sa", 10) {
+            @Override
+            protected String getBalanceSelectSQL() {
+                moveChainHead();
+                return super.getBalanceSelectSQL();
+            }
+
+            @Override
+            protected String getTransactionOutputSelectSQL() {
+                moveChainHead();
+                return super.getTransactionOutputSelectSQL();
+            }
+
+            private void moveChainHead() {
+                StoredBlock block = moveTo.getAndSet(null);
+                if (block != null) {
+                    try {
+                        setVerifiedChainHead(block);
+                    } catch (BlockStoreException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        };
+        chain = new FullPrunedBlockChain(PARAMS, store);
+
+        ECKey outKey = new ECKey();
+        Address address = outKey.toAddress(PARAMS);
+        Block b1 = PARAMS.getGenesisBlock().createNextBlockWithCoinbase(Block.BLOCK_VERSION_GENESIS, outKey.getPubKey(), 1);
+        chain.add(b1);
+        Block b2 = b1.createNextBlock(null);
+        chain.add(b2);
+        StoredBlock stored1 = store.get(b1.getHash());
+        StoredBlock stored2 = store.get(b2.getHash());
+
+        // The store level queries run again in a new snapshot.
+        moveTo.set(stored1);
+        assertEquals(FIFTY_COINS.value, ((H2FullPrunedBlockStore) store).calculateBalanceForAddress(address).longValue());
+        assertNull(moveTo.get());
+        assertEquals(stored1, store.getVerifiedChainHead());
+        moveTo.set(stored2);
+        assertEquals(1, store.getOpenTransactionOutputs(Collections.singletonList(address)).size());
+        assertNull(moveTo.get());
+
+        // An explicitly opened snapshot fails instead.
+        UTXOSnapshot snapshot = store.openSnapshot();
+        moveTo.set(stored1);
+        try {
+            snapshot.getBalance(Collections.singletonList(address));
+            fail();
+        } catch (UTXOProviderException e) {
+            // Expected.
+        }
+        snapshot.close();
+        store.close();
+    }
 }
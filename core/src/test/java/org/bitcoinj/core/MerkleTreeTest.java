@@ -0,0 +1,137 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.params.UnitTestParams;
+import com.google.common.primitives.Ints;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MerkleTreeTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+    }
+
+    @Test
+    public void matchesNaiveRoot() {
+        for (int count : new int[] { 1, 2, 3, 5, 8, 1025, 5000 }) {
+            List<Sha256Hash> leaves = leaves(count);
+            MerkleTree tree = MerkleTree.build(leaves);
+            assertEquals(count, tree.getLeafCount());
+            assertEquals(naiveRoot(leaves), tree.getRoot());
+            assertEquals(leaves.get(count - 1), tree.getHash(0, count - 1));
+            assertEquals(1, tree.getWidth(tree.getHeight()));
+        }
+    }
+
+    @Test
+    public void partialMerkleTreeFromTree() throws Exception {
+        List<Sha256Hash> leaves = leaves(11);
+        byte[] includeBits = new byte[2];
+        Utils.setBitLE(includeBits, 2);
+        Utils.setBitLE(includeBits, 10);
+        PartialMerkleTree pmt = PartialMerkleTree.buildFromTree(PARAMS, includeBits, MerkleTree.build(leaves));
+        List<Sha256Hash> matched = new ArrayList<>();
+        assertEquals(naiveRoot(leaves), pmt.getTxnHashAndMerkleRoot(matched));
+        assertEquals(2, matched.size());
+        assertEquals(leaves.get(2), matched.get(0));
+        assertEquals(leaves.get(10), matched.get(1));
+    }
+
+    @After
+    public void tearDown() {
+        MerkleTree.setCacheMaxNodes(0);
+    }
+
+    @Test
+    public void blockTreeIsCached() {
+        MerkleTree.setCacheMaxNodes(1000);
+        Block block = PARAMS.getGenesisBlock().createNextBlock(new ECKey().toAddress(PARAMS));
+        Block parsed = PARAMS.getDefaultSerializer().makeBlock(block.bitcoinSerialize());
+        assertSame(block.getMerkleTree(), parsed.getMerkleTree());
+        assertEquals(block.getMerkleRoot(), parsed.getMerkleTree().getRoot());
+
+        MerkleTree.setCacheMaxNodes(0);
+        assertNull(MerkleTree.getCached(block.getMerkleRoot(), block.getTransactions()));
+    }
+
+    @Test
+    public void cacheDisabledByDefault() {
+        assertEquals(0, MerkleTree.getCacheMaxNodes());
+        Block block = PARAMS.getGenesisBlock().createNextBlock(new ECKey().toAddress(PARAMS));
+        assertNotSame(block.getMerkleTree(), block.getMerkleTree());
+        assertNull(MerkleTree.getCached(block.getMerkleRoot(), block.getTransactions()));
+    }
+
+    @Test
+    public void verifyingDoesNotFillCache() throws Exception {
+        MerkleTree.setCacheMaxNodes(1000);
+        Block block = PARAMS.getGenesisBlock().createNextBlock(new ECKey().toAddress(PARAMS));
+        Block parsed = PARAMS.getDefaultSerializer().makeBlock(block.bitcoinSerialize());
+        parsed.verify(Block.BLOCK_HEIGHT_GENESIS + 1, EnumSet.noneOf(Block.VerifyFlag.class));
+        assertNull(MerkleTree.getCached(block.getMerkleRoot(), block.getTransactions()));
+    }
+
+    @Test
+    public void cachedTreeNotReusedForDifferentTransactions() throws Exception {
+        MerkleTree.setCacheMaxNodes(1000);
+        // A block claiming the root of another block, as a block mutated by duplicating transactions does
+        // (CVE-2012-2459), must not get the tree of that block.
+        Block block = PARAMS.getGenesisBlock().createNextBlock(new ECKey().toAddress(PARAMS));
+        MerkleTree tree = block.getMerkleTree();
+        int count = block.getTransactions().size();
+
+        Block mutated = PARAMS.getDefaultSerializer().makeBlock(block.bitcoinSerialize());
+        mutated.addTransaction(block.getTransactions().get(0), false);
+        mutated.setMerkleRoot(block.getMerkleRoot());
+        MerkleTree mutatedTree = mutated.getMerkleTree();
+        assertNotSame(tree, mutatedTree);
+        assertEquals(count + 1, mutatedTree.getLeafCount());
+        assertNotEquals(block.getMerkleRoot(), mutatedTree.getRoot());
+    }
+
+    private static List<Sha256Hash> leaves(int count) {
+        List<Sha256Hash> leaves = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            leaves.add(Sha256Hash.of(Ints.toByteArray(i)));
+        return leaves;
+    }
+
+    private static Sha256Hash naiveRoot(List<Sha256Hash> leaves) {
+        List<Sha256Hash> level = leaves;
+        while (level.size() > 1) {
+            List<Sha256Hash> next = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += 2) {
+                byte[] left = level.get(i).getReversedBytes();
+                byte[] right = level.get(Math.min(i + 1, level.size() - 1)).getReversedBytes();
+                next.add(Sha256Hash.wrapReversed(Sha256Hash.hashTwice(left, 0, 32, right, 0, 32)));
+            }
+            level = next;
+        }
+        return level.get(0);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.testing.FakeTxBuilder;
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Sha256HashTest {
+    @Test
+    public void hashMatchesMessageDigest() throws Exception {
+        Random random = new Random(1);
+        for (int length : new int[] { 0, 1, 55, 64, 1000 }) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] once = digest.digest(data);
+            byte[] twice = digest.digest(once);
+            assertArrayEquals(once, Sha256Hash.hash(data));
+            assertArrayEquals(twice, Sha256Hash.hashTwice(data));
+            assertArrayEquals(twice, Sha256Hash.twiceOf(data).getBytes());
+            // Repeated calls reuse the digest of the thread.
+            assertArrayEquals(twice, Sha256Hash.hashTwice(data));
+            assertArrayEquals(twice, Sha256Hash.hashTwice(data, 0, length / 2, data, length / 2, length - length / 2));
+        }
+    }
+
+    @Test
+    public void hashIsUnaffectedByFailedCall() {
+        byte[] data = new byte[] { 1, 2, 3 };
+        byte[] expected = Sha256Hash.hashTwice(data);
+        try {
+            Sha256Hash.hashTwice(data, 0, 3, data, 0, 4);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected, the second range is out of bounds.
+        }
+        assertArrayEquals(expected, Sha256Hash.hashTwice(data));
+    }
+
+    @Test
+    public void twiceHashingOutputStream() throws Exception {
+        byte[] data = new byte[100];
+        new Random(2).nextBytes(data);
+        Sha256Hash.TwiceHashingOutputStream stream = new Sha256Hash.TwiceHashingOutputStream();
+        stream.write(data[0]);
+        stream.write(data, 1, 49);
+        stream.write(data, 50, 50);
+        assertArrayEquals(Sha256Hash.hashTwice(data), stream.hashTwice());
+        // The stream starts over after producing a hash.
+        stream.write(data);
+        assertArrayEquals(Sha256Hash.hashTwice(data), stream.hashTwice());
+    }
+
+    @Test
+    public void messageHashes() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        Transaction tx = FakeTxBuilder.createFakeTx(params, Coin.COIN, new ECKey().toAddress(params));
+        assertEquals(Sha256Hash.wrapReversed(Sha256Hash.hashTwice(tx.bitcoinSerialize())), tx.getHash());
+        Transaction parsed = params.getDefaultSerializer().makeTransaction(tx.bitcoinSerialize());
+        assertEquals(tx.getHash(), parsed.getHash());
+
+        Block block = params.getGenesisBlock().createNextBlock(new ECKey().toAddress(params));
+        byte[] header = new byte[Block.HEADER_SIZE];
+        System.arraycopy(block.bitcoinSerialize(), 0, header, 0, Block.HEADER_SIZE);
+        assertEquals(Sha256Hash.wrapReversed(Sha256Hash.hashTwice(header)), block.getHash());
+    }
+}
@@ -436,4 +436,64 @@ public class TransactionTest {
             };
         }
     }
+
+    @Test
+    public void hashForSignatureMatchesModifiedCopy() {
+        Transaction tx = new Transaction(PARAMS);
+        for (int i = 0; i < 3; i++) {
+            TransactionInput input = tx.addInput(FakeTxBuilder.createFakeTx(PARAMS).getOutput(0));
+            input.setScriptBytes(new byte[] {ScriptOpCodes.OP_TRUE, (byte) i});
+            input.setSequenceNumber(TransactionInput.NO_SEQUENCE - i);
+        }
+        tx.addOutput(Coin.COIN, ADDRESS);
+        tx.addOutput(Coin.CENT, new ECKey());
+        tx.setLockTime(123456);
+        byte[] connectedScript = new ScriptBuilder().op(ScriptOpCodes.OP_CODESEPARATOR)
+                .data(new byte[20]).op(ScriptOpCodes.OP_CODESEPARATOR).build().getProgram();
+        byte[] sigHashTypes = {0, 1, 2, 3, 4, (byte) 0x81, (byte) 0x82, (byte) 0x83, (byte) 0xa1};
+        for (int inputIndex = 0; inputIndex < 3; inputIndex++)
+            for (byte sigHashType : sigHashTypes)
+                assertEquals(hashForSignatureOfCopy(tx, inputIndex, connectedScript, sigHashType),
+                        tx.hashForSignature(inputIndex, connectedScript, sigHashType));
+    }
+
+    // Computes the signature hash the straightforward way, by modifying a copy of the transaction.
+    private static Sha256Hash hashForSignatureOfCopy(Transaction original, int inputIndex, byte[] connectedScript,
+                                                     byte sigHashType) {
+        Transaction tx = new Transaction(PARAMS, original.bitcoinSerialize());
+        List<TransactionInput> inputs = new ArrayList<>(tx.getInputs());
+        List<TransactionOutput> outputs = new ArrayList<>(tx.getOutputs());
+        for (TransactionInput input : inputs)
+            input.clearScriptBytes();
+        TransactionInput input = inputs.get(inputIndex);
+        input.setScriptBytes(Script.removeAllInstancesOfOp(connectedScript, ScriptOpCodes.OP_CODESEPARATOR));
+        if ((sigHashType & 0x1f) == Transaction.SigHash.NONE.value) {
+            outputs.clear();
+            for (TransactionInput other : inputs)
+                if (other != input)
+                    other.setSequenceNumber(0);
+        } else if ((sigHashType & 0x1f) == Transaction.SigHash.SINGLE.value) {
+            if (inputIndex >= outputs.size())
+                return Sha256Hash.wrap("0100000000000000000000000000000000000000000000000000000000000000");
+            outputs = new ArrayList<>(outputs.subList(0, inputIndex + 1));
+            for (int i = 0; i < inputIndex; i++)
+                outputs.set(i, new TransactionOutput(PARAMS, null, Coin.NEGATIVE_SATOSHI, new byte[] {}));
+            for (TransactionInput other : inputs)
+                if (other != input)
+                    other.setSequenceNumber(0);
+        }
+        if ((sigHashType & Transaction.SigHash.ANYONECANPAY.value) != 0)
+            inputs = Collections.singletonList(input);
+        Transaction modified = new Transaction(PARAMS);
+        modified.setVersion((int) tx.getVersion());
+        modified.setLockTime(tx.getLockTime());
+        for (TransactionInput in : inputs)
+            modified.addInput(in);
+        for (TransactionOutput out : outputs)
+            modified.addOutput(out);
+        byte[] bytes = modified.bitcoinSerialize();
+        byte[] preimage = Arrays.copyOf(bytes, bytes.length + 4);
+        Utils.uint32ToByteArrayLE(0xff & sigHashType, preimage, bytes.length);
+        return Sha256Hash.twiceOf(preimage);
+    }
 }
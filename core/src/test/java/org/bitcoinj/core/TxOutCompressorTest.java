@@ -0,0 +1,111 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import static org.bitcoinj.core.Utils.HEX;
+import static org.junit.Assert.*;
+
+public class TxOutCompressorTest {
+    @Test
+    public void varInts() throws Exception {
+        // Test vectors from Bitcoin Core.
+        assertVarInt(0, "00");
+        assertVarInt(0x7f, "7f");
+        assertVarInt(0x80, "8000");
+        assertVarInt(0x1234, "a334");
+        assertVarInt(0xffff, "82fe7f");
+        assertVarInt(0x123456, "c7e756");
+        assertVarInt(0x80123456L, "86ffc7e756");
+        assertVarInt(0xffffffffL, "8efefefe7f");
+        assertVarInt(Long.MAX_VALUE, "fefefefefefefefe7f");
+        try {
+            TxOutCompressor.readVarInt(new ByteArrayInputStream(HEX.decode("ff")));
+            fail();
+        } catch (EOFException e) {
+            // Expected.
+        }
+        try {
+            TxOutCompressor.readVarInt(new ByteArrayInputStream(HEX.decode("ffffffffffffffffffff7f")));
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    private void assertVarInt(long n, String hex) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        TxOutCompressor.writeVarInt(n, bos);
+        assertEquals(hex, HEX.encode(bos.toByteArray()));
+        assertEquals(n, TxOutCompressor.readVarInt(new ByteArrayInputStream(bos.toByteArray())));
+    }
+
+    @Test
+    public void amounts() {
+        // Test vectors from Bitcoin Core.
+        assertAmount(0, 0x0);
+        assertAmount(1, 0x1);
+        assertAmount(Coin.CENT.value, 0x7);
+        assertAmount(Coin.COIN.value, 0x9);
+        assertAmount(Coin.FIFTY_COINS.value, 0x32);
+        assertAmount(NetworkParameters.MAX_MONEY.value, 0x1406f40);
+        for (long n = 0; n < 100000; n++)
+            assertEquals(n, TxOutCompressor.decompressAmount(TxOutCompressor.compressAmount(n)));
+        for (long n = 1; n <= NetworkParameters.MAX_MONEY.value; n *= 7)
+            assertEquals(n, TxOutCompressor.decompressAmount(TxOutCompressor.compressAmount(n)));
+    }
+
+    private void assertAmount(long n, long compressed) {
+        assertEquals(compressed, TxOutCompressor.compressAmount(n));
+        assertEquals(n, TxOutCompressor.decompressAmount(compressed));
+    }
+
+    @Test
+    public void scripts() throws Exception {
+        ECKey key = new ECKey();
+        assertScript(ScriptBuilder.createOutputScript(key.toAddress(MainNetParams.get())), 21);
+        assertScript(ScriptBuilder.createP2SHOutputScript(key.getPubKeyHash()), 21);
+        assertScript(ScriptBuilder.createOutputScript(key), 33);
+        assertScript(ScriptBuilder.createOutputScript(key.decompress()), 33);
+        assertScript(ScriptBuilder.createOpReturnScript(new byte[] { 1, 2, 3 }), 1 + 5);
+
+        // An uncompressed key that is not on the curve is kept as it is.
+        byte[] invalid = ScriptBuilder.createOutputScript(key.decompress()).getProgram();
+        invalid[64] ^= 1;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        TxOutCompressor.writeScript(invalid, bos);
+        assertEquals(1 + invalid.length, bos.size());
+        assertArrayEquals(invalid, TxOutCompressor.readScript(new ByteArrayInputStream(bos.toByteArray())));
+    }
+
+    private void assertScript(Script script, int size) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        TxOutCompressor.writeScript(script.getProgram(), bos);
+        assertEquals(size, bos.size());
+        assertArrayEquals(script.getProgram(),
+                TxOutCompressor.readScript(new ByteArrayInputStream(bos.toByteArray())));
+    }
+}
@@ -23,7 +23,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
 
+import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.script.ScriptBuilder;
 import org.junit.Test;
 
@@ -43,4 +45,37 @@ public class UTXOTest {
         assertEquals(utxo.isCoinbase(), utxoCopy.isCoinbase());
         assertEquals(utxo.getScript(), utxoCopy.getScript());
     }
+
+    @Test
+    public void testCompactSerialization() throws Exception {
+        ECKey key = new ECKey();
+        Sha256Hash hash = Sha256Hash.of(new byte[]{1,2,3});
+        UTXO utxo = new UTXO(hash, 1, Coin.COIN, 400000, true,
+                ScriptBuilder.createOutputScript(key.toAddress(MainNetParams.get())));
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        utxo.serializeCompact(os);
+        // Height and coinbase flag, value and the pubkey hash.
+        assertEquals(3 + 1 + 21, os.size());
+        UTXO utxoCopy = UTXO.deserializeCompact(MainNetParams.get(), hash, 1,
+                new ByteArrayInputStream(os.toByteArray()));
+        assertEquals(utxo, utxoCopy);
+        assertEquals(utxo.getValue(), utxoCopy.getValue());
+        assertEquals(utxo.getHeight(), utxoCopy.getHeight());
+        assertEquals(utxo.isCoinbase(), utxoCopy.isCoinbase());
+        assertEquals(utxo.getScript(), utxoCopy.getScript());
+        assertEquals(key.toAddress(MainNetParams.get()).toString(), utxoCopy.getAddress());
+
+        UTXO spent = new UTXO(Sha256Hash.of(new byte[]{4}), 70000, Coin.CENT, 7, false, ScriptBuilder.createOutputScript(key));
+        TransactionOutputChanges changes = new TransactionOutputChanges(Arrays.asList(utxo), Arrays.asList(spent));
+        os = new ByteArrayOutputStream();
+        changes.serializeCompact(os);
+        TransactionOutputChanges changesCopy = TransactionOutputChanges.deserializeCompact(MainNetParams.get(),
+                new ByteArrayInputStream(os.toByteArray()));
+        assertEquals(changes.txOutsCreated, changesCopy.txOutsCreated);
+        assertEquals(changes.txOutsSpent, changesCopy.txOutsSpent);
+        assertEquals(spent.getValue(), changesCopy.txOutsSpent.get(0).getValue());
+        assertEquals(spent.getScript(), changesCopy.txOutsSpent.get(0).getScript());
+        // Pay to pubkey outputs are indexed under the address of the key.
+        assertEquals(key.toAddress(MainNetParams.get()).toString(), changesCopy.txOutsSpent.get(0).getAddress());
+    }
 }
@@ -22,6 +22,8 @@ import org.bitcoinj.params.*;
 import org.junit.*;
 import org.spongycastle.crypto.params.*;
 
+import java.util.List;
+
 import static org.bitcoinj.core.Utils.*;
 import static org.junit.Assert.*;
 
@@ -286,6 +288,29 @@ public class ChildKeyDerivationTest {
 
     }
 
+    @Test
+    public void batchDerivationMatchesSerialDerivation() {
+        DeterministicKey parent = HDKeyDerivation.createMasterPrivateKey("satoshi lives!".getBytes());
+        List<DeterministicKey> batch = HDKeyDerivation.deriveChildKeys(parent, 5, 150);
+        assertEquals(150, batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            DeterministicKey expected = HDKeyDerivation.deriveChildKey(parent, 5 + i).dropPrivateBytes();
+            DeterministicKey key = batch.get(i);
+            assertEquals(expected, key);
+            assertEquals(parent, key.getParent());
+        }
+
+        // Deriving from the public-only parent gives the same keys.
+        assertEquals(batch, HDKeyDerivation.deriveChildKeys(parent.dropPrivateBytes().dropParent(), 5, 150));
+        assertTrue(HDKeyDerivation.deriveChildKeys(parent, 0, 0).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void batchDerivationRejectsHardenedChildren() {
+        DeterministicKey parent = HDKeyDerivation.createMasterPrivateKey("satoshi lives!".getBytes());
+        HDKeyDerivation.deriveChildKeys(parent, ChildNumber.HARDENED_BIT, 10);
+    }
+
     private static String hexEncodePub(DeterministicKey pubKey) {
         return HEX.encode(pubKey.getPubKey());
     }
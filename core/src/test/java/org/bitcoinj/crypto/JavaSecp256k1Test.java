@@ -0,0 +1,116 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.crypto;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.ECKey.ECDSASignature;
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Test;
+import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.params.ECPrivateKeyParameters;
+import org.spongycastle.crypto.params.ECPublicKeyParameters;
+import org.spongycastle.crypto.signers.ECDSASigner;
+import org.spongycastle.crypto.signers.HMacDSAKCalculator;
+import org.spongycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class JavaSecp256k1Test {
+    private static final BigInteger N = ECKey.CURVE.getN();
+
+    @Test
+    public void publicPointFromPrivate() {
+        Random random = new Random(1);
+        for (int i = 0; i < 20; i++) {
+            BigInteger priv = new BigInteger(256, random).mod(N);
+            assertEquals(ECKey.CURVE.getG().multiply(priv).normalize(),
+                    JavaSecp256k1.publicPointFromPrivate(priv).normalize());
+        }
+        assertEquals(ECKey.CURVE.getG().normalize(),
+                JavaSecp256k1.publicPointFromPrivate(N.add(BigInteger.ONE)).normalize());
+    }
+
+    @Test
+    public void signMatchesSpongyCastle() {
+        Random random = new Random(2);
+        for (int i = 0; i < 20; i++) {
+            BigInteger priv = new BigInteger(256, random).mod(N);
+            byte[] hash = Sha256Hash.hash(new byte[] { (byte) i });
+            ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+            signer.init(true, new ECPrivateKeyParameters(priv, ECKey.CURVE));
+            BigInteger[] expected = signer.generateSignature(hash);
+            ECDSASignature signature = JavaSecp256k1.sign(hash, priv);
+            assertEquals(expected[0], signature.r);
+            assertEquals(expected[1], signature.s);
+        }
+    }
+
+    @Test
+    public void verifyMatchesSpongyCastle() {
+        Random random = new Random(3);
+        for (int i = 0; i < 20; i++) {
+            BigInteger priv = new BigInteger(256, random).mod(N);
+            ECPoint pub = ECKey.CURVE.getG().multiply(priv);
+            byte[] hash = Sha256Hash.hash(new byte[] { (byte) i });
+            ECDSASignature signature = JavaSecp256k1.sign(hash, priv);
+            assertTrue(JavaSecp256k1.verify(hash, signature, pub));
+            assertTrue(JavaSecp256k1.verify(hash, signature.toCanonicalised(), pub));
+
+            byte[] otherHash = Sha256Hash.hash(new byte[] { (byte) i, 1 });
+            ECDSASignature otherSignature = new ECDSASignature(signature.r, signature.s.add(BigInteger.ONE));
+            ECPoint otherPub = pub.twice();
+            ECDSASigner verifier = new ECDSASigner();
+            verifier.init(false, new ECPublicKeyParameters(pub, ECKey.CURVE));
+            assertEquals(verifier.verifySignature(otherHash, signature.r, signature.s),
+                    JavaSecp256k1.verify(otherHash, signature, pub));
+            assertEquals(verifier.verifySignature(hash, otherSignature.r, otherSignature.s),
+                    JavaSecp256k1.verify(hash, otherSignature, pub));
+            assertFalse(JavaSecp256k1.verify(hash, signature, otherPub));
+        }
+    }
+
+    @Test
+    public void verifyRejectsOutOfRangeComponents() {
+        BigInteger priv = BigInteger.valueOf(12345);
+        ECPoint pub = JavaSecp256k1.publicPointFromPrivate(priv);
+        byte[] hash = Sha256Hash.hash(new byte[0]);
+        ECDSASignature signature = JavaSecp256k1.sign(hash, priv);
+        assertFalse(JavaSecp256k1.verify(hash, new ECDSASignature(BigInteger.ZERO, signature.s), pub));
+        assertFalse(JavaSecp256k1.verify(hash, new ECDSASignature(signature.r, BigInteger.ZERO), pub));
+        assertFalse(JavaSecp256k1.verify(hash, new ECDSASignature(signature.r.add(N), signature.s), pub));
+        assertFalse(JavaSecp256k1.verify(hash, new ECDSASignature(signature.r, signature.s.add(N)), pub));
+    }
+
+    @Test
+    public void eckeyUsesJavaImplementation() {
+        boolean useNative = ECKey.USE_NATIVE_SECP256K1;
+        ECKey.USE_NATIVE_SECP256K1 = false;
+        try {
+            ECKey key = new ECKey();
+            Sha256Hash hash = Sha256Hash.of(new byte[] { 42 });
+            ECDSASignature signature = key.sign(hash);
+            assertTrue(signature.isCanonical());
+            assertTrue(key.verify(hash, signature));
+            assertFalse(key.verify(Sha256Hash.ZERO_HASH, signature));
+        } finally {
+            ECKey.USE_NATIVE_SECP256K1 = useNative;
+        }
+    }
+}
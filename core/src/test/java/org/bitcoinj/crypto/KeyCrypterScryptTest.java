@@ -20,6 +20,7 @@ package org.bitcoinj.crypto;
 import org.bitcoinj.core.Utils;
 import org.bitcoinj.utils.BriefLogFormatter;
 import com.google.protobuf.ByteString;
+import com.lambdaworks.crypto.SCrypt;
 
 import org.bitcoinj.wallet.Protos;
 import org.bitcoinj.wallet.Protos.ScryptParameters;
@@ -27,7 +28,10 @@ import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
 
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.UUID;
 
@@ -156,4 +160,85 @@ public class KeyCrypterScryptTest {
             assertEquals(Utils.HEX.encode(plainBytes), Utils.HEX.encode(rebornPlainBytes));
         }
     }
+
+    @Test
+    public void parallelDerivationMatchesScrypt() throws Exception {
+        ScryptParameters parameters = Protos.ScryptParameters.newBuilder()
+                .setSalt(ByteString.copyFrom(KeyCrypterScrypt.randomSalt())).setN(1024).setP(4).build();
+        KeyCrypterScrypt keyCrypter = new KeyCrypterScrypt(parameters);
+        byte[] expected = SCrypt.scryptJ(passwordBytes(PASSWORD1), parameters.getSalt().toByteArray(), 1024, 8, 4,
+                KeyCrypterScrypt.KEY_LENGTH);
+        assertArrayEquals(expected, keyCrypter.deriveKey(PASSWORD1).getKey());
+        assertEquals(4, new KeyCrypterScrypt(1024, 4).getScryptParameters().getP());
+    }
+
+    @Test
+    public void keyCache() throws Exception {
+        CountingKeyCrypter keyCrypter = new CountingKeyCrypter(scryptParameters);
+        byte[] expected = keyCrypter.deriveKey(PASSWORD1).getKey();
+        keyCrypter.setKeyCacheDuration(60 * 1000);
+        KeyParameter key = keyCrypter.deriveKey(PASSWORD1);
+        assertArrayEquals(expected, key.getKey());
+        assertEquals(2, keyCrypter.scryptRuns);
+        // Wiping the returned key doesn't wipe the cached one.
+        Arrays.fill(key.getKey(), (byte) 0);
+        assertArrayEquals(expected, keyCrypter.deriveKey(PASSWORD1).getKey());
+        assertEquals(2, keyCrypter.scryptRuns);
+        // A different password replaces the cached key.
+        assertFalse(Arrays.equals(expected, keyCrypter.deriveKey(PASSWORD2).getKey()));
+        assertArrayEquals(expected, keyCrypter.deriveKey(PASSWORD1).getKey());
+        assertArrayEquals(expected, keyCrypter.deriveKey(PASSWORD1).getKey());
+        assertEquals(4, keyCrypter.scryptRuns);
+        keyCrypter.wipeCachedKey();
+        assertNull(keyCrypter.getCachedKeyBytes());
+        assertArrayEquals(expected, keyCrypter.deriveKey(PASSWORD1).getKey());
+        assertEquals(5, keyCrypter.scryptRuns);
+        keyCrypter.setKeyCacheDuration(0);
+        assertArrayEquals(expected, keyCrypter.deriveKey(PASSWORD1).getKey());
+        assertEquals(6, keyCrypter.scryptRuns);
+    }
+
+    @Test
+    public void cachedKeyExpires() throws Exception {
+        Utils.setMockClock();
+        CountingKeyCrypter keyCrypter = new CountingKeyCrypter(scryptParameters);
+        keyCrypter.setKeyCacheDuration(60 * 1000);
+        byte[] expected = keyCrypter.deriveKey(PASSWORD1).getKey();
+        byte[] cached = keyCrypter.getCachedKeyBytes();
+        assertArrayEquals(expected, cached);
+        Utils.rollMockClockMillis(60 * 1000 - 1);
+        assertArrayEquals(expected, keyCrypter.deriveKey(PASSWORD1).getKey());
+        assertEquals(1, keyCrypter.scryptRuns);
+        Utils.rollMockClockMillis(1);
+        assertArrayEquals(expected, keyCrypter.deriveKey(PASSWORD1).getKey());
+        assertEquals(2, keyCrypter.scryptRuns);
+        // The expired key was wiped before the new one was cached.
+        assertArrayEquals(new byte[KeyCrypterScrypt.KEY_LENGTH], cached);
+        assertArrayEquals(expected, keyCrypter.getCachedKeyBytes());
+        Utils.mockTime = null;
+    }
+
+    // Counts how often scrypt runs, which the key cache is there to save.
+    private static class CountingKeyCrypter extends KeyCrypterScrypt {
+        int scryptRuns;
+
+        CountingKeyCrypter(ScryptParameters scryptParameters) {
+            super(scryptParameters);
+        }
+
+        @Override
+        byte[] scrypt(byte[] passwordBytes, byte[] salt) throws GeneralSecurityException {
+            scryptRuns++;
+            return super.scrypt(passwordBytes, salt);
+        }
+    }
+
+    private static byte[] passwordBytes(CharSequence password) {
+        byte[] bytes = new byte[password.length() * 2];
+        for (int i = 0; i < password.length(); i++) {
+            bytes[2 * i] = (byte) (password.charAt(i) >> 8);
+            bytes[2 * i + 1] = (byte) password.charAt(i);
+        }
+        return bytes;
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.crypto;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.ECKey.ECDSASignature;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+public class SchnorrTest {
+    @Test
+    public void signAndVerify() {
+        ECKey key = new ECKey();
+        Sha256Hash hash = Sha256Hash.of(new byte[] { 1, 2, 3 });
+        ECDSASignature signature = key.signSchnorr(hash, null);
+        assertEquals(signature, key.signSchnorr(hash, null)); // deterministic
+        assertNotEquals(signature, key.sign(hash));
+        assertTrue(Schnorr.verify(hash.getBytes(), signature, key.getPubKey()));
+        assertTrue(SignatureScheme.SCHNORR.verify(hash.getBytes(), signature, key.getPubKey()));
+        assertFalse(Schnorr.verify(Sha256Hash.ZERO_HASH.getBytes(), signature, key.getPubKey()));
+        assertFalse(Schnorr.verify(hash.getBytes(), signature, new ECKey().getPubKey()));
+        assertFalse(Schnorr.verify(hash.getBytes(), new ECDSASignature(signature.r, signature.s.add(BigInteger.ONE)),
+                key.getPubKey()));
+        assertFalse(Schnorr.verify(hash.getBytes(), new ECDSASignature(signature.r, signature.s.add(ECKey.CURVE.getN())),
+                key.getPubKey()));
+        assertFalse(SignatureScheme.ECDSA.verify(hash.getBytes(), signature, key.getPubKey()));
+    }
+
+    @Test
+    public void encodeAndDecode() {
+        ECKey key = new ECKey();
+        ECDSASignature signature = key.signSchnorr(Sha256Hash.ZERO_HASH, null);
+        byte[] encoded = Schnorr.encode(signature);
+        assertEquals(Schnorr.SIGNATURE_LENGTH, encoded.length);
+        assertEquals(signature, Schnorr.decode(encoded));
+
+        TransactionSignature txSignature = new TransactionSignature(signature, Transaction.SigHash.NONE, true,
+                SignatureScheme.SCHNORR);
+        byte[] bitcoinEncoded = txSignature.encodeToBitcoin();
+        assertEquals(Schnorr.SIGNATURE_LENGTH + 1, bitcoinEncoded.length);
+        TransactionSignature decoded = TransactionSignature.decodeFromBitcoin(bitcoinEncoded, true, true, true);
+        assertEquals(SignatureScheme.SCHNORR, decoded.scheme);
+        assertEquals(txSignature, decoded);
+        assertEquals((byte) txSignature.sighashFlags, (byte) decoded.sighashFlags);
+        assertSame(txSignature, txSignature.toCanonicalised());
+    }
+
+    @Test
+    public void verifyBatch() {
+        int count = 20;
+        byte[][] hashes = new byte[count][];
+        ECDSASignature[] signatures = new ECDSASignature[count];
+        byte[][] pubKeys = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            ECKey key = new ECKey();
+            hashes[i] = Sha256Hash.hash(new byte[] { (byte) i });
+            signatures[i] = key.signSchnorr(Sha256Hash.wrap(hashes[i]), null);
+            pubKeys[i] = key.getPubKey();
+        }
+        BitSet valid = Schnorr.verifyBatch(hashes, signatures, pubKeys);
+        assertEquals(count, valid.cardinality());
+
+        hashes[3] = Sha256Hash.ZERO_HASH.getBytes();
+        signatures[7] = new ECDSASignature(signatures[7].r, signatures[7].s.add(BigInteger.ONE));
+        pubKeys[11] = new ECKey().getPubKey();
+        pubKeys[12] = new byte[] { 1, 2, 3 };
+        signatures[13] = new ECDSASignature(ECKey.CURVE.getCurve().getField().getCharacteristic(), signatures[13].s);
+        pubKeys[14] = new byte[0];
+        pubKeys[15] = Arrays.copyOf(pubKeys[15], 20); // truncated
+        valid = Schnorr.verifyBatch(hashes, signatures, pubKeys);
+        assertEquals(count - 7, valid.cardinality());
+        for (int i : new int[] { 3, 7, 11, 12, 13, 14, 15 })
+            assertFalse(valid.get(i));
+        assertEquals(0, Schnorr.verifyBatch(new byte[0][], new ECDSASignature[0], new byte[0][]).cardinality());
+    }
+}
@@ -22,6 +22,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.bitcoinj.core.*;
 import org.bitcoinj.core.Transaction.SigHash;
+import org.bitcoinj.crypto.SignatureScheme;
 import org.bitcoinj.crypto.TransactionSignature;
 import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.params.TestNet3Params;
@@ -168,6 +169,106 @@ public class ScriptTest {
         Assert.assertThat(scriptChunk.data, IsNot.not(equalTo(multisigScript.getProgram())));
     }
 
+    @Test
+    public void correctlySpendsStandardTemplates() throws Exception {
+        ECKey key1 = new ECKey(), key2 = new ECKey(), key3 = new ECKey();
+        Script multisigScript = ScriptBuilder.createMultiSigOutputScript(2, Arrays.asList(key1, key2, key3));
+        List<Script> outputScripts = ImmutableList.of(
+                ScriptBuilder.createOutputScript(key1.toAddress(PARAMS)),
+                ScriptBuilder.createOutputScript(key1),
+                multisigScript,
+                ScriptBuilder.createP2SHOutputScript(multisigScript));
+        for (Script scriptPubKey : outputScripts) {
+            Transaction txSpend = buildSpendingTransaction(buildCreditingTransaction(scriptPubKey), new Script(new byte[0]));
+            Script connectedScript = scriptPubKey.isPayToScriptHash() ? multisigScript : scriptPubKey;
+            Sha256Hash sighash = txSpend.hashForSignature(0, connectedScript, SigHash.ALL, false);
+            TransactionSignature sig1 = new TransactionSignature(key1.sign(sighash), SigHash.ALL, false);
+            TransactionSignature sig3 = new TransactionSignature(key3.sign(sighash), SigHash.ALL, false);
+            TransactionSignature wrongSig = new TransactionSignature(key2.sign(Sha256Hash.ZERO_HASH), SigHash.ALL, false);
+            Script scriptSig, badScriptSig;
+            if (scriptPubKey.isSentToAddress()) {
+                scriptSig = ScriptBuilder.createInputScript(sig1, key1);
+                badScriptSig = ScriptBuilder.createInputScript(wrongSig, key1);
+            } else if (scriptPubKey.isSentToRawPubKey()) {
+                scriptSig = ScriptBuilder.createInputScript(sig1);
+                badScriptSig = ScriptBuilder.createInputScript(wrongSig);
+            } else if (scriptPubKey.isSentToMultiSig()) {
+                scriptSig = ScriptBuilder.createMultiSigInputScript(sig1, sig3);
+                badScriptSig = ScriptBuilder.createMultiSigInputScript(sig3, sig1); // wrong order
+            } else {
+                scriptSig = ScriptBuilder.createP2SHMultiSigInputScript(ImmutableList.of(sig1, sig3), multisigScript);
+                badScriptSig = ScriptBuilder.createP2SHMultiSigInputScript(ImmutableList.of(sig1, wrongSig), multisigScript);
+            }
+            scriptSig.correctlySpends(txSpend, 0, scriptPubKey, Script.ALL_VERIFY_FLAGS);
+            Script.SignatureCheck check = scriptSig.getStandardSignatureCheck(txSpend, 0, scriptPubKey, Script.ALL_VERIFY_FLAGS);
+            Script.SignatureCheck badCheck = badScriptSig.getStandardSignatureCheck(txSpend, 0, scriptPubKey, Script.ALL_VERIFY_FLAGS);
+            if (scriptPubKey.isSentToAddress() || scriptPubKey.isSentToRawPubKey()) {
+                assertTrue(check.verify());
+                assertFalse(badCheck.verify());
+            } else {
+                assertNull(check);
+                assertNull(badCheck);
+            }
+            // Parsed from bytes rather than built from chunks.
+            new Script(scriptSig.getProgram()).correctlySpends(txSpend, 0, scriptPubKey, Script.ALL_VERIFY_FLAGS);
+            try {
+                badScriptSig.correctlySpends(txSpend, 0, scriptPubKey, Script.ALL_VERIFY_FLAGS);
+                fail(scriptPubKey.toString());
+            } catch (ScriptException e) {
+                assertEquals(scriptPubKey.toString(), ScriptError.SCRIPT_ERR_EVAL_FALSE, e.getError());
+            }
+        }
+    }
+
+    @Test
+    public void schnorrSignatures() throws Exception {
+        ECKey key = new ECKey();
+        Script scriptPubKey = ScriptBuilder.createOutputScript(key.toAddress(PARAMS));
+        Transaction txSpend = buildSpendingTransaction(buildCreditingTransaction(scriptPubKey), new Script(new byte[0]));
+        TransactionSignature sig = txSpend.calculateSignature(0, key, scriptPubKey.getProgram(), SigHash.ALL, false,
+                SignatureScheme.SCHNORR);
+        Script scriptSig = ScriptBuilder.createInputScript(sig, key);
+        EnumSet<VerifyFlag> flags = EnumSet.of(VerifyFlag.P2SH, VerifyFlag.STRICTENC, VerifyFlag.LOW_S,
+                VerifyFlag.SCHNORR);
+        scriptSig.correctlySpends(txSpend, 0, scriptPubKey, flags);
+        new Script(scriptSig.getProgram()).correctlySpends(txSpend, 0, scriptPubKey, flags);
+        Script.SignatureCheck check = scriptSig.getStandardSignatureCheck(txSpend, 0, scriptPubKey, flags);
+        assertEquals(SignatureScheme.SCHNORR, check.signature.scheme);
+        assertTrue(check.verify());
+        try {
+            // Without the flag the signature is parsed as DER, which fails.
+            scriptSig.correctlySpends(txSpend, 0, scriptPubKey, EnumSet.of(VerifyFlag.P2SH));
+            fail();
+        } catch (ScriptException e) {
+            assertEquals(ScriptError.SCRIPT_ERR_EVAL_FALSE, e.getError());
+        }
+    }
+
+    @Test
+    public void getSigInsertionIndex() {
+        ECKey key1 = ECKey.fromPrivate(BigInteger.valueOf(1001));
+        ECKey key2 = ECKey.fromPrivate(BigInteger.valueOf(1002));
+        Script multisigScript = ScriptBuilder.createMultiSigOutputScript(2, Arrays.asList(key1, key2));
+        Sha256Hash hash = Sha256Hash.of(new byte[] { 1, 2, 3 });
+
+        TransactionSignature ecdsaSig = new TransactionSignature(key2.sign(hash), SigHash.ALL, false);
+        Script inputScript = ScriptBuilder.createP2SHMultiSigInputScript(ImmutableList.of(ecdsaSig), multisigScript);
+        assertEquals(0, inputScript.getSigInsertionIndex(hash, key1, SignatureScheme.ECDSA));
+        assertEquals(0, inputScript.getSigInsertionIndex(hash, key1, SignatureScheme.SCHNORR));
+
+        // Schnorr signatures are only recognized on networks that use them.
+        TransactionSignature schnorrSig = new TransactionSignature(key2.signSchnorr(hash, null), SigHash.ALL, false,
+                SignatureScheme.SCHNORR);
+        inputScript = ScriptBuilder.createP2SHMultiSigInputScript(ImmutableList.of(schnorrSig), multisigScript);
+        assertEquals(0, inputScript.getSigInsertionIndex(hash, key1, SignatureScheme.SCHNORR));
+        try {
+            inputScript.getSigInsertionIndex(hash, key1, SignatureScheme.ECDSA);
+            fail("Exception expected");
+        } catch (RuntimeException e) {
+            // Expected.
+        }
+    }
+
     @Test
     public void createAndUpdateEmptyInputScript() throws Exception {
         TransactionSignature dummySig = TransactionSignature.dummy();
@@ -312,6 +413,71 @@ public class ScriptTest {
         }
     }
 
+    @Test
+    public void interpreterMatchesReferenceEngine() throws Exception {
+        JsonNode json = new ObjectMapper()
+                .readTree(new InputStreamReader(getClass().getResourceAsStream("script_tests.json"), Charsets.UTF_8));
+        for (JsonNode test : json) {
+            if (test.size() == 1)
+                continue; // skip comment
+            Set<VerifyFlag> verifyFlags = parseVerifyFlags(test.get(2).asText());
+            Script scriptSig, scriptPubKey;
+            try {
+                scriptSig = parseScriptString(test.get(0).asText());
+                scriptPubKey = parseScriptString(test.get(1).asText());
+            } catch (ScriptException e) {
+                continue; // not parseable, so neither engine gets to see it
+            }
+            Transaction txSpend = buildSpendingTransaction(buildCreditingTransaction(scriptPubKey), scriptSig);
+
+            LinkedList<byte[]> referenceStack = new LinkedList<>();
+            ScriptError referenceError = ScriptError.SCRIPT_ERR_OK;
+            try {
+                Script.executeScript(txSpend, 0, scriptSig, referenceStack, verifyFlags);
+                Script.executeScript(txSpend, 0, scriptPubKey, referenceStack, verifyFlags);
+            } catch (ScriptException e) {
+                referenceError = e.getError();
+            }
+            ScriptInterpreter.Stack stack = new ScriptInterpreter.Stack();
+            ScriptError error = ScriptError.SCRIPT_ERR_OK;
+            try {
+                ScriptInterpreter.execute(txSpend, 0, scriptSig, stack, verifyFlags);
+                ScriptInterpreter.execute(txSpend, 0, scriptPubKey, stack, verifyFlags);
+            } catch (ScriptException e) {
+                error = e.getError();
+            }
+            assertEquals(test.toString(), referenceError, error);
+            if (referenceError == ScriptError.SCRIPT_ERR_OK) {
+                List<byte[]> elements = stack.toList();
+                assertEquals(test.toString(), referenceStack.size(), elements.size());
+                for (int i = 0; i < elements.size(); i++)
+                    assertArrayEquals(test.toString(), referenceStack.get(i), elements.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void interpreterNumbers() throws Exception {
+        long[] values = { 0, 1, -1, 16, 17, -16, 127, 128, -128, 255, -255, 256, 0x7fff, 0x8000, -0x8000, 0x7fffffffL,
+                -0x7fffffffL, 0x80000000L, -0x80000000L, 0xffffffffL, 0x7fffffffffL };
+        for (long value : values) {
+            byte[] expected = Utils.reverseBytes(Utils.encodeMPI(BigInteger.valueOf(value), false));
+            assertArrayEquals(Long.toString(value), expected, ScriptInterpreter.encode(value));
+            assertEquals(value, ScriptInterpreter.castToLong(expected, 5, true));
+        }
+        // Negative zero and a superfluous zero byte are not minimal.
+        for (byte[] notMinimal : new byte[][] { {(byte) 0x80}, {0x01, 0x00}, {0x01, (byte) 0x80} }) {
+            assertEquals(notMinimal.length == 1 ? 0 : notMinimal[1] == 0 ? 1 : -1,
+                    ScriptInterpreter.castToLong(notMinimal, 4, false));
+            try {
+                ScriptInterpreter.castToLong(notMinimal, 4, true);
+                fail();
+            } catch (ScriptException e) {
+                assertEquals(ScriptError.SCRIPT_ERR_UNKNOWN_ERROR, e.getError());
+            }
+        }
+    }
+
     private Map<TransactionOutPoint, Script> parseScriptPubKeys(JsonNode inputs) throws IOException {
         Map<TransactionOutPoint, Script> scriptPubKeys = new HashMap<>();
         for (JsonNode input : inputs) {
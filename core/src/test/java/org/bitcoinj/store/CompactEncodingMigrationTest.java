@@ -0,0 +1,208 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredUndoableBlock;
+import org.bitcoinj.core.TransactionOutputChanges;
+import org.bitcoinj.core.UTXO;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.ScriptBuilder;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that stores written with the original encoding of unspent outputs and undo data are migrated to the compact
+ * encoding when they are opened.
+ */
+public class CompactEncodingMigrationTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private File dir;
+    private UTXO output;
+    private TransactionOutputChanges changes;
+    private Sha256Hash blockHash;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        dir = Files.createTempDir();
+        ECKey key = new ECKey();
+        output = new UTXO(Sha256Hash.of(new byte[] { 1 }), 2, Coin.COIN, 5, false,
+                ScriptBuilder.createOutputScript(key.toAddress(PARAMS)));
+        UTXO spent = new UTXO(Sha256Hash.of(new byte[] { 2 }), 0, Coin.FIFTY_COINS, 1, true,
+                ScriptBuilder.createOutputScript(key));
+        changes = new TransactionOutputChanges(Arrays.asList(output), Collections.singletonList(spent));
+        blockHash = Sha256Hash.of(new byte[] { 3 });
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void levelDB() throws Exception {
+        String filename = dir.getPath();
+        LevelDBFullPrunedBlockStore store = new LevelDBFullPrunedBlockStore(PARAMS, filename, 10);
+        // Write the output and undo data the way stores without a version setting did.
+        ByteBuffer key = ByteBuffer.allocate(37);
+        key.put((byte) LevelDBFullPrunedBlockStore.KeyType.OPENOUT_ALL.ordinal());
+        key.put(output.getHash().getBytes());
+        key.putInt((int) output.getIndex());
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        output.serializeToStream(bos);
+        store.db.put(key.array(), bos.toByteArray());
+
+        bos = new ByteArrayOutputStream();
+        changes.serializeToStream(bos);
+        byte[] txOutChanges = bos.toByteArray();
+        ByteBuffer undoKey = ByteBuffer.allocate(29);
+        undoKey.put((byte) LevelDBFullPrunedBlockStore.KeyType.UNDOABLEBLOCKS_ALL.ordinal());
+        undoKey.put(blockHash.getBytes(), 4, 28);
+        ByteBuffer undo = ByteBuffer.allocate(4 + 4 + txOutChanges.length + 4);
+        undo.putInt(7);
+        undo.putInt(txOutChanges.length);
+        undo.put(txOutChanges);
+        undo.putInt(0);
+        store.db.put(undoKey.array(), undo.array());
+        store.db.delete(new byte[] { (byte) LevelDBFullPrunedBlockStore.KeyType.VERSION_SETTING.ordinal() });
+        store.close();
+
+        store = new LevelDBFullPrunedBlockStore(PARAMS, filename, 10);
+        try {
+            assertMigrated(store);
+        } finally {
+            store.close();
+        }
+        // Opening it again doesn't migrate twice.
+        store = new LevelDBFullPrunedBlockStore(PARAMS, filename, 10);
+        try {
+            assertMigrated(store);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void levelDBResumesInterruptedMigration() throws Exception {
+        String filename = dir.getPath();
+        LevelDBFullPrunedBlockStore store = new LevelDBFullPrunedBlockStore(PARAMS, filename, 10);
+        List<UTXO> outputs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            UTXO legacy = new UTXO(Sha256Hash.of(new byte[] { 4, (byte) i }), i, Coin.valueOf(i + 1), i, false,
+                    output.getScript());
+            ByteBuffer key = ByteBuffer.allocate(37);
+            key.put((byte) LevelDBFullPrunedBlockStore.KeyType.OPENOUT_ALL.ordinal());
+            key.put(legacy.getHash().getBytes());
+            key.putInt((int) legacy.getIndex());
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            legacy.serializeToStream(bos);
+            store.db.put(key.array(), bos.toByteArray());
+            outputs.add(legacy);
+        }
+        store.db.delete(new byte[] { (byte) LevelDBFullPrunedBlockStore.KeyType.VERSION_SETTING.ordinal() });
+        // Stop after the first batch of two outputs, as if the process died there.
+        store.migrateToCompactEncoding(2, 1);
+        store.close();
+
+        store = new LevelDBFullPrunedBlockStore(PARAMS, filename, 10);
+        try {
+            for (UTXO legacy : outputs) {
+                UTXO migrated = store.getTransactionOutput(legacy.getHash(), legacy.getIndex());
+                assertEquals(legacy, migrated);
+                assertEquals(legacy.getValue(), migrated.getValue());
+                assertEquals(legacy.getHeight(), migrated.getHeight());
+                assertEquals(legacy.getScript(), migrated.getScript());
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void h2() throws Exception {
+        String dbName = new File(dir, "h2").getPath();
+        H2FullPrunedBlockStore store = new H2FullPrunedBlockStore(PARAMS, dbName, 10);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        changes.serializeToStream(bos);
+        PreparedStatement s = store.conn.get().prepareStatement(
+                "INSERT INTO undoableblocks(hash, height, txoutchanges, transactions) VALUES(?, ?, ?, NULL)");
+        s.setBytes(1, Arrays.copyOfRange(blockHash.getBytes(), 4, 32));
+        s.setInt(2, 7);
+        s.setBytes(3, bos.toByteArray());
+        s.executeUpdate();
+        s.close();
+        s = store.conn.get().prepareStatement("UPDATE settings SET value = ? WHERE name = 'version'");
+        s.setBytes(1, "03".getBytes());
+        s.executeUpdate();
+        s.close();
+        store.close();
+
+        store = new H2FullPrunedBlockStore(PARAMS, dbName, 10);
+        try {
+            assertUndoMigrated(store);
+        } finally {
+            store.close();
+        }
+        store = new H2FullPrunedBlockStore(PARAMS, dbName, 10);
+        try {
+            assertUndoMigrated(store);
+        } finally {
+            store.close();
+        }
+    }
+
+    private void assertMigrated(FullPrunedBlockStore store) throws BlockStoreException {
+        UTXO migrated = store.getTransactionOutput(output.getHash(), output.getIndex());
+        assertEquals(output, migrated);
+        assertEquals(output.getValue(), migrated.getValue());
+        assertEquals(output.getHeight(), migrated.getHeight());
+        assertEquals(output.getScript(), migrated.getScript());
+        assertUndoMigrated(store);
+    }
+
+    private void assertUndoMigrated(FullPrunedBlockStore store) throws BlockStoreException {
+        StoredUndoableBlock undoBlock = store.getUndoBlock(blockHash);
+        assertEquals(changes.txOutsCreated, undoBlock.getTxOutChanges().txOutsCreated);
+        assertEquals(changes.txOutsSpent, undoBlock.getTxOutChanges().txOutsSpent);
+        UTXO spent = changes.txOutsSpent.get(0);
+        UTXO migrated = undoBlock.getTxOutChanges().txOutsSpent.get(0);
+        assertEquals(spent.getValue(), migrated.getValue());
+        assertEquals(spent.isCoinbase(), migrated.isCoinbase());
+        assertEquals(spent.getScript(), migrated.getScript());
+    }
+}
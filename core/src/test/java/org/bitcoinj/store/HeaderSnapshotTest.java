@@ -0,0 +1,152 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HeaderSnapshotTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private MemoryBlockStore source;
+    private List<StoredBlock> chain;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        source = new MemoryBlockStore(PARAMS);
+        Address to = new ECKey().toAddress(PARAMS);
+        chain = new ArrayList<>();
+        StoredBlock block = source.getChainHead();
+        chain.add(block);
+        for (int i = 0; i < 100; i++) {
+            block = block.build(block.getHeader().createNextBlock(to).cloneAsHeader());
+            source.put(block);
+            chain.add(block);
+        }
+        source.setChainHead(block);
+    }
+
+    @Test
+    public void fullChainIntoMemoryStore() throws Exception {
+        File file = tempFile();
+        Sha256Hash hash = HeaderSnapshot.write(source, Integer.MAX_VALUE, new FileOutputStream(file));
+        HeaderSnapshot snapshot = HeaderSnapshot.read(PARAMS, file, hash);
+        assertEquals(hash, snapshot.getDataHash());
+        assertEquals(101, snapshot.size());
+        assertEquals(chain.get(0), snapshot.getBlock(0));
+        assertEquals(chain, snapshot.getBlocks());
+
+        MemoryBlockStore store = new MemoryBlockStore(PARAMS);
+        snapshot.loadInto(store);
+        assertEquals(chain.get(100), store.getChainHead());
+        assertEquals(chain.get(0), chain.get(100).getAncestor(store, 0));
+    }
+
+    @Test
+    public void windowIntoSPVStore() throws Exception {
+        File file = tempFile();
+        Sha256Hash hash = HeaderSnapshot.write(source, 60, new FileOutputStream(file));
+        HeaderSnapshot snapshot = HeaderSnapshot.read(PARAMS, file, hash);
+        assertEquals(60, snapshot.size());
+        assertEquals(chain.get(41), snapshot.getBlock(0));
+
+        File storeFile = tempFile();
+        storeFile.delete();
+        SPVBlockStore store = new SPVBlockStore(PARAMS, storeFile, 50);
+        snapshot.loadInto(store);
+        assertEquals(chain.get(100), store.getChainHead());
+        assertEquals(chain.get(51), store.get(chain.get(51).getHeader().getHash()));
+        store.close();
+
+        // The blocks are where they belong after reopening the store.
+        store = new SPVBlockStore(PARAMS, storeFile, 50);
+        assertEquals(chain.get(100), store.getChainHead());
+        assertEquals(chain.get(75), store.get(chain.get(75).getHeader().getHash()));
+        assertNull(store.get(chain.get(50).getHeader().getHash()));
+        store.close();
+    }
+
+    @Test
+    public void intoLevelDBStore() throws Exception {
+        File file = tempFile();
+        Sha256Hash hash = HeaderSnapshot.write(source, Integer.MAX_VALUE, new FileOutputStream(file));
+        File dir = tempFile();
+        dir.delete();
+        LevelDBBlockStore store = new LevelDBBlockStore(new Context(PARAMS), dir);
+        try {
+            HeaderSnapshot.read(PARAMS, file, hash).loadInto(store);
+            assertEquals(chain.get(100), store.getChainHead());
+            assertEquals(chain.get(30), store.get(chain.get(30).getHeader().getHash()));
+        } finally {
+            store.close();
+            store.destroy();
+        }
+    }
+
+    @Test
+    public void rejectsTamperedSnapshots() throws Exception {
+        File file = tempFile();
+        Sha256Hash hash = HeaderSnapshot.write(source, Integer.MAX_VALUE, new FileOutputStream(file));
+        try {
+            HeaderSnapshot.read(PARAMS, file, Sha256Hash.of(new byte[] { 1 }));
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        // Change the nonce of a block.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(13 + 10 * StoredBlock.COMPACT_SERIALIZED_SIZE + 76);
+            raf.write(0xff);
+        }
+        try {
+            HeaderSnapshot.read(PARAMS, file, hash);
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+        try {
+            HeaderSnapshot.read(PARAMS, file, null);
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("snapshot", null);
+        file.deleteOnExit();
+        return file;
+    }
+}
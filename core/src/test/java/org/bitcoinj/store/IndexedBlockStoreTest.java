@@ -0,0 +1,159 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IndexedBlockStoreTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final int WINDOW = 200;
+
+    private MemoryBlockStore memoryStore;
+    private IndexedBlockStore store;
+    private Address to;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        memoryStore = new MemoryBlockStore(PARAMS);
+        store = new IndexedBlockStore(memoryStore, WINDOW);
+        to = new ECKey().toAddress(PARAMS);
+    }
+
+    @Test
+    public void ancestorsOnBestChain() throws Exception {
+        List<StoredBlock> chain = extend(store.getChainHead(), 500, true);
+        StoredBlock head = chain.get(chain.size() - 1);
+        assertEquals(head, store.getChainHead());
+        assertEquals(head, store.getBestChainBlock(500));
+        assertNull(store.getBestChainBlock(501));
+        assertNull(store.getBestChainBlock(500 - WINDOW));
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            StoredBlock block = chain.get(random.nextInt(chain.size()));
+            int height = random.nextInt(block.getHeight() + 1);
+            assertEquals(chain.get(height), block.getAncestor(store, height));
+            // Stores without an index give the same answer.
+            if (block.getHeight() - height < 50)
+                assertEquals(chain.get(height), block.getAncestor(memoryStore, height));
+        }
+    }
+
+    @Test
+    public void sideChainsAndReorgs() throws Exception {
+        List<StoredBlock> chain = extend(store.getChainHead(), 300, true);
+        List<StoredBlock> side = extend(chain.get(250), 70, false);
+        StoredBlock sideHead = side.get(side.size() - 1);
+        assertEquals(320, sideHead.getHeight());
+        assertEquals(chain.get(250), sideHead.getAncestor(store, 250));
+        assertEquals(chain.get(130), sideHead.getAncestor(store, 130));
+        assertEquals(side.get(10), sideHead.getAncestor(store, side.get(10).getHeight()));
+        assertNull(store.getBestChainBlock(320));
+
+        store.setChainHead(sideHead);
+        assertEquals(sideHead, store.getBestChainBlock(320));
+        assertEquals(side.get(0), store.getBestChainBlock(251));
+        assertEquals(chain.get(250), store.getBestChainBlock(250));
+        assertEquals(chain.get(280), chain.get(299).getAncestor(store, 280));
+
+        // Re-organizing back to a chain of lower height.
+        store.setChainHead(chain.get(300));
+        assertEquals(chain.get(300), store.getBestChainBlock(300));
+        assertNull(store.getBestChainBlock(301));
+        assertEquals(chain.get(260), store.getBestChainBlock(260));
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        List<StoredBlock> chain = extend(store.getChainHead(), 300, true);
+        IndexedBlockStore reopened = new IndexedBlockStore(memoryStore, WINDOW);
+        assertEquals(chain.get(300), reopened.getChainHead());
+        assertEquals(chain.get(150), reopened.getBestChainBlock(150));
+        assertNull(reopened.getBestChainBlock(100));
+        // Beyond the window ancestors come from the underlying store.
+        assertEquals(chain.get(20), chain.get(300).getAncestor(reopened, 20));
+        assertEquals(chain.get(0), chain.get(300).getAncestor(reopened, 0));
+    }
+
+    @Test
+    public void putAllIndexesNewestBlocks() throws Exception {
+        List<StoredBlock> chain = new ArrayList<>();
+        StoredBlock block = store.getChainHead();
+        for (int i = 0; i < 500; i++) {
+            block = block.build(block.getHeader().createNextBlock(to).cloneAsHeader());
+            chain.add(block);
+        }
+        store.putAll(chain);
+        assertEquals(chain.get(10), memoryStore.get(chain.get(10).getHeader().getHash()));
+        store.setChainHead(block);
+        assertEquals(block, store.getBestChainBlock(500));
+        assertEquals(chain.get(349), store.getBestChainBlock(350));
+        assertEquals(chain.get(9), block.getAncestor(store, 10));
+    }
+
+    @Test
+    public void difficultyTransitionThroughIndex() throws Exception {
+        BlockChain chain = new BlockChain(PARAMS, store);
+        Block prev = PARAMS.getGenesisBlock();
+        Utils.setMockClock(System.currentTimeMillis() / 1000);
+        for (int height = 0; height < PARAMS.getInterval() - 1; height++) {
+            Block newBlock = prev.createNextBlock(to, 1, Utils.currentTimeSeconds(), height);
+            assertTrue(chain.add(newBlock));
+            prev = newBlock;
+            Utils.rollMockClock(2);
+        }
+        Block b = prev.createNextBlock(to, 1, Utils.currentTimeSeconds(), PARAMS.getInterval() + 1);
+        b.setDifficultyTarget(0x201fFFFFL);
+        b.solve();
+        assertTrue(chain.add(b));
+        assertEquals(b, store.getBestChainBlock(PARAMS.getInterval()).getHeader());
+        Utils.mockTime = null;
+    }
+
+    // Returns the blocks from the start block up, which is the first element.
+    private List<StoredBlock> extend(StoredBlock start, int count, boolean setHead) throws Exception {
+        List<StoredBlock> blocks = new ArrayList<>();
+        blocks.add(start);
+        StoredBlock block = start;
+        for (int i = 0; i < count; i++) {
+            block = block.build(block.getHeader().createNextBlock(to).cloneAsHeader());
+            store.put(block);
+            if (setHead)
+                store.setChainHead(block);
+            blocks.add(block);
+        }
+        if (!setHead)
+            blocks.remove(0);
+        return blocks;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.FullPrunedBlockChain;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.UnitTestParams;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class PruningSchedulerTest {
+    private static final NetworkParameters PARAMS = new UnitTestParams() {
+        @Override public int getInterval() {
+            return 10000;
+        }
+    };
+    private static final int FULL_STORE_DEPTH = 10;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS, 100, Coin.ZERO, false));
+        dir = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() {
+        Utils.mockTime = null;
+        for (File file : dir.listFiles())
+            file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void levelDB() throws Exception {
+        LevelDBFullPrunedBlockStore store = new LevelDBFullPrunedBlockStore(PARAMS,
+                dir.getPath(), FULL_STORE_DEPTH);
+        try {
+            pruneAndCompact(store);
+            assertTrue(store.getStoreSize() > 0);
+            assertTrue(store.getWriteAmplification() >= 1);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void h2() throws Exception {
+        H2FullPrunedBlockStore store = new H2FullPrunedBlockStore(PARAMS, new File(dir, "h2").getPath(),
+                FULL_STORE_DEPTH);
+        try {
+            pruneAndCompact(store);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void startAndStop() throws Exception {
+        LevelDBFullPrunedBlockStore store = new LevelDBFullPrunedBlockStore(PARAMS,
+                dir.getPath(), FULL_STORE_DEPTH);
+        try {
+            PruningScheduler scheduler = new PruningScheduler(store);
+            scheduler.startAsync().awaitRunning();
+            assertFalse(store.inlinePruning);
+            scheduler.stopAsync().awaitTerminated();
+            assertTrue(store.inlinePruning);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void failedRunIsRetried() throws Exception {
+        final AtomicBoolean fail = new AtomicBoolean(true);
+        LevelDBFullPrunedBlockStore store = new LevelDBFullPrunedBlockStore(PARAMS,
+                dir.getPath(), FULL_STORE_DEPTH) {
+            @Override
+            public int pruneUndoableBlocks(int toHeight, int maxHeights) {
+                if (fail.getAndSet(false))
+                    throw new RuntimeException("Transient failure");
+                return super.pruneUndoableBlocks(toHeight, maxHeights);
+            }
+        };
+        try {
+            PruningScheduler scheduler = new PruningScheduler(store, 5, 1000, 60 * 1000, 20);
+            store.setInlinePruning(false);
+            addBlocks(store);
+            scheduler.runOneIteration();
+            assertEquals(0, scheduler.getBlocksPruned());
+            scheduler.runOneIteration();
+            assertEquals(31, scheduler.getBlocksPruned());
+        } finally {
+            store.close();
+        }
+    }
+
+    private List<Sha256Hash> addBlocks(PrunableBlockStore store) throws Exception {
+        FullPrunedBlockChain chain = new FullPrunedBlockChain(PARAMS, store);
+        byte[] pubKey = new ECKey().getPubKey();
+        List<Sha256Hash> hashes = new ArrayList<>();
+        Block block = PARAMS.getGenesisBlock();
+        for (int height = 1; height <= 40; height++) {
+            block = block.createNextBlockWithCoinbase(Block.BLOCK_VERSION_GENESIS, pubKey, Coin.FIFTY_COINS, height);
+            assertTrue(chain.add(block));
+            hashes.add(block.getHash());
+        }
+        return hashes;
+    }
+
+    private void pruneAndCompact(PrunableBlockStore store) throws Exception {
+        PruningScheduler scheduler = new PruningScheduler(store, 5, 1000, 60 * 1000, 20);
+        store.setInlinePruning(false);
+        List<Sha256Hash> hashes = addBlocks(store);
+        // Without inline pruning all the undo data is still there.
+        assertEquals(30, store.getPrunableHeight());
+        assertNotNull(store.getUndoBlock(hashes.get(0)));
+
+        Utils.setMockClock();
+        scheduler.runOneIteration();
+        // Heights 0 to 30 in batches of 5 heights, the genesis block has undo data too.
+        assertEquals(31, scheduler.getBlocksPruned());
+        assertEquals(7, scheduler.getPruneBatches());
+        for (int height = 1; height <= 40; height++)
+            assertEquals(height > 30, store.getUndoBlock(hashes.get(height - 1)) != null);
+        // The chain head just moved, so compaction waits for the quiet period.
+        assertEquals(0, scheduler.getCompactions());
+        scheduler.runOneIteration();
+        assertEquals(0, scheduler.getCompactions());
+        Utils.rollMockClock(60);
+        scheduler.runOneIteration();
+        assertEquals(1, scheduler.getCompactions());
+        assertEquals(31, scheduler.getBlocksPruned());
+
+        // A verified chain head that isn't committed yet doesn't make more undo data prunable.
+        StoredBlock head = store.getVerifiedChainHead();
+        StoredBlock next = head.build(head.getHeader().createNextBlock(null));
+        store.beginDatabaseBatchWrite();
+        store.put(next);
+        store.setVerifiedChainHead(next);
+        assertEquals(30, store.getPrunableHeight());
+        store.abortDatabaseBatchWrite();
+        assertEquals(30, store.getPrunableHeight());
+    }
+}
@@ -19,13 +19,17 @@ package org.bitcoinj.store;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.ECKey;
 import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
 import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.params.UnitTestParams;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class SPVBlockStoreTest {
 
@@ -58,4 +62,54 @@ public class SPVBlockStoreTest {
         StoredBlock chainHead = store.getChainHead();
         assertEquals(b1, chainHead);
     }
+
+    @Test
+    public void lookupAfterWrapAround() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        File f = File.createTempFile("spvblockstore", null);
+        f.delete();
+        f.deleteOnExit();
+        int capacity = 10;
+        SPVBlockStore store = new SPVBlockStore(params, f, capacity);
+
+        Address to = new ECKey().toAddress(params);
+        List<StoredBlock> blocks = new ArrayList<>();
+        StoredBlock block = store.getChainHead();
+        blocks.add(block);
+        for (int i = 0; i < 25; i++) {
+            block = block.build(block.getHeader().createNextBlock(to).cloneAsHeader());
+            store.put(block);
+            store.setChainHead(block);
+            blocks.add(block);
+        }
+        assertNull(store.get(Sha256Hash.ZERO_HASH));
+        assertNull(store.get(Sha256Hash.of(new byte[] { 1 })));
+        store.close();
+
+        // The index is rebuilt when the store is opened again, with empty caches so lookups go through it.
+        store = new SPVBlockStore(params, f, capacity);
+        checkRing(store, blocks, capacity);
+        assertEquals(block, store.getChainHead());
+
+        // Overwritten records are dropped from the index.
+        for (int i = 0; i < 5; i++) {
+            block = block.build(block.getHeader().createNextBlock(to).cloneAsHeader());
+            store.put(block);
+            blocks.add(block);
+        }
+        store.blockCache.clear();
+        store.notFoundCache.clear();
+        checkRing(store, blocks, capacity);
+        store.close();
+    }
+
+    private static void checkRing(SPVBlockStore store, List<StoredBlock> blocks, int capacity) throws Exception {
+        for (int i = 0; i < blocks.size(); i++) {
+            StoredBlock stored = store.get(blocks.get(i).getHeader().getHash());
+            if (i < blocks.size() - capacity)
+                assertNull(stored);
+            else
+                assertEquals(blocks.get(i), stored);
+        }
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.BlockChain;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.FullPrunedBlockChain;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.bitcoinj.store.MemoryFullPrunedBlockStore;
+import com.google.common.primitives.Ints;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BlockFileImporterTest {
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+
+    private static List<Block> blocks;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        if (blocks == null) {
+            // The first blocks of the main chain, which only have coinbase transactions.
+            File file = new File(getClass().getResource("/org/bitcoinj/core/first-100k-blocks.dat").getFile());
+            blocks = new ArrayList<>();
+            for (Block block : new BlockFileLoader(PARAMS, Arrays.asList(file))) {
+                blocks.add(block);
+                if (blocks.size() == 300)
+                    break;
+            }
+        }
+    }
+
+    @Test
+    public void importsOutOfOrderBlocks() throws Exception {
+        // Spread the blocks over two files, the later blocks first as in a headers first sync, and swap neighbours.
+        List<Block> first = new ArrayList<>(blocks.subList(150, 300));
+        List<Block> second = new ArrayList<>(blocks.subList(1, 150));
+        for (int i = 0; i + 1 < second.size(); i += 3)
+            second.add(i, second.remove(i + 1));
+        // Without block 250 the blocks after it don't connect.
+        Block missing = first.remove(100);
+        File file1 = writeBlockFile(first, true);
+        File file2 = writeBlockFile(second, false);
+
+        BlockChain chain = new BlockChain(PARAMS, new MemoryBlockStore(PARAMS));
+        BlockFileImporter importer = new BlockFileImporter(PARAMS, Arrays.asList(file1, file2), 3, 4);
+        assertEquals(249, importer.importInto(chain));
+        assertEquals(blocks.get(249).getHash(), chain.getChainHead().getHeader().getHash());
+        assertNull(chain.getBlockStore().get(blocks.get(251).getHash()));
+
+        // Running again skips the blocks that are already in the chain.
+        assertEquals(0, importer.importInto(chain));
+        File file3 = writeBlockFile(Arrays.asList(missing), false);
+        importer = new BlockFileImporter(PARAMS, Arrays.asList(file1, file2, file3));
+        assertEquals(50, importer.importInto(chain));
+        assertEquals(blocks.get(299).getHash(), chain.getChainHead().getHeader().getHash());
+    }
+
+    @Test
+    public void resumesFullPrunedChain() throws Exception {
+        File file = writeBlockFile(blocks, false);
+        FullPrunedBlockChain chain = new FullPrunedBlockChain(PARAMS, new MemoryFullPrunedBlockStore(PARAMS, 10));
+        for (Block block : blocks.subList(1, 20))
+            assertTrue(chain.add(block));
+        assertEquals(280, new BlockFileImporter(PARAMS, Arrays.asList(file)).importInto(chain));
+        assertEquals(blocks.get(299).getHash(), chain.getChainHead().getHeader().getHash());
+    }
+
+    @Test
+    public void readsSameBlocksAsLoader() throws Exception {
+        File file = writeBlockFile(blocks.subList(0, 100), true);
+        BlockChain loaded = new BlockChain(PARAMS, new MemoryBlockStore(PARAMS));
+        for (Block block : new BlockFileLoader(PARAMS, Arrays.asList(file)))
+            loaded.add(block);
+        BlockChain imported = new BlockChain(PARAMS, new MemoryBlockStore(PARAMS));
+        assertEquals(99, new BlockFileImporter(PARAMS, Arrays.asList(file)).importInto(imported));
+        assertEquals(loaded.getChainHead(), imported.getChainHead());
+    }
+
+    // Writes the blocks in the Bitcoin Core format, optionally with garbage between and padding after the records.
+    private static File writeBlockFile(List<Block> blocks, boolean garbage) throws IOException {
+        File file = File.createTempFile("blk", ".dat");
+        file.deleteOnExit();
+        try (FileOutputStream stream = new FileOutputStream(file)) {
+            for (Block block : blocks) {
+                if (garbage)
+                    stream.write(new byte[] { 1, 2, (byte) (PARAMS.getPacketMagic() >>> 24) });
+                byte[] bytes = block.bitcoinSerialize();
+                stream.write(Ints.toByteArray((int) PARAMS.getPacketMagic()));
+                Utils.uint32ToByteStreamLE(bytes.length, stream);
+                stream.write(bytes);
+            }
+            if (garbage)
+                stream.write(new byte[4096]);
+        }
+        return file;
+    }
+}
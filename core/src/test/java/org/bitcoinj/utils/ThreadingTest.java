@@ -0,0 +1,58 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class ThreadingTest {
+    @Test
+    public void runInChunks() {
+        for (int count : new int[] { 0, 1, 7, 100, 10000 }) {
+            final AtomicIntegerArray runs = new AtomicIntegerArray(count);
+            Threading.runInChunks(count, 10, new Threading.RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    for (int i = from; i < to; i++)
+                        runs.incrementAndGet(i);
+                }
+            });
+            for (int i = 0; i < count; i++)
+                assertEquals(1, runs.get(i));
+        }
+    }
+
+    @Test
+    public void runInChunksRethrowsUncheckedExceptions() {
+        final IllegalStateException thrown = new IllegalStateException();
+        try {
+            Threading.runInChunks(10000, 10, new Threading.RangeTask() {
+                @Override
+                public void run(int from, int to) {
+                    if (to == 10000)
+                        throw thrown;
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(thrown, e);
+        }
+    }
+}
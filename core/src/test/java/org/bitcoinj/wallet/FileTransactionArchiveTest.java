@@ -0,0 +1,113 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Transaction;
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import static org.bitcoinj.testing.FakeTxBuilder.createFakeTx;
+import static org.junit.Assert.*;
+
+public class FileTransactionArchiveTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("bitcoinj-unit-test", null);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static ArchivedTransaction summaryOf(Transaction tx, int height) {
+        return new ArchivedTransaction(tx.getHash(), height, tx.getOutput(0).getValue(), new Date(1400000000000L));
+    }
+
+    @Test
+    public void addAndReopen() throws Exception {
+        Address to = new ECKey().toAddress(PARAMS);
+        Transaction tx1 = createFakeTx(PARAMS, Coin.COIN, to);
+        Transaction tx2 = createFakeTx(PARAMS, Coin.CENT, to);
+        FileTransactionArchive archive = new FileTransactionArchive(PARAMS, file);
+        archive.add(summaryOf(tx1, 10), tx1);
+        archive.add(summaryOf(tx2, 20), tx2);
+        archive.add(summaryOf(tx2, 20), tx2);
+        archive.flush();
+        assertEquals(tx2, archive.get(tx2.getHash()));
+        assertNull(archive.get(Sha256Hash.ZERO_HASH));
+        assertTrue(archive.contains(tx1.getHash()));
+        assertFalse(archive.contains(Sha256Hash.ZERO_HASH));
+        archive.close();
+
+        archive = new FileTransactionArchive(PARAMS, file);
+        assertEquals(2, archive.getSummaries().size());
+        assertEquals(summaryOf(tx1, 10), archive.getSummaries().get(0));
+        assertEquals(summaryOf(tx2, 20), archive.getSummaries().get(1));
+        Transaction read = archive.get(tx1.getHash());
+        assertArrayEquals(tx1.bitcoinSerialize(), read.bitcoinSerialize());
+        archive.close();
+    }
+
+    @Test
+    public void incompleteRecordIsDiscarded() throws Exception {
+        Address to = new ECKey().toAddress(PARAMS);
+        Transaction tx1 = createFakeTx(PARAMS, Coin.COIN, to);
+        Transaction tx2 = createFakeTx(PARAMS, Coin.CENT, to);
+        FileTransactionArchive archive = new FileTransactionArchive(PARAMS, file);
+        archive.add(summaryOf(tx1, 10), tx1);
+        archive.add(summaryOf(tx2, 20), tx2);
+        archive.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 10);
+        raf.close();
+
+        archive = new FileTransactionArchive(PARAMS, file);
+        assertEquals(1, archive.getSummaries().size());
+        assertNull(archive.get(tx2.getHash()));
+        // Appending continues after the last complete record.
+        archive.add(summaryOf(tx2, 20), tx2);
+        archive.close();
+        archive = new FileTransactionArchive(PARAMS, file);
+        assertEquals(tx2, archive.get(tx2.getHash()));
+        archive.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void notAnArchive() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(new byte[] {1, 2, 3, 4, 5});
+        raf.close();
+        new FileTransactionArchive(PARAMS, file);
+    }
+}
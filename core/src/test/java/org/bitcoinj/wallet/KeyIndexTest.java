@@ -0,0 +1,86 @@
+/*
+ * Copyright by the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.ECKey;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KeyIndexTest {
+    @Test
+    public void addFindRemove() {
+        KeyIndex index = new KeyIndex();
+        List<ECKey> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ECKey key = new ECKey();
+            keys.add(key);
+            index.add(key);
+        }
+        assertEquals(200, index.size());
+        assertEquals(keys, Lists.newArrayList(index.keys()));
+
+        // Remove every third key, the rest must still be reachable through both tables.
+        for (int i = 0; i < keys.size(); i += 3)
+            assertSame(keys.get(i), index.remove(keys.get(i)));
+        for (int i = 0; i < keys.size(); i++) {
+            ECKey key = keys.get(i);
+            ECKey expected = i % 3 == 0 ? null : key;
+            assertSame(expected, index.findByHash(key.getPubKeyHash(), 0, 20));
+            assertSame(expected, index.findByPubKey(key.getPubKey(), 0, key.getPubKey().length));
+        }
+        assertEquals(133, index.size());
+        assertSame(keys.get(1), index.first());
+        assertNull(index.remove(keys.get(0)));
+    }
+
+    @Test
+    public void findBySlice() {
+        KeyIndex index = new KeyIndex();
+        ECKey key = new ECKey();
+        index.add(key);
+        byte[] script = new byte[25];
+        System.arraycopy(key.getPubKeyHash(), 0, script, 3, 20);
+        assertSame(key, index.findByHash(script, 3, 20));
+        assertNull(index.findByHash(script, 2, 20));
+        assertNull(index.findByHash(script, 3, 19));
+    }
+
+    @Test
+    public void reAddedKeyMovesToEnd() {
+        KeyIndex index = new KeyIndex();
+        ECKey key1 = new ECKey();
+        ECKey key2 = new ECKey();
+        index.add(key1);
+        index.add(key2);
+        index.remove(key1);
+        index.add(key1);
+        assertEquals(Lists.newArrayList(key2, key1), Lists.newArrayList(index.keys()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void duplicate() {
+        KeyIndex index = new KeyIndex();
+        ECKey key = new ECKey();
+        index.add(key);
+        index.add(ECKey.fromPublicOnly(key.getPubKey()));
+    }
+}
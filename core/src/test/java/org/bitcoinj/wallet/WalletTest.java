@@ -55,6 +55,7 @@ import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener;
 import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener;
 import org.easymock.EasyMock;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -3239,6 +3240,147 @@ public class WalletTest extends TestWithWallet {
         assertFalse(notification2);
     }
 
+    @Test
+    public void blockRelevanceFilter() throws Exception {
+        Transaction received = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        List<Transaction> txns = new ArrayList<>();
+        for (int i = 0; i < Wallet.MIN_TRANSACTIONS_FOR_RELEVANCE_FILTER * 2; i++)
+            txns.add(createFakeTx(PARAMS, COIN, OTHER_ADDRESS));
+        Transaction toMe = createFakeTx(PARAMS, CENT, myAddress);
+        Transaction spend = new Transaction(PARAMS);
+        spend.addInput(received.getOutput(0));
+        spend.addOutput(COIN, OTHER_ADDRESS);
+        Transaction doubleSpend = new Transaction(PARAMS);
+        doubleSpend.addInput(new TransactionInput(PARAMS, doubleSpend, new byte[] {}, received.getInput(0).getOutpoint()));
+        doubleSpend.addOutput(COIN, OTHER_ADDRESS);
+        txns.add(10, toMe);
+        txns.add(20, spend);
+        txns.add(30, doubleSpend);
+
+        Predicate<Transaction> filter = wallet.getBlockRelevanceFilter(txns);
+        for (Transaction tx : txns)
+            assertEquals(tx == toMe || tx == spend || tx == doubleSpend, filter.apply(tx));
+
+        // Once the wallet changes, the filter can't rule anything out any more.
+        StoredBlock block = createFakeBlock(blockStore, Block.BLOCK_HEIGHT_GENESIS, toMe).storedBlock;
+        wallet.receiveFromBlock(toMe, block, AbstractBlockChain.NewBlockType.BEST_CHAIN, 0);
+        assertTrue(filter.apply(txns.get(0)));
+        assertFalse(wallet.getBlockRelevanceFilter(txns).apply(txns.get(0)));
+
+        // Small blocks aren't pre-filtered.
+        assertTrue(wallet.getBlockRelevanceFilter(txns.subList(0, 5)).apply(txns.get(0)));
+
+        // Neither can it once a key is imported, and the next filter picks up payments to that key.
+        filter = wallet.getBlockRelevanceFilter(txns);
+        ECKey key = new ECKey();
+        wallet.importKey(key);
+        assertTrue(filter.apply(txns.get(0)));
+        Transaction toKey = createFakeTx(PARAMS, CENT, key.toAddress(PARAMS));
+        txns.add(40, toKey);
+        filter = wallet.getBlockRelevanceFilter(txns);
+        assertTrue(filter.apply(toKey));
+        assertFalse(filter.apply(txns.get(0)));
+    }
+
+    @Test
+    public void doubleSpendOfForeignOutpoint() throws Exception {
+        // A pending payment to us spends an outpoint we know nothing about.
+        Transaction pending = createFakeTx(PARAMS, COIN, myAddress);
+        wallet.receivePending(pending, null);
+        for (int i = 0; i < 10; i++)
+            wallet.receivePending(createFakeTx(PARAMS, CENT, myAddress), null);
+        // A transaction spending the same outpoint is relevant only because it conflicts with the pending one.
+        Transaction doubleSpend = new Transaction(PARAMS);
+        doubleSpend.addInput(new TransactionInput(PARAMS, doubleSpend, new byte[] {}, pending.getInput(0).getOutpoint()));
+        doubleSpend.addOutput(COIN, OTHER_ADDRESS);
+        assertTrue(wallet.isTransactionRelevant(doubleSpend));
+        wallet.receivePending(doubleSpend, null);
+        assertEquals(TransactionConfidence.ConfidenceType.IN_CONFLICT,
+                pending.getConfidence().getConfidenceType());
+
+        // Once the wallet forgets the pending transaction, so does the outpoint index.
+        wallet.reset();
+        assertFalse(wallet.isTransactionRelevant(doubleSpend));
+    }
+
+    @Test
+    public void archiveSpentTransactions() throws Exception {
+        File file = File.createTempFile("bitcoinj-unit-test", null);
+        file.deleteOnExit();
+        FileTransactionArchive archive = new FileTransactionArchive(PARAMS, file);
+        wallet.setTransactionArchive(archive);
+        Transaction received = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        Transaction send = wallet.createSend(OTHER_ADDRESS, CENT);
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, send);
+        Coin balance = wallet.getBalance();
+        // Nothing happens until the spend is buried deeper than the event horizon.
+        for (int i = 0; i < 99; i++)
+            wallet.notifyNewBestBlock(createFakeBlock(blockStore, Block.BLOCK_HEIGHT_GENESIS).storedBlock);
+        assertTrue(wallet.getArchivedTransactions().isEmpty());
+        wallet.notifyNewBestBlock(createFakeBlock(blockStore, Block.BLOCK_HEIGHT_GENESIS).storedBlock);
+
+        // The received transaction is gone, the spend still has unspent change and stays.
+        List<ArchivedTransaction> archived = wallet.getArchivedTransactions();
+        assertEquals(1, archived.size());
+        assertEquals(received.getHash(), archived.get(0).getHash());
+        assertEquals(COIN, archived.get(0).getValue());
+        assertEquals(Collections.singleton(send), wallet.getTransactions(true));
+        assertEquals(balance, wallet.getBalance());
+        assertTrue(wallet.isConsistent());
+        assertEquals(received.getHash(), wallet.getTransaction(received.getHash()).getHash());
+        assertFalse(wallet.isTransactionRelevant(received));
+
+        // The archive isn't saved with the wallet, it is attached again after loading.
+        Wallet wallet2 = roundTrip(wallet);
+        FileTransactionArchive archive2 = new FileTransactionArchive(PARAMS, file);
+        wallet2.setTransactionArchive(archive2);
+        assertEquals(archived, wallet2.getArchivedTransactions());
+        assertEquals(balance, wallet2.getBalance());
+        assertTrue(wallet2.isConsistent());
+        archive.close();
+        archive2.close();
+    }
+
+    @Test
+    public void archiveSpentTransactionsOnceSpendersAreBuried() throws Exception {
+        File file = File.createTempFile("bitcoinj-unit-test", null);
+        file.deleteOnExit();
+        FileTransactionArchive archive = new FileTransactionArchive(PARAMS, file);
+        // Transactions that were buried before the archive was set are archived with the next block.
+        Transaction received = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        SendRequest req = SendRequest.emptyWallet(OTHER_ADDRESS);
+        wallet.completeTx(req);
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, req.tx);
+        for (int i = 0; i < 101; i++)
+            wallet.notifyNewBestBlock(createFakeBlock(blockStore, Block.BLOCK_HEIGHT_GENESIS).storedBlock);
+        wallet.setTransactionArchive(archive);
+        assertTrue(wallet.getArchivedTransactions().isEmpty());
+        wallet.notifyNewBestBlock(createFakeBlock(blockStore, Block.BLOCK_HEIGHT_GENESIS).storedBlock);
+        List<ArchivedTransaction> archived = wallet.getArchivedTransactions();
+        assertEquals(2, archived.size());
+        assertEquals(received.getHash(), archived.get(0).getHash());
+        assertEquals(req.tx.getHash(), archived.get(1).getHash());
+        assertTrue(wallet.getTransactions(true).isEmpty());
+
+        // Afterwards only the transactions that just got buried deep enough are looked at. The one received is
+        // buried first, but has to wait for the one spending it.
+        Transaction received2 = sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN);
+        req = SendRequest.emptyWallet(OTHER_ADDRESS);
+        wallet.completeTx(req);
+        sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, req.tx);
+        for (int i = 0; i < 99; i++)
+            wallet.notifyNewBestBlock(createFakeBlock(blockStore, Block.BLOCK_HEIGHT_GENESIS).storedBlock);
+        assertEquals(2, wallet.getArchivedTransactions().size());
+        wallet.notifyNewBestBlock(createFakeBlock(blockStore, Block.BLOCK_HEIGHT_GENESIS).storedBlock);
+        archived = wallet.getArchivedTransactions();
+        assertEquals(4, archived.size());
+        assertEquals(received2.getHash(), archived.get(2).getHash());
+        assertEquals(req.tx.getHash(), archived.get(3).getHash());
+        assertTrue(wallet.getTransactions(true).isEmpty());
+        assertTrue(wallet.isConsistent());
+        archive.close();
+    }
+
     @Test
     public void duplicatedBlock() {
         final Transaction tx = createFakeTx(PARAMS, COIN, myAddress);
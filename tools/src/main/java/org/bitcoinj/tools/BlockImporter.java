@@ -20,14 +20,17 @@ import org.bitcoinj.core.*;
 import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.params.TestNet3Params;
 import org.bitcoinj.store.*;
+import org.bitcoinj.utils.BlockFileImporter;
 import org.bitcoinj.utils.BlockFileLoader;
 import com.google.common.base.Preconditions;
 
 import java.io.File;
+import java.io.IOException;
 
-/** Very thin wrapper around {@link org.bitcoinj.utils.BlockFileLoader} */
+/** Very thin wrapper around {@link org.bitcoinj.utils.BlockFileImporter} */
 public class BlockImporter {
-    public static void main(String[] args) throws BlockStoreException, VerificationException, PrunedException {
+    public static void main(String[] args) throws BlockStoreException, VerificationException, PrunedException,
+            IOException {
         System.out.println("USAGE: BlockImporter (prod|test) (H2|Disk|MemFull|Mem|SPV) [blockStore]");
         System.out.println("       blockStore is required unless type is Mem or MemFull");
         System.out.println("       eg BlockImporter prod H2 /home/user/bitcoinj.h2store");
@@ -64,9 +67,8 @@ public class BlockImporter {
         else
             chain = new BlockChain(params, store);
         
-        BlockFileLoader loader = new BlockFileLoader(params, BlockFileLoader.getReferenceClientBlockFileList());
-        
-        for (Block block : loader)
-            chain.add(block);
+        BlockFileImporter importer = new BlockFileImporter(params, BlockFileLoader.getReferenceClientBlockFileList());
+        int added = importer.importInto(chain);
+        System.out.println("Imported " + added + " blocks, chain height is now " + chain.getBestChainHeight());
     }
 }
@@ -24,6 +24,7 @@ import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.params.RegTestParams;
 import org.bitcoinj.params.TestNet3Params;
 import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.HeaderSnapshot;
 import org.bitcoinj.store.MemoryBlockStore;
 import org.bitcoinj.utils.BriefLogFormatter;
 import org.bitcoinj.utils.Threading;
@@ -66,6 +67,7 @@ public class BuildCheckpoints {
         OptionSpec<NetworkEnum> netFlag = parser.accepts("net").withRequiredArg().ofType(NetworkEnum.class).defaultsTo(NetworkEnum.MAIN);
         parser.accepts("peer").withRequiredArg();
         OptionSpec<Integer> daysFlag = parser.accepts("days").withRequiredArg().ofType(Integer.class).defaultsTo(30);
+        OptionSpec<Integer> snapshotFlag = parser.accepts("snapshot").withRequiredArg().ofType(Integer.class);
         OptionSet options = parser.parse(args);
 
         if (options.has("help")) {
@@ -163,6 +165,14 @@ public class BuildCheckpoints {
         writeBinaryCheckpoints(checkpoints, plainFile);
         writeTextualCheckpoints(checkpoints, textFile);
 
+        if (options.has(snapshotFlag)) {
+            final File snapshotFile = new File("headers" + suffix);
+            try (FileOutputStream stream = new FileOutputStream(snapshotFile)) {
+                Sha256Hash hash = HeaderSnapshot.write(store, options.valueOf(snapshotFlag), stream);
+                System.out.println("Header snapshot written to '" + snapshotFile.getCanonicalPath() + "', hash " + hash);
+            }
+        }
+
         peerGroup.stop();
         store.close();
 